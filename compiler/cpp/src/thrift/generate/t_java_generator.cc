@@ -49,6 +49,23 @@ static const string endl = "\n"; // avoid ostream << std::endl flushes
 
 static const string thrift_option_class = "org.apache.thrift.Option";
 static const string jdk_option_class = "java.util.Optional";
+static const string raw_value_class = "org.apache.thrift.protocol.TRawValue";
+
+/**
+ * The type of a field annotated with java.raw under the raw_fields option. It is generated as a
+ * TRawValue, which holds the value as the bytes it was read in, while on the wire the field is still
+ * the struct, list, set or map it was declared as.
+ */
+class t_java_raw_type : public t_type {
+public:
+  t_java_raw_type(t_type* wire_type)
+    : t_type(wire_type->get_program(), "TRawValue"), wire_type_(wire_type) {}
+
+  t_type* get_wire_type() const { return wire_type_; }
+
+private:
+  t_type* wire_type_;
+};
 
 /**
  * Java code generator.
@@ -79,6 +96,8 @@ public:
     suppress_generated_annotations_ = false;
     rethrow_unhandled_exceptions_ = false;
     unsafe_binaries_ = false;
+    primitive_collections_ = false;
+    raw_fields_ = false;
     annotations_as_metadata_ = false;
     jakarta_annotations_ = false;
     for (iter = parsed_options.begin(); iter != parsed_options.end(); ++iter) {
@@ -127,6 +146,10 @@ public:
         }
       } else if (iter->first.compare("unsafe_binaries") == 0) {
         unsafe_binaries_ = true;
+      } else if (iter->first.compare("primitive_collections") == 0) {
+        primitive_collections_ = true;
+      } else if (iter->first.compare("raw_fields") == 0) {
+        raw_fields_ = true;
       } else if (iter->first.compare("annotations_as_metadata") == 0) {
         annotations_as_metadata_ = true;
       } else if (iter->first.compare("jakarta_annotations") == 0) {
@@ -389,9 +412,13 @@ public:
     ttype = get_true_type(ttype);
 
     return ttype->is_container() || ttype->is_struct() || ttype->is_xception() || ttype->is_string()
-           || ttype->is_uuid() || ttype->is_enum();
+           || ttype->is_uuid() || ttype->is_enum() || is_raw_type(ttype);
   }
 
+  bool is_raw_type(t_type* ttype) { return dynamic_cast<t_java_raw_type*>(ttype) != nullptr; }
+
+  void use_raw_types(t_struct* tstruct);
+
   bool is_deprecated(const std::map<std::string, std::vector<std::string>>& annotations) {
     return annotations.find("deprecated") != annotations.end();
   }
@@ -412,6 +439,39 @@ public:
     return false;
   }
 
+  /**
+   * The runtime class that holds the elements of a list or set without boxing them, if the
+   * primitive_collections option covers it; otherwise an empty string.
+   */
+  std::string primitive_collection_name(t_type* ttype) {
+    if (!primitive_collections_) {
+      return "";
+    }
+    ttype = get_true_type(ttype);
+    t_type* elem_type;
+    if (ttype->is_list()) {
+      elem_type = get_true_type(((t_list*)ttype)->get_elem_type());
+    } else if (ttype->is_set() && !sorted_containers_) {
+      elem_type = get_true_type(((t_set*)ttype)->get_elem_type());
+    } else {
+      return "";
+    }
+    if (!elem_type->is_base_type()) {
+      return "";
+    }
+    std::string kind = ttype->is_list() ? "List" : "Set";
+    switch (((t_base_type*)elem_type)->get_base()) {
+    case t_base_type::TYPE_I32:
+      return "org.apache.thrift.TInt" + kind;
+    case t_base_type::TYPE_I64:
+      return "org.apache.thrift.TLong" + kind;
+    case t_base_type::TYPE_DOUBLE:
+      return ttype->is_list() ? "org.apache.thrift.TDoubleList" : "";
+    default:
+      return "";
+    }
+  }
+
   bool is_enum_map(t_type* ttype) {
     if (!sorted_containers_) {
       ttype = get_true_type(ttype);
@@ -477,6 +537,8 @@ private:
   bool suppress_generated_annotations_;
   bool rethrow_unhandled_exceptions_;
   bool unsafe_binaries_;
+  bool primitive_collections_;
+  bool raw_fields_;
   bool annotations_as_metadata_;
   bool jakarta_annotations_;
 };
@@ -506,6 +568,41 @@ void t_java_generator::init_generator() {
   }
 
   package_dir_ = subdir;
+
+  if (raw_fields_) {
+    for (auto tstruct : program_->get_objects()) {
+      use_raw_types(tstruct);
+    }
+    for (auto tservice : program_->get_services()) {
+      for (auto tfunction : tservice->get_functions()) {
+        use_raw_types(tfunction->get_arglist());
+      }
+    }
+  }
+}
+
+/**
+ * Gives the fields of a struct that are annotated with java.raw the type that is generated as a
+ * TRawValue, wherever they are used.
+ */
+void t_java_generator::use_raw_types(t_struct* tstruct) {
+  for (auto field : tstruct->get_members()) {
+    if (field->annotations_.find("java.raw") == field->annotations_.end()) {
+      continue;
+    }
+    string name = tstruct->get_name() + "." + field->get_name();
+    t_type* type = get_true_type(field->get_type());
+    if (!type->is_struct() && !type->is_xception() && !type->is_container()) {
+      throw "java.raw is only supported on struct, list, set and map fields: " + name;
+    }
+    if (tstruct->is_union()) {
+      throw "java.raw is not supported on the fields of unions: " + name;
+    }
+    if (field->get_value() != nullptr) {
+      throw "java.raw fields can't have default values: " + name;
+    }
+    field->set_type(new t_java_raw_type(type));
+  }
 }
 
 /**
@@ -1848,7 +1945,9 @@ void t_java_generator::generate_java_struct_parcelable(ostream& out, t_struct* t
     t_type* t = get_true_type((*m_iter)->get_type());
     string name = (*m_iter)->get_name();
 
-    if (t->is_struct()) {
+    if (is_raw_type(t)) {
+      indent(out) << "out.writeSerializable(" << name << ");" << endl;
+    } else if (t->is_struct()) {
       indent(out) << "out.writeParcelable(" << name << ", flags);" << endl;
     } else if (type_name(t) == "float") {
       indent(out) << "out.writeFloat(" << name << ");" << endl;
@@ -1947,7 +2046,9 @@ void t_java_generator::generate_java_struct_parcelable(ostream& out, t_struct* t
     string name = (*m_iter)->get_name();
     string prefix = "this." + name;
 
-    if (t->is_struct()) {
+    if (is_raw_type(t)) {
+      indent(out) << prefix << " = (" << raw_value_class << ") in.readSerializable();" << endl;
+    } else if (t->is_struct()) {
       indent(out) << prefix << "= in.readParcelable(" << tname << ".class.getClassLoader());"
                   << endl;
     } else if (t->is_enum()) {
@@ -2971,7 +3072,9 @@ void t_java_generator::generate_java_meta_data_map(ostream& out, t_struct* tstru
  * (e.g. for the type struct it returns "org.apache.thrift.protocol.TType.STRUCT")
  */
 std::string t_java_generator::get_java_type_string(t_type* type) {
-  if (type->is_list()) {
+  if (is_raw_type(type)) {
+    return get_java_type_string(((t_java_raw_type*)type)->get_wire_type());
+  } else if (type->is_list()) {
     return "org.apache.thrift.protocol.TType.LIST";
   } else if (type->is_map()) {
     return "org.apache.thrift.protocol.TType.MAP";
@@ -4141,7 +4244,9 @@ void t_java_generator::generate_deserialize_field(ostream& out,
 
   string name = prefix + make_valid_java_identifier(tfield->get_name());
 
-  if (type->is_struct() || type->is_xception()) {
+  if (is_raw_type(type)) {
+    indent(out) << name << " = iprot.readRawValue(" << type_to_enum(type) << ");" << endl;
+  } else if (type->is_struct() || type->is_xception()) {
     generate_deserialize_struct(out, (t_struct*)type, name);
   } else if (type->is_container()) {
     generate_deserialize_container(out, type, name, has_metadata);
@@ -4272,7 +4377,10 @@ void t_java_generator::generate_deserialize_container(ostream& out,
   }
 
   // construct the collection correctly i.e. with appropriate size/type
-  if (is_enum_set(ttype) || is_enum_map(ttype)) {
+  string primitive_collection = primitive_collection_name(ttype);
+  if (!primitive_collection.empty()) {
+    out << "(" << obj << ".size);" << endl;
+  } else if (is_enum_set(ttype) || is_enum_map(ttype)) {
     out << "(" << inner_enum_type_name(ttype) << ");" << endl;
   } else if (sorted_containers_ && (ttype->is_map() || ttype->is_set())) {
     // TreeSet and TreeMap don't have any constructor which takes a capacity as an argument
@@ -4287,7 +4395,11 @@ void t_java_generator::generate_deserialize_container(ostream& out,
     indent(out) << "}" << endl;
   }
 
-  if (ttype->is_map()) {
+  if (!primitive_collection.empty()) {
+    // the elements are read in bulk rather than one at a time
+    indent(out) << primitive_collection << ".read(iprot, " << obj << ".size, " << prefix << ");"
+                << endl;
+  } else if (ttype->is_map()) {
     generate_deserialize_map_element(out, (t_map*)ttype, prefix, obj, has_metadata);
   } else if (ttype->is_set()) {
     generate_deserialize_set_element(out, (t_set*)ttype, prefix, obj, has_metadata);
@@ -4295,7 +4407,10 @@ void t_java_generator::generate_deserialize_container(ostream& out,
     generate_deserialize_list_element(out, (t_list*)ttype, prefix, obj, has_metadata);
   }
 
-  scope_down(out);
+  if (primitive_collection.empty()) {
+    // close the loop over the elements
+    scope_down(out);
+  }
 
   if (has_metadata) {
     // Read container end
@@ -4450,7 +4565,10 @@ void t_java_generator::generate_serialize_field(ostream& out,
     throw "CANNOT GENERATE SERIALIZE CODE FOR void TYPE: " + prefix + tfield->get_name() + postfix;
   }
 
-  if (type->is_struct() || type->is_xception()) {
+  if (is_raw_type(type)) {
+    indent(out) << "oprot.writeRawValue(" << prefix + make_valid_java_identifier(tfield->get_name()) + postfix
+                << ");" << endl;
+  } else if (type->is_struct() || type->is_xception()) {
     generate_serialize_struct(out, (t_struct*)type, prefix + make_valid_java_identifier(tfield->get_name()) + postfix);
   } else if (type->is_container()) {
     generate_serialize_container(out, type, prefix + make_valid_java_identifier(tfield->get_name()) + postfix, has_metadata);
@@ -4549,30 +4667,36 @@ void t_java_generator::generate_serialize_container(ostream& out,
     indent(out) << "oprot.writeI32(" << prefix << ".size());" << endl;
   }
 
+  string primitive_collection = primitive_collection_name(ttype);
   string iter = tmp("_iter");
-  if (ttype->is_map()) {
-    indent(out) << "for (java.util.Map.Entry<"
-                << type_name(((t_map*)ttype)->get_key_type(), true, false) << ", "
-                << type_name(((t_map*)ttype)->get_val_type(), true, false) << "> " << iter << " : "
-                << prefix << ".entrySet())";
-  } else if (ttype->is_set()) {
-    indent(out) << "for (" << type_name(((t_set*)ttype)->get_elem_type()) << " " << iter << " : "
-                << prefix << ")";
-  } else if (ttype->is_list()) {
-    indent(out) << "for (" << type_name(((t_list*)ttype)->get_elem_type()) << " " << iter << " : "
-                << prefix << ")";
-  }
+  if (!primitive_collection.empty()) {
+    // the elements are written in bulk rather than one at a time
+    indent(out) << primitive_collection << ".write(oprot, " << prefix << ");" << endl;
+  } else {
+    if (ttype->is_map()) {
+      indent(out) << "for (java.util.Map.Entry<"
+                  << type_name(((t_map*)ttype)->get_key_type(), true, false) << ", "
+                  << type_name(((t_map*)ttype)->get_val_type(), true, false) << "> " << iter << " : "
+                  << prefix << ".entrySet())";
+    } else if (ttype->is_set()) {
+      indent(out) << "for (" << type_name(((t_set*)ttype)->get_elem_type()) << " " << iter << " : "
+                  << prefix << ")";
+    } else if (ttype->is_list()) {
+      indent(out) << "for (" << type_name(((t_list*)ttype)->get_elem_type()) << " " << iter << " : "
+                  << prefix << ")";
+    }
 
-  out << endl;
-  scope_up(out);
-  if (ttype->is_map()) {
-    generate_serialize_map_element(out, (t_map*)ttype, iter, prefix, has_metadata);
-  } else if (ttype->is_set()) {
-    generate_serialize_set_element(out, (t_set*)ttype, iter, has_metadata);
-  } else if (ttype->is_list()) {
-    generate_serialize_list_element(out, (t_list*)ttype, iter, has_metadata);
+    out << endl;
+    scope_up(out);
+    if (ttype->is_map()) {
+      generate_serialize_map_element(out, (t_map*)ttype, iter, prefix, has_metadata);
+    } else if (ttype->is_set()) {
+      generate_serialize_set_element(out, (t_set*)ttype, iter, has_metadata);
+    } else if (ttype->is_list()) {
+      generate_serialize_list_element(out, (t_list*)ttype, iter, has_metadata);
+    }
+    scope_down(out);
   }
-  scope_down(out);
 
   if (has_metadata) {
     if (ttype->is_map()) {
@@ -4640,6 +4764,10 @@ string t_java_generator::type_name(t_type* ttype,
   ttype = get_true_type(ttype);
   string prefix;
 
+  if (is_raw_type(ttype)) {
+    return raw_value_class;
+  }
+
   if (ttype->is_base_type()) {
     return base_type_name((t_base_type*)ttype, in_container);
   } else if (ttype->is_map()) {
@@ -4662,7 +4790,10 @@ string t_java_generator::type_name(t_type* ttype,
   } else if (ttype->is_set()) {
     t_set* tset = (t_set*)ttype;
     if (in_init) {
-      if (is_enum_set(tset)) {
+      string primitive_collection = primitive_collection_name(tset);
+      if (!primitive_collection.empty()) {
+        return primitive_collection;
+      } else if (is_enum_set(tset)) {
         prefix = "java.util.EnumSet";
       } else if (sorted_containers_) {
         prefix = "java.util.TreeSet";
@@ -4676,6 +4807,10 @@ string t_java_generator::type_name(t_type* ttype,
   } else if (ttype->is_list()) {
     t_list* tlist = (t_list*)ttype;
     if (in_init) {
+      string primitive_collection = primitive_collection_name(tlist);
+      if (!primitive_collection.empty()) {
+        return primitive_collection;
+      }
       prefix = "java.util.ArrayList";
     } else {
       prefix = "java.util.List";
@@ -4774,7 +4909,7 @@ string t_java_generator::declare_field(t_field* tfield, bool init, bool comment)
       default:
         throw "compiler error: unhandled type";
       }
-    } else if (ttype->is_enum()) {
+    } else if (ttype->is_enum() || is_raw_type(ttype)) {
       result += " = null";
     } else if (ttype->is_container()) {
       result += " = new " + type_name(ttype, false, true) + "()";
@@ -4931,6 +5066,10 @@ string t_java_generator::async_argument_list(t_function* tfunct,
 string t_java_generator::type_to_enum(t_type* type) {
   type = get_true_type(type);
 
+  if (is_raw_type(type)) {
+    return type_to_enum(((t_java_raw_type*)type)->get_wire_type());
+  }
+
   if (type->is_base_type()) {
     t_base_type::t_base tbase = ((t_base_type*)type)->get_base();
     switch (tbase) {
@@ -5232,7 +5371,7 @@ void t_java_generator::generate_deep_copy_non_container(ostream& out,
                                                         t_type* type) {
   (void)dest_name;
   type = get_true_type(type);
-  if (type->is_base_type() || type->is_enum() || type->is_typedef()) {
+  if (type->is_base_type() || type->is_enum() || type->is_typedef() || is_raw_type(type)) {
     if (type->is_binary()) {
       out << "org.apache.thrift.TBaseHelper.copyBinary(" << source_name << ")";
     } else {
@@ -5891,6 +6030,11 @@ THRIFT_REGISTER_GENERATOR(
     "                     undated: suppress the date at @Generated annotations\n"
     "                     suppress: suppress @Generated annotations entirely\n"
     "    unsafe_binaries: Do not copy ByteBuffers in constructors, getters, and setters.\n"
+    "    primitive_collections:\n"
+    "                     Keep lists of i32, i64 and double and unsorted sets of i32 and i64 in\n"
+    "                     primitive arrays, and read and write their elements in bulk.\n"
+    "    raw_fields:      Struct, list, set and map fields annotated with java.raw are kept as the\n"
+    "                     bytes they were read in, in a TRawValue, and written out as they are.\n"
     "    jakarta_annotations: generate jakarta annotations (javax by default)\n"
     "    annotations_as_metadata:\n"
     "                     Include Thrift field annotations as metadata in the generated code.\n")
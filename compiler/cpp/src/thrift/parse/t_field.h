@@ -65,6 +65,8 @@ public:
 
   const t_type* get_type() const { return type_; }
 
+  void set_type(t_type* type) { type_ = type; }
+
   const std::string& get_name() const { return name_; }
 
   int32_t get_key() const { return key_; }
@@ -21,6 +21,7 @@ package org.apache.thrift;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /** Class that allows access to the underlying buf without doing deep copies on it. */
 public class TByteArrayOutputStream extends ByteArrayOutputStream {
@@ -51,6 +52,33 @@ public class TByteArrayOutputStream extends ByteArrayOutputStream {
     return count;
   }
 
+  /**
+   * Make room for len more bytes after the ones written so far, for them to be put straight into
+   * the buffer.
+   *
+   * @param len the number of bytes to make room for.
+   * @return the buffer, with at least len bytes available from {@link #len()} on.
+   */
+  public byte[] reserve(int len) {
+    if (len > buf.length - count) {
+      int needed = count + len;
+      if (needed < 0) {
+        throw new OutOfMemoryError();
+      }
+      buf = Arrays.copyOf(buf, Math.max(buf.length << 1, needed));
+    }
+    return buf;
+  }
+
+  /**
+   * Count len bytes put into the buffer after a call to {@link #reserve(int)} as written.
+   *
+   * @param len the number of bytes to count.
+   */
+  public void commit(int len) {
+    count += len;
+  }
+
   public String toString(Charset charset) {
     return new String(buf, 0, count, charset);
   }
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apache.thrift.partial.ThriftMetadata;
+import org.apache.thrift.partial.ThriftStructProcessor;
+import org.apache.thrift.partial.Validate;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+
+/**
+ * A thread-safe way to serialize and deserialize Thrift objects, for use in place of a {@link
+ * TSerializer} or {@link TDeserializer} made for every call or kept in a ThreadLocal.
+ *
+ * <p>A codec keeps a serializer and deserializer pair in each of a fixed number of stripes, and a
+ * thread takes the pair of the stripe its id falls in for as long as a call lasts. A thread that
+ * finds its stripe's pair taken uses a new pair, and only one of the two is kept afterwards, so at
+ * most one pair per stripe is ever retained. That holds for virtual threads too, which a
+ * ThreadLocal would give a pair each. A pair that a call fails with is dropped rather than reused,
+ * and a serializer whose buffer grew past the retained size limit is dropped after its call.
+ *
+ * <p>Partial deserialization is keyed by the {@link ThriftMetadata.ThriftStruct} describing the
+ * fields to read, which is compared by identity: make it once, as {@link
+ * ThriftMetadata.ThriftStruct#fromFieldNames} does, and pass the same instance to every call.
+ * Values are deserialized with a {@link ThriftStructProcessor}.
+ */
+public final class TCodec {
+
+  private static final int DEFAULT_MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  // the most partial deserialization configurations each stripe keeps a deserializer for
+  private static final int MAX_PARTIAL_CONFIGS = 16;
+
+  private final TProtocolFactory protocolFactory;
+  private final int maxRetainedBufferSize;
+  private final AtomicReferenceArray<Codec> stripes;
+  private final int mask;
+
+  /** Create a codec that uses the TBinaryProtocol. */
+  public TCodec() {
+    this(new TBinaryProtocol.Factory());
+  }
+
+  /**
+   * Create a codec with a stripe for every two processors, which keeps serialization buffers of up
+   * to 64KB.
+   *
+   * @param protocolFactory Factory to create a protocol
+   */
+  public TCodec(TProtocolFactory protocolFactory) {
+    this(
+        protocolFactory,
+        2 * Runtime.getRuntime().availableProcessors(),
+        DEFAULT_MAX_RETAINED_BUFFER_SIZE);
+  }
+
+  /**
+   * @param protocolFactory Factory to create a protocol
+   * @param stripes the number of serializer and deserializer pairs to keep, rounded up to a power
+   *     of two.
+   * @param maxRetainedBufferSize the largest serialization buffer that is kept for the next call; a
+   *     serializer whose buffer grew larger is left to the garbage collector.
+   */
+  public TCodec(TProtocolFactory protocolFactory, int stripes, int maxRetainedBufferSize) {
+    Validate.checkNotNull(protocolFactory, "protocolFactory");
+    if (stripes < 1 || stripes > 1 << 16) {
+      throw new IllegalArgumentException("stripes must be between 1 and " + (1 << 16));
+    }
+    if (maxRetainedBufferSize < 0) {
+      throw new IllegalArgumentException("maxRetainedBufferSize must not be negative");
+    }
+    this.protocolFactory = protocolFactory;
+    this.maxRetainedBufferSize = maxRetainedBufferSize;
+    int size = Integer.highestOneBit(stripes - 1) << 1;
+    this.stripes = new AtomicReferenceArray<>(Math.max(size, 1));
+    this.mask = this.stripes.length() - 1;
+  }
+
+  public TProtocolFactory getProtocolFactory() {
+    return protocolFactory;
+  }
+
+  /**
+   * Serialize the Thrift object into a byte array.
+   *
+   * @see TSerializer#serialize(TBase)
+   */
+  public byte[] serialize(TBase<?, ?> base) throws TException {
+    int stripe = stripe();
+    Codec codec = acquire(stripe);
+    byte[] bytes = codec.serializer().serialize(base);
+    codec.trimSerializer(maxRetainedBufferSize);
+    release(stripe, codec);
+    return bytes;
+  }
+
+  /**
+   * Serialize the Thrift object into a buffer, at its position.
+   *
+   * @see TSerializer#serializeTo(TBase, ByteBuffer)
+   */
+  public int serializeTo(TBase<?, ?> base, ByteBuffer buffer) throws TException {
+    int stripe = stripe();
+    Codec codec = acquire(stripe);
+    int length = codec.serializer().serializeTo(base, buffer);
+    release(stripe, codec);
+    return length;
+  }
+
+  /**
+   * Serialize the Thrift object into an array, from an offset on.
+   *
+   * @see TSerializer#serializeTo(TBase, byte[], int)
+   */
+  public int serializeTo(TBase<?, ?> base, byte[] bytes, int offset) throws TException {
+    int stripe = stripe();
+    Codec codec = acquire(stripe);
+    int length = codec.serializer().serializeTo(base, bytes, offset);
+    release(stripe, codec);
+    return length;
+  }
+
+  /**
+   * Count the bytes the Thrift object is serialized to.
+   *
+   * @see TSerializer#getSerializedSize(TBase)
+   */
+  public int getSerializedSize(TBase<?, ?> base) throws TException {
+    int stripe = stripe();
+    Codec codec = acquire(stripe);
+    int size = codec.serializer().getSerializedSize(base);
+    release(stripe, codec);
+    return size;
+  }
+
+  /**
+   * Deserialize the Thrift object from a byte array.
+   *
+   * @see TDeserializer#deserialize(TBase, byte[])
+   */
+  public void deserialize(TBase base, byte[] bytes) throws TException {
+    deserialize(base, bytes, 0, bytes.length);
+  }
+
+  /**
+   * Deserialize the Thrift object from part of a byte array.
+   *
+   * @see TDeserializer#deserialize(TBase, byte[], int, int)
+   */
+  public void deserialize(TBase base, byte[] bytes, int offset, int length) throws TException {
+    int stripe = stripe();
+    Codec codec = acquire(stripe);
+    codec.deserializer().deserialize(base, bytes, offset, length);
+    release(stripe, codec);
+  }
+
+  /**
+   * Deserialize the Thrift object from a buffer, at its position. Binary fields read from a heap
+   * buffer may be views into it; see {@link TDeserializer#deserialize(TBase, ByteBuffer)}.
+   *
+   * @see TDeserializer#deserialize(TBase, ByteBuffer)
+   */
+  public void deserialize(TBase base, ByteBuffer buffer) throws TException {
+    int stripe = stripe();
+    Codec codec = acquire(stripe);
+    codec.deserializer().deserialize(base, buffer);
+    release(stripe, codec);
+  }
+
+  /**
+   * Deserialize only the fields the metadata describes into the Thrift object.
+   *
+   * @param metadata the fields to deserialize; see the class comment.
+   * @see TDeserializer#partialDeserializeThriftObject(TBase, byte[], int, int)
+   */
+  public void partialDeserialize(
+      ThriftMetadata.ThriftStruct metadata, TBase base, byte[] bytes, int offset, int length)
+      throws TException {
+    Validate.checkNotNull(metadata, "metadata");
+    int stripe = stripe();
+    Codec codec = acquire(stripe);
+    codec.partialDeserializer(metadata).deserialize(base, bytes, offset, length);
+    release(stripe, codec);
+  }
+
+  /**
+   * Deserialize only the fields the metadata describes into the Thrift object, from a buffer at its
+   * position.
+   *
+   * @param metadata the fields to deserialize; see the class comment.
+   * @see TDeserializer#deserialize(TBase, ByteBuffer)
+   */
+  public void partialDeserialize(
+      ThriftMetadata.ThriftStruct metadata, TBase base, ByteBuffer buffer) throws TException {
+    Validate.checkNotNull(metadata, "metadata");
+    int stripe = stripe();
+    Codec codec = acquire(stripe);
+    codec.partialDeserializer(metadata).deserialize(base, buffer);
+    release(stripe, codec);
+  }
+
+  /**
+   * Deserialize only the fields the metadata describes into a new instance of the struct it
+   * describes.
+   *
+   * @param metadata the fields to deserialize; see the class comment.
+   * @return the deserialized instance.
+   * @see TDeserializer#partialDeserializeObject(byte[], int, int)
+   */
+  public Object partialDeserializeObject(
+      ThriftMetadata.ThriftStruct metadata, byte[] bytes, int offset, int length)
+      throws TException {
+    Validate.checkNotNull(metadata, "metadata");
+    int stripe = stripe();
+    Codec codec = acquire(stripe);
+    Object value =
+        codec.partialDeserializer(metadata).partialDeserializeObject(bytes, offset, length);
+    release(stripe, codec);
+    return value;
+  }
+
+  private int stripe() {
+    return (int) Thread.currentThread().getId() & mask;
+  }
+
+  private Codec acquire(int stripe) {
+    Codec codec = stripes.getAndSet(stripe, null);
+    return codec != null ? codec : new Codec(protocolFactory);
+  }
+
+  // Only called once a call has succeeded: a codec a call failed in may have been left midway
+  // through an object, so it is dropped instead.
+  private void release(int stripe, Codec codec) {
+    stripes.compareAndSet(stripe, null, codec);
+  }
+
+  /** A serializer and deserializer pair, and the partial deserializers that go with them. */
+  private static final class Codec {
+    private final TProtocolFactory protocolFactory;
+    private TSerializer serializer;
+    private TDeserializer deserializer;
+    private Map<ThriftMetadata.ThriftStruct, TDeserializer> partialDeserializers;
+
+    Codec(TProtocolFactory protocolFactory) {
+      this.protocolFactory = protocolFactory;
+    }
+
+    TSerializer serializer() throws TException {
+      if (serializer == null) {
+        serializer = new TSerializer(protocolFactory);
+      }
+      return serializer;
+    }
+
+    void trimSerializer(int maxRetainedBufferSize) {
+      if (serializer != null && serializer.getBufferCapacity() > maxRetainedBufferSize) {
+        serializer = null;
+      }
+    }
+
+    TDeserializer deserializer() throws TException {
+      if (deserializer == null) {
+        deserializer = new TDeserializer(protocolFactory);
+      }
+      return deserializer;
+    }
+
+    TDeserializer partialDeserializer(ThriftMetadata.ThriftStruct metadata) throws TException {
+      if (partialDeserializers == null) {
+        partialDeserializers = new IdentityHashMap<>();
+      }
+      TDeserializer partial = partialDeserializers.get(metadata);
+      if (partial == null) {
+        partial = new TDeserializer(metadata, new ThriftStructProcessor(), protocolFactory);
+        if (partialDeserializers.size() < MAX_PARTIAL_CONFIGS) {
+          partialDeserializers.put(metadata, partial);
+        }
+      }
+      return partial;
+    }
+  }
+}
@@ -38,14 +38,22 @@ import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.protocol.TProtocolUtil;
 import org.apache.thrift.protocol.TSet;
 import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TByteBuffer;
 import org.apache.thrift.transport.TMemoryInputTransport;
 import org.apache.thrift.transport.TTransportException;
 
 /** Generic utility for easily deserializing objects from a byte array or Java String. */
 public class TDeserializer {
+  private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+  private final TProtocolFactory protocolFactory_;
   private final TProtocol protocol_;
   private final TMemoryInputTransport trans_;
 
+  // Reads the caller's buffers, made the first time an object is deserialized from one.
+  private TByteBuffer bufferTrans_ = null;
+  private TProtocol bufferProtocol_ = null;
+
   // Metadata that describes fields to deserialize during partial deserialization.
   private ThriftMetadata.ThriftStruct metadata_ = null;
 
@@ -69,6 +77,7 @@ public class TDeserializer {
    * @throws TTransportException if there an error initializing the underlying transport.
    */
   public TDeserializer(TProtocolFactory protocolFactory) throws TTransportException {
+    protocolFactory_ = protocolFactory;
     trans_ = new TMemoryInputTransport(new TConfiguration());
     protocol_ = protocolFactory.getProtocol(trans_);
   }
@@ -98,6 +107,29 @@ public class TDeserializer {
     processor_ = processor;
   }
 
+  /**
+   * Construct a new TDeserializer that supports partial deserialization of the fields described by
+   * the given metadata, which may be shared with other deserializers.
+   *
+   * @param metadata the fields to deserialize, as made by {@link
+   *     ThriftMetadata.ThriftStruct#fromFieldNames}.
+   * @param processor the Processor that handles deserialized field values.
+   * @param protocolFactory the Factory to create a protocol.
+   */
+  public TDeserializer(
+      ThriftMetadata.ThriftStruct metadata,
+      ThriftFieldValueProcessor processor,
+      TProtocolFactory protocolFactory)
+      throws TTransportException {
+    this(protocolFactory);
+
+    Validate.checkNotNull(metadata, "metadata");
+    Validate.checkNotNull(processor, "processor");
+
+    metadata_ = metadata;
+    processor_ = processor;
+  }
+
   /**
    * Construct a new TDeserializer that supports partial deserialization that outputs {@code TBase}
    * instances.
@@ -157,6 +189,64 @@ public class TDeserializer {
     }
   }
 
+  /**
+   * Deserialize the Thrift object from the bytes of a buffer between its position and its limit,
+   * reading them where they are: heap and direct buffers alike are read without being copied.
+   * Partial deserialization reads direct and read-only buffers from a copy, though.
+   *
+   * <p>Unless the protocol factory was given {@link org.apache.thrift.protocol.BinaryPolicy#COPY},
+   * the binary fields read from a heap buffer are views into its array, as they are when reading
+   * from a byte array, and so are only valid for as long as the buffer's contents are left alone.
+   *
+   * @param base The object to read into
+   * @param buffer The buffer to read from. Its position is moved past the bytes the object was read
+   *     from; if it can't be read, the position is left where it was.
+   * @throws TException if an error is encountered during deserialization.
+   */
+  public void deserialize(TBase base, ByteBuffer buffer) throws TException {
+    if (this.isPartialDeserializationMode()) {
+      partialDeserialize(base, buffer);
+      return;
+    }
+    int start = buffer.position();
+    if (bufferProtocol_ == null) {
+      bufferTrans_ = new TByteBuffer(trans_.getConfiguration(), EMPTY_BUFFER);
+      bufferProtocol_ = protocolFactory_.getProtocol(bufferTrans_);
+    }
+    boolean read = false;
+    try {
+      bufferTrans_.reset(buffer);
+      base.read(bufferProtocol_);
+      read = true;
+    } finally {
+      if (!read) {
+        buffer.position(start);
+      }
+      // don't hold on to the caller's buffer
+      bufferTrans_.reset(EMPTY_BUFFER);
+      bufferProtocol_.reset();
+    }
+  }
+
+  private void partialDeserialize(TBase base, ByteBuffer buffer) throws TException {
+    byte[] bytes;
+    int offset;
+    if (buffer.hasArray()) {
+      bytes = buffer.array();
+      offset = buffer.arrayOffset() + buffer.position();
+    } else {
+      bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      offset = 0;
+    }
+    try {
+      partialDeserializeThriftObject(base, bytes, offset, buffer.remaining());
+      buffer.position(buffer.position() + trans_.getBufferPosition() - offset);
+    } finally {
+      trans_.clear();
+    }
+  }
+
   /**
    * Deserialize the Thrift object from a Java string, using a specified character set for decoding.
    *
@@ -507,7 +597,12 @@ public class TDeserializer {
 
     this.trans_.reset(bytes, offset, length);
     this.protocol_.reset();
-    return this.deserializeStruct(instance, this.metadata_);
+    try {
+      return this.deserializeStruct(instance, this.metadata_);
+    } finally {
+      // don't hold on to the caller's bytes
+      this.trans_.clear();
+    }
   }
 
   private Object deserialize(ThriftMetadata.ThriftObject data) throws TException {
@@ -715,7 +810,8 @@ public class TDeserializer {
   private void ensurePartialDeserializationMode() throws IllegalStateException {
     if (!this.isPartialDeserializationMode()) {
       throw new IllegalStateException(
-          "Members metadata and processor must be correctly initialized in order to use this method");
+          "Members metadata and processor must be correctly initialized in order to use this"
+              + " method");
     }
   }
 
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+import org.apache.thrift.protocol.TProtocol;
+
+/**
+ * List of doubles backed by a double[], which generated code uses for double lists when the
+ * primitive_collections option is on. It is a {@code java.util.List<Double>} like any other, but
+ * holds its elements without boxing them and is read and written with the bulk array methods of
+ * {@link TProtocol}; the double accessors avoid boxing on the way in and out too.
+ */
+public final class TDoubleList extends AbstractList<Double> implements RandomAccess {
+
+  private static final double[] EMPTY = {};
+
+  private double[] elements;
+  private int size;
+
+  public TDoubleList() {
+    elements = EMPTY;
+  }
+
+  public TDoubleList(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Negative capacity " + capacity);
+    }
+    elements = capacity == 0 ? EMPTY : new double[capacity];
+  }
+
+  public TDoubleList(Collection<? extends Double> c) {
+    if (c instanceof TDoubleList) {
+      TDoubleList other = (TDoubleList) c;
+      elements = Arrays.copyOf(other.elements, other.size);
+      size = other.size;
+    } else {
+      elements = new double[c.size()];
+      for (Double e : c) {
+        addDouble(e);
+      }
+    }
+  }
+
+  /**
+   * Read count doubles, such as the elements of a list whose header has been read, and add them to
+   * a collection; in bulk if it is a TDoubleList.
+   *
+   * @param iprot the protocol to read from.
+   * @param count the number of elements to read.
+   * @param dst the collection to add them to.
+   * @throws TException if the protocol fails to read them.
+   */
+  public static void read(TProtocol iprot, int count, Collection<Double> dst) throws TException {
+    if (dst instanceof TDoubleList) {
+      TDoubleList list = (TDoubleList) dst;
+      list.ensureCapacity(list.size + count);
+      iprot.readDoubleArray(list.elements, list.size, count);
+      list.size += count;
+      list.modCount++;
+    } else {
+      for (int i = 0; i < count; i++) {
+        dst.add(iprot.readDouble());
+      }
+    }
+  }
+
+  /**
+   * Write the elements of a collection, such as a list whose header has been written; in bulk if it
+   * is a TDoubleList.
+   *
+   * @param oprot the protocol to write to.
+   * @param src the collection to write.
+   * @throws TException if the protocol fails to write them.
+   */
+  public static void write(TProtocol oprot, Collection<Double> src) throws TException {
+    if (src instanceof TDoubleList) {
+      TDoubleList list = (TDoubleList) src;
+      oprot.writeDoubleArray(list.elements, 0, list.size);
+    } else {
+      for (Double e : src) {
+        oprot.writeDouble(e);
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Double get(int index) {
+    return getDouble(index);
+  }
+
+  public double getDouble(int index) {
+    checkIndex(index);
+    return elements[index];
+  }
+
+  @Override
+  public Double set(int index, Double element) {
+    return setDouble(index, element);
+  }
+
+  public double setDouble(int index, double element) {
+    checkIndex(index);
+    double previous = elements[index];
+    elements[index] = element;
+    return previous;
+  }
+
+  @Override
+  public boolean add(Double element) {
+    addDouble(element);
+    return true;
+  }
+
+  public void addDouble(double element) {
+    ensureCapacity(size + 1);
+    elements[size++] = element;
+    modCount++;
+  }
+
+  @Override
+  public void add(int index, Double element) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    ensureCapacity(size + 1);
+    System.arraycopy(elements, index, elements, index + 1, size - index);
+    elements[index] = element;
+    size++;
+    modCount++;
+  }
+
+  @Override
+  public Double remove(int index) {
+    checkIndex(index);
+    double previous = elements[index];
+    System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+    size--;
+    modCount++;
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    size = 0;
+    modCount++;
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    if (o instanceof Double) {
+      double value = (Double) o;
+      for (int i = 0; i < size; i++) {
+        if (Double.compare(elements[i], value) == 0) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+  /**
+   * Copy the elements into an array.
+   *
+   * @return a new array holding the elements, in order.
+   */
+  public double[] toDoubleArray() {
+    return Arrays.copyOf(elements, size);
+  }
+
+  /**
+   * Make room for at least the given number of elements.
+   *
+   * @param capacity the number of elements to make room for.
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity > elements.length) {
+      if (capacity < 0) {
+        throw new OutOfMemoryError();
+      }
+      elements =
+          Arrays.copyOf(elements, Math.max(capacity, elements.length + (elements.length >> 1)));
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+}
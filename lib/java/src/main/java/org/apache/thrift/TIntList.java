@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+import org.apache.thrift.protocol.TProtocol;
+
+/**
+ * List of i32s backed by a int[], which generated code uses for i32 lists when the
+ * primitive_collections option is on. It is a {@code java.util.List<Integer>} like any other, but
+ * holds its elements without boxing them and is read and written with the bulk array methods of
+ * {@link TProtocol}; the int accessors avoid boxing on the way in and out too.
+ */
+public final class TIntList extends AbstractList<Integer> implements RandomAccess {
+
+  private static final int[] EMPTY = {};
+
+  private int[] elements;
+  private int size;
+
+  public TIntList() {
+    elements = EMPTY;
+  }
+
+  public TIntList(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Negative capacity " + capacity);
+    }
+    elements = capacity == 0 ? EMPTY : new int[capacity];
+  }
+
+  public TIntList(Collection<? extends Integer> c) {
+    if (c instanceof TIntList) {
+      TIntList other = (TIntList) c;
+      elements = Arrays.copyOf(other.elements, other.size);
+      size = other.size;
+    } else {
+      elements = new int[c.size()];
+      for (Integer e : c) {
+        addInt(e);
+      }
+    }
+  }
+
+  /**
+   * Read count i32s, such as the elements of a list whose header has been read, and add them to a
+   * collection; in bulk if it is a TIntList.
+   *
+   * @param iprot the protocol to read from.
+   * @param count the number of elements to read.
+   * @param dst the collection to add them to.
+   * @throws TException if the protocol fails to read them.
+   */
+  public static void read(TProtocol iprot, int count, Collection<Integer> dst) throws TException {
+    if (dst instanceof TIntList) {
+      TIntList list = (TIntList) dst;
+      list.ensureCapacity(list.size + count);
+      iprot.readI32Array(list.elements, list.size, count);
+      list.size += count;
+      list.modCount++;
+    } else {
+      for (int i = 0; i < count; i++) {
+        dst.add(iprot.readI32());
+      }
+    }
+  }
+
+  /**
+   * Write the elements of a collection, such as a list whose header has been written; in bulk if it
+   * is a TIntList.
+   *
+   * @param oprot the protocol to write to.
+   * @param src the collection to write.
+   * @throws TException if the protocol fails to write them.
+   */
+  public static void write(TProtocol oprot, Collection<Integer> src) throws TException {
+    if (src instanceof TIntList) {
+      TIntList list = (TIntList) src;
+      oprot.writeI32Array(list.elements, 0, list.size);
+    } else {
+      for (Integer e : src) {
+        oprot.writeI32(e);
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Integer get(int index) {
+    return getInt(index);
+  }
+
+  public int getInt(int index) {
+    checkIndex(index);
+    return elements[index];
+  }
+
+  @Override
+  public Integer set(int index, Integer element) {
+    return setInt(index, element);
+  }
+
+  public int setInt(int index, int element) {
+    checkIndex(index);
+    int previous = elements[index];
+    elements[index] = element;
+    return previous;
+  }
+
+  @Override
+  public boolean add(Integer element) {
+    addInt(element);
+    return true;
+  }
+
+  public void addInt(int element) {
+    ensureCapacity(size + 1);
+    elements[size++] = element;
+    modCount++;
+  }
+
+  @Override
+  public void add(int index, Integer element) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    ensureCapacity(size + 1);
+    System.arraycopy(elements, index, elements, index + 1, size - index);
+    elements[index] = element;
+    size++;
+    modCount++;
+  }
+
+  @Override
+  public Integer remove(int index) {
+    checkIndex(index);
+    int previous = elements[index];
+    System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+    size--;
+    modCount++;
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    size = 0;
+    modCount++;
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    if (o instanceof Integer) {
+      int value = (Integer) o;
+      for (int i = 0; i < size; i++) {
+        if (elements[i] == value) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+  /**
+   * Copy the elements into an array.
+   *
+   * @return a new array holding the elements, in order.
+   */
+  public int[] toIntArray() {
+    return Arrays.copyOf(elements, size);
+  }
+
+  /**
+   * Make room for at least the given number of elements.
+   *
+   * @param capacity the number of elements to make room for.
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity > elements.length) {
+      if (capacity < 0) {
+        throw new OutOfMemoryError();
+      }
+      elements =
+          Arrays.copyOf(elements, Math.max(capacity, elements.length + (elements.length >> 1)));
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+}
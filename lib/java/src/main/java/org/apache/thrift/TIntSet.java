@@ -0,0 +1,337 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.apache.thrift.protocol.TProtocol;
+
+/**
+ * Set of i32s kept in an open-addressing hash table of ints, which generated code uses for i32 sets
+ * when the primitive_collections option is on. It is a {@code java.util.Set<Integer>} like any
+ * other, but holds its elements without boxing them; the int accessors avoid boxing on the way in
+ * and out too. Iteration order is unspecified, as for a HashSet.
+ */
+public final class TIntSet extends AbstractSet<Integer> {
+
+  private static final byte FREE = 0;
+  private static final byte FULL = 1;
+  private static final byte REMOVED = 2;
+
+  private static final int MIN_CAPACITY = 8;
+
+  // elements are read and written through a chunk of this many at a time
+  private static final int CHUNK_SIZE = 1024;
+
+  private int[] keys;
+  private byte[] states;
+  private int size;
+  // FULL and REMOVED slots, which probes have to step over
+  private int used;
+  private int modCount;
+
+  public TIntSet() {
+    this(0);
+  }
+
+  public TIntSet(int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("Negative size " + expectedSize);
+    }
+    allocate(capacityFor(expectedSize));
+  }
+
+  public TIntSet(Collection<? extends Integer> c) {
+    this(c.size());
+    for (Integer e : c) {
+      addInt(e);
+    }
+  }
+
+  /**
+   * Read count i32s, such as the elements of a set whose header has been read, and add them to a
+   * collection; in bulk if it is a TIntSet.
+   *
+   * @param iprot the protocol to read from.
+   * @param count the number of elements to read.
+   * @param dst the collection to add them to.
+   * @throws TException if the protocol fails to read them.
+   */
+  public static void read(TProtocol iprot, int count, Collection<Integer> dst) throws TException {
+    if (dst instanceof TIntSet) {
+      TIntSet set = (TIntSet) dst;
+      set.ensureCapacity(set.size + count);
+      int[] chunk = new int[Math.min(count, CHUNK_SIZE)];
+      for (int done = 0; done < count; ) {
+        int n = Math.min(count - done, chunk.length);
+        iprot.readI32Array(chunk, 0, n);
+        for (int i = 0; i < n; i++) {
+          set.addInt(chunk[i]);
+        }
+        done += n;
+      }
+    } else {
+      for (int i = 0; i < count; i++) {
+        dst.add(iprot.readI32());
+      }
+    }
+  }
+
+  /**
+   * Write the elements of a collection, such as a set whose header has been written; in bulk if it
+   * is a TIntSet.
+   *
+   * @param oprot the protocol to write to.
+   * @param src the collection to write.
+   * @throws TException if the protocol fails to write them.
+   */
+  public static void write(TProtocol oprot, Collection<Integer> src) throws TException {
+    if (src instanceof TIntSet) {
+      TIntSet set = (TIntSet) src;
+      int[] chunk = new int[Math.min(set.size, CHUNK_SIZE)];
+      int n = 0;
+      for (int slot = 0; slot < set.keys.length; slot++) {
+        if (set.states[slot] == FULL) {
+          chunk[n++] = set.keys[slot];
+          if (n == chunk.length) {
+            oprot.writeI32Array(chunk, 0, n);
+            n = 0;
+          }
+        }
+      }
+      if (n > 0) {
+        oprot.writeI32Array(chunk, 0, n);
+      }
+    } else {
+      for (Integer e : src) {
+        oprot.writeI32(e);
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof Integer && containsInt((Integer) o);
+  }
+
+  public boolean containsInt(int value) {
+    return states[find(value)] == FULL;
+  }
+
+  @Override
+  public boolean add(Integer value) {
+    return addInt(value);
+  }
+
+  public boolean addInt(int value) {
+    int slot = find(value);
+    if (states[slot] == FULL) {
+      return false;
+    }
+    if (states[slot] == FREE) {
+      if (used + 1 > maxUsed(keys.length)) {
+        // rehashing also clears out the removed slots, so only grow if the set itself is full
+        allocateAndCopy(size + 1 > maxUsed(keys.length) / 2 ? keys.length * 2 : keys.length);
+        slot = find(value);
+      }
+      used++;
+    }
+    keys[slot] = value;
+    states[slot] = FULL;
+    size++;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    return o instanceof Integer && removeInt((Integer) o);
+  }
+
+  public boolean removeInt(int value) {
+    int slot = find(value);
+    if (states[slot] != FULL) {
+      return false;
+    }
+    states[slot] = REMOVED;
+    size--;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    if (used > 0) {
+      Arrays.fill(states, FREE);
+      size = 0;
+      used = 0;
+      modCount++;
+    }
+  }
+
+  /**
+   * Copy the elements into an array.
+   *
+   * @return a new array holding the elements, in iteration order.
+   */
+  public int[] toIntArray() {
+    int[] result = new int[size];
+    int n = 0;
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (states[slot] == FULL) {
+        result[n++] = keys[slot];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Make room for at least the given number of elements.
+   *
+   * @param expectedSize the number of elements to make room for.
+   */
+  public void ensureCapacity(int expectedSize) {
+    int capacity = capacityFor(expectedSize);
+    if (capacity > keys.length) {
+      allocateAndCopy(capacity);
+    }
+  }
+
+  @Override
+  public Iterator<Integer> iterator() {
+    return new Iterator<Integer>() {
+      private int next = advance(0);
+      private int last = -1;
+      private int expectedModCount = modCount;
+
+      private int advance(int slot) {
+        while (slot < states.length && states[slot] != FULL) {
+          slot++;
+        }
+        return slot;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next < states.length;
+      }
+
+      @Override
+      public Integer next() {
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (next >= states.length) {
+          throw new NoSuchElementException();
+        }
+        last = next;
+        next = advance(next + 1);
+        return keys[last];
+      }
+
+      @Override
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        // marking the slot removed leaves the rest of the table where it is
+        states[last] = REMOVED;
+        size--;
+        last = -1;
+        expectedModCount = ++modCount;
+      }
+    };
+  }
+
+  /** The slot holding value, or else the first slot it could be added to. */
+  private int find(int value) {
+    int mask = keys.length - 1;
+    int slot = hash(value) & mask;
+    int firstRemoved = -1;
+    while (true) {
+      byte state = states[slot];
+      if (state == FREE) {
+        return firstRemoved >= 0 ? firstRemoved : slot;
+      }
+      if (state == FULL) {
+        if (keys[slot] == value) {
+          return slot;
+        }
+      } else if (firstRemoved < 0) {
+        firstRemoved = slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private static int hash(int value) {
+    int h = value * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  // tables are kept at most three quarters used, so a probe always ends at a free slot
+  private static int maxUsed(int capacity) {
+    return capacity - (capacity >>> 2);
+  }
+
+  private static int capacityFor(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (maxUsed(capacity) < expectedSize) {
+      if (capacity >= 1 << 30) {
+        throw new IllegalArgumentException("Too many elements " + expectedSize);
+      }
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    states = new byte[capacity];
+    used = 0;
+  }
+
+  private void allocateAndCopy(int capacity) {
+    int[] oldKeys = keys;
+    byte[] oldStates = states;
+    allocate(capacity);
+    for (int slot = 0; slot < oldKeys.length; slot++) {
+      if (oldStates[slot] == FULL) {
+        int free = find(oldKeys[slot]);
+        keys[free] = oldKeys[slot];
+        states[free] = FULL;
+        used++;
+      }
+    }
+    modCount++;
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+import org.apache.thrift.protocol.TProtocol;
+
+/**
+ * List of i64s backed by a long[], which generated code uses for i64 lists when the
+ * primitive_collections option is on. It is a {@code java.util.List<Long>} like any other, but
+ * holds its elements without boxing them and is read and written with the bulk array methods of
+ * {@link TProtocol}; the long accessors avoid boxing on the way in and out too.
+ */
+public final class TLongList extends AbstractList<Long> implements RandomAccess {
+
+  private static final long[] EMPTY = {};
+
+  private long[] elements;
+  private int size;
+
+  public TLongList() {
+    elements = EMPTY;
+  }
+
+  public TLongList(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Negative capacity " + capacity);
+    }
+    elements = capacity == 0 ? EMPTY : new long[capacity];
+  }
+
+  public TLongList(Collection<? extends Long> c) {
+    if (c instanceof TLongList) {
+      TLongList other = (TLongList) c;
+      elements = Arrays.copyOf(other.elements, other.size);
+      size = other.size;
+    } else {
+      elements = new long[c.size()];
+      for (Long e : c) {
+        addLong(e);
+      }
+    }
+  }
+
+  /**
+   * Read count i64s, such as the elements of a list whose header has been read, and add them to a
+   * collection; in bulk if it is a TLongList.
+   *
+   * @param iprot the protocol to read from.
+   * @param count the number of elements to read.
+   * @param dst the collection to add them to.
+   * @throws TException if the protocol fails to read them.
+   */
+  public static void read(TProtocol iprot, int count, Collection<Long> dst) throws TException {
+    if (dst instanceof TLongList) {
+      TLongList list = (TLongList) dst;
+      list.ensureCapacity(list.size + count);
+      iprot.readI64Array(list.elements, list.size, count);
+      list.size += count;
+      list.modCount++;
+    } else {
+      for (int i = 0; i < count; i++) {
+        dst.add(iprot.readI64());
+      }
+    }
+  }
+
+  /**
+   * Write the elements of a collection, such as a list whose header has been written; in bulk if it
+   * is a TLongList.
+   *
+   * @param oprot the protocol to write to.
+   * @param src the collection to write.
+   * @throws TException if the protocol fails to write them.
+   */
+  public static void write(TProtocol oprot, Collection<Long> src) throws TException {
+    if (src instanceof TLongList) {
+      TLongList list = (TLongList) src;
+      oprot.writeI64Array(list.elements, 0, list.size);
+    } else {
+      for (Long e : src) {
+        oprot.writeI64(e);
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Long get(int index) {
+    return getLong(index);
+  }
+
+  public long getLong(int index) {
+    checkIndex(index);
+    return elements[index];
+  }
+
+  @Override
+  public Long set(int index, Long element) {
+    return setLong(index, element);
+  }
+
+  public long setLong(int index, long element) {
+    checkIndex(index);
+    long previous = elements[index];
+    elements[index] = element;
+    return previous;
+  }
+
+  @Override
+  public boolean add(Long element) {
+    addLong(element);
+    return true;
+  }
+
+  public void addLong(long element) {
+    ensureCapacity(size + 1);
+    elements[size++] = element;
+    modCount++;
+  }
+
+  @Override
+  public void add(int index, Long element) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    ensureCapacity(size + 1);
+    System.arraycopy(elements, index, elements, index + 1, size - index);
+    elements[index] = element;
+    size++;
+    modCount++;
+  }
+
+  @Override
+  public Long remove(int index) {
+    checkIndex(index);
+    long previous = elements[index];
+    System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+    size--;
+    modCount++;
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    size = 0;
+    modCount++;
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    if (o instanceof Long) {
+      long value = (Long) o;
+      for (int i = 0; i < size; i++) {
+        if (elements[i] == value) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+  /**
+   * Copy the elements into an array.
+   *
+   * @return a new array holding the elements, in order.
+   */
+  public long[] toLongArray() {
+    return Arrays.copyOf(elements, size);
+  }
+
+  /**
+   * Make room for at least the given number of elements.
+   *
+   * @param capacity the number of elements to make room for.
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity > elements.length) {
+      if (capacity < 0) {
+        throw new OutOfMemoryError();
+      }
+      elements =
+          Arrays.copyOf(elements, Math.max(capacity, elements.length + (elements.length >> 1)));
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+}
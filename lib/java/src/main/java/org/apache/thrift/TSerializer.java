@@ -19,22 +19,47 @@
 
 package org.apache.thrift;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
-import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.AutoExpandingBufferWriteTransport;
+import org.apache.thrift.transport.TByteBuffer;
+import org.apache.thrift.transport.TSizingTransport;
 import org.apache.thrift.transport.TTransportException;
 
 /** Generic utility for easily serializing objects into a byte array or Java String. */
 public class TSerializer {
 
-  /** This is the byte array that data is actually serialized into */
-  private final ByteArrayOutputStream baos_ = new ByteArrayOutputStream();
+  // the largest array that can be allocated on most JVMs
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+
+  private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+  /**
+   * This is the buffer that data is actually serialized into, kept from one object to the next and
+   * written into directly by the protocol.
+   */
+  private final AutoExpandingBufferWriteTransport transport_;
 
   /** Internal protocol used for serializing objects. */
   private final TProtocol protocol_;
 
+  private final TProtocolFactory protocolFactory_;
+
+  /** Counts the bytes an object is serialized to, made the first time one is measured. */
+  private TSizingTransport sizingTransport_;
+
+  private TProtocol sizingProtocol_;
+
+  /** Writes into the caller's buffers, made the first time an object is serialized into one. */
+  private TByteBuffer bufferTransport_;
+
+  private TProtocol bufferProtocol_;
+
   /**
    * Create a new TSerializer that uses the TBinaryProtocol by default.
    *
@@ -51,23 +76,110 @@ public class TSerializer {
    * @throws TTransportException if there is an error initializing the underlying transport.
    */
   public TSerializer(TProtocolFactory protocolFactory) throws TTransportException {
-    /* This transport wraps that byte array */
-    TIOStreamTransport transport_ = new TIOStreamTransport(new TConfiguration(), baos_);
+    transport_ =
+        new AutoExpandingBufferWriteTransport(new TConfiguration(), INITIAL_BUFFER_SIZE, 0);
     protocol_ = protocolFactory.getProtocol(transport_);
+    protocolFactory_ = protocolFactory;
   }
 
   /**
-   * Serialize the Thrift object into a byte array. The process is simple, just clear the byte array
-   * output, write the object into it, and grab the raw bytes.
+   * Serialize the Thrift object into a byte array. The object is written into a buffer the
+   * serializer keeps between calls, which grows when an object doesn't fit, and the array returned
+   * is a copy of what was written.
    *
    * @param base The object to serialize
    * @return Serialized object in byte[] format
    * @throws TException if an error is encountered during serialization.
    */
   public byte[] serialize(TBase<?, ?> base) throws TException {
-    baos_.reset();
+    transport_.reset();
     base.write(protocol_);
-    return baos_.toByteArray();
+    return Arrays.copyOf(transport_.getBuf().array(), transport_.getLength());
+  }
+
+  /**
+   * Serialize the Thrift object into a buffer, at its position, without going through a buffer of
+   * the serializer's own. Heap buffers are written into directly by the protocol.
+   *
+   * @param base The object to serialize
+   * @param buffer The buffer to write into. Its position is moved past the serialized object; if
+   *     that doesn't fit before its limit, the position is left where it was.
+   * @return the number of bytes written
+   * @throws TException if an error is encountered during serialization, or the object doesn't fit
+   *     in the buffer.
+   */
+  public int serializeTo(TBase<?, ?> base, ByteBuffer buffer) throws TException {
+    int start = buffer.position();
+    if (bufferProtocol_ == null) {
+      // what is written is bounded by the buffer, not by the maximum message size
+      bufferTransport_ =
+          new TByteBuffer(
+              new TConfiguration(
+                  Integer.MAX_VALUE,
+                  TConfiguration.DEFAULT_MAX_FRAME_SIZE,
+                  TConfiguration.DEFAULT_RECURSION_DEPTH),
+              EMPTY_BUFFER);
+      bufferProtocol_ = protocolFactory_.getProtocol(bufferTransport_);
+    }
+    bufferTransport_.reset(buffer);
+    boolean written = false;
+    try {
+      base.write(bufferProtocol_);
+      written = true;
+    } finally {
+      if (!written) {
+        buffer.position(start);
+      }
+      // don't hold on to the caller's buffer, nor keep the state of a write that failed midway
+      bufferTransport_.reset(EMPTY_BUFFER);
+      bufferProtocol_.reset();
+    }
+    return buffer.position() - start;
+  }
+
+  /**
+   * Serialize the Thrift object into an array, from an offset on, without going through a buffer of
+   * the serializer's own.
+   *
+   * @param base The object to serialize
+   * @param bytes The array to write into
+   * @param offset The index in {@code bytes} of the first byte to write
+   * @return the number of bytes written
+   * @throws TException if an error is encountered during serialization, or the object doesn't fit
+   *     in the array.
+   */
+  public int serializeTo(TBase<?, ?> base, byte[] bytes, int offset) throws TException {
+    return serializeTo(base, ByteBuffer.wrap(bytes, offset, bytes.length - offset));
+  }
+
+  /**
+   * Count the bytes the Thrift object is serialized to, by encoding it without keeping the result.
+   * That takes about as long as serializing it, so measuring an object before serializing it
+   * doesn't save any time.
+   *
+   * @param base The object to measure
+   * @return the length of the object's serialized form
+   * @throws TException if an error is encountered during serialization, or the object is too large
+   *     to be serialized into an array.
+   */
+  public int getSerializedSize(TBase<?, ?> base) throws TException {
+    if (sizingProtocol_ == null) {
+      sizingTransport_ = new TSizingTransport();
+      sizingProtocol_ = protocolFactory_.getProtocol(sizingTransport_);
+    }
+    sizingTransport_.reset();
+    base.write(sizingProtocol_);
+    long size = sizingTransport_.getSize();
+    if (size > MAX_ARRAY_SIZE) {
+      throw new TTransportException(
+          TTransportException.UNKNOWN, "Serialized size too large for an array: " + size);
+    }
+    return (int) size;
+  }
+
+  /** The size of the buffer kept for serializing into, which grows to fit the largest object. */
+  int getBufferCapacity() {
+    return transport_.getBuf().array().length;
   }
 
   /**
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift.async;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.thrift.async.TAsyncClientManager.SelectorLoad;
+
+/**
+ * Decides which of the select threads of a {@link TAsyncClientManager} a client is served by. A
+ * client is assigned once, when it makes its first call, and stays on that select thread for as
+ * long as it is used.
+ */
+public interface SelectorAssignmentPolicy {
+
+  /**
+   * Choose the select thread for a client.
+   *
+   * @param client the client making its first call.
+   * @param loads the current load of every select thread, in index order.
+   * @return the index of the chosen select thread.
+   */
+  int assign(TAsyncClient client, List<SelectorLoad> loads);
+
+  /** Hands out the select threads in turn. */
+  class RoundRobin implements SelectorAssignmentPolicy {
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public int assign(TAsyncClient client, List<SelectorLoad> loads) {
+      return Math.floorMod(next.getAndIncrement(), loads.size());
+    }
+  }
+
+  /**
+   * Picks the select thread with the fewest calls in flight, and among those the one serving the
+   * fewest clients.
+   */
+  class LeastLoaded implements SelectorAssignmentPolicy {
+    @Override
+    public int assign(TAsyncClient client, List<SelectorLoad> loads) {
+      SelectorLoad best = loads.get(0);
+      for (SelectorLoad load : loads) {
+        if (load.getInFlightCalls() < best.getInFlightCalls()
+            || (load.getInFlightCalls() == best.getInFlightCalls()
+                && load.getClients() < best.getClients())) {
+          best = load;
+        }
+      }
+      return best.getIndex();
+    }
+  }
+}
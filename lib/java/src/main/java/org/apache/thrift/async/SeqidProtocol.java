@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.async;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolDecorator;
+import org.apache.thrift.scheme.IScheme;
+
+/**
+ * Replaces the seqid of every message written or read with a fixed one. Generated async method
+ * calls always send and expect a seqid of 0; multiplexed clients use this to put a unique seqid on
+ * the wire instead, and to hide it again once the response has been matched up.
+ */
+class SeqidProtocol extends TProtocolDecorator {
+  private final TProtocol protocol;
+  private final int seqid;
+
+  SeqidProtocol(TProtocol protocol, int seqid) {
+    super(protocol);
+    this.protocol = protocol;
+    this.seqid = seqid;
+  }
+
+  @Override
+  public void writeMessageBegin(TMessage message) throws TException {
+    super.writeMessageBegin(new TMessage(message.name, message.type, seqid));
+  }
+
+  @Override
+  public TMessage readMessageBegin() throws TException {
+    TMessage message = super.readMessageBegin();
+    return new TMessage(message.name, message.type, seqid);
+  }
+
+  @Override
+  public Class<? extends IScheme> getScheme() {
+    return protocol.getScheme();
+  }
+}
@@ -18,6 +18,8 @@
  */
 package org.apache.thrift.async;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.transport.TNonblockingTransport;
 
@@ -26,8 +28,13 @@ public abstract class TAsyncClient {
   protected final TNonblockingTransport ___transport;
   protected final TAsyncClientManager ___manager;
   protected TAsyncMethodCall<?> ___currentMethod;
-  private Exception ___error;
+  private volatile Exception ___error;
   private long ___timeout;
+  private volatile boolean ___multiplexed;
+  private final AtomicInteger ___seqidCounter = new AtomicInteger(0);
+  private TProtocolFactory ___responseProtocolFactory;
+  private volatile int ___selectThreadIndex = -1;
+  private final AtomicBoolean ___released = new AtomicBoolean(false);
 
   public TAsyncClient(
       TProtocolFactory protocolFactory,
@@ -47,8 +54,13 @@ public abstract class TAsyncClient {
     this.___timeout = timeout;
   }
 
+  /**
+   * Get the protocol factory that method calls use to read their responses. In multiplexed mode,
+   * the protocols it creates report the seqid of every message they read as 0, because responses
+   * have already been matched to their calls by seqid.
+   */
   public TProtocolFactory getProtocolFactory() {
-    return ___protocolFactory;
+    return ___multiplexed ? ___responseProtocolFactory : ___protocolFactory;
   }
 
   public long getTimeout() {
@@ -63,6 +75,30 @@ public abstract class TAsyncClient {
     this.___timeout = timeout;
   }
 
+  public boolean isMultiplexed() {
+    return ___multiplexed;
+  }
+
+  /**
+   * Allow this client to have many calls outstanding at once on its single transport. Requests are
+   * written back-to-back, each with its own seqid, and responses are matched back to their calls by
+   * that seqid, so they may arrive in any order. The server must accept pipelined requests, see
+   * {@code AbstractNonblockingServerArgs.maxInFlightRequests}.
+   *
+   * <p>A timeout or an exception thrown by the remote method only fails the call concerned; the
+   * client only enters the error state when the connection itself fails. Must be set before the
+   * first call is made.
+   *
+   * @param multiplexed whether calls may be made while others are still outstanding.
+   */
+  public void setMultiplexed(boolean multiplexed) {
+    if (multiplexed && ___responseProtocolFactory == null) {
+      ___responseProtocolFactory =
+          trans -> new SeqidProtocol(___protocolFactory.getProtocol(trans), 0);
+    }
+    this.___multiplexed = multiplexed;
+  }
+
   /**
    * Is the client in an error state?
    *
@@ -83,8 +119,8 @@ public abstract class TAsyncClient {
   }
 
   protected void checkReady() {
-    // Ensure we are not currently executing a method
-    if (___currentMethod != null) {
+    // Ensure we are not currently executing a method, unless calls may share the transport
+    if (!___multiplexed && ___currentMethod != null) {
       throw new IllegalStateException(
           "Client is currently executing another method: " + ___currentMethod.getClass().getName());
     }
@@ -95,6 +131,33 @@ public abstract class TAsyncClient {
     }
   }
 
+  /** Allocate the seqid a multiplexed method call is sent with. */
+  int nextSeqid() {
+    return ___seqidCounter.incrementAndGet();
+  }
+
+  /** The select thread of the manager that serves this client, or -1 before the first call. */
+  int getSelectThreadIndex() {
+    return ___selectThreadIndex;
+  }
+
+  void setSelectThreadIndex(int index) {
+    this.___selectThreadIndex = index;
+  }
+
+  /** Mark the client as no longer counted by its select thread, if it was not already. */
+  boolean markReleased() {
+    return ___released.compareAndSet(false, true);
+  }
+
+  /**
+   * Close the transport, once the client is no longer needed. The calls a multiplexed client still
+   * has outstanding fail; a client that isn't multiplexed should have no call outstanding.
+   */
+  public void close() {
+    ___manager.close(this);
+  }
+
   /** Called by delegate method when finished */
   protected void onComplete() {
     ___currentMethod = null;
@@ -109,5 +172,6 @@ public abstract class TAsyncClient {
     ___transport.close();
     ___currentMethod = null;
     ___error = exception;
+    ___manager.release(this);
   }
 }
@@ -19,31 +19,66 @@
 package org.apache.thrift.async;
 
 import java.io.IOException;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.spi.SelectorProvider;
-import java.util.Comparator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.thrift.TException;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TNonblockingTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.layered.TFramedTransport;
+import org.apache.thrift.utils.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Contains selector thread which transitions method call objects */
+/**
+ * Contains selector threads which transition method call objects. By default there is a single
+ * select thread; a manager can be created with several to spread the work of many clients over more
+ * cores, in which case each client is served by one of them for its whole lifetime, as chosen by a
+ * {@link SelectorAssignmentPolicy}.
+ */
 public class TAsyncClientManager {
   private static final Logger LOGGER = LoggerFactory.getLogger(TAsyncClientManager.class.getName());
 
-  private final SelectThread selectThread;
-  private final ConcurrentLinkedQueue<TAsyncMethodCall<?>> pendingCalls =
-      new ConcurrentLinkedQueue<>();
+  private final SelectThread[] selectThreads;
+  private final SelectorAssignmentPolicy assignmentPolicy;
 
   public TAsyncClientManager() throws IOException {
-    this.selectThread = new SelectThread();
-    selectThread.start();
+    this(1, new SelectorAssignmentPolicy.RoundRobin());
+  }
+
+  /**
+   * Create a manager with several select threads.
+   *
+   * @param numSelectThreads how many select threads to run, at least 1.
+   * @param assignmentPolicy chooses the select thread each client is served by.
+   * @throws IOException if a selector cannot be opened.
+   */
+  public TAsyncClientManager(int numSelectThreads, SelectorAssignmentPolicy assignmentPolicy)
+      throws IOException {
+    if (numSelectThreads < 1) {
+      throw new IllegalArgumentException("numSelectThreads must be at least 1");
+    }
+    this.assignmentPolicy = assignmentPolicy;
+    this.selectThreads = new SelectThread[numSelectThreads];
+    for (int i = 0; i < numSelectThreads; i++) {
+      selectThreads[i] = new SelectThread(i);
+    }
+    for (SelectThread selectThread : selectThreads) {
+      selectThread.start();
+    }
   }
 
   public void call(TAsyncMethodCall<?> method) throws TException {
@@ -51,25 +86,167 @@ public class TAsyncClientManager {
       throw new TException("SelectThread is not running");
     }
     method.prepareMethodCall();
-    pendingCalls.add(method);
-    selectThread.getSelector().wakeup();
+    selectThreadFor(method.getClient()).addCall(method);
   }
 
   public void stop() {
-    selectThread.finish();
+    for (SelectThread selectThread : selectThreads) {
+      selectThread.finish();
+    }
   }
 
   public boolean isRunning() {
-    return selectThread.isAlive();
+    for (SelectThread selectThread : selectThreads) {
+      if (!selectThread.isAlive()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int getNumSelectThreads() {
+    return selectThreads.length;
+  }
+
+  /**
+   * Get a snapshot of how busy each select thread is.
+   *
+   * @return the load of every select thread, in index order.
+   */
+  public List<SelectorLoad> getSelectorLoads() {
+    List<SelectorLoad> loads = new ArrayList<>(selectThreads.length);
+    for (SelectThread selectThread : selectThreads) {
+      loads.add(selectThread.getLoad());
+    }
+    return loads;
+  }
+
+  /**
+   * Close a client's transport, and stop counting it among the clients of its select thread. A
+   * multiplexed client's connection is closed on the select thread, which fails the calls still
+   * outstanding on it.
+   */
+  void close(TAsyncClient client) {
+    int index = client.getSelectThreadIndex();
+    SelectThread selectThread = selectThreads[Math.max(index, 0)];
+    if (client.isMultiplexed() && (index >= 0 || selectThreads.length == 1)) {
+      selectThread.addClose(client);
+    } else {
+      client.___transport.close();
+      release(client);
+    }
+  }
+
+  /** Stop counting a client that was closed or failed among the clients of its select thread. */
+  void release(TAsyncClient client) {
+    int index = client.getSelectThreadIndex();
+    if (index >= 0 && client.markReleased()) {
+      selectThreads[index].clients.decrementAndGet();
+    }
+  }
+
+  // A client stays on the select thread it is first assigned to, as its transport is registered
+  // with that thread's selector.
+  private SelectThread selectThreadFor(TAsyncClient client) {
+    if (selectThreads.length == 1) {
+      return selectThreads[0];
+    }
+    int index = client.getSelectThreadIndex();
+    if (index < 0) {
+      synchronized (client) {
+        index = client.getSelectThreadIndex();
+        if (index < 0) {
+          index = assignmentPolicy.assign(client, getSelectorLoads());
+          if (index < 0 || index >= selectThreads.length) {
+            throw new IllegalStateException(
+                "SelectorAssignmentPolicy chose select thread "
+                    + index
+                    + " out of "
+                    + selectThreads.length);
+          }
+          selectThreads[index].clients.incrementAndGet();
+          client.setSelectThreadIndex(index);
+        }
+      }
+    }
+    return selectThreads[index];
+  }
+
+  /** How busy one select thread of the manager is. */
+  public static final class SelectorLoad {
+    private final int index;
+    private final int clients;
+    private final int inFlightCalls;
+    private final long completedCalls;
+
+    SelectorLoad(int index, int clients, int inFlightCalls, long completedCalls) {
+      this.index = index;
+      this.clients = clients;
+      this.inFlightCalls = inFlightCalls;
+      this.completedCalls = completedCalls;
+    }
+
+    /** The index of the select thread. */
+    public int getIndex() {
+      return index;
+    }
+
+    /** The number of clients assigned to the select thread that have not been closed or failed. */
+    public int getClients() {
+      return clients;
+    }
+
+    /** The number of calls that have been made but have not completed or failed yet. */
+    public int getInFlightCalls() {
+      return inFlightCalls;
+    }
+
+    /** The number of calls that have completed or failed. */
+    public long getCompletedCalls() {
+      return completedCalls;
+    }
+
+    @Override
+    public String toString() {
+      return "SelectorLoad(index:"
+          + index
+          + ", clients:"
+          + clients
+          + ", inFlightCalls:"
+          + inFlightCalls
+          + ", completedCalls:"
+          + completedCalls
+          + ")";
+    }
   }
 
   private class SelectThread extends Thread {
     private final Selector selector;
     private volatile boolean running;
-    private final TreeSet<TAsyncMethodCall<?>> timeoutWatchSet =
-        new TreeSet<>(new TAsyncMethodCallTimeoutComparator());
+    private final ConcurrentLinkedQueue<TAsyncMethodCall<?>> pendingCalls =
+        new ConcurrentLinkedQueue<>();
+    // multiplexed clients whose connections are to be closed
+    private final ConcurrentLinkedQueue<TAsyncClient> pendingCloses = new ConcurrentLinkedQueue<>();
+    // Deadlines of the calls with a timeout, which are cancelled as the calls complete
+    private final TimingWheel<TAsyncMethodCall<?>> timeoutWheel =
+        new TimingWheel<>(1, System.currentTimeMillis());
+    // the time the last select returned at, which the whole iteration that follows goes by
+    private long now = System.currentTimeMillis();
+    // Connections of multiplexed clients, which are shared by all of their calls
+    private final Map<TAsyncClient, MultiplexedConnection> connections = new HashMap<>();
 
-    public SelectThread() throws IOException {
+    private final int index;
+    private final AtomicInteger clients = new AtomicInteger();
+    private final AtomicInteger inFlightCalls = new AtomicInteger();
+    private final AtomicLong completedCalls = new AtomicLong();
+    private final Runnable callDone =
+        () -> {
+          inFlightCalls.decrementAndGet();
+          completedCalls.incrementAndGet();
+        };
+
+    public SelectThread(int index) throws IOException {
+      this.index = index;
       this.selector = SelectorProvider.provider().openSelector();
       this.running = true;
       this.setName("TAsyncClientManager#SelectorThread " + this.getId());
@@ -82,6 +259,22 @@ public class TAsyncClientManager {
       return selector;
     }
 
+    void addCall(TAsyncMethodCall<?> method) {
+      inFlightCalls.incrementAndGet();
+      method.setDoneListener(callDone);
+      pendingCalls.add(method);
+      selector.wakeup();
+    }
+
+    void addClose(TAsyncClient client) {
+      pendingCloses.add(client);
+      selector.wakeup();
+    }
+
+    SelectorLoad getLoad() {
+      return new SelectorLoad(index, clients.get(), inFlightCalls.get(), completedCalls.get());
+    }
+
     public void finish() {
       running = false;
       selector.wakeup();
@@ -91,28 +284,21 @@ public class TAsyncClientManager {
       while (running) {
         try {
           try {
-            if (timeoutWatchSet.size() == 0) {
+            if (timeoutWheel.isEmpty()) {
               // No timeouts, so select indefinitely
               selector.select();
             } else {
-              // We have a timeout pending, so calculate the time until then and select
-              // appropriately
-              long nextTimeout = timeoutWatchSet.first().getTimeoutTimestamp();
-              long selectTime = nextTimeout - System.currentTimeMillis();
-              if (selectTime > 0) {
-                // Next timeout is in the future, select and wake up then
-                selector.select(selectTime);
-              } else {
-                // Next timeout is now or in the past, select immediately, so we can time out
-                selector.selectNow();
-              }
+              // We have a timeout pending, so wake up when the wheel next has work to do
+              selector.select(timeoutWheel.millisUntilNextExpiry(now));
             }
           } catch (IOException e) {
             LOGGER.error("Caught IOException in TAsyncClientManager!", e);
           }
+          now = System.currentTimeMillis();
           transitionMethods();
           timeoutMethods();
           startPendingMethods();
+          closePendingClients();
         } catch (Exception exception) {
           LOGGER.error("Ignoring uncaught exception in SelectThread", exception);
         }
@@ -139,13 +325,13 @@ public class TAsyncClientManager {
             // just skip
             continue;
           }
+          if (key.attachment() instanceof MultiplexedConnection) {
+            ((MultiplexedConnection) key.attachment()).transition(key);
+            continue;
+          }
+          // a call's deadline is cancelled once it completes or fails
           TAsyncMethodCall<?> methodCall = (TAsyncMethodCall<?>) key.attachment();
           methodCall.transition(key);
-
-          // If done or error occurred, remove from timeout watch set
-          if (methodCall.isFinished() || methodCall.getClient().hasError()) {
-            timeoutWatchSet.remove(methodCall);
-          }
         }
       } catch (ClosedSelectorException e) {
         LOGGER.error("Caught ClosedSelectorException in TAsyncClientManager!", e);
@@ -154,29 +340,42 @@ public class TAsyncClientManager {
 
     // Timeout any existing method calls
     private void timeoutMethods() {
-      Iterator<TAsyncMethodCall<?>> iterator = timeoutWatchSet.iterator();
-      long currentTime = System.currentTimeMillis();
-      while (iterator.hasNext()) {
-        TAsyncMethodCall<?> methodCall = iterator.next();
-        if (currentTime >= methodCall.getTimeoutTimestamp()) {
-          iterator.remove();
-          methodCall.onError(
-              new TimeoutException(
-                  "Operation "
-                      + methodCall.getClass()
-                      + " timed out after "
-                      + (currentTime - methodCall.getStartTime())
-                      + " ms."));
-        } else {
-          break;
+      // also keeps an empty wheel up to date, ready for the calls about to be started
+      timeoutWheel.expire(now, this::timeoutMethod);
+    }
+
+    private void timeoutMethod(TAsyncMethodCall<?> methodCall) {
+      TimeoutException exception =
+          new TimeoutException(
+              "Operation "
+                  + methodCall.getClass()
+                  + " timed out after "
+                  + (now - methodCall.getStartTime())
+                  + " ms.");
+      if (methodCall.getClient().isMultiplexed()) {
+        MultiplexedConnection connection = connections.get(methodCall.getClient());
+        if (connection != null) {
+          connection.timeout(methodCall);
         }
+        methodCall.failCall(exception);
+      } else {
+        methodCall.onError(exception);
       }
     }
 
+    private void watchTimeout(TAsyncMethodCall<?> methodCall) {
+      methodCall.setTimeoutHandle(
+          timeoutWheel.schedule(methodCall, methodCall.getTimeoutTimestamp()));
+    }
+
     // Start any new calls
     private void startPendingMethods() {
       TAsyncMethodCall<?> methodCall;
       while ((methodCall = pendingCalls.poll()) != null) {
+        if (methodCall.getClient().isMultiplexed()) {
+          startMultiplexedMethod(methodCall);
+          continue;
+        }
         // Catch registration errors. method will catch transition errors and cleanup.
         try {
           methodCall.start(selector);
@@ -184,7 +383,7 @@ public class TAsyncClientManager {
           // If timeout specified and first transition went smoothly, add to timeout watch set
           TAsyncClient client = methodCall.getClient();
           if (client.hasTimeout() && !client.hasError()) {
-            timeoutWatchSet.add(methodCall);
+            watchTimeout(methodCall);
           }
         } catch (Exception exception) {
           LOGGER.warn("Caught exception in TAsyncClientManager!", exception);
@@ -192,18 +391,251 @@ public class TAsyncClientManager {
         }
       }
     }
-  }
 
-  /** Comparator used in TreeSet */
-  private static class TAsyncMethodCallTimeoutComparator
-      implements Comparator<TAsyncMethodCall<?>>, Serializable {
-    @Override
-    public int compare(TAsyncMethodCall left, TAsyncMethodCall right) {
-      if (left.getTimeoutTimestamp() == right.getTimeoutTimestamp()) {
-        return (int) (left.getSequenceId() - right.getSequenceId());
-      } else {
-        return (int) (left.getTimeoutTimestamp() - right.getTimeoutTimestamp());
+    // Close the connections of the multiplexed clients that were closed
+    private void closePendingClients() {
+      TAsyncClient client;
+      while ((client = pendingCloses.poll()) != null) {
+        MultiplexedConnection connection = connections.get(client);
+        if (connection != null) {
+          connection.close(
+              new TTransportException(TTransportException.NOT_OPEN, "Client was closed"));
+        }
+        client.___transport.close();
+        release(client);
+      }
+    }
+
+    // Queue a call on the connection shared by its client, opening it if needed
+    private void startMultiplexedMethod(TAsyncMethodCall<?> methodCall) {
+      TAsyncClient client = methodCall.getClient();
+      if (client.hasError()) {
+        methodCall.failCall(
+            new TTransportException("Client has an error, not starting call", client.getError()));
+        return;
       }
+      MultiplexedConnection connection = connections.get(client);
+      if (connection != null && !connection.isOpen()) {
+        // its transport was closed directly rather than through the client
+        connection.close(
+            new TTransportException(TTransportException.NOT_OPEN, "Transport was closed"));
+        connection = null;
+      }
+      if (connection == null) {
+        connection = new MultiplexedConnection(client);
+        connections.put(client, connection);
+      }
+      if (client.hasTimeout()) {
+        watchTimeout(methodCall);
+      }
+      connection.enqueue(methodCall);
     }
+
+    /**
+     * A transport shared by all the calls of a multiplexed client. Requests are written
+     * back-to-back in the order the calls were made, and each response is handed to the call whose
+     * seqid it carries. Only ever used from the select thread.
+     */
+    private class MultiplexedConnection {
+      private final TAsyncClient client;
+      private final TNonblockingTransport transport;
+      private SelectionKey key;
+      private boolean connected = false;
+
+      // calls waiting for their request to be written
+      private final ArrayDeque<TAsyncMethodCall<?>> writeQueue = new ArrayDeque<>();
+      // the call whose request is partially written
+      private TAsyncMethodCall<?> writing;
+      // calls that have been sent and are waiting for a response, by seqid
+      private final Map<Integer, TAsyncMethodCall<?>> awaitingResponse = new HashMap<>();
+
+      private final byte[] responseSizeArray = new byte[4];
+      private final ByteBuffer responseSize = ByteBuffer.wrap(responseSizeArray);
+      private ByteBuffer response;
+
+      MultiplexedConnection(TAsyncClient client) {
+        this.client = client;
+        this.transport = client.___transport;
+      }
+
+      boolean isOpen() {
+        return key == null || key.isValid();
+      }
+
+      void enqueue(TAsyncMethodCall<?> methodCall) {
+        writeQueue.add(methodCall);
+        try {
+          if (key == null) {
+            register();
+          } else if (connected) {
+            updateInterests();
+          }
+        } catch (Exception exception) {
+          LOGGER.warn("Caught exception in TAsyncClientManager!", exception);
+          fail(exception);
+        }
+      }
+
+      private void register() throws IOException {
+        if (transport.isOpen()) {
+          key = transport.registerSelector(selector, SelectionKey.OP_READ);
+          connected = true;
+        } else {
+          key = transport.registerSelector(selector, SelectionKey.OP_CONNECT);
+          // non-blocking connect can complete immediately
+          connected = transport.startConnect();
+        }
+        key.attach(this);
+        if (connected) {
+          updateInterests();
+        }
+      }
+
+      void transition(SelectionKey key) {
+        try {
+          if (!connected) {
+            if (!key.isConnectable() || !transport.finishConnect()) {
+              throw new IOException(
+                  "not connectable or finishConnect returned false after we got an OP_CONNECT");
+            }
+            connected = true;
+          } else {
+            if (key.isReadable()) {
+              doReading();
+            }
+            if (key.isWritable()) {
+              doWriting();
+            }
+          }
+          updateInterests();
+        } catch (Exception exception) {
+          fail(exception);
+        }
+      }
+
+      /** Give up on a call that timed out. A response that still arrives for it is dropped. */
+      void timeout(TAsyncMethodCall<?> methodCall) {
+        awaitingResponse.remove(methodCall.getSeqid());
+      }
+
+      // Always listen for responses, and for writability while there are requests to send
+      private void updateInterests() {
+        int ops = SelectionKey.OP_READ;
+        if (writing != null || !writeQueue.isEmpty()) {
+          ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+      }
+
+      private void doWriting() throws TTransportException {
+        while (true) {
+          if (writing == null) {
+            writing = writeQueue.poll();
+            if (writing == null) {
+              return;
+            }
+            if (writing.isDone()) {
+              // timed out before it could be sent
+              writing = null;
+              continue;
+            }
+            if (!writing.isOneway()) {
+              awaitingResponse.put(writing.getSeqid(), writing);
+            }
+          }
+          if (!writing.writeMultiplexedRequest()) {
+            // the socket is full, carry on once it is writable again
+            return;
+          }
+          if (writing.isOneway() && !writing.isDone()) {
+            writing.onResponse(null);
+          }
+          writing = null;
+        }
+      }
+
+      private void doReading() throws TException {
+        while (true) {
+          if (response == null) {
+            if (transport.read(responseSize) < 0) {
+              throw new TTransportException(
+                  TTransportException.END_OF_FILE, "Read call frame size failed");
+            }
+            if (responseSize.remaining() > 0) {
+              return;
+            }
+            int size = TFramedTransport.decodeFrameSize(responseSizeArray);
+            if (size < 0 || size > transport.getMaxFrameSize()) {
+              throw new TTransportException(
+                  TTransportException.CORRUPTED_DATA, "Read an invalid frame size of " + size);
+            }
+            response = ByteBuffer.allocate(size);
+          }
+          if (transport.read(response) < 0) {
+            throw new TTransportException(
+                TTransportException.END_OF_FILE, "Read call frame failed");
+          }
+          if (response.remaining() > 0) {
+            return;
+          }
+          dispatchResponse(response);
+          response = null;
+          responseSize.clear();
+        }
+      }
+
+      private void dispatchResponse(ByteBuffer frame) throws TException {
+        int seqid =
+            client
+                .___protocolFactory
+                .getProtocol(new TMemoryInputTransport(frame.array()))
+                .readMessageBegin()
+                .seqid;
+        TAsyncMethodCall<?> methodCall = awaitingResponse.remove(seqid);
+        if (methodCall == null) {
+          LOGGER.debug(
+              "Dropping response with unknown seqid {}, its call may have timed out", seqid);
+          return;
+        }
+        methodCall.onResponse(frame);
+      }
+
+      // The connection is unusable, so fail every call that was using it
+      private void fail(Exception exception) {
+        detach();
+        client.onError(exception);
+        failCalls(exception);
+      }
+
+      /** Stop using the connection, and fail the calls that were waiting on it. */
+      void close(Exception exception) {
+        detach();
+        failCalls(exception);
+      }
+
+      private void detach() {
+        if (key != null) {
+          key.cancel();
+          key.attach(null);
+        }
+        connections.remove(client);
+      }
+
+      private void failCalls(Exception exception) {
+        List<TAsyncMethodCall<?>> calls = new ArrayList<>(awaitingResponse.values());
+        if (writing != null && writing.isOneway()) {
+          calls.add(writing);
+        }
+        calls.addAll(writeQueue);
+        awaitingResponse.clear();
+        writeQueue.clear();
+        writing = null;
+        for (TAsyncMethodCall<?> methodCall : calls) {
+          if (!methodCall.isDone()) {
+            methodCall.failCall(exception);
+          }
+        }
+      }
+    } // MultiplexedConnection
   }
 }
@@ -30,6 +30,7 @@ import org.apache.thrift.transport.TMemoryBuffer;
 import org.apache.thrift.transport.TNonblockingTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.apache.thrift.transport.layered.TFramedTransport;
+import org.apache.thrift.utils.TimingWheel;
 
 /**
  * Encapsulates an async method call.
@@ -69,12 +70,20 @@ public abstract class TAsyncMethodCall<T> {
   private final long sequenceId;
   private final long timeout;
 
+  // the seqid this call is sent with when its client is multiplexed
+  private int seqid;
+
   private ByteBuffer sizeBuffer;
   private final byte[] sizeBufferArray = new byte[4];
   private ByteBuffer frameBuffer;
 
   private final long startTime = System.currentTimeMillis();
 
+  // told once when the call completes or fails, by the select thread that ran it
+  private Runnable doneListener;
+  // the deadline of the call, cancelled once it completes or fails
+  private TimingWheel.Timeout<?> timeoutHandle;
+
   protected TAsyncMethodCall(
       TAsyncClient client,
       TProtocolFactory protocolFactory,
@@ -118,6 +127,39 @@ public abstract class TAsyncMethodCall<T> {
     return timeout + startTime;
   }
 
+  int getSeqid() {
+    return seqid;
+  }
+
+  boolean isOneway() {
+    return isOneway;
+  }
+
+  /** Has this call either completed or failed? */
+  boolean isDone() {
+    return state == State.RESPONSE_READ || state == State.ERROR;
+  }
+
+  void setDoneListener(Runnable doneListener) {
+    this.doneListener = doneListener;
+  }
+
+  void setTimeoutHandle(TimingWheel.Timeout<?> timeoutHandle) {
+    this.timeoutHandle = timeoutHandle;
+  }
+
+  private void done() {
+    if (timeoutHandle != null) {
+      timeoutHandle.cancel();
+      timeoutHandle = null;
+    }
+    if (doneListener != null) {
+      Runnable listener = doneListener;
+      doneListener = null;
+      listener.run();
+    }
+  }
+
   protected abstract void write_args(TProtocol protocol) throws TException;
 
   protected abstract T getResult() throws Exception;
@@ -130,6 +172,10 @@ public abstract class TAsyncMethodCall<T> {
   protected void prepareMethodCall() throws TException {
     TMemoryBuffer memoryBuffer = new TMemoryBuffer(INITIAL_MEMORY_BUFFER_SIZE);
     TProtocol protocol = protocolFactory.getProtocol(memoryBuffer);
+    if (client.isMultiplexed()) {
+      prepareMultiplexedMethodCall(memoryBuffer, protocol);
+      return;
+    }
     write_args(protocol);
 
     int length = memoryBuffer.length();
@@ -139,6 +185,23 @@ public abstract class TAsyncMethodCall<T> {
     sizeBuffer = ByteBuffer.wrap(sizeBufferArray);
   }
 
+  /**
+   * Write the request with its own seqid, and with the frame size in front of it so that the whole
+   * frame can go out in a single write.
+   */
+  private void prepareMultiplexedMethodCall(TMemoryBuffer memoryBuffer, TProtocol protocol)
+      throws TException {
+    seqid = client.nextSeqid();
+    // reserve room for the frame size, filled in once the length is known
+    memoryBuffer.write(sizeBufferArray);
+    write_args(new SeqidProtocol(protocol, seqid));
+
+    int length = memoryBuffer.length();
+    byte[] frame = memoryBuffer.getArray();
+    TFramedTransport.encodeFrameSize(length - 4, frame);
+    frameBuffer = ByteBuffer.wrap(frame, 0, length);
+  }
+
   /**
    * Register with selector and start first state, which could be either connecting or writing.
    *
@@ -220,11 +283,55 @@ public abstract class TAsyncMethodCall<T> {
   }
 
   protected void onError(Exception e) {
+    done();
     client.onError(e);
     callback.onError(e);
     state = State.ERROR;
   }
 
+  /**
+   * Write as much of a multiplexed request as the transport will take.
+   *
+   * @return true once the whole frame has been written.
+   */
+  boolean writeMultiplexedRequest() throws TTransportException {
+    if (transport.write(frameBuffer) < 0) {
+      throw new TTransportException(TTransportException.END_OF_FILE, "Write call frame failed");
+    }
+    return frameBuffer.remaining() == 0;
+  }
+
+  /**
+   * Complete a multiplexed call, either with the response frame that was matched to it or, for a
+   * oneway call, once it has been written. Unlike {@link #onError(Exception)}, a failure here only
+   * fails this call and leaves the client usable for the calls it shares the transport with.
+   *
+   * @param response the response frame, or null for a oneway call.
+   */
+  void onResponse(ByteBuffer response) {
+    if (response != null) {
+      frameBuffer = response;
+    }
+    state = State.RESPONSE_READ;
+    done();
+    T result;
+    try {
+      result = getResult();
+    } catch (Exception e) {
+      failCall(e);
+      return;
+    }
+    client.onComplete();
+    callback.onComplete(result);
+  }
+
+  /** Fail just this call, without putting its client into the error state. */
+  void failCall(Exception e) {
+    done();
+    state = State.ERROR;
+    callback.onError(e);
+  }
+
   private void doReadingResponseBody(SelectionKey key) throws TTransportException {
     if (transport.read(frameBuffer) < 0) {
       throw new TTransportException(TTransportException.END_OF_FILE, "Read call frame failed");
@@ -236,6 +343,7 @@ public abstract class TAsyncMethodCall<T> {
 
   private void cleanUpAndFireCallback(SelectionKey key) {
     state = State.RESPONSE_READ;
+    done();
     key.interestOps(0);
     // this ensures that the TAsyncMethod instance doesn't hang around
     key.attach(null);
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import org.apache.thrift.transport.BufferPool;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Decides who owns the ByteBuffers that protocols return from readBinary(), and so whether the
+ * bytes are copied out of the transport. Structs keep the buffers they read as they are, so the
+ * policy of the protocol a struct is read with decides whether its binary fields are copied, and
+ * none of them is copied more than once.
+ *
+ * <p>Policies are serialized along with the protocol factories that hold them. {@link #ALIAS} and
+ * {@link #COPY} stay singletons when they are; a {@link #pooled(BufferPool)} policy can only be
+ * serialized if its pool can.
+ */
+public abstract class BinaryPolicy implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.wrap(new byte[0]);
+
+  /**
+   * Return a view into the transport's read buffer when the bytes are in it, without copying them.
+   * The view is only valid as long as the transport does not reuse its buffer, which for some
+   * transports is only until the next message is read. When the transport has no buffer, the bytes
+   * are read into a new array. This is what protocols do by default.
+   */
+  public static final BinaryPolicy ALIAS = new Alias();
+
+  /** Always return a buffer of its own, which stays valid however the transport is used later. */
+  public static final BinaryPolicy COPY = new Copy();
+
+  protected BinaryPolicy() {}
+
+  /**
+   * Copy every binary into a buffer acquired from a pool. The buffers are positioned at the start
+   * of the binary and limited to its end, and are the caller's to release to the pool once it is
+   * done with them, empty ones included.
+   *
+   * @param pool where the buffers are acquired from.
+   * @return the policy.
+   */
+  public static BinaryPolicy pooled(BufferPool pool) {
+    return new Pooled(pool);
+  }
+
+  /**
+   * Read a binary whose length has already been read and checked.
+   *
+   * @param trans the transport to read it from.
+   * @param length the number of bytes in the binary.
+   * @return a buffer positioned at the start of the binary and limited to its end.
+   * @throws TTransportException if the transport fails to read it.
+   */
+  public abstract ByteBuffer readBinary(TTransport trans, int length) throws TTransportException;
+
+  private static ByteBuffer readIntoNewArray(TTransport trans, int length)
+      throws TTransportException {
+    byte[] buf = new byte[length];
+    trans.readAll(buf, 0, length);
+    return ByteBuffer.wrap(buf);
+  }
+
+  private static final class Alias extends BinaryPolicy {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public ByteBuffer readBinary(TTransport trans, int length) throws TTransportException {
+      if (length == 0) {
+        return EMPTY_BUFFER;
+      }
+      if (trans.getBytesRemainingInBuffer() >= length) {
+        ByteBuffer bb = ByteBuffer.wrap(trans.getBuffer(), trans.getBufferPosition(), length);
+        trans.consumeBuffer(length);
+        return bb;
+      }
+      return readIntoNewArray(trans, length);
+    }
+
+    private Object readResolve() {
+      return ALIAS;
+    }
+  }
+
+  private static final class Copy extends BinaryPolicy {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public ByteBuffer readBinary(TTransport trans, int length) throws TTransportException {
+      if (length == 0) {
+        return EMPTY_BUFFER;
+      }
+      if (trans.getBytesRemainingInBuffer() >= length) {
+        byte[] buf = new byte[length];
+        System.arraycopy(trans.getBuffer(), trans.getBufferPosition(), buf, 0, length);
+        trans.consumeBuffer(length);
+        return ByteBuffer.wrap(buf);
+      }
+      return readIntoNewArray(trans, length);
+    }
+
+    private Object readResolve() {
+      return COPY;
+    }
+  }
+
+  private static final class Pooled extends BinaryPolicy {
+    private static final long serialVersionUID = 1L;
+
+    private final BufferPool pool;
+
+    private Pooled(BufferPool pool) {
+      this.pool = pool;
+    }
+
+    @Override
+    public ByteBuffer readBinary(TTransport trans, int length) throws TTransportException {
+      ByteBuffer bb = pool.acquire(length);
+      try {
+        if (trans.getBytesRemainingInBuffer() >= length) {
+          bb.put(trans.getBuffer(), trans.getBufferPosition(), length);
+          trans.consumeBuffer(length);
+        } else if (bb.hasArray()) {
+          trans.readAll(bb.array(), bb.arrayOffset() + bb.position(), length);
+          bb.position(length);
+        } else {
+          while (bb.hasRemaining()) {
+            if (trans.read(bb) <= 0) {
+              throw new TTransportException(
+                  TTransportException.END_OF_FILE, "No more data available.");
+            }
+          }
+        }
+      } catch (TTransportException | RuntimeException e) {
+        pool.release(bb);
+        throw e;
+      }
+      bb.flip();
+      return bb;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * StringDecoder that returns the same String instance each time it is given the same bytes, so that
+ * the values a payload repeats over and over are not kept in memory once per copy. The instances
+ * are kept in a fixed-size table indexed by a hash of the bytes, where a string simply takes the
+ * place of whatever was in its slot before; strings longer than a set length aren't cached at all,
+ * as they are rarely repeated and expensive to compare.
+ *
+ * <p>Lookups take no locks. Entries are immutable and written to the table without any memory
+ * barrier, so a thread may not see an entry another has just written and decode a duplicate of its
+ * string, which costs some deduplication but never a wrong result.
+ *
+ * <p>A decoder is serialized without the strings it has cached.
+ */
+public class DedupStringDecoder implements StringDecoder {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int DEFAULT_CAPACITY = 4096;
+  public static final int DEFAULT_MAX_LENGTH = 64;
+
+  private static final class Entry {
+    private final byte[] bytes;
+    private final String string;
+
+    private Entry(byte[] bytes, String string) {
+      this.bytes = bytes;
+      this.string = string;
+    }
+  }
+
+  private final transient Entry[] table;
+  private final int capacity;
+  private final int maxLength;
+
+  public DedupStringDecoder() {
+    this(DEFAULT_CAPACITY, DEFAULT_MAX_LENGTH);
+  }
+
+  /**
+   * @param capacity the number of strings to cache, rounded up to a power of two.
+   * @param maxLength the length in bytes of the longest string to cache.
+   */
+  public DedupStringDecoder(int capacity, int maxLength) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+    }
+    if (maxLength < 0) {
+      throw new IllegalArgumentException("maxLength must not be negative: " + maxLength);
+    }
+    table = new Entry[tableSize(capacity)];
+    this.capacity = capacity;
+    this.maxLength = maxLength;
+  }
+
+  // the cache isn't serialized, so a deserialized decoder is replaced with an empty one
+  private Object readResolve() {
+    return new DedupStringDecoder(capacity, maxLength);
+  }
+
+  private static int tableSize(int capacity) {
+    int size = Integer.highestOneBit(capacity);
+    return size == capacity ? size : size << 1;
+  }
+
+  @Override
+  public String decode(byte[] buf, int off, int len) {
+    if (len > maxLength) {
+      return new String(buf, off, len, StandardCharsets.UTF_8);
+    }
+
+    int hash = 0;
+    for (int i = off; i < off + len; i++) {
+      hash = 31 * hash + buf[i];
+    }
+    int index = (hash ^ (hash >>> 16)) & (table.length - 1);
+
+    Entry entry = table[index];
+    if (entry != null && matches(entry.bytes, buf, off, len)) {
+      return entry.string;
+    }
+    String string = new String(buf, off, len, StandardCharsets.UTF_8);
+    byte[] bytes = new byte[len];
+    System.arraycopy(buf, off, bytes, 0, len);
+    table[index] = new Entry(bytes, string);
+    return string;
+  }
+
+  private static boolean matches(byte[] bytes, byte[] buf, int off, int len) {
+    if (bytes.length != len) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (bytes[i] != buf[off + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.io.Serializable;
+
+/**
+ * Turns the UTF-8 bytes of a string read off the wire into a String. Protocols that take one let
+ * applications decide how strings are made, for instance to share one instance among all the copies
+ * of a frequently repeated value, as {@link DedupStringDecoder} does. Decoders given to a protocol
+ * factory are shared by all of its protocols, and so have to be thread-safe. They are serialized
+ * along with the factory, and so have to be serializable too; a decoder whose state isn't worth
+ * serializing, like the cache of a {@link DedupStringDecoder}, leaves it out and starts afresh.
+ */
+public interface StringDecoder extends Serializable {
+
+  /** Decodes every string into a new String, which is what protocols do by default. */
+  StringDecoder DEFAULT = Utf8StringDecoder.INSTANCE;
+
+  /**
+   * Decode a string.
+   *
+   * @param buf the buffer the string's bytes are in, which must not be kept.
+   * @param off index in buf of the first byte of the string.
+   * @param len the number of bytes in the string.
+   * @return the string.
+   */
+  String decode(byte[] buf, int off, int len);
+}
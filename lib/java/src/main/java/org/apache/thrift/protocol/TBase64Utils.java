@@ -35,6 +35,18 @@ class TBase64Utils {
   private static final String ENCODE_TABLE =
       "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
 
+  /**
+   * The number of bytes that len bytes of unpadded encoding decode to. A single leftover byte at
+   * the end decodes to nothing.
+   *
+   * @param len the number of encoded bytes
+   * @return the length of the data they decode to
+   */
+  static int decodedLength(int len) {
+    int rem = len % 4;
+    return len / 4 * 3 + (rem > 1 ? rem - 1 : 0);
+  }
+
   /**
    * Encode len bytes of data in src at offset srcOff, storing the result into dst at offset dstOff.
    * len must be 1, 2, or 3. dst must have at least len+1 bytes of space at dstOff. src and dst
@@ -115,4 +127,43 @@ class TBase64Utils {
       }
     }
   }
+
+  /**
+   * Decode all len bytes of unpadded encoding in src at offset srcOff, storing the result into dst
+   * at offset dstOff. A single leftover byte at the end is ignored. dst must have at least {@link
+   * #decodedLength(int)} bytes of space at dstOff. src and dst may be the same object as long as
+   * dstOff <= srcOff. Bad data decodes just as it does through {@link #decode(byte[], int, int,
+   * byte[], int)}.
+   *
+   * @param src the source of bytes to decode
+   * @param srcOff the offset into the source to read the encoded bytes
+   * @param len the number of bytes to decode
+   * @param dst the destination for the decoding
+   * @param dstOff the offset into the destination to place the decoded bytes
+   * @return the offset into the destination just past the decoded bytes
+   */
+  static int decodeAll(byte[] src, int srcOff, int len, byte[] dst, int dstOff) {
+    int end = srcOff + len - len % 4;
+    for (; srcOff < end; srcOff += 4, dstOff += 3) {
+      int bits =
+          DECODE_TABLE[src[srcOff] & 0x0FF] << 18
+              | DECODE_TABLE[src[srcOff + 1] & 0x0FF] << 12
+              | DECODE_TABLE[src[srcOff + 2] & 0x0FF] << 6
+              | DECODE_TABLE[src[srcOff + 3] & 0x0FF];
+      if (bits < 0) {
+        // some byte isn't base-64
+        decode(src, srcOff, 4, dst, dstOff);
+      } else {
+        dst[dstOff] = (byte) (bits >> 16);
+        dst[dstOff + 1] = (byte) (bits >> 8);
+        dst[dstOff + 2] = (byte) bits;
+      }
+    }
+    int rem = len % 4;
+    if (rem > 1) {
+      decode(src, srcOff, rem, dst, dstOff);
+      dstOff += rem - 1;
+    }
+    return dstOff;
+  }
 }
@@ -20,17 +20,25 @@
 package org.apache.thrift.protocol;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.UUID;
 import org.apache.thrift.TException;
 import org.apache.thrift.partial.TFieldData;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.utils.Utf8;
 
 /** Binary protocol implementation for thrift. */
 public class TBinaryProtocol extends TProtocol {
   private static final TStruct ANONYMOUS_STRUCT = new TStruct();
   private static final long NO_LENGTH_LIMIT = -1;
+  private static final int SCRATCH_SIZE = 1024;
+  private static final int ARRAY_CHUNK_SIZE = 8192;
+
+  // what the raw values read by this protocol are recorded as encoded by
+  private static final TProtocolFactory RAW_VALUE_FACTORY = new Factory();
 
   protected static final int VERSION_MASK = 0xffff0000;
   protected static final int VERSION_1 = 0x80010000;
@@ -50,14 +58,25 @@ public class TBinaryProtocol extends TProtocol {
   protected boolean strictRead_;
   protected boolean strictWrite_;
 
+  /** Makes Strings of the strings read. */
+  private final StringDecoder stringDecoder_;
+
+  /** Decides whether the binaries read are copied out of the transport. */
+  private final BinaryPolicy binaryPolicy_;
+
   private final byte[] inoutTemp = new byte[16];
 
+  // strings and arrays go through this, a piece at a time, for transports without a buffer
+  private byte[] scratch_;
+
   /** Factory */
   public static class Factory implements TProtocolFactory {
     protected long stringLengthLimit_;
     protected long containerLengthLimit_;
     protected boolean strictRead_;
     protected boolean strictWrite_;
+    protected StringDecoder stringDecoder_;
+    protected BinaryPolicy binaryPolicy_;
 
     public Factory() {
       this(false, true);
@@ -76,15 +95,56 @@ public class TBinaryProtocol extends TProtocol {
         boolean strictWrite,
         long stringLengthLimit,
         long containerLengthLimit) {
+      this(strictRead, strictWrite, stringLengthLimit, containerLengthLimit, StringDecoder.DEFAULT);
+    }
+
+    /**
+     * @param stringDecoder makes Strings of the strings read, for all the protocols produced.
+     */
+    public Factory(
+        boolean strictRead,
+        boolean strictWrite,
+        long stringLengthLimit,
+        long containerLengthLimit,
+        StringDecoder stringDecoder) {
+      this(
+          strictRead,
+          strictWrite,
+          stringLengthLimit,
+          containerLengthLimit,
+          stringDecoder,
+          BinaryPolicy.ALIAS);
+    }
+
+    /**
+     * @param stringDecoder makes Strings of the strings read, for all the protocols produced.
+     * @param binaryPolicy decides whether the binaries read are copied, for all the protocols
+     *     produced.
+     */
+    public Factory(
+        boolean strictRead,
+        boolean strictWrite,
+        long stringLengthLimit,
+        long containerLengthLimit,
+        StringDecoder stringDecoder,
+        BinaryPolicy binaryPolicy) {
       stringLengthLimit_ = stringLengthLimit;
       containerLengthLimit_ = containerLengthLimit;
       strictRead_ = strictRead;
       strictWrite_ = strictWrite;
+      stringDecoder_ = stringDecoder;
+      binaryPolicy_ = binaryPolicy;
     }
 
     public TProtocol getProtocol(TTransport trans) {
       return new TBinaryProtocol(
-          trans, stringLengthLimit_, containerLengthLimit_, strictRead_, strictWrite_);
+          trans,
+          stringLengthLimit_,
+          containerLengthLimit_,
+          strictRead_,
+          strictWrite_,
+          stringDecoder_,
+          binaryPolicy_);
     }
   }
 
@@ -107,11 +167,47 @@ public class TBinaryProtocol extends TProtocol {
       long containerLengthLimit,
       boolean strictRead,
       boolean strictWrite) {
+    this(
+        trans,
+        stringLengthLimit,
+        containerLengthLimit,
+        strictRead,
+        strictWrite,
+        StringDecoder.DEFAULT);
+  }
+
+  public TBinaryProtocol(
+      TTransport trans,
+      long stringLengthLimit,
+      long containerLengthLimit,
+      boolean strictRead,
+      boolean strictWrite,
+      StringDecoder stringDecoder) {
+    this(
+        trans,
+        stringLengthLimit,
+        containerLengthLimit,
+        strictRead,
+        strictWrite,
+        stringDecoder,
+        BinaryPolicy.ALIAS);
+  }
+
+  public TBinaryProtocol(
+      TTransport trans,
+      long stringLengthLimit,
+      long containerLengthLimit,
+      boolean strictRead,
+      boolean strictWrite,
+      StringDecoder stringDecoder,
+      BinaryPolicy binaryPolicy) {
     super(trans);
     stringLengthLimit_ = stringLengthLimit;
     containerLengthLimit_ = containerLengthLimit;
     strictRead_ = strictRead;
     strictWrite_ = strictWrite;
+    stringDecoder_ = stringDecoder;
+    binaryPolicy_ = binaryPolicy;
   }
 
   @Override
@@ -139,8 +235,16 @@ public class TBinaryProtocol extends TProtocol {
 
   @Override
   public void writeFieldBegin(TField field) throws TException {
-    writeByte(field.type);
-    writeI16(field.id);
+    byte[] buf = trans_.reserveWriteBuffer(3);
+    if (buf != null) {
+      int off = trans_.getWriteBufferPosition();
+      buf[off] = field.type;
+      putI16(buf, off + 1, field.id);
+      trans_.commitWriteBuffer(3);
+    } else {
+      writeByte(field.type);
+      writeI16(field.id);
+    }
   }
 
   @Override
@@ -153,9 +257,18 @@ public class TBinaryProtocol extends TProtocol {
 
   @Override
   public void writeMapBegin(TMap map) throws TException {
-    writeByte(map.keyType);
-    writeByte(map.valueType);
-    writeI32(map.size);
+    byte[] buf = trans_.reserveWriteBuffer(6);
+    if (buf != null) {
+      int off = trans_.getWriteBufferPosition();
+      buf[off] = map.keyType;
+      buf[off + 1] = map.valueType;
+      putI32(buf, off + 2, map.size);
+      trans_.commitWriteBuffer(6);
+    } else {
+      writeByte(map.keyType);
+      writeByte(map.valueType);
+      writeI32(map.size);
+    }
   }
 
   @Override
@@ -163,8 +276,7 @@ public class TBinaryProtocol extends TProtocol {
 
   @Override
   public void writeListBegin(TList list) throws TException {
-    writeByte(list.elemType);
-    writeI32(list.size);
+    writeCollectionBegin(list.elemType, list.size);
   }
 
   @Override
@@ -172,13 +284,25 @@ public class TBinaryProtocol extends TProtocol {
 
   @Override
   public void writeSetBegin(TSet set) throws TException {
-    writeByte(set.elemType);
-    writeI32(set.size);
+    writeCollectionBegin(set.elemType, set.size);
   }
 
   @Override
   public void writeSetEnd() throws TException {}
 
+  private void writeCollectionBegin(byte elemType, int size) throws TException {
+    byte[] buf = trans_.reserveWriteBuffer(5);
+    if (buf != null) {
+      int off = trans_.getWriteBufferPosition();
+      buf[off] = elemType;
+      putI32(buf, off + 1, size);
+      trans_.commitWriteBuffer(5);
+    } else {
+      writeByte(elemType);
+      writeI32(size);
+    }
+  }
+
   @Override
   public void writeBool(boolean b) throws TException {
     writeByte(b ? (byte) 1 : (byte) 0);
@@ -186,64 +310,91 @@ public class TBinaryProtocol extends TProtocol {
 
   @Override
   public void writeByte(byte b) throws TException {
-    inoutTemp[0] = b;
-    trans_.write(inoutTemp, 0, 1);
+    byte[] buf = trans_.reserveWriteBuffer(1);
+    if (buf != null) {
+      buf[trans_.getWriteBufferPosition()] = b;
+      trans_.commitWriteBuffer(1);
+    } else {
+      inoutTemp[0] = b;
+      trans_.write(inoutTemp, 0, 1);
+    }
   }
 
   @Override
   public void writeI16(short i16) throws TException {
-    inoutTemp[0] = (byte) (0xff & (i16 >> 8));
-    inoutTemp[1] = (byte) (0xff & (i16));
-    trans_.write(inoutTemp, 0, 2);
+    byte[] buf = trans_.reserveWriteBuffer(2);
+    if (buf != null) {
+      putI16(buf, trans_.getWriteBufferPosition(), i16);
+      trans_.commitWriteBuffer(2);
+    } else {
+      putI16(inoutTemp, 0, i16);
+      trans_.write(inoutTemp, 0, 2);
+    }
   }
 
   @Override
   public void writeI32(int i32) throws TException {
-    inoutTemp[0] = (byte) (0xff & (i32 >> 24));
-    inoutTemp[1] = (byte) (0xff & (i32 >> 16));
-    inoutTemp[2] = (byte) (0xff & (i32 >> 8));
-    inoutTemp[3] = (byte) (0xff & (i32));
-    trans_.write(inoutTemp, 0, 4);
+    byte[] buf = trans_.reserveWriteBuffer(4);
+    if (buf != null) {
+      putI32(buf, trans_.getWriteBufferPosition(), i32);
+      trans_.commitWriteBuffer(4);
+    } else {
+      putI32(inoutTemp, 0, i32);
+      trans_.write(inoutTemp, 0, 4);
+    }
   }
 
   @Override
   public void writeI64(long i64) throws TException {
-    inoutTemp[0] = (byte) (0xff & (i64 >> 56));
-    inoutTemp[1] = (byte) (0xff & (i64 >> 48));
-    inoutTemp[2] = (byte) (0xff & (i64 >> 40));
-    inoutTemp[3] = (byte) (0xff & (i64 >> 32));
-    inoutTemp[4] = (byte) (0xff & (i64 >> 24));
-    inoutTemp[5] = (byte) (0xff & (i64 >> 16));
-    inoutTemp[6] = (byte) (0xff & (i64 >> 8));
-    inoutTemp[7] = (byte) (0xff & (i64));
-    trans_.write(inoutTemp, 0, 8);
+    byte[] buf = trans_.reserveWriteBuffer(8);
+    if (buf != null) {
+      putI64(buf, trans_.getWriteBufferPosition(), i64);
+      trans_.commitWriteBuffer(8);
+    } else {
+      putI64(inoutTemp, 0, i64);
+      trans_.write(inoutTemp, 0, 8);
+    }
   }
 
   @Override
   public void writeUuid(UUID uuid) throws TException {
-    {
-      long lsb = uuid.getLeastSignificantBits();
-      inoutTemp[0] = (byte) (0xff & (lsb >> 56));
-      inoutTemp[1] = (byte) (0xff & (lsb >> 48));
-      inoutTemp[2] = (byte) (0xff & (lsb >> 40));
-      inoutTemp[3] = (byte) (0xff & (lsb >> 32));
-      inoutTemp[4] = (byte) (0xff & (lsb >> 24));
-      inoutTemp[5] = (byte) (0xff & (lsb >> 16));
-      inoutTemp[6] = (byte) (0xff & (lsb >> 8));
-      inoutTemp[7] = (byte) (0xff & (lsb));
-    }
-    {
-      long msb = uuid.getMostSignificantBits();
-      inoutTemp[8] = (byte) (0xff & (msb >> 56));
-      inoutTemp[1 + 8] = (byte) (0xff & (msb >> 48));
-      inoutTemp[2 + 8] = (byte) (0xff & (msb >> 40));
-      inoutTemp[3 + 8] = (byte) (0xff & (msb >> 32));
-      inoutTemp[4 + 8] = (byte) (0xff & (msb >> 24));
-      inoutTemp[5 + 8] = (byte) (0xff & (msb >> 16));
-      inoutTemp[6 + 8] = (byte) (0xff & (msb >> 8));
-      inoutTemp[7 + 8] = (byte) (0xff & (msb));
-    }
-    trans_.write(inoutTemp, 0, 16);
+    byte[] buf = trans_.reserveWriteBuffer(16);
+    int off = 0;
+    if (buf != null) {
+      off = trans_.getWriteBufferPosition();
+    } else {
+      buf = inoutTemp;
+    }
+    putI64(buf, off, uuid.getLeastSignificantBits());
+    putI64(buf, off + 8, uuid.getMostSignificantBits());
+    if (buf != inoutTemp) {
+      trans_.commitWriteBuffer(16);
+    } else {
+      trans_.write(inoutTemp, 0, 16);
+    }
+  }
+
+  private static void putI16(byte[] buf, int off, short i16) {
+    buf[off] = (byte) (0xff & (i16 >> 8));
+    buf[off + 1] = (byte) (0xff & (i16));
+  }
+
+  private static void putI32(byte[] buf, int off, int i32) {
+    buf[off] = (byte) (0xff & (i32 >> 24));
+    buf[off + 1] = (byte) (0xff & (i32 >> 16));
+    buf[off + 2] = (byte) (0xff & (i32 >> 8));
+    buf[off + 3] = (byte) (0xff & (i32));
+  }
+
+  private static void putI64(byte[] buf, int off, long i64) {
+    buf[off] = (byte) (0xff & (i64 >> 56));
+    buf[off + 1] = (byte) (0xff & (i64 >> 48));
+    buf[off + 2] = (byte) (0xff & (i64 >> 40));
+    buf[off + 3] = (byte) (0xff & (i64 >> 32));
+    buf[off + 4] = (byte) (0xff & (i64 >> 24));
+    buf[off + 5] = (byte) (0xff & (i64 >> 16));
+    buf[off + 6] = (byte) (0xff & (i64 >> 8));
+    buf[off + 7] = (byte) (0xff & (i64));
   }
 
   @Override
@@ -253,9 +404,27 @@ public class TBinaryProtocol extends TProtocol {
 
   @Override
   public void writeString(String str) throws TException {
-    byte[] dat = str.getBytes(StandardCharsets.UTF_8);
-    writeI32(dat.length);
-    trans_.write(dat, 0, dat.length);
+    int length = Utf8.encodedLength(str);
+    byte[] buf = trans_.reserveWriteBuffer(4 + length);
+    if (buf != null) {
+      int off = trans_.getWriteBufferPosition();
+      putI32(buf, off, length);
+      Utf8.encode(str, buf, off + 4);
+      trans_.commitWriteBuffer(4 + length);
+    } else {
+      writeI32(length);
+      Utf8.write(str, scratch(), trans_);
+    }
+  }
+
+  /** Raw values encoded by this protocol are written as they are. */
+  @Override
+  public void writeRawValue(TRawValue value) throws TException {
+    if (value.getProtocolFactory() instanceof Factory) {
+      trans_.write(value.array(), 0, value.getLength());
+    } else {
+      super.writeRawValue(value);
+    }
   }
 
   @Override
@@ -265,6 +434,72 @@ public class TBinaryProtocol extends TProtocol {
     trans_.write(bin.array(), bin.position() + bin.arrayOffset(), length);
   }
 
+  @Override
+  public void writeI32Array(int[] src, int off, int len) throws TException {
+    while (len > 0) {
+      ByteBuffer bb = startArrayChunk(len, 4);
+      int n = bb.remaining() / 4;
+      bb.asIntBuffer().put(src, off, n);
+      finishArrayChunk(bb);
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void writeI64Array(long[] src, int off, int len) throws TException {
+    while (len > 0) {
+      ByteBuffer bb = startArrayChunk(len, 8);
+      int n = bb.remaining() / 8;
+      bb.asLongBuffer().put(src, off, n);
+      finishArrayChunk(bb);
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void writeDoubleArray(double[] src, int off, int len) throws TException {
+    while (len > 0) {
+      ByteBuffer bb = startArrayChunk(len, 8);
+      int n = bb.remaining() / 8;
+      bb.asDoubleBuffer().put(src, off, n);
+      finishArrayChunk(bb);
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Get room for the next values of an array being written, as many of the len left as go in one
+   * piece: in the transport's write buffer if it has one, or else in the scratch buffer.
+   */
+  private ByteBuffer startArrayChunk(int len, int size) {
+    int n = Math.min(len, ARRAY_CHUNK_SIZE);
+    byte[] buf = trans_.reserveWriteBuffer(n * size);
+    if (buf != null) {
+      return ByteBuffer.wrap(buf, trans_.getWriteBufferPosition(), n * size);
+    }
+    n = Math.min(n, SCRATCH_SIZE / size);
+    return ByteBuffer.wrap(scratch(), 0, n * size);
+  }
+
+  /** Write out the values put into the room that startArrayChunk() made. */
+  private void finishArrayChunk(ByteBuffer bb) throws TException {
+    if (bb.array() == scratch_) {
+      trans_.write(scratch_, 0, bb.remaining());
+    } else {
+      trans_.commitWriteBuffer(bb.remaining());
+    }
+  }
+
+  private byte[] scratch() {
+    if (scratch_ == null) {
+      scratch_ = new byte[SCRATCH_SIZE];
+    }
+    return scratch_;
+  }
+
   /** Reading methods. */
   @Override
   public TMessage readMessageBegin() throws TException {
@@ -454,13 +689,62 @@ public class TBinaryProtocol extends TProtocol {
     return Double.longBitsToDouble(readI64());
   }
 
+  @Override
+  public void readI32Array(int[] dst, int off, int len) throws TException {
+    while (len > 0) {
+      IntBuffer values = readArrayChunk(len, 4).asIntBuffer();
+      int n = values.remaining();
+      values.get(dst, off, n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void readI64Array(long[] dst, int off, int len) throws TException {
+    while (len > 0) {
+      LongBuffer values = readArrayChunk(len, 8).asLongBuffer();
+      int n = values.remaining();
+      values.get(dst, off, n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void readDoubleArray(double[] dst, int off, int len) throws TException {
+    while (len > 0) {
+      DoubleBuffer values = readArrayChunk(len, 8).asDoubleBuffer();
+      int n = values.remaining();
+      values.get(dst, off, n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Read the next values of an array, as many of the len left as are at hand: those in the
+   * transport's buffer, or else as many as the scratch buffer holds.
+   */
+  private ByteBuffer readArrayChunk(int len, int size) throws TException {
+    int remaining = trans_.getBytesRemainingInBuffer();
+    if (remaining >= size) {
+      int bytes = Math.min(len, remaining / size) * size;
+      ByteBuffer bb = ByteBuffer.wrap(trans_.getBuffer(), trans_.getBufferPosition(), bytes);
+      trans_.consumeBuffer(bytes);
+      return bb;
+    }
+    int bytes = Math.min(len, SCRATCH_SIZE / size) * size;
+    readAll(scratch(), 0, bytes);
+    return ByteBuffer.wrap(scratch_, 0, bytes);
+  }
+
   @Override
   public String readString() throws TException {
     int size = readI32();
 
     if (trans_.getBytesRemainingInBuffer() >= size) {
-      String s =
-          new String(trans_.getBuffer(), trans_.getBufferPosition(), size, StandardCharsets.UTF_8);
+      String s = stringDecoder_.decode(trans_.getBuffer(), trans_.getBufferPosition(), size);
       trans_.consumeBuffer(size);
       return s;
     }
@@ -472,7 +756,13 @@ public class TBinaryProtocol extends TProtocol {
     checkStringReadLength(size);
     byte[] buf = new byte[size];
     trans_.readAll(buf, 0, size);
-    return new String(buf, StandardCharsets.UTF_8);
+    return stringDecoder_.decode(buf, 0, size);
+  }
+
+  /** Raw values are copied from the transport's buffer as they are. */
+  @Override
+  public TRawValue readRawValue(byte type) throws TException {
+    return sliceRawValue(type, RAW_VALUE_FACTORY);
   }
 
   @Override
@@ -481,15 +771,7 @@ public class TBinaryProtocol extends TProtocol {
 
     checkStringReadLength(size);
 
-    if (trans_.getBytesRemainingInBuffer() >= size) {
-      ByteBuffer bb = ByteBuffer.wrap(trans_.getBuffer(), trans_.getBufferPosition(), size);
-      trans_.consumeBuffer(size);
-      return bb;
-    }
-
-    byte[] buf = new byte[size];
-    trans_.readAll(buf, 0, size);
-    return ByteBuffer.wrap(buf);
+    return binaryPolicy_.readBinary(trans_, size);
   }
 
   private void checkStringReadLength(int length) throws TException {
@@ -603,4 +885,44 @@ public class TBinaryProtocol extends TProtocol {
     int size = readI32();
     this.skipBytes(size);
   }
+
+  /** Values of a fixed width are skipped all together. */
+  @Override
+  protected void skipValues(byte type, int count) throws TException {
+    int width = fixedWidth(type);
+    if (width > 0) {
+      this.skipBytes((long) count * width);
+    } else {
+      super.skipValues(type, count);
+    }
+  }
+
+  @Override
+  protected void skipMapEntries(byte keyType, byte valueType, int count) throws TException {
+    int keyWidth = fixedWidth(keyType);
+    int valueWidth = fixedWidth(valueType);
+    if (keyWidth > 0 && valueWidth > 0) {
+      this.skipBytes((long) count * (keyWidth + valueWidth));
+    } else {
+      super.skipMapEntries(keyType, valueType, count);
+    }
+  }
+
+  /** The number of bytes a value of the type is written in, or 0 if that varies. */
+  private static int fixedWidth(byte type) {
+    switch (type) {
+      case TType.BOOL:
+      case TType.BYTE:
+        return 1;
+      case TType.I16:
+        return 2;
+      case TType.I32:
+        return 4;
+      case TType.I64:
+      case TType.DOUBLE:
+        return 8;
+      default:
+        return 0;
+    }
+  }
 }
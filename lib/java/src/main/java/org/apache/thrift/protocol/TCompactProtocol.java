@@ -20,11 +20,13 @@
 package org.apache.thrift.protocol;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 import java.util.UUID;
 import org.apache.thrift.TException;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.utils.Utf8;
 
 /**
  * TCompactProtocol2 is the Java implementation of the compact protocol specified in THRIFT-110. The
@@ -36,9 +38,13 @@ import org.apache.thrift.transport.TTransportException;
  */
 public class TCompactProtocol extends TProtocol {
   private static final byte[] EMPTY_BYTES = new byte[0];
-  private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.wrap(EMPTY_BYTES);
 
   private static final long NO_LENGTH_LIMIT = -1;
+  private static final int SCRATCH_SIZE = 1024;
+  private static final int ARRAY_CHUNK_SIZE = 8192;
+
+  // what the raw values read by this protocol are recorded as encoded by
+  private static final TProtocolFactory RAW_VALUE_FACTORY = new Factory();
 
   private static final TStruct ANONYMOUS_STRUCT = new TStruct("");
   private static final TField TSTOP = new TField("", TType.STOP, (short) 0);
@@ -65,6 +71,8 @@ public class TCompactProtocol extends TProtocol {
   public static class Factory implements TProtocolFactory {
     private final long stringLengthLimit_;
     private final long containerLengthLimit_;
+    private final StringDecoder stringDecoder_;
+    private final BinaryPolicy binaryPolicy_;
 
     public Factory() {
       this(NO_LENGTH_LIMIT, NO_LENGTH_LIMIT);
@@ -75,13 +83,40 @@ public class TCompactProtocol extends TProtocol {
     }
 
     public Factory(long stringLengthLimit, long containerLengthLimit) {
+      this(stringLengthLimit, containerLengthLimit, StringDecoder.DEFAULT);
+    }
+
+    /**
+     * @param stringLengthLimit the maximum number of bytes to read for variable-length fields.
+     * @param containerLengthLimit the maximum number of elements to read for containers.
+     * @param stringDecoder makes Strings of the strings read, for all the protocols produced.
+     */
+    public Factory(long stringLengthLimit, long containerLengthLimit, StringDecoder stringDecoder) {
+      this(stringLengthLimit, containerLengthLimit, stringDecoder, BinaryPolicy.ALIAS);
+    }
+
+    /**
+     * @param stringLengthLimit the maximum number of bytes to read for variable-length fields.
+     * @param containerLengthLimit the maximum number of elements to read for containers.
+     * @param stringDecoder makes Strings of the strings read, for all the protocols produced.
+     * @param binaryPolicy decides whether the binaries read are copied, for all the protocols
+     *     produced.
+     */
+    public Factory(
+        long stringLengthLimit,
+        long containerLengthLimit,
+        StringDecoder stringDecoder,
+        BinaryPolicy binaryPolicy) {
       this.containerLengthLimit_ = containerLengthLimit;
       this.stringLengthLimit_ = stringLengthLimit;
+      this.stringDecoder_ = stringDecoder;
+      this.binaryPolicy_ = binaryPolicy;
     }
 
     @Override
     public TProtocol getProtocol(TTransport trans) {
-      return new TCompactProtocol(trans, stringLengthLimit_, containerLengthLimit_);
+      return new TCompactProtocol(
+          trans, stringLengthLimit_, containerLengthLimit_, stringDecoder_, binaryPolicy_);
     }
   }
 
@@ -141,11 +176,23 @@ public class TCompactProtocol extends TProtocol {
    */
   private final long containerLengthLimit_;
 
+  /** Makes Strings of the strings read. */
+  private final StringDecoder stringDecoder_;
+
+  /** Decides whether the binaries read are copied out of the transport. */
+  private final BinaryPolicy binaryPolicy_;
+
   /**
    * Temporary buffer used for various operations that would otherwise require a small allocation.
    */
   private final byte[] temp = new byte[16];
 
+  // strings and arrays go through this, a piece at a time, for transports without a buffer
+  private byte[] scratch_;
+
+  // little-endian view of the transport's buffer, which varints are decoded from 8 bytes at a time
+  private ByteBuffer wordView_;
+
   /**
    * Create a TCompactProtocol.
    *
@@ -154,9 +201,45 @@ public class TCompactProtocol extends TProtocol {
    * @param containerLengthLimit the maximum number of elements to read for containers.
    */
   public TCompactProtocol(TTransport transport, long stringLengthLimit, long containerLengthLimit) {
+    this(transport, stringLengthLimit, containerLengthLimit, StringDecoder.DEFAULT);
+  }
+
+  /**
+   * Create a TCompactProtocol.
+   *
+   * @param transport the TTransport object to read from or write to.
+   * @param stringLengthLimit the maximum number of bytes to read for variable-length fields.
+   * @param containerLengthLimit the maximum number of elements to read for containers.
+   * @param stringDecoder makes Strings of the strings read.
+   */
+  public TCompactProtocol(
+      TTransport transport,
+      long stringLengthLimit,
+      long containerLengthLimit,
+      StringDecoder stringDecoder) {
+    this(transport, stringLengthLimit, containerLengthLimit, stringDecoder, BinaryPolicy.ALIAS);
+  }
+
+  /**
+   * Create a TCompactProtocol.
+   *
+   * @param transport the TTransport object to read from or write to.
+   * @param stringLengthLimit the maximum number of bytes to read for variable-length fields.
+   * @param containerLengthLimit the maximum number of elements to read for containers.
+   * @param stringDecoder makes Strings of the strings read.
+   * @param binaryPolicy decides whether the binaries read are copied out of the transport.
+   */
+  public TCompactProtocol(
+      TTransport transport,
+      long stringLengthLimit,
+      long containerLengthLimit,
+      StringDecoder stringDecoder,
+      BinaryPolicy binaryPolicy) {
     super(transport);
     this.stringLengthLimit_ = stringLengthLimit;
     this.containerLengthLimit_ = containerLengthLimit;
+    this.stringDecoder_ = stringDecoder;
+    this.binaryPolicy_ = binaryPolicy;
   }
 
   /**
@@ -196,9 +279,19 @@ public class TCompactProtocol extends TProtocol {
    */
   @Override
   public void writeMessageBegin(TMessage message) throws TException {
-    writeByteDirect(PROTOCOL_ID);
-    writeByteDirect((VERSION & VERSION_MASK) | ((message.type << TYPE_SHIFT_AMOUNT) & TYPE_MASK));
-    writeVarint32(message.seqid);
+    byte versionAndType =
+        (byte) ((VERSION & VERSION_MASK) | ((message.type << TYPE_SHIFT_AMOUNT) & TYPE_MASK));
+    byte[] buf = trans_.reserveWriteBuffer(7);
+    if (buf != null) {
+      int off = trans_.getWriteBufferPosition();
+      buf[off] = PROTOCOL_ID;
+      buf[off + 1] = versionAndType;
+      trans_.commitWriteBuffer(putVarint32(message.seqid, buf, off + 2) - off);
+    } else {
+      writeByteDirect(PROTOCOL_ID);
+      writeByteDirect(versionAndType);
+      writeVarint32(message.seqid);
+    }
     writeString(message.name);
   }
 
@@ -253,8 +346,15 @@ public class TCompactProtocol extends TProtocol {
       writeByteDirect((field.id - lastFieldId_) << 4 | typeToWrite);
     } else {
       // write them separate
-      writeByteDirect(typeToWrite);
-      writeI16(field.id);
+      byte[] buf = trans_.reserveWriteBuffer(4);
+      if (buf != null) {
+        int off = trans_.getWriteBufferPosition();
+        buf[off] = typeToWrite;
+        trans_.commitWriteBuffer(putVarint32(intToZigZag(field.id), buf, off + 1) - off);
+      } else {
+        writeByteDirect(typeToWrite);
+        writeI16(field.id);
+      }
     }
 
     lastFieldId_ = field.id;
@@ -276,8 +376,17 @@ public class TCompactProtocol extends TProtocol {
     if (map.size == 0) {
       writeByteDirect(0);
     } else {
-      writeVarint32(map.size);
-      writeByteDirect(getCompactType(map.keyType) << 4 | getCompactType(map.valueType));
+      byte types = (byte) (getCompactType(map.keyType) << 4 | getCompactType(map.valueType));
+      byte[] buf = trans_.reserveWriteBuffer(6);
+      if (buf != null) {
+        int off = trans_.getWriteBufferPosition();
+        int end = putVarint32(map.size, buf, off);
+        buf[end] = types;
+        trans_.commitWriteBuffer(end + 1 - off);
+      } else {
+        writeVarint32(map.size);
+        writeByteDirect(types);
+      }
     }
   }
 
@@ -337,23 +446,54 @@ public class TCompactProtocol extends TProtocol {
   /** Write a double to the wire as 8 bytes. */
   @Override
   public void writeDouble(double dub) throws TException {
-    fixedLongToBytes(Double.doubleToLongBits(dub), temp, 0);
-    trans_.write(temp, 0, 8);
+    byte[] buf = trans_.reserveWriteBuffer(8);
+    if (buf != null) {
+      fixedLongToBytes(Double.doubleToLongBits(dub), buf, trans_.getWriteBufferPosition());
+      trans_.commitWriteBuffer(8);
+    } else {
+      fixedLongToBytes(Double.doubleToLongBits(dub), temp, 0);
+      trans_.write(temp, 0, 8);
+    }
   }
 
   @Override
   public void writeUuid(UUID uuid) throws TException {
-    fixedLongToBytes(uuid.getLeastSignificantBits(), temp, 0);
-    fixedLongToBytes(uuid.getMostSignificantBits(), temp, 8);
-    trans_.write(temp, 0, 16);
+    byte[] buf = trans_.reserveWriteBuffer(16);
+    if (buf != null) {
+      int off = trans_.getWriteBufferPosition();
+      fixedLongToBytes(uuid.getLeastSignificantBits(), buf, off);
+      fixedLongToBytes(uuid.getMostSignificantBits(), buf, off + 8);
+      trans_.commitWriteBuffer(16);
+    } else {
+      fixedLongToBytes(uuid.getLeastSignificantBits(), temp, 0);
+      fixedLongToBytes(uuid.getMostSignificantBits(), temp, 8);
+      trans_.write(temp, 0, 16);
+    }
   }
 
   /** Write a string to the wire with a varint size preceding. */
   @Override
   public void writeString(String str) throws TException {
-    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
-    writeVarint32(bytes.length);
-    trans_.write(bytes, 0, bytes.length);
+    int length = Utf8.encodedLength(str);
+    byte[] buf = trans_.reserveWriteBuffer(5 + length);
+    if (buf != null) {
+      int off = trans_.getWriteBufferPosition();
+      int end = Utf8.encode(str, buf, putVarint32(length, buf, off));
+      trans_.commitWriteBuffer(end - off);
+    } else {
+      writeVarint32(length);
+      Utf8.write(str, scratch(), trans_);
+    }
+  }
+
+  /** Raw values encoded by this protocol are written as they are. */
+  @Override
+  public void writeRawValue(TRawValue value) throws TException {
+    if (value.getProtocolFactory() instanceof Factory) {
+      trans_.write(value.array(), 0, value.getLength());
+    } else {
+      super.writeRawValue(value);
+    }
   }
 
   /** Write a byte array, using a varint for the size. */
@@ -364,6 +504,92 @@ public class TCompactProtocol extends TProtocol {
     trans_.write(bb);
   }
 
+  /** Write i32s as zigzag varints, encoding as many at a time as fit. */
+  @Override
+  public void writeI32Array(int[] src, int off, int len) throws TException {
+    while (len > 0) {
+      int n = Math.min(len, ARRAY_CHUNK_SIZE);
+      byte[] buf = trans_.reserveWriteBuffer(n * 5);
+      if (buf != null) {
+        int start = trans_.getWriteBufferPosition();
+        int pos = start;
+        for (int i = off; i < off + n; i++) {
+          pos = putVarint32(intToZigZag(src[i]), buf, pos);
+        }
+        trans_.commitWriteBuffer(pos - start);
+      } else {
+        n = Math.min(n, SCRATCH_SIZE / 5);
+        byte[] scratch = scratch();
+        int pos = 0;
+        for (int i = off; i < off + n; i++) {
+          pos = putVarint32(intToZigZag(src[i]), scratch, pos);
+        }
+        trans_.write(scratch, 0, pos);
+      }
+      off += n;
+      len -= n;
+    }
+  }
+
+  /** Write i64s as zigzag varints, encoding as many at a time as fit. */
+  @Override
+  public void writeI64Array(long[] src, int off, int len) throws TException {
+    while (len > 0) {
+      int n = Math.min(len, ARRAY_CHUNK_SIZE);
+      byte[] buf = trans_.reserveWriteBuffer(n * 10);
+      if (buf != null) {
+        int start = trans_.getWriteBufferPosition();
+        int pos = start;
+        for (int i = off; i < off + n; i++) {
+          pos = putVarint64(longToZigzag(src[i]), buf, pos);
+        }
+        trans_.commitWriteBuffer(pos - start);
+      } else {
+        n = Math.min(n, SCRATCH_SIZE / 10);
+        byte[] scratch = scratch();
+        int pos = 0;
+        for (int i = off; i < off + n; i++) {
+          pos = putVarint64(longToZigzag(src[i]), scratch, pos);
+        }
+        trans_.write(scratch, 0, pos);
+      }
+      off += n;
+      len -= n;
+    }
+  }
+
+  /** Write doubles, which are fixed-size and little-endian, as many at a time as fit. */
+  @Override
+  public void writeDoubleArray(double[] src, int off, int len) throws TException {
+    while (len > 0) {
+      int n = Math.min(len, ARRAY_CHUNK_SIZE);
+      byte[] buf = trans_.reserveWriteBuffer(n * 8);
+      if (buf != null) {
+        ByteBuffer.wrap(buf, trans_.getWriteBufferPosition(), n * 8)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .asDoubleBuffer()
+            .put(src, off, n);
+        trans_.commitWriteBuffer(n * 8);
+      } else {
+        n = Math.min(n, SCRATCH_SIZE / 8);
+        ByteBuffer.wrap(scratch(), 0, n * 8)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .asDoubleBuffer()
+            .put(src, off, n);
+        trans_.write(scratch_, 0, n * 8);
+      }
+      off += n;
+      len -= n;
+    }
+  }
+
+  private byte[] scratch() {
+    if (scratch_ == null) {
+      scratch_ = new byte[SCRATCH_SIZE];
+    }
+    return scratch_;
+  }
+
   //
   // These methods are called by structs, but don't actually have any wire
   // output or purpose.
@@ -396,45 +622,61 @@ public class TCompactProtocol extends TProtocol {
     if (size <= 14) {
       writeByteDirect(size << 4 | getCompactType(elemType));
     } else {
-      writeByteDirect(0xf0 | getCompactType(elemType));
-      writeVarint32(size);
+      byte[] buf = trans_.reserveWriteBuffer(6);
+      if (buf != null) {
+        int off = trans_.getWriteBufferPosition();
+        buf[off] = (byte) (0xf0 | getCompactType(elemType));
+        trans_.commitWriteBuffer(putVarint32(size, buf, off + 1) - off);
+      } else {
+        writeByteDirect(0xf0 | getCompactType(elemType));
+        writeVarint32(size);
+      }
     }
   }
 
   /**
-   * Write an i32 as a varint. Results in 1-5 bytes on the wire. TODO: make a permanent buffer like
-   * writeVarint64?
+   * Write an i32 as a varint. Results in 1-5 bytes on the wire, encoded straight into the
+   * transport's write buffer if it has one.
    */
   private void writeVarint32(int n) throws TException {
-    int idx = 0;
-    while (true) {
-      if ((n & ~0x7F) == 0) {
-        temp[idx++] = (byte) n;
-        // writeByteDirect((byte)n);
-        break;
-        // return;
-      } else {
-        temp[idx++] = (byte) ((n & 0x7F) | 0x80);
-        // writeByteDirect((byte)((n & 0x7F) | 0x80));
-        n >>>= 7;
-      }
+    byte[] buf = trans_.reserveWriteBuffer(5);
+    if (buf != null) {
+      int off = trans_.getWriteBufferPosition();
+      trans_.commitWriteBuffer(putVarint32(n, buf, off) - off);
+    } else {
+      trans_.write(temp, 0, putVarint32(n, temp, 0));
     }
-    trans_.write(temp, 0, idx);
   }
 
   /** Write an i64 as a varint. Results in 1-10 bytes on the wire. */
   private void writeVarint64(long n) throws TException {
-    int idx = 0;
-    while (true) {
-      if ((n & ~0x7FL) == 0) {
-        temp[idx++] = (byte) n;
-        break;
-      } else {
-        temp[idx++] = ((byte) ((n & 0x7F) | 0x80));
-        n >>>= 7;
-      }
+    byte[] buf = trans_.reserveWriteBuffer(10);
+    if (buf != null) {
+      int off = trans_.getWriteBufferPosition();
+      trans_.commitWriteBuffer(putVarint64(n, buf, off) - off);
+    } else {
+      trans_.write(temp, 0, putVarint64(n, temp, 0));
+    }
+  }
+
+  /** Put n into buf at off as a varint, and return the index just past it. */
+  private static int putVarint32(int n, byte[] buf, int off) {
+    while ((n & ~0x7F) != 0) {
+      buf[off++] = (byte) ((n & 0x7F) | 0x80);
+      n >>>= 7;
+    }
+    buf[off++] = (byte) n;
+    return off;
+  }
+
+  /** Put n into buf at off as a varint, and return the index just past it. */
+  private static int putVarint64(long n, byte[] buf, int off) {
+    while ((n & ~0x7FL) != 0) {
+      buf[off++] = (byte) ((n & 0x7F) | 0x80);
+      n >>>= 7;
     }
-    trans_.write(temp, 0, idx);
+    buf[off++] = (byte) n;
+    return off;
   }
 
   /**
@@ -470,8 +712,14 @@ public class TCompactProtocol extends TProtocol {
    * other writing methods that know they need to write a byte.
    */
   private void writeByteDirect(byte b) throws TException {
-    temp[0] = b;
-    trans_.write(temp, 0, 1);
+    byte[] buf = trans_.reserveWriteBuffer(1);
+    if (buf != null) {
+      buf[trans_.getWriteBufferPosition()] = b;
+      trans_.commitWriteBuffer(1);
+    } else {
+      temp[0] = b;
+      trans_.write(temp, 0, 1);
+    }
   }
 
   /** Writes a byte without any possibility of all that field header nonsense. */
@@ -668,6 +916,126 @@ public class TCompactProtocol extends TProtocol {
     return new UUID(mostSigBits, leastSigBits);
   }
 
+  /**
+   * Read i32s, decoding the zigzag varints of as many at a time as are in the transport's buffer.
+   */
+  @Override
+  public void readI32Array(int[] dst, int off, int len) throws TException {
+    int end = off + len;
+    while (off < end) {
+      int remaining = trans_.getBytesRemainingInBuffer();
+      if (remaining < 8) {
+        dst[off++] = readI32();
+        continue;
+      }
+      byte[] buf = trans_.getBuffer();
+      int start = trans_.getBufferPosition();
+      // stop while a whole word can still be loaded, the rest go one at a time
+      int last = start + remaining - 8;
+      int pos = start;
+      ByteBuffer words = words(buf);
+      while (off < end && pos <= last) {
+        byte b0 = buf[pos];
+        byte b1 = buf[pos + 1];
+        if ((b0 & b1) >= 0) {
+          int more = b0 >> 31;
+          dst[off++] = zigzagToInt(twoByteVarint(b0, b1, more));
+          pos += 1 - more;
+          continue;
+        }
+        long word = words.getLong(pos);
+        int length = varintLength(word);
+        if (length > 5) {
+          break;
+        }
+        dst[off++] = zigzagToInt((int) varintValue(word));
+        pos += length;
+      }
+      trans_.consumeBuffer(pos - start);
+      if (off < end && pos <= last) {
+        // an overlong varint, which readI32 copes with as it always has
+        dst[off++] = readI32();
+      }
+    }
+  }
+
+  /**
+   * Read i64s, decoding the zigzag varints of as many at a time as are in the transport's buffer.
+   */
+  @Override
+  public void readI64Array(long[] dst, int off, int len) throws TException {
+    int end = off + len;
+    while (off < end) {
+      int remaining = trans_.getBytesRemainingInBuffer();
+      if (remaining < 10) {
+        dst[off++] = readI64();
+        continue;
+      }
+      byte[] buf = trans_.getBuffer();
+      int start = trans_.getBufferPosition();
+      // stop while the longest varint still fits, the rest go one at a time
+      int last = start + remaining - 10;
+      int pos = start;
+      ByteBuffer words = words(buf);
+      while (off < end && pos <= last) {
+        byte b0 = buf[pos];
+        byte b1 = buf[pos + 1];
+        if ((b0 & b1) >= 0) {
+          int more = b0 >> 31;
+          dst[off++] = zigzagToLong(twoByteVarint(b0, b1, more));
+          pos += 1 - more;
+          continue;
+        }
+        long word = words.getLong(pos);
+        int length = varintLength(word);
+        long result = varintValue(word);
+        if (length > 8) {
+          byte b = buf[pos + 8];
+          result |= (long) (b & 0x7f) << 56;
+          length = 9;
+          if (b < 0) {
+            b = buf[pos + 9];
+            result |= (long) (b & 0x7f) << 63;
+            length = 10;
+            if (b < 0) {
+              break;
+            }
+          }
+        }
+        dst[off++] = zigzagToLong(result);
+        pos += length;
+      }
+      trans_.consumeBuffer(pos - start);
+      if (off < end && pos <= last) {
+        // an overlong varint, which readI64 copes with as it always has
+        dst[off++] = readI64();
+      }
+    }
+  }
+
+  /** Read doubles, as many at a time as are in the transport's buffer or fit in scratch. */
+  @Override
+  public void readDoubleArray(double[] dst, int off, int len) throws TException {
+    while (len > 0) {
+      int remaining = trans_.getBytesRemainingInBuffer();
+      ByteBuffer bb;
+      if (remaining >= 8) {
+        int bytes = Math.min(len, remaining / 8) * 8;
+        bb = ByteBuffer.wrap(trans_.getBuffer(), trans_.getBufferPosition(), bytes);
+        trans_.consumeBuffer(bytes);
+      } else {
+        int bytes = Math.min(len, SCRATCH_SIZE / 8) * 8;
+        trans_.readAll(scratch(), 0, bytes);
+        bb = ByteBuffer.wrap(scratch_, 0, bytes);
+      }
+      DoubleBuffer values = bb.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+      int n = values.remaining();
+      values.get(dst, off, n);
+      off += n;
+      len -= n;
+    }
+  }
+
   /** Reads a byte[] (via readBinary), and then UTF-8 decodes it. */
   @Override
   public String readString() throws TException {
@@ -680,33 +1048,26 @@ public class TCompactProtocol extends TProtocol {
 
     final String str;
     if (trans_.getBytesRemainingInBuffer() >= length) {
-      str =
-          new String(
-              trans_.getBuffer(), trans_.getBufferPosition(), length, StandardCharsets.UTF_8);
+      str = stringDecoder_.decode(trans_.getBuffer(), trans_.getBufferPosition(), length);
       trans_.consumeBuffer(length);
     } else {
-      str = new String(readBinary(length), StandardCharsets.UTF_8);
+      str = stringDecoder_.decode(readBinary(length), 0, length);
     }
     return str;
   }
 
+  /** Raw values are copied from the transport's buffer as they are. */
+  @Override
+  public TRawValue readRawValue(byte type) throws TException {
+    return sliceRawValue(type, RAW_VALUE_FACTORY);
+  }
+
   /** Read a ByteBuffer from the wire. */
   @Override
   public ByteBuffer readBinary() throws TException {
     int length = readVarint32();
-    if (length == 0) {
-      return EMPTY_BUFFER;
-    }
     getTransport().checkReadBytesAvailable(length);
-    if (trans_.getBytesRemainingInBuffer() >= length) {
-      ByteBuffer bb = ByteBuffer.wrap(trans_.getBuffer(), trans_.getBufferPosition(), length);
-      trans_.consumeBuffer(length);
-      return bb;
-    }
-
-    byte[] buf = new byte[length];
-    trans_.readAll(buf, 0, length);
-    return ByteBuffer.wrap(buf);
+    return binaryPolicy_.readBinary(trans_, length);
   }
 
   /** Read a byte[] of a known length from the wire. */
@@ -769,27 +1130,46 @@ public class TCompactProtocol extends TProtocol {
    * follow. This can read up to 5 bytes.
    */
   private int readVarint32() throws TException {
+    int remaining = trans_.getBytesRemainingInBuffer();
+    if (remaining >= 8) {
+      byte[] buf = trans_.getBuffer();
+      int pos = trans_.getBufferPosition();
+      byte b0 = buf[pos];
+      byte b1 = buf[pos + 1];
+      if ((b0 & b1) >= 0) {
+        int more = b0 >> 31;
+        trans_.consumeBuffer(1 - more);
+        return twoByteVarint(b0, b1, more);
+      }
+      long word = words(buf).getLong(pos);
+      int length = varintLength(word);
+      if (length <= 5) {
+        trans_.consumeBuffer(length);
+        return (int) varintValue(word);
+      }
+    }
+    // the tail of the buffer, which the varint may or may not end in
     int result = 0;
     int shift = 0;
-    if (trans_.getBytesRemainingInBuffer() >= 5) {
+    if (remaining > 0) {
       byte[] buf = trans_.getBuffer();
       int pos = trans_.getBufferPosition();
-      int off = 0;
-      while (true) {
-        byte b = buf[pos + off];
-        result |= (b & 0x7f) << shift;
-        if ((b & 0x80) != 0x80) break;
-        shift += 7;
-        off++;
-      }
-      trans_.consumeBuffer(off + 1);
-    } else {
-      while (true) {
-        byte b = readByte();
+      for (int i = 0; i < remaining; i++) {
+        byte b = buf[pos + i];
         result |= (b & 0x7f) << shift;
-        if ((b & 0x80) != 0x80) break;
+        if (b >= 0) {
+          trans_.consumeBuffer(i + 1);
+          return result;
+        }
         shift += 7;
       }
+      trans_.consumeBuffer(remaining);
+    }
+    while (true) {
+      byte b = readByte();
+      result |= (b & 0x7f) << shift;
+      if ((b & 0x80) != 0x80) break;
+      shift += 7;
     }
     return result;
   }
@@ -799,31 +1179,117 @@ public class TCompactProtocol extends TProtocol {
    * byte to follow. This can read up to 10 bytes.
    */
   private long readVarint64() throws TException {
-    int shift = 0;
+    int remaining = trans_.getBytesRemainingInBuffer();
     long result = 0;
-    if (trans_.getBytesRemainingInBuffer() >= 10) {
+    int shift = 0;
+    if (remaining >= 8) {
       byte[] buf = trans_.getBuffer();
       int pos = trans_.getBufferPosition();
-      int off = 0;
-      while (true) {
-        byte b = buf[pos + off];
-        result |= (long) (b & 0x7f) << shift;
-        if ((b & 0x80) != 0x80) break;
-        shift += 7;
-        off++;
+      byte b0 = buf[pos];
+      byte b1 = buf[pos + 1];
+      if ((b0 & b1) >= 0) {
+        int more = b0 >> 31;
+        trans_.consumeBuffer(1 - more);
+        return twoByteVarint(b0, b1, more);
       }
-      trans_.consumeBuffer(off + 1);
-    } else {
-      while (true) {
-        byte b = readByte();
+      long word = words(buf).getLong(pos);
+      int length = varintLength(word);
+      if (length <= 8) {
+        trans_.consumeBuffer(length);
+        return varintValue(word);
+      }
+      // a varint this long carries on past the word, for one or two bytes if it is well-formed
+      result = varintValue(word);
+      if (remaining >= 10) {
+        byte b = buf[pos + 8];
+        result |= (long) (b & 0x7f) << 56;
+        if (b >= 0) {
+          trans_.consumeBuffer(9);
+          return result;
+        }
+        b = buf[pos + 9];
+        if (b >= 0) {
+          trans_.consumeBuffer(10);
+          return result | (long) b << 63;
+        }
+        result |= (long) (b & 0x7f) << 63;
+        trans_.consumeBuffer(10);
+        remaining -= 10;
+        shift = 70;
+      } else {
+        trans_.consumeBuffer(8);
+        remaining -= 8;
+        shift = 56;
+      }
+    }
+    // the tail of the buffer, which the varint may or may not end in
+    if (remaining > 0) {
+      byte[] buf = trans_.getBuffer();
+      int pos = trans_.getBufferPosition();
+      for (int i = 0; i < remaining; i++) {
+        byte b = buf[pos + i];
         result |= (long) (b & 0x7f) << shift;
-        if ((b & 0x80) != 0x80) break;
+        if (b >= 0) {
+          trans_.consumeBuffer(i + 1);
+          return result;
+        }
         shift += 7;
       }
+      trans_.consumeBuffer(remaining);
+    }
+    while (true) {
+      byte b = readByte();
+      result |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) != 0x80) break;
+      shift += 7;
     }
     return result;
   }
 
+  /**
+   * The value of a varint of one or two bytes, which it is if either byte has its MSB clear. more
+   * is -1 if the first byte's MSB is set, and 0 if not; it masks the second byte in or out and
+   * gives the length as 1 - more, so neither depends on a branch.
+   */
+  private static int twoByteVarint(byte b0, byte b1, int more) {
+    return (b0 & 0x7f) | ((b1 << 7) & more);
+  }
+
+  /** A little-endian view of the transport's buffer, to load 8 bytes at a time from. */
+  private ByteBuffer words(byte[] buf) {
+    if (wordView_ == null || wordView_.array() != buf) {
+      wordView_ = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return wordView_;
+  }
+
+  /**
+   * The number of bytes in the varint at the start of a little-endian word: one more than the index
+   * of the first byte without its MSB set, or 9 if there is none.
+   */
+  private static int varintLength(long word) {
+    return (Long.numberOfTrailingZeros(~word & 0x8080808080808080L) >>> 3) + 1;
+  }
+
+  /**
+   * The value of the varint at the start of a little-endian word, or of its first 8 bytes if it is
+   * longer: the bytes past its end are masked off and the 7-bit groups of the rest packed together,
+   * without a branch for each byte.
+   */
+  private static long varintValue(long word) {
+    long ends = ~word & 0x8080808080808080L;
+    // everything up to and including the lowest MSB that is clear
+    long bits = word & (ends ^ (ends - 1));
+    return (bits & 0x7fL)
+        | ((bits >>> 1) & 0x3f80L)
+        | ((bits >>> 2) & 0x1fc000L)
+        | ((bits >>> 3) & 0xfe00000L)
+        | ((bits >>> 4) & 0x7f0000000L)
+        | ((bits >>> 5) & 0x3f800000000L)
+        | ((bits >>> 6) & 0x1fc0000000000L)
+        | ((bits >>> 7) & 0xfe000000000000L);
+  }
+
   //
   // encoding helpers
   //
@@ -949,4 +1415,95 @@ public class TCompactProtocol extends TProtocol {
     int size = intToZigZag(readI32());
     this.skipBytes(size);
   }
+
+  /**
+   * Values of a fixed width are skipped all together, and varints by counting the bytes that end
+   * them.
+   */
+  @Override
+  protected void skipValues(byte type, int count) throws TException {
+    int width = fixedWidth(type);
+    if (width > 0) {
+      this.skipBytes((long) count * width);
+    } else if (width < 0) {
+      skipVarints(count);
+    } else {
+      super.skipValues(type, count);
+    }
+  }
+
+  @Override
+  protected void skipMapEntries(byte keyType, byte valueType, int count) throws TException {
+    int keyWidth = fixedWidth(keyType);
+    int valueWidth = fixedWidth(valueType);
+    if (keyWidth > 0 && valueWidth > 0) {
+      this.skipBytes((long) count * (keyWidth + valueWidth));
+    } else if (keyWidth < 0 && valueWidth < 0) {
+      skipVarints(2L * count);
+    } else {
+      super.skipMapEntries(keyType, valueType, count);
+    }
+  }
+
+  /**
+   * The number of bytes a value of the type is written in as a container element, -1 if it is a
+   * varint, or 0 if it is something else.
+   */
+  private static int fixedWidth(byte type) {
+    switch (type) {
+      case TType.BOOL:
+      case TType.BYTE:
+        return 1;
+      case TType.DOUBLE:
+        return 8;
+      case TType.I16:
+      case TType.I32:
+      case TType.I64:
+        return -1;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Skip count varints. What is buffered is scanned a word at a time for the bytes without their
+   * MSB set, which are the last of each varint; when nothing is, they are read one at a time.
+   */
+  private void skipVarints(long count) throws TException {
+    while (count > 0) {
+      int remaining = trans_.getBytesRemainingInBuffer();
+      if (remaining <= 0) {
+        readVarint64();
+        count--;
+        continue;
+      }
+      byte[] buf = trans_.getBuffer();
+      int pos = trans_.getBufferPosition();
+      int end = pos + remaining;
+      int i = pos;
+      if (remaining >= 8) {
+        ByteBuffer words = words(buf);
+        for (; i <= end - 8; i += 8) {
+          long ends = ~words.getLong(i) & 0x8080808080808080L;
+          int n = Long.bitCount(ends);
+          if (n >= count) {
+            // the last varint ends in this word, at its count-th end
+            for (; count > 1; count--) {
+              ends &= ends - 1;
+            }
+            i += (Long.numberOfTrailingZeros(ends) >>> 3) + 1;
+            count = 0;
+            break;
+          }
+          count -= n;
+        }
+      }
+      for (; count > 0 && i < end; i++) {
+        if (buf[i] >= 0) {
+          count--;
+        }
+      }
+      trans_.consumeBuffer(i - pos);
+    }
+  }
 }
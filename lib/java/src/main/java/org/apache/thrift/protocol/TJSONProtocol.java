@@ -19,11 +19,10 @@
 
 package org.apache.thrift.protocol;
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.UUID;
 import org.apache.thrift.TByteArrayOutputStream;
 import org.apache.thrift.TException;
@@ -54,25 +53,31 @@ public class TJSONProtocol extends TProtocol {
     }
   }
 
-  private static final byte[] COMMA = new byte[] {','};
-  private static final byte[] COLON = new byte[] {':'};
   private static final byte[] LBRACE = new byte[] {'{'};
   private static final byte[] RBRACE = new byte[] {'}'};
   private static final byte[] LBRACKET = new byte[] {'['};
   private static final byte[] RBRACKET = new byte[] {']'};
   private static final byte[] QUOTE = new byte[] {'"'};
-  private static final byte[] BACKSLASH = new byte[] {'\\'};
-
-  private static final byte[] ESCSEQ = new byte[] {'\\', 'u', '0', '0'};
+  private static final byte[] RBRACE_RBRACKET = new byte[] {'}', ']'};
 
   private static final long VERSION = 1;
 
-  private static final byte[] JSON_CHAR_TABLE = {
-    /*  0   1   2   3   4   5   6   7   8   9   A   B   C   D   E   F */
-    0, 0, 0, 0, 0, 0, 0, 0, 'b', 't', 'n', 0, 'f', 'r', 0, 0, // 0
-    0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, // 1
-    1, 1, '"', 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, // 2
-  };
+  // How each char below 0x80 is written in a JSON string: 0 for as it is, 1 for as the six char
+  // escape of its hex code, or otherwise the char to write after a backslash
+  private static final byte[] JSON_ESCAPES = new byte[0x80];
+
+  static {
+    for (int i = 0; i < 0x20; i++) {
+      JSON_ESCAPES[i] = 1;
+    }
+    JSON_ESCAPES['\b'] = 'b';
+    JSON_ESCAPES['\t'] = 't';
+    JSON_ESCAPES['\n'] = 'n';
+    JSON_ESCAPES['\f'] = 'f';
+    JSON_ESCAPES['\r'] = 'r';
+    JSON_ESCAPES['"'] = '"';
+    JSON_ESCAPES['\\'] = '\\';
+  }
 
   private static final String ESCAPE_CHARS = "\"\\/bfnrt";
 
@@ -82,6 +87,41 @@ public class TJSONProtocol extends TProtocol {
 
   private static final int DEF_STRING_SIZE = 16;
 
+  // Strings read into a buffer bigger than this don't get to keep it for the next one
+  private static final int MAX_RETAINED_STRING_SIZE = 64 * 1024;
+
+  // Number of chars of a string written at a time
+  private static final int STRING_CHUNK_CHARS = 1024;
+
+  // Number of bytes of binary data base-64 encoded at a time; a multiple of 3, so that only the
+  // last piece has any bytes left over
+  private static final int BASE64_CHUNK_BYTES = 3 * 4096;
+
+  private static final Base64.Encoder BASE64_ENCODER = Base64.getEncoder().withoutPadding();
+
+  private static final Base64.Decoder BASE64_DECODER = Base64.getDecoder();
+
+  private static final byte[] LONG_MIN_VALUE =
+      Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+  private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0);
+
+  // Powers of ten that a long can hold; the ones up to 1e22 are exact as doubles too
+  private static final long[] POWERS_OF_TEN = new long[19];
+
+  private static final double[] DOUBLE_POWERS_OF_TEN = new double[23];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+    DOUBLE_POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < DOUBLE_POWERS_OF_TEN.length; i++) {
+      DOUBLE_POWERS_OF_TEN[i] = DOUBLE_POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
   private static final byte[] NAME_BOOL = new byte[] {'t', 'f'};
   private static final byte[] NAME_BYTE = new byte[] {'i', '8'};
   private static final byte[] NAME_I16 = new byte[] {'i', '1', '6'};
@@ -128,9 +168,9 @@ public class TJSONProtocol extends TProtocol {
     }
   }
 
-  private static byte getTypeIDForTypeName(byte[] name) throws TException {
+  private static byte getTypeIDForTypeName(byte[] name, int len) throws TException {
     byte result = TType.STOP;
-    if (name.length > 1) {
+    if (len > 1) {
       switch (name[0]) {
         case 'd':
           result = TType.DOUBLE;
@@ -181,137 +221,81 @@ public class TJSONProtocol extends TProtocol {
     return result;
   }
 
-  // Base class for tracking JSON contexts that may require inserting/reading
-  // additional JSON syntax characters
-  // This base context does nothing.
-  protected static class JSONBaseContext {
-    protected void write() throws TException {}
-
-    protected void read() throws TException {}
-
-    protected boolean escapeNum() {
-      return false;
-    }
-  }
-
-  // Context for JSON lists. Will insert/read commas before each item except
-  // for the first one
-  protected class JSONListContext extends JSONBaseContext {
-    private boolean first_ = true;
-
-    @Override
-    protected void write() throws TException {
-      if (first_) {
-        first_ = false;
-      } else {
-        trans_.write(COMMA);
-      }
-    }
-
-    @Override
-    protected void read() throws TException {
-      if (first_) {
-        first_ = false;
-      } else {
-        readJSONSyntaxChar(COMMA);
-      }
-    }
-  }
-
-  // Context for JSON records. Will insert/read colons before the value portion
-  // of each record pair, and commas before each key except the first. In
-  // addition, will indicate that numbers in the key position need to be
-  // escaped in quotes (since JSON keys must be strings).
-  protected class JSONPairContext extends JSONBaseContext {
-    private boolean first_ = true;
-    private boolean colon_ = true;
+  // What the next value read or written at a level of nesting is, and so what goes in front of it.
+  // Outside of any array or object nothing does.
+  private static final byte CTX_BASE = 0;
+  // The first element of an array, which nothing goes in front of
+  private static final byte CTX_LIST_FIRST = 1;
+  // A later element of an array, which a comma goes in front of
+  private static final byte CTX_LIST = 2;
+  // The first key of an object, which nothing goes in front of
+  private static final byte CTX_PAIR_FIRST = 3;
+  // The value for a key, which a colon goes in front of. Numbers that have just been moved past
+  // into this context are keys, and so have to be quoted, since JSON keys must be strings.
+  private static final byte CTX_PAIR_VALUE = 4;
+  // A later key of an object, which a comma goes in front of
+  private static final byte CTX_PAIR_KEY = 5;
 
-    @Override
-    protected void write() throws TException {
-      if (first_) {
-        first_ = false;
-        colon_ = true;
-      } else {
-        trans_.write(colon_ ? COLON : COMMA);
-        colon_ = !colon_;
-      }
-    }
-
-    @Override
-    protected void read() throws TException {
-      if (first_) {
-        first_ = false;
-        colon_ = true;
-      } else {
-        readJSONSyntaxChar(colon_ ? COLON : COMMA);
-        colon_ = !colon_;
-      }
-    }
-
-    @Override
-    protected boolean escapeNum() {
-      return colon_;
-    }
-  }
-
-  // Holds up to one byte from the transport
-  protected class LookaheadReader {
-
-    private boolean hasData_;
-    private final byte[] data_ = new byte[1];
-
-    // Return and consume the next byte to be read, either taking it from the
-    // data buffer if present or getting it from the transport otherwise.
-    protected byte read() throws TException {
-      if (hasData_) {
-        hasData_ = false;
-      } else {
-        trans_.readAll(data_, 0, 1);
-      }
-      return data_[0];
-    }
-
-    // Return the next byte to be read without consuming, filling the data
-    // buffer if it has not been filled already.
-    protected byte peek() throws TException {
-      if (!hasData_) {
-        trans_.readAll(data_, 0, 1);
-      }
-      hasData_ = true;
-      return data_[0];
-    }
-  }
+  // Contexts of the arrays and objects enclosing the current one, innermost last
+  private byte[] contextStack_ = new byte[16];
 
-  // Stack of nested contexts that we may be in
-  private final Stack<JSONBaseContext> contextStack_ = new Stack<>();
+  // Number of contexts on contextStack_
+  private int contextDepth_;
 
   // Current context that we are in
-  private JSONBaseContext context_ = new JSONBaseContext();
-
-  // Reader that manages a 1-byte buffer
-  private LookaheadReader reader_ = new LookaheadReader();
+  private byte context_ = CTX_BASE;
 
   // Write out the TField names as a string instead of the default integer value
   private boolean fieldNamesAsString_ = false;
 
   // Push a new JSON context onto the stack.
-  private void pushContext(JSONBaseContext c) {
-    contextStack_.push(context_);
+  private void pushContext(byte c) {
+    if (contextDepth_ == contextStack_.length) {
+      contextStack_ = Arrays.copyOf(contextStack_, contextDepth_ * 2);
+    }
+    contextStack_[contextDepth_++] = context_;
     context_ = c;
   }
 
   // Pop the last JSON context off the stack
   private void popContext() {
-    context_ = contextStack_.pop();
+    context_ = contextStack_[--contextDepth_];
   }
 
   // Reset the context stack to its initial state
   private void resetContext() {
-    while (!contextStack_.isEmpty()) {
-      popContext();
+    contextDepth_ = 0;
+    context_ = CTX_BASE;
+  }
+
+  // Move the current context past the next value, returning the syntax char that goes in front of
+  // that value, or 0 if there is none.
+  private byte nextInContext() {
+    switch (context_) {
+      case CTX_LIST_FIRST:
+        context_ = CTX_LIST;
+        return 0;
+      case CTX_LIST:
+        return ',';
+      case CTX_PAIR_FIRST:
+        context_ = CTX_PAIR_VALUE;
+        return 0;
+      case CTX_PAIR_VALUE:
+        context_ = CTX_PAIR_KEY;
+        return ':';
+      case CTX_PAIR_KEY:
+        context_ = CTX_PAIR_VALUE;
+        return ',';
+      default:
+        return 0;
     }
   }
 
+  // Whether a number in the current position has to be quoted
+  private boolean escapeNum() {
+    return context_ == CTX_PAIR_VALUE || context_ == CTX_PAIR_FIRST;
+  }
+
   /** Constructor */
   public TJSONProtocol(TTransport trans) {
     super(trans);
@@ -324,25 +308,13 @@ public class TJSONProtocol extends TProtocol {
 
   @Override
   public void reset() {
-    contextStack_.clear();
-    context_ = new JSONBaseContext();
-    reader_ = new LookaheadReader();
+    resetContext();
+    hasPeeked_ = false;
   }
 
   // Temporary buffer used by several methods
   private final byte[] tmpbuf_ = new byte[4];
 
-  // Read a byte that must match b[0]; otherwise an exception is thrown.
-  // Marked protected to avoid synthetic accessor in JSONListContext.read
-  // and JSONPairContext.read
-  protected void readJSONSyntaxChar(byte[] b) throws TException {
-    byte ch = reader_.read();
-    if (ch != b[0]) {
-      throw new TProtocolException(
-          TProtocolException.INVALID_DATA, "Unexpected character:" + (char) ch);
-    }
-  }
-
   // Convert a byte containing a hex char ('0'-'9' or 'a'-'f') into its
   // corresponding hex value
   private static byte hexVal(byte ch) throws TException {
@@ -356,7 +328,7 @@ public class TJSONProtocol extends TProtocol {
   }
 
   // Convert a byte containing a hex value to its corresponding hex character
-  private static byte hexChar(byte val) {
+  private static byte hexChar(int val) {
     val &= 0x0F;
     if (val < 10) {
       return (byte) ((char) val + '0');
@@ -365,168 +337,318 @@ public class TJSONProtocol extends TProtocol {
     }
   }
 
-  // Write the bytes in array buf as a JSON characters, escaping as needed
-  private void writeJSONString(byte[] b) throws TException {
-    context_.write();
-    trans_.write(QUOTE);
-    int len = b.length;
-    for (int i = 0; i < len; i++) {
-      if ((b[i] & 0x00FF) >= 0x30) {
-        if (b[i] == BACKSLASH[0]) {
-          trans_.write(BACKSLASH);
-          trans_.write(BACKSLASH);
+  /** Writing methods. */
+
+  // The bytes of a write are put together in out_ and then handed to the transport all at once.
+  // That is the transport's own buffer if it gives access to it, and writeBuf_ otherwise.
+  private byte[] out_;
+
+  // Index in out_ of the next byte to put
+  private int outPos_;
+
+  // Index in out_ of the first byte of the write
+  private int outStart_;
+
+  // Whether out_ is the transport's buffer
+  private boolean outReserved_;
+
+  // Where writes are put together when the transport has no buffer to put them in
+  private byte[] writeBuf_ = new byte[64];
+
+  // Start a write of at most len bytes
+  private void beginWrite(int len) {
+    byte[] buf = trans_.reserveWriteBuffer(len);
+    if (buf != null) {
+      out_ = buf;
+      outStart_ = trans_.getWriteBufferPosition();
+      outReserved_ = true;
+    } else {
+      if (writeBuf_.length < len) {
+        writeBuf_ = new byte[Math.max(len, writeBuf_.length * 2)];
+      }
+      out_ = writeBuf_;
+      outStart_ = 0;
+      outReserved_ = false;
+    }
+    outPos_ = outStart_;
+  }
+
+  // Hand the bytes put since beginWrite to the transport
+  private void endWrite() throws TException {
+    if (outReserved_) {
+      trans_.commitWriteBuffer(outPos_ - outStart_);
+    } else {
+      trans_.write(out_, outStart_, outPos_ - outStart_);
+    }
+  }
+
+  // Put the syntax char that goes in front of the next value, if any
+  private void putContext() {
+    byte ch = nextInContext();
+    if (ch != 0) {
+      out_[outPos_++] = ch;
+    }
+  }
+
+  // Put the name of a type as a JSON string, which needs no escaping; at most 6 bytes
+  private void putTypeName(byte typeID) throws TException {
+    putContext();
+    byte[] name = getTypeNameForTypeID(typeID);
+    out_[outPos_++] = QUOTE[0];
+    System.arraycopy(name, 0, out_, outPos_, name.length);
+    outPos_ += name.length;
+    out_[outPos_++] = QUOTE[0];
+  }
+
+  // Put the digits of num, with a '-' in front if it is negative; at most 20 bytes
+  private void putDigits(long num) {
+    if (num < 0) {
+      if (num == Long.MIN_VALUE) {
+        System.arraycopy(LONG_MIN_VALUE, 0, out_, outPos_, LONG_MIN_VALUE.length);
+        outPos_ += LONG_MIN_VALUE.length;
+        return;
+      }
+      out_[outPos_++] = '-';
+      num = -num;
+    }
+    int digits = 1;
+    while (digits < POWERS_OF_TEN.length && num >= POWERS_OF_TEN[digits]) {
+      digits++;
+    }
+    int pos = outPos_ + digits;
+    outPos_ = pos;
+    while (num > Integer.MAX_VALUE) {
+      long q = num / 10;
+      out_[--pos] = (byte) ('0' + (int) (num - q * 10));
+      num = q;
+    }
+    int i = (int) num;
+    do {
+      int q = i / 10;
+      out_[--pos] = (byte) ('0' + (i - q * 10));
+      i = q;
+    } while (i != 0);
+  }
+
+  // Put a number as a JSON value. If the context dictates so, it will be
+  // wrapped in quotes to output as a JSON string. At most 23 bytes.
+  private void putJSONInteger(long num) {
+    putContext();
+    boolean escapeNum = escapeNum();
+    if (escapeNum) {
+      out_[outPos_++] = QUOTE[0];
+    }
+    putDigits(num);
+    if (escapeNum) {
+      out_[outPos_++] = QUOTE[0];
+    }
+  }
+
+  // Put the chars of str from start up to end, escaped as needed and encoded in UTF-8; at most 6
+  // bytes for each of them. As with String.getBytes(), surrogates that are not part of a pair in
+  // the range come out as '?'.
+  private void putJSONChars(String str, int start, int end) {
+    byte[] out = out_;
+    int pos = outPos_;
+    for (int i = start; i < end; i++) {
+      char c = str.charAt(i);
+      if (c < 0x80) {
+        byte esc = JSON_ESCAPES[c];
+        if (esc == 0) {
+          out[pos++] = (byte) c;
+        } else if (esc == 1) {
+          out[pos++] = '\\';
+          out[pos++] = 'u';
+          out[pos++] = '0';
+          out[pos++] = '0';
+          out[pos++] = hexChar(c >> 4);
+          out[pos++] = hexChar(c);
         } else {
-          trans_.write(b, i, 1);
+          out[pos++] = '\\';
+          out[pos++] = esc;
         }
+      } else if (c < 0x800) {
+        out[pos++] = (byte) (0xC0 | (c >> 6));
+        out[pos++] = (byte) (0x80 | (c & 0x3F));
+      } else if (!Character.isSurrogate(c)) {
+        out[pos++] = (byte) (0xE0 | (c >> 12));
+        out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        out[pos++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < end
+          && Character.isLowSurrogate(str.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, str.charAt(++i));
+        out[pos++] = (byte) (0xF0 | (cp >> 18));
+        out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        out[pos++] = (byte) (0x80 | (cp & 0x3F));
       } else {
-        tmpbuf_[0] = JSON_CHAR_TABLE[b[i]];
-        if (tmpbuf_[0] == 1) {
-          trans_.write(b, i, 1);
-        } else if (tmpbuf_[0] > 1) {
-          trans_.write(BACKSLASH);
-          trans_.write(tmpbuf_, 0, 1);
-        } else {
-          trans_.write(ESCSEQ);
-          tmpbuf_[0] = hexChar((byte) (b[i] >> 4));
-          tmpbuf_[1] = hexChar(b[i]);
-          trans_.write(tmpbuf_, 0, 2);
-        }
+        out[pos++] = '?';
       }
     }
-    trans_.write(QUOTE);
+    outPos_ = pos;
+  }
+
+  // Write str as a JSON string, escaping as needed. Long strings are written a piece at a time,
+  // so that the room needed for the worst case escaping of them stays bounded.
+  private void writeJSONString(String str) throws TException {
+    int len = str.length();
+    int end = Math.min(len, STRING_CHUNK_CHARS);
+    // separator and quotes, and 6 bytes for each char
+    beginWrite(end * 6 + 3);
+    putContext();
+    out_[outPos_++] = QUOTE[0];
+    int start = 0;
+    while (true) {
+      if (end < len && Character.isHighSurrogate(str.charAt(end - 1))) {
+        // keep the pair together
+        end--;
+      }
+      putJSONChars(str, start, end);
+      if (end == len) {
+        break;
+      }
+      endWrite();
+      start = end;
+      end = Math.min(len, start + STRING_CHUNK_CHARS);
+      beginWrite((end - start) * 6 + 1);
+    }
+    out_[outPos_++] = QUOTE[0];
+    endWrite();
   }
 
   // Write out number as a JSON value. If the context dictates so, it will be
   // wrapped in quotes to output as a JSON string.
   private void writeJSONInteger(long num) throws TException {
-    context_.write();
-    String str = Long.toString(num);
-    boolean escapeNum = context_.escapeNum();
-    if (escapeNum) {
-      trans_.write(QUOTE);
-    }
-    byte[] buf = str.getBytes(StandardCharsets.UTF_8);
-    trans_.write(buf);
-    if (escapeNum) {
-      trans_.write(QUOTE);
-    }
+    beginWrite(23);
+    putJSONInteger(num);
+    endWrite();
   }
 
   // Write out a double as a JSON value. If it is NaN or infinity or if the
   // context dictates escaping, write out as JSON string.
   private void writeJSONDouble(double num) throws TException {
-    context_.write();
-    String str = Double.toString(num);
-    boolean special = false;
-    switch (str.charAt(0)) {
-      case 'N': // NaN
-      case 'I': // Infinity
-        special = true;
-        break;
-      case '-':
-        if (str.charAt(1) == 'I') { // -Infinity
-          special = true;
-        }
-        break;
-      default:
-        break;
-    }
-
-    boolean escapeNum = special || context_.escapeNum();
+    // separator, quotes, and the longest Double.toString(), "-2.2250738585072014E-308"
+    beginWrite(27);
+    putContext();
+    boolean escapeNum = escapeNum() || Double.isNaN(num) || Double.isInfinite(num);
     if (escapeNum) {
-      trans_.write(QUOTE);
+      out_[outPos_++] = QUOTE[0];
     }
-    byte[] b = str.getBytes(StandardCharsets.UTF_8);
-    trans_.write(b, 0, b.length);
-    if (escapeNum) {
-      trans_.write(QUOTE);
+    if (num == (long) num
+        && Math.abs(num) < 1e7
+        && Double.doubleToRawLongBits(num) != NEGATIVE_ZERO_BITS) {
+      // Written just as Double.toString() would, without making a String of it
+      putDigits((long) num);
+      out_[outPos_++] = '.';
+      out_[outPos_++] = '0';
+    } else {
+      String str = Double.toString(num);
+      for (int i = 0; i < str.length(); i++) {
+        out_[outPos_++] = (byte) str.charAt(i);
+      }
     }
-  }
-
-  // Write out contents of byte array b as a JSON string with base-64 encoded
-  // data
-  private void writeJSONBase64(byte[] b, int offset, int length) throws TException {
-    context_.write();
-    trans_.write(QUOTE);
-    int len = length;
-    int off = offset;
-    while (len >= 3) {
-      // Encode 3 bytes at a time
-      TBase64Utils.encode(b, off, 3, tmpbuf_, 0);
-      trans_.write(tmpbuf_, 0, 4);
-      off += 3;
-      len -= 3;
+    if (escapeNum) {
+      out_[outPos_++] = QUOTE[0];
     }
-    if (len > 0) {
-      // Encode remainder
-      TBase64Utils.encode(b, off, len, tmpbuf_, 0);
-      trans_.write(tmpbuf_, 0, len + 1);
+    endWrite();
+  }
+
+  // Write out contents of bin as a JSON string with base-64 encoded data. It is
+  // encoded a piece at a time by java.util.Base64, whose encoder the JVM can
+  // compile to vector instructions, and each piece is copied into the write buffer.
+  private void writeJSONBase64(ByteBuffer bin) throws TException {
+    ByteBuffer src = bin.duplicate();
+    int end = src.limit();
+    src.limit(Math.min(end, src.position() + BASE64_CHUNK_BYTES));
+    ByteBuffer encoded = BASE64_ENCODER.encode(src);
+    // separator and quotes
+    beginWrite(encoded.remaining() + 3);
+    putContext();
+    out_[outPos_++] = QUOTE[0];
+    while (true) {
+      int len = encoded.remaining();
+      encoded.get(out_, outPos_, len);
+      outPos_ += len;
+      if (src.position() == end) {
+        break;
+      }
+      endWrite();
+      src.limit(Math.min(end, src.position() + BASE64_CHUNK_BYTES));
+      encoded = BASE64_ENCODER.encode(src);
+      beginWrite(encoded.remaining() + 1);
     }
-    trans_.write(QUOTE);
+    out_[outPos_++] = QUOTE[0];
+    endWrite();
   }
 
-  private void writeJSONObjectStart() throws TException {
-    context_.write();
-    trans_.write(LBRACE);
-    pushContext(new JSONPairContext());
+  // Put the start of an object; 2 bytes
+  private void putJSONObjectStart() {
+    putContext();
+    out_[outPos_++] = LBRACE[0];
+    pushContext(CTX_PAIR_FIRST);
   }
 
-  private void writeJSONObjectEnd() throws TException {
-    popContext();
-    trans_.write(RBRACE);
+  // Put the start of an array; 2 bytes
+  private void putJSONArrayStart() {
+    putContext();
+    out_[outPos_++] = LBRACKET[0];
+    pushContext(CTX_LIST_FIRST);
   }
 
-  private void writeJSONArrayStart() throws TException {
-    context_.write();
-    trans_.write(LBRACKET);
-    pushContext(new JSONListContext());
-  }
-
-  private void writeJSONArrayEnd() throws TException {
+  private void writeJSONEnd(byte[] end) throws TException {
     popContext();
-    trans_.write(RBRACKET);
+    trans_.write(end);
   }
 
   @Override
   public void writeMessageBegin(TMessage message) throws TException {
     resetContext(); // THRIFT-3743
-    writeJSONArrayStart();
-    writeJSONInteger(VERSION);
-    byte[] b = message.name.getBytes(StandardCharsets.UTF_8);
-    writeJSONString(b);
-    writeJSONInteger(message.type);
-    writeJSONInteger(message.seqid);
+    beginWrite(25);
+    putJSONArrayStart();
+    putJSONInteger(VERSION);
+    endWrite();
+    writeJSONString(message.name);
+    beginWrite(46);
+    putJSONInteger(message.type);
+    putJSONInteger(message.seqid);
+    endWrite();
   }
 
   @Override
   public void writeMessageEnd() throws TException {
-    writeJSONArrayEnd();
+    writeJSONEnd(RBRACKET);
   }
 
   @Override
   public void writeStructBegin(TStruct struct) throws TException {
-    writeJSONObjectStart();
+    beginWrite(2);
+    putJSONObjectStart();
+    endWrite();
   }
 
   @Override
   public void writeStructEnd() throws TException {
-    writeJSONObjectEnd();
+    writeJSONEnd(RBRACE);
   }
 
   @Override
   public void writeFieldBegin(TField field) throws TException {
     if (fieldNamesAsString_) {
       writeString(field.name);
+      beginWrite(8);
     } else {
-      writeJSONInteger(field.id);
+      beginWrite(31);
+      putJSONInteger(field.id);
     }
-    writeJSONObjectStart();
-    writeJSONString(getTypeNameForTypeID(field.type));
+    putJSONObjectStart();
+    putTypeName(field.type);
+    endWrite();
   }
 
   @Override
   public void writeFieldEnd() throws TException {
-    writeJSONObjectEnd();
+    writeJSONEnd(RBRACE);
   }
 
   @Override
@@ -534,41 +656,48 @@ public class TJSONProtocol extends TProtocol {
 
   @Override
   public void writeMapBegin(TMap map) throws TException {
-    writeJSONArrayStart();
-    writeJSONString(getTypeNameForTypeID(map.keyType));
-    writeJSONString(getTypeNameForTypeID(map.valueType));
-    writeJSONInteger(map.size);
-    writeJSONObjectStart();
+    beginWrite(39);
+    putJSONArrayStart();
+    putTypeName(map.keyType);
+    putTypeName(map.valueType);
+    putJSONInteger(map.size);
+    putJSONObjectStart();
+    endWrite();
   }
 
   @Override
   public void writeMapEnd() throws TException {
-    writeJSONObjectEnd();
-    writeJSONArrayEnd();
+    popContext();
+    popContext();
+    trans_.write(RBRACE_RBRACKET);
   }
 
   @Override
   public void writeListBegin(TList list) throws TException {
-    writeJSONArrayStart();
-    writeJSONString(getTypeNameForTypeID(list.elemType));
-    writeJSONInteger(list.size);
+    writeCollectionBegin(list.elemType, list.size);
   }
 
   @Override
   public void writeListEnd() throws TException {
-    writeJSONArrayEnd();
+    writeJSONEnd(RBRACKET);
   }
 
   @Override
   public void writeSetBegin(TSet set) throws TException {
-    writeJSONArrayStart();
-    writeJSONString(getTypeNameForTypeID(set.elemType));
-    writeJSONInteger(set.size);
+    writeCollectionBegin(set.elemType, set.size);
   }
 
   @Override
   public void writeSetEnd() throws TException {
-    writeJSONArrayEnd();
+    writeJSONEnd(RBRACKET);
+  }
+
+  private void writeCollectionBegin(byte elemType, int size) throws TException {
+    beginWrite(31);
+    putJSONArrayStart();
+    putTypeName(elemType);
+    putJSONInteger(size);
+    endWrite();
   }
 
   @Override
@@ -598,7 +727,7 @@ public class TJSONProtocol extends TProtocol {
 
   @Override
   public void writeUuid(UUID uuid) throws TException {
-    writeJSONString(uuid.toString().getBytes(StandardCharsets.UTF_8));
+    writeJSONString(uuid.toString());
   }
 
   @Override
@@ -608,70 +737,148 @@ public class TJSONProtocol extends TProtocol {
 
   @Override
   public void writeString(String str) throws TException {
-    byte[] b = str.getBytes(StandardCharsets.UTF_8);
-    writeJSONString(b);
+    writeJSONString(str);
   }
 
   @Override
   public void writeBinary(ByteBuffer bin) throws TException {
-    writeJSONBase64(
-        bin.array(),
-        bin.position() + bin.arrayOffset(),
-        bin.limit() - bin.position() - bin.arrayOffset());
+    writeJSONBase64(bin);
   }
 
   /** Reading methods. */
 
-  // Read in a JSON string, unescaping as appropriate.. Skip reading from the
-  // context if skipContext is true.
+  // The byte peeked at, when the transport has no buffer to peek into
+  private byte peeked_;
+
+  // Whether peeked_ holds the next byte to be read
+  private boolean hasPeeked_;
+
+  // Where strings and numbers that can't be parsed straight from the transport's buffer are read
+  // into. It is reused from one to the next.
+  private TByteArrayOutputStream stringBuf_ = new TByteArrayOutputStream(DEF_STRING_SIZE);
+
+  // Number of bytes that can be read straight from the transport's buffer
+  private int bufferedBytes() {
+    return hasPeeked_ ? 0 : trans_.getBytesRemainingInBuffer();
+  }
+
+  // Return and consume the next byte to be read
+  private byte readJSONByte() throws TException {
+    if (hasPeeked_) {
+      hasPeeked_ = false;
+      return peeked_;
+    }
+    if (trans_.getBytesRemainingInBuffer() > 0) {
+      byte ch = trans_.getBuffer()[trans_.getBufferPosition()];
+      trans_.consumeBuffer(1);
+      return ch;
+    }
+    trans_.readAll(tmpbuf_, 0, 1);
+    return tmpbuf_[0];
+  }
+
+  // Return the next byte to be read without consuming it. Without a buffer to peek into, it has to
+  // be read from the transport and held on to.
+  private byte peekJSONByte() throws TException {
+    if (hasPeeked_) {
+      return peeked_;
+    }
+    if (trans_.getBytesRemainingInBuffer() > 0) {
+      return trans_.getBuffer()[trans_.getBufferPosition()];
+    }
+    trans_.readAll(tmpbuf_, 0, 1);
+    peeked_ = tmpbuf_[0];
+    hasPeeked_ = true;
+    return peeked_;
+  }
+
+  // Read a byte that must match ch; otherwise an exception is thrown.
+  private void readJSONSyntaxChar(byte ch) throws TException {
+    byte read = readJSONByte();
+    if (read != ch) {
+      throw new TProtocolException(
+          TProtocolException.INVALID_DATA, "Unexpected character:" + (char) read);
+    }
+  }
+
+  // Read the syntax char that goes in front of the next value, if any
+  private void readContext() throws TException {
+    byte ch = nextInContext();
+    if (ch != 0) {
+      readJSONSyntaxChar(ch);
+    }
+  }
+
+  // Give up stringBuf_ if an unusually long string has been read into it
+  private void trimStringBuf() {
+    if (stringBuf_.get().length > MAX_RETAINED_STRING_SIZE) {
+      stringBuf_ = new TByteArrayOutputStream(DEF_STRING_SIZE);
+    }
+  }
+
+  // Read in a JSON string, unescaping as appropriate. Skip reading from the
+  // context if skipContext is true. What is returned is only good until the next read.
   private TByteArrayOutputStream readJSONString(boolean skipContext) throws TException {
-    TByteArrayOutputStream arr = new TByteArrayOutputStream(DEF_STRING_SIZE);
-    ArrayList<Character> codeunits = new ArrayList<Character>();
     if (!skipContext) {
-      context_.read();
+      readContext();
     }
-    readJSONSyntaxChar(QUOTE);
+    readJSONSyntaxChar(QUOTE[0]);
+    return readJSONStringChars();
+  }
+
+  // Read the chars of a JSON string after the opening quote, and the closing quote.
+  private TByteArrayOutputStream readJSONStringChars() throws TException {
+    TByteArrayOutputStream arr = stringBuf_;
+    arr.reset();
+    char highSurrogate = 0;
     while (true) {
-      byte ch = reader_.read();
-      if (ch == QUOTE[0]) {
+      int remaining = bufferedBytes();
+      if (remaining > 0) {
+        // Copy whatever needs no unescaping in one go
+        byte[] buf = trans_.getBuffer();
+        int start = trans_.getBufferPosition();
+        int end = start + remaining;
+        int i = start;
+        while (i < end && buf[i] != '"' && buf[i] != '\\') {
+          i++;
+        }
+        int len = i - start;
+        if (len > 0) {
+          System.arraycopy(buf, start, arr.reserve(len), arr.len(), len);
+          arr.commit(len);
+          trans_.consumeBuffer(len);
+        }
+      }
+      byte ch = readJSONByte();
+      if (ch == '"') {
         break;
       }
-      if (ch == ESCSEQ[0]) {
-        ch = reader_.read();
-        if (ch == ESCSEQ[1]) {
-          trans_.readAll(tmpbuf_, 0, 4);
-          short cu =
-              (short)
-                  (((short) hexVal(tmpbuf_[0]) << 12)
-                      + ((short) hexVal(tmpbuf_[1]) << 8)
-                      + ((short) hexVal(tmpbuf_[2]) << 4)
-                      + (short) hexVal(tmpbuf_[3]));
-          try {
-            if (Character.isHighSurrogate((char) cu)) {
-              if (codeunits.size() > 0) {
-                throw new TProtocolException(
-                    TProtocolException.INVALID_DATA, "Expected low surrogate char");
-              }
-              codeunits.add((char) cu);
-            } else if (Character.isLowSurrogate((char) cu)) {
-              if (codeunits.size() == 0) {
-                throw new TProtocolException(
-                    TProtocolException.INVALID_DATA, "Expected high surrogate char");
-              }
-
-              codeunits.add((char) cu);
-              arr.write(
-                  (new String(new int[] {codeunits.get(0), codeunits.get(1)}, 0, 2))
-                      .getBytes(StandardCharsets.UTF_8));
-              codeunits.clear();
-            } else {
-              arr.write((new String(new int[] {cu}, 0, 1)).getBytes(StandardCharsets.UTF_8));
+      if (ch == '\\') {
+        ch = readJSONByte();
+        if (ch == 'u') {
+          char cu =
+              (char)
+                  ((hexVal(readJSONByte()) << 12)
+                      | (hexVal(readJSONByte()) << 8)
+                      | (hexVal(readJSONByte()) << 4)
+                      | hexVal(readJSONByte()));
+          if (Character.isHighSurrogate(cu)) {
+            if (highSurrogate != 0) {
+              throw new TProtocolException(
+                  TProtocolException.INVALID_DATA, "Expected low surrogate char");
             }
-            continue;
-          } catch (IOException ex) {
-            throw new TProtocolException(
-                TProtocolException.INVALID_DATA, "Invalid unicode sequence");
+            highSurrogate = cu;
+          } else if (Character.isLowSurrogate(cu)) {
+            if (highSurrogate == 0) {
+              throw new TProtocolException(
+                  TProtocolException.INVALID_DATA, "Expected high surrogate char");
+            }
+            writeUtf8(arr, Character.toCodePoint(highSurrogate, cu));
+            highSurrogate = 0;
+          } else {
+            writeUtf8(arr, cu);
           }
+          continue;
         } else {
           int off = ESCAPE_CHARS.indexOf(ch);
           if (off == -1) {
@@ -685,8 +892,57 @@ public class TJSONProtocol extends TProtocol {
     return arr;
   }
 
+  // Append the UTF-8 encoding of a code point
+  private static void writeUtf8(TByteArrayOutputStream arr, int cp) {
+    byte[] buf = arr.reserve(4);
+    int pos = arr.len();
+    if (cp < 0x80) {
+      buf[pos++] = (byte) cp;
+    } else if (cp < 0x800) {
+      buf[pos++] = (byte) (0xC0 | (cp >> 6));
+      buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+    } else if (cp < 0x10000) {
+      buf[pos++] = (byte) (0xE0 | (cp >> 12));
+      buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+      buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+    } else {
+      buf[pos++] = (byte) (0xF0 | (cp >> 18));
+      buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+      buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+      buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+    }
+    arr.commit(pos - arr.len());
+  }
+
+  // Read in a JSON string as a String. One that is all in the transport's buffer and has nothing
+  // to unescape is decoded from there.
+  private String readJSONStringValue() throws TException {
+    readContext();
+    readJSONSyntaxChar(QUOTE[0]);
+    int remaining = bufferedBytes();
+    if (remaining > 0) {
+      byte[] buf = trans_.getBuffer();
+      int start = trans_.getBufferPosition();
+      int end = start + remaining;
+      for (int i = start; i < end; i++) {
+        byte ch = buf[i];
+        if (ch == '"') {
+          String str = new String(buf, start, i - start, StandardCharsets.UTF_8);
+          trans_.consumeBuffer(i - start + 1);
+          return str;
+        }
+        if (ch == '\\') {
+          break;
+        }
+      }
+    }
+    String str = readJSONStringChars().toString(StandardCharsets.UTF_8);
+    trimStringBuf();
+    return str;
+  }
+
   // Return true if the given byte could be a valid part of a JSON number.
-  private boolean isJSONNumeric(byte b) {
+  private static boolean isJSONNumeric(byte b) {
     switch (b) {
       case '+':
       case '-':
@@ -711,27 +967,58 @@ public class TJSONProtocol extends TProtocol {
   // Read in a sequence of characters that are all valid in JSON numbers. Does
   // not do a complete regex check to validate that this is actually a number.
   private String readJSONNumericChars() throws TException {
-    StringBuilder strbld = new StringBuilder();
+    TByteArrayOutputStream arr = stringBuf_;
+    arr.reset();
     while (true) {
-      byte ch = reader_.peek();
+      byte ch = peekJSONByte();
       if (!isJSONNumeric(ch)) {
         break;
       }
-      strbld.append((char) reader_.read());
+      arr.write(readJSONByte());
     }
-    return strbld.toString();
+    return arr.toString(StandardCharsets.US_ASCII);
   }
 
   // Read in a JSON number. If the context dictates, read in enclosing quotes.
   private long readJSONInteger() throws TException {
-    context_.read();
-    if (context_.escapeNum()) {
-      readJSONSyntaxChar(QUOTE);
+    readContext();
+    boolean escapeNum = escapeNum();
+    if (escapeNum) {
+      readJSONSyntaxChar(QUOTE[0]);
     }
-    String str = readJSONNumericChars();
-    if (context_.escapeNum()) {
-      readJSONSyntaxChar(QUOTE);
+    long num = readJSONLong();
+    if (escapeNum) {
+      readJSONSyntaxChar(QUOTE[0]);
     }
+    return num;
+  }
+
+  // Read in the digits of a long, and a '-' in front of them. Ones that are all in the
+  // transport's buffer and can't overflow are parsed from there; anything else, including
+  // whatever is malformed, is left to Long.parseLong().
+  private long readJSONLong() throws TException {
+    int remaining = bufferedBytes();
+    if (remaining > 0) {
+      byte[] buf = trans_.getBuffer();
+      int start = trans_.getBufferPosition();
+      int end = start + remaining;
+      int i = start;
+      boolean negative = buf[i] == '-';
+      if (negative) {
+        i++;
+      }
+      int digitsStart = i;
+      int digitsEnd = Math.min(end, digitsStart + POWERS_OF_TEN.length - 1);
+      long num = 0;
+      while (i < digitsEnd && buf[i] >= '0' && buf[i] <= '9') {
+        num = num * 10 + (buf[i++] - '0');
+      }
+      if (i > digitsStart && i < end && !isJSONNumeric(buf[i])) {
+        trans_.consumeBuffer(i - start);
+        return negative ? -num : num;
+      }
+    }
+    String str = readJSONNumericChars();
     try {
       return Long.parseLong(str);
     } catch (NumberFormatException ex) {
@@ -740,84 +1027,186 @@ public class TJSONProtocol extends TProtocol {
     }
   }
 
+  // Read in an unquoted double. Ones that are all in the transport's buffer, with few enough
+  // digits and a small enough exponent for a single multiplication or division by an exact power
+  // of ten to round them correctly, are parsed from there; anything else is left to
+  // Double.parseDouble().
+  private double readJSONDoubleChars() throws TException {
+    int remaining = bufferedBytes();
+    if (remaining > 0) {
+      byte[] buf = trans_.getBuffer();
+      int start = trans_.getBufferPosition();
+      int end = start + remaining;
+      int i = start;
+      boolean negative = buf[i] == '-';
+      if (negative) {
+        i++;
+      }
+      long mantissa = 0;
+      int digits = 0;
+      int fractionDigits = 0;
+      boolean fraction = false;
+      while (i < end) {
+        byte ch = buf[i];
+        if (ch >= '0' && ch <= '9') {
+          mantissa = mantissa * 10 + (ch - '0');
+          digits++;
+          if (fraction) {
+            fractionDigits++;
+          }
+        } else if (ch == '.' && !fraction && digits > 0) {
+          fraction = true;
+        } else {
+          break;
+        }
+        i++;
+        if (digits > 15) {
+          // may not fit in the 53 bits of a double's mantissa
+          i = end;
+        }
+      }
+      int exponent = 0;
+      if (i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+        i++;
+        boolean negativeExponent = false;
+        if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+          negativeExponent = buf[i++] == '-';
+        }
+        int exponentStart = i;
+        while (i < end && i - exponentStart < 3 && buf[i] >= '0' && buf[i] <= '9') {
+          exponent = exponent * 10 + (buf[i++] - '0');
+        }
+        if (i == exponentStart) {
+          i = end;
+        }
+        if (negativeExponent) {
+          exponent = -exponent;
+        }
+      }
+      exponent -= fractionDigits;
+      if (digits > 0
+          && (!fraction || fractionDigits > 0)
+          && i < end
+          && !isJSONNumeric(buf[i])
+          && exponent >= -22
+          && exponent <= 22) {
+        trans_.consumeBuffer(i - start);
+        double dub = mantissa;
+        if (exponent < 0) {
+          dub /= DOUBLE_POWERS_OF_TEN[-exponent];
+        } else {
+          dub *= DOUBLE_POWERS_OF_TEN[exponent];
+        }
+        return negative ? -dub : dub;
+      }
+    }
+    return parseDouble(readJSONNumericChars());
+  }
+
+  private static double parseDouble(String str) throws TException {
+    try {
+      return Double.parseDouble(str);
+    } catch (NumberFormatException ex) {
+      throw new TProtocolException(
+          TProtocolException.INVALID_DATA, "Bad data encounted in numeric data");
+    }
+  }
+
   // Read in a JSON double value. Throw if the value is not wrapped in quotes
   // when expected or if wrapped in quotes when not expected.
   private double readJSONDouble() throws TException {
-    context_.read();
-    if (reader_.peek() == QUOTE[0]) {
+    readContext();
+    if (peekJSONByte() == QUOTE[0]) {
       TByteArrayOutputStream arr = readJSONString(true);
-      double dub = Double.parseDouble(arr.toString(StandardCharsets.UTF_8));
-      if (!context_.escapeNum() && !Double.isNaN(dub) && !Double.isInfinite(dub)) {
+      double dub = parseDouble(arr.toString(StandardCharsets.UTF_8));
+      if (!escapeNum() && !Double.isNaN(dub) && !Double.isInfinite(dub)) {
         // Throw exception -- we should not be in a string in this case
         throw new TProtocolException(
             TProtocolException.INVALID_DATA, "Numeric data unexpectedly quoted");
       }
       return dub;
     } else {
-      if (context_.escapeNum()) {
+      if (escapeNum()) {
         // This will throw - we should have had a quote if escapeNum == true
-        readJSONSyntaxChar(QUOTE);
+        readJSONSyntaxChar(QUOTE[0]);
       }
-      try {
-        return Double.parseDouble(readJSONNumericChars());
-      } catch (NumberFormatException ex) {
-        throw new TProtocolException(
-            TProtocolException.INVALID_DATA, "Bad data encounted in numeric data");
+      return readJSONDoubleChars();
+    }
+  }
+
+  // Read in a JSON string containing base-64 encoded data and decode it. One that is all in the
+  // transport's buffer and has nothing to unescape is decoded from there.
+  private ByteBuffer readJSONBase64() throws TException {
+    readContext();
+    readJSONSyntaxChar(QUOTE[0]);
+    int remaining = bufferedBytes();
+    if (remaining > 0) {
+      byte[] buf = trans_.getBuffer();
+      int start = trans_.getBufferPosition();
+      int end = start + remaining;
+      for (int i = start; i < end; i++) {
+        byte ch = buf[i];
+        if (ch == '"') {
+          ByteBuffer result = decodeBase64(buf, start, i - start);
+          trans_.consumeBuffer(i - start + 1);
+          return result;
+        }
+        if (ch == '\\') {
+          break;
+        }
       }
     }
+    TByteArrayOutputStream arr = readJSONStringChars();
+    ByteBuffer result = decodeBase64(arr.get(), 0, arr.len());
+    trimStringBuf();
+    return result;
   }
 
-  // Read in a JSON string containing base-64 encoded data and decode it.
-  private byte[] readJSONBase64() throws TException {
-    TByteArrayOutputStream arr = readJSONString(false);
-    byte[] b = arr.get();
-    int len = arr.len();
-    int off = 0;
-    int size = 0;
+  // Decode len bytes of base-64 encoded data at off in b into a new buffer,
+  // with java.util.Base64, whose decoder the JVM can compile to vector
+  // instructions
+  private static ByteBuffer decodeBase64(byte[] b, int off, int len) {
     // Ignore padding
     int bound = len >= 2 ? len - 2 : 0;
-    for (int i = len - 1; i >= bound && b[i] == '='; --i) {
+    for (int i = len - 1; i >= bound && b[off + i] == '='; --i) {
       --len;
     }
-    while (len >= 4) {
-      // Decode 4 bytes at a time
-      TBase64Utils.decode(b, off, 4, b, size); // NB: decoded in place
-      off += 4;
-      len -= 4;
-      size += 3;
-    }
-    // Don't decode if we hit the end or got a single leftover byte (invalid
-    // base64 but legal for skip of regular string type)
-    if (len > 1) {
-      // Decode remainder
-      TBase64Utils.decode(b, off, len, b, size); // NB: decoded in place
-      size += len - 1;
+    try {
+      return BASE64_DECODER.decode(ByteBuffer.wrap(b, off, len));
+    } catch (IllegalArgumentException ex) {
+      // Not strictly base64, such as a single leftover byte (invalid base64
+      // but legal for skip of regular string type), so decode it leniently
+      byte[] result = new byte[TBase64Utils.decodedLength(len)];
+      TBase64Utils.decodeAll(b, off, len, result, 0);
+      return ByteBuffer.wrap(result);
     }
-    // Sadly we must copy the byte[] (any way around this?)
-    byte[] result = new byte[size];
-    System.arraycopy(b, 0, result, 0, size);
-    return result;
+  }
+
+  // Read the type name of a field or container
+  private byte readJSONTypeName() throws TException {
+    TByteArrayOutputStream arr = readJSONString(false);
+    return getTypeIDForTypeName(arr.get(), arr.len());
   }
 
   private void readJSONObjectStart() throws TException {
-    context_.read();
-    readJSONSyntaxChar(LBRACE);
-    pushContext(new JSONPairContext());
+    readContext();
+    readJSONSyntaxChar(LBRACE[0]);
+    pushContext(CTX_PAIR_FIRST);
   }
 
   private void readJSONObjectEnd() throws TException {
-    readJSONSyntaxChar(RBRACE);
+    readJSONSyntaxChar(RBRACE[0]);
     popContext();
   }
 
   private void readJSONArrayStart() throws TException {
-    context_.read();
-    readJSONSyntaxChar(LBRACKET);
-    pushContext(new JSONListContext());
+    readContext();
+    readJSONSyntaxChar(LBRACKET[0]);
+    pushContext(CTX_LIST_FIRST);
   }
 
   private void readJSONArrayEnd() throws TException {
-    readJSONSyntaxChar(RBRACKET);
+    readJSONSyntaxChar(RBRACKET[0]);
     popContext();
   }
 
@@ -829,7 +1218,7 @@ public class TJSONProtocol extends TProtocol {
       throw new TProtocolException(
           TProtocolException.BAD_VERSION, "Message contained bad version.");
     }
-    String name = readJSONString(false).toString(StandardCharsets.UTF_8);
+    String name = readJSONStringValue();
     byte type = (byte) readJSONInteger();
     int seqid = (int) readJSONInteger();
     return new TMessage(name, type, seqid);
@@ -853,7 +1242,7 @@ public class TJSONProtocol extends TProtocol {
 
   @Override
   public TField readFieldBegin() throws TException {
-    byte ch = reader_.peek();
+    byte ch = peekJSONByte();
     byte type;
     short id = 0;
     if (ch == RBRACE[0]) {
@@ -861,7 +1250,7 @@ public class TJSONProtocol extends TProtocol {
     } else {
       id = (short) readJSONInteger();
       readJSONObjectStart();
-      type = getTypeIDForTypeName(readJSONString(false).get());
+      type = readJSONTypeName();
     }
     return new TField("", type, id);
   }
@@ -874,8 +1263,8 @@ public class TJSONProtocol extends TProtocol {
   @Override
   public TMap readMapBegin() throws TException {
     readJSONArrayStart();
-    byte keyType = getTypeIDForTypeName(readJSONString(false).get());
-    byte valueType = getTypeIDForTypeName(readJSONString(false).get());
+    byte keyType = readJSONTypeName();
+    byte valueType = readJSONTypeName();
     int size = (int) readJSONInteger();
     readJSONObjectStart();
     TMap map = new TMap(keyType, valueType, size);
@@ -893,7 +1282,7 @@ public class TJSONProtocol extends TProtocol {
   @Override
   public TList readListBegin() throws TException {
     readJSONArrayStart();
-    byte elemType = getTypeIDForTypeName(readJSONString(false).get());
+    byte elemType = readJSONTypeName();
     int size = (int) readJSONInteger();
     TList list = new TList(elemType, size);
 
@@ -909,7 +1298,7 @@ public class TJSONProtocol extends TProtocol {
   @Override
   public TSet readSetBegin() throws TException {
     readJSONArrayStart();
-    byte elemType = getTypeIDForTypeName(readJSONString(false).get());
+    byte elemType = readJSONTypeName();
     int size = (int) readJSONInteger();
     TSet set = new TSet(elemType, size);
 
@@ -959,12 +1348,12 @@ public class TJSONProtocol extends TProtocol {
 
   @Override
   public String readString() throws TException {
-    return readJSONString(false).toString(StandardCharsets.UTF_8);
+    return readJSONStringValue();
   }
 
   @Override
   public ByteBuffer readBinary() throws TException {
-    return ByteBuffer.wrap(readJSONBase64());
+    return readJSONBase64();
   }
 
   /** Return the minimum number of bytes a type will consume on the wire */
@@ -20,16 +20,19 @@
 package org.apache.thrift.protocol;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.IntFunction;
+import org.apache.thrift.TByteArrayOutputStream;
 import org.apache.thrift.TException;
 import org.apache.thrift.partial.TFieldData;
 import org.apache.thrift.scheme.IScheme;
 import org.apache.thrift.scheme.StandardScheme;
+import org.apache.thrift.transport.TIOStreamTransport;
 import org.apache.thrift.transport.TTransport;
 
 /** Protocol interface definition. */
@@ -370,6 +373,165 @@ public abstract class TProtocol implements TWriteProtocol, TReadProtocol {
   // -----------------------------------------------------------------
   // Additional methods to improve performance.
 
+  /**
+   * Read len i32 values, such as the elements of a list or set whose header has been read, into an
+   * array. Protocols should override this to decode the values in bulk.
+   *
+   * @param dst the array to read into.
+   * @param off index in dst of the first value.
+   * @param len the number of values to read.
+   * @throws TException when any sub-operation fails
+   */
+  public void readI32Array(int[] dst, int off, int len) throws TException {
+    for (int i = off; i < off + len; i++) {
+      dst[i] = readI32();
+    }
+  }
+
+  /**
+   * Read len i64 values into an array, as {@link #readI32Array(int[], int, int)} does i32s.
+   *
+   * @param dst the array to read into.
+   * @param off index in dst of the first value.
+   * @param len the number of values to read.
+   * @throws TException when any sub-operation fails
+   */
+  public void readI64Array(long[] dst, int off, int len) throws TException {
+    for (int i = off; i < off + len; i++) {
+      dst[i] = readI64();
+    }
+  }
+
+  /**
+   * Read len doubles into an array, as {@link #readI32Array(int[], int, int)} does i32s.
+   *
+   * @param dst the array to read into.
+   * @param off index in dst of the first value.
+   * @param len the number of values to read.
+   * @throws TException when any sub-operation fails
+   */
+  public void readDoubleArray(double[] dst, int off, int len) throws TException {
+    for (int i = off; i < off + len; i++) {
+      dst[i] = readDouble();
+    }
+  }
+
+  /**
+   * Write len i32 values from an array, such as the elements of a list or set whose header has been
+   * written. Protocols should override this to encode the values in bulk.
+   *
+   * @param src the array to write from.
+   * @param off index in src of the first value.
+   * @param len the number of values to write.
+   * @throws TException when any sub-operation fails
+   */
+  public void writeI32Array(int[] src, int off, int len) throws TException {
+    for (int i = off; i < off + len; i++) {
+      writeI32(src[i]);
+    }
+  }
+
+  /**
+   * Write len i64 values from an array, as {@link #writeI32Array(int[], int, int)} does i32s.
+   *
+   * @param src the array to write from.
+   * @param off index in src of the first value.
+   * @param len the number of values to write.
+   * @throws TException when any sub-operation fails
+   */
+  public void writeI64Array(long[] src, int off, int len) throws TException {
+    for (int i = off; i < off + len; i++) {
+      writeI64(src[i]);
+    }
+  }
+
+  /**
+   * Write len doubles from an array, as {@link #writeI32Array(int[], int, int)} does i32s.
+   *
+   * @param src the array to write from.
+   * @param off index in src of the first value.
+   * @param len the number of values to write.
+   * @throws TException when any sub-operation fails
+   */
+  public void writeDoubleArray(double[] src, int off, int len) throws TException {
+    for (int i = off; i < off + len; i++) {
+      writeDouble(src[i]);
+    }
+  }
+
+  /**
+   * Read the next value, a struct, list, set or map, as the bytes it is encoded in rather than
+   * decoding it, so that it can be passed on by {@link #writeRawValue(TRawValue)}. The default
+   * implementation decodes the value and encodes it again with {@link TCompactProtocol}; protocols
+   * whose values can be found in the input without that keep them as they are.
+   *
+   * @param type the type of the value.
+   * @return the value.
+   * @throws TException when any sub-operation fails
+   */
+  public TRawValue readRawValue(byte type) throws TException {
+    return copyRawValue(type, RAW_VALUE_FACTORY);
+  }
+
+  /**
+   * Write a value read by {@link #readRawValue(byte)}. The default implementation decodes the value
+   * and writes it out again; protocols that write values the way they are encoded in copy their
+   * bytes as they are.
+   *
+   * @param value the value to write.
+   * @throws TException when any sub-operation fails
+   */
+  public void writeRawValue(TRawValue value) throws TException {
+    TProtocolUtil.transcode(value.reader(), this, value.getType());
+  }
+
+  private static final TProtocolFactory RAW_VALUE_FACTORY = new TCompactProtocol.Factory();
+
+  /**
+   * Read a raw value by decoding it and encoding it again with a protocol from the factory.
+   *
+   * @param type the type of the value.
+   * @param protocolFactory makes protocols of the kind to encode the value with.
+   * @return the value.
+   * @throws TException when any sub-operation fails
+   */
+  protected TRawValue copyRawValue(byte type, TProtocolFactory protocolFactory) throws TException {
+    TRawValue.checkType(type);
+    TByteArrayOutputStream bytes = new TByteArrayOutputStream();
+    TProtocolUtil.transcode(this, protocolFactory.getProtocol(new TIOStreamTransport(bytes)), type);
+    return new TRawValue(type, Arrays.copyOf(bytes.get(), bytes.len()), protocolFactory);
+  }
+
+  /**
+   * Read a raw value by skipping over it in the transport's buffer and copying the bytes it spans,
+   * for protocols whose values need no state from around them to be read; it is read by {@link
+   * #copyRawValue(byte, TProtocolFactory)} if the transport doesn't have a buffer. The buffer has
+   * to hold the whole value, as those of the memory and framed transports do.
+   *
+   * @param type the type of the value.
+   * @param protocolFactory makes protocols of the kind this one is.
+   * @return the value.
+   * @throws TException when any sub-operation fails
+   */
+  protected TRawValue sliceRawValue(byte type, TProtocolFactory protocolFactory) throws TException {
+    TRawValue.checkType(type);
+    TTransport trans = this.getTransport();
+    byte[] buf = trans.getBuffer();
+    if (buf == null) {
+      return copyRawValue(type, protocolFactory);
+    }
+    int start = trans.getBufferPosition();
+    int end = start + trans.getBytesRemainingInBuffer();
+    TProtocolUtil.skip(this, type);
+    int pos = trans.getBufferPosition();
+    if (trans.getBuffer() != buf || pos < start || pos + trans.getBytesRemainingInBuffer() != end) {
+      throw new TProtocolException(
+          TProtocolException.NOT_IMPLEMENTED,
+          "Raw values can only be read from a transport that buffers all of them");
+    }
+    return new TRawValue(type, Arrays.copyOfRange(buf, start, pos), protocolFactory);
+  }
+
   public int readFieldBeginData() throws TException {
     // Derived classes should provide a more efficient version of this
     // method if allowed by the encoding used by that protocol.
@@ -431,25 +593,37 @@ public abstract class TProtocol implements TWriteProtocol, TReadProtocol {
 
       case TType.MAP:
         TMap map = this.readMapBegin();
-        for (int i = 0; i < map.size; i++) {
-          this.skip(map.keyType, maxDepth - 1);
-          this.skip(map.valueType, maxDepth - 1);
+        if (maxDepth > 1 && isSkippableValue(map.keyType) && isSkippableValue(map.valueType)) {
+          this.skipMapEntries(map.keyType, map.valueType, map.size);
+        } else {
+          for (int i = 0; i < map.size; i++) {
+            this.skip(map.keyType, maxDepth - 1);
+            this.skip(map.valueType, maxDepth - 1);
+          }
         }
         this.readMapEnd();
         break;
 
       case TType.SET:
         TSet set = this.readSetBegin();
-        for (int i = 0; i < set.size; i++) {
-          this.skip(set.elemType, maxDepth - 1);
+        if (maxDepth > 1 && isSkippableValue(set.elemType)) {
+          this.skipValues(set.elemType, set.size);
+        } else {
+          for (int i = 0; i < set.size; i++) {
+            this.skip(set.elemType, maxDepth - 1);
+          }
         }
         this.readSetEnd();
         break;
 
       case TType.LIST:
         TList list = this.readListBegin();
-        for (int i = 0; i < list.size; i++) {
-          this.skip(list.elemType, maxDepth - 1);
+        if (maxDepth > 1 && isSkippableValue(list.elemType)) {
+          this.skipValues(list.elemType, list.size);
+        } else {
+          for (int i = 0; i < list.size; i++) {
+            this.skip(list.elemType, maxDepth - 1);
+          }
         }
         this.readListEnd();
         break;
@@ -493,21 +667,70 @@ public abstract class TProtocol implements TWriteProtocol, TReadProtocol {
     this.readBinary();
   }
 
+  /**
+   * Whether values of a type can be skipped in runs by {@link #skipValues(byte, int)} and {@link
+   * #skipMapEntries(byte, byte, int)}: those of the types that hold no other values.
+   */
+  static boolean isSkippableValue(byte type) {
+    switch (type) {
+      case TType.BOOL:
+      case TType.BYTE:
+      case TType.I16:
+      case TType.I32:
+      case TType.I64:
+      case TType.DOUBLE:
+      case TType.STRING:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Skip the count values of a set or list, all of the given type, which holds no other values. The
+   * default implementation skips them one at a time; protocols that can find the end of a run of
+   * them without going through each one should override it.
+   */
+  protected void skipValues(byte type, int count) throws TException {
+    for (int i = 0; i < count; i++) {
+      this.skip(type, 1);
+    }
+  }
+
+  /**
+   * Skip the count entries of a map whose keys and values are of types that hold no other values.
+   * The default implementation skips them one at a time.
+   */
+  protected void skipMapEntries(byte keyType, byte valueType, int count) throws TException {
+    for (int i = 0; i < count; i++) {
+      this.skip(keyType, 1);
+      this.skip(valueType, 1);
+    }
+  }
+
   static final int MAX_SKIPPED_BYTES = 256;
   protected byte[] skippedBytes = new byte[MAX_SKIPPED_BYTES];
 
   protected void skipBytes(int numBytes) throws TException {
-    if (numBytes <= MAX_SKIPPED_BYTES) {
-      if (this.getTransport().getBytesRemainingInBuffer() >= numBytes) {
-        this.getTransport().consumeBuffer(numBytes);
+    skipBytes((long) numBytes);
+  }
+
+  /**
+   * Skip numBytes bytes of input: whatever of them is buffered by the transport is jumped over at
+   * once, and the rest is read and thrown away.
+   */
+  protected void skipBytes(long numBytes) throws TException {
+    TTransport trans = this.getTransport();
+    while (numBytes > 0) {
+      int buffered = trans.getBytesRemainingInBuffer();
+      if (buffered > 0) {
+        int n = (int) Math.min(buffered, numBytes);
+        trans.consumeBuffer(n);
+        numBytes -= n;
       } else {
-        this.getTransport().readAll(skippedBytes, 0, numBytes);
-      }
-    } else {
-      int remaining = numBytes;
-      while (remaining > 0) {
-        skipBytes(Math.min(remaining, MAX_SKIPPED_BYTES));
-        remaining -= MAX_SKIPPED_BYTES;
+        int n = (int) Math.min(MAX_SKIPPED_BYTES, numBytes);
+        trans.readAll(skippedBytes, 0, n);
+        numBytes -= n;
       }
     }
   }
@@ -262,6 +262,56 @@ public abstract class TProtocolDecorator extends TProtocol {
     return concreteProtocol.readBinary();
   }
 
+  @Override
+  public TRawValue readRawValue(byte type) throws TException {
+    return concreteProtocol.readRawValue(type);
+  }
+
+  @Override
+  public void writeRawValue(TRawValue value) throws TException {
+    concreteProtocol.writeRawValue(value);
+  }
+
+  @Override
+  public void readI32Array(int[] dst, int off, int len) throws TException {
+    concreteProtocol.readI32Array(dst, off, len);
+  }
+
+  @Override
+  public void readI64Array(long[] dst, int off, int len) throws TException {
+    concreteProtocol.readI64Array(dst, off, len);
+  }
+
+  @Override
+  public void readDoubleArray(double[] dst, int off, int len) throws TException {
+    concreteProtocol.readDoubleArray(dst, off, len);
+  }
+
+  @Override
+  public void writeI32Array(int[] src, int off, int len) throws TException {
+    concreteProtocol.writeI32Array(src, off, len);
+  }
+
+  @Override
+  public void writeI64Array(long[] src, int off, int len) throws TException {
+    concreteProtocol.writeI64Array(src, off, len);
+  }
+
+  @Override
+  public void writeDoubleArray(double[] src, int off, int len) throws TException {
+    concreteProtocol.writeDoubleArray(src, off, len);
+  }
+
+  @Override
+  protected void skipValues(byte type, int count) throws TException {
+    concreteProtocol.skipValues(type, count);
+  }
+
+  @Override
+  protected void skipMapEntries(byte keyType, byte valueType, int count) throws TException {
+    concreteProtocol.skipMapEntries(keyType, valueType, count);
+  }
+
   /**
    * @param type Returns the minimum amount of bytes needed to store the smallest possible instance
    *     of TType.
@@ -20,6 +20,8 @@
 package org.apache.thrift.protocol;
 
 import org.apache.thrift.TException;
+import org.apache.thrift.partial.ThriftMetadata;
+import org.apache.thrift.partial.Validate;
 
 /** Utility class with static methods for interacting with protocol data streams. */
 public class TProtocolUtil {
@@ -113,25 +115,39 @@ public class TProtocolUtil {
 
       case TType.MAP:
         TMap map = prot.readMapBegin();
-        for (int i = 0; i < map.size; i++) {
-          skip(prot, map.keyType, maxDepth - 1);
-          skip(prot, map.valueType, maxDepth - 1);
+        if (maxDepth > 1
+            && TProtocol.isSkippableValue(map.keyType)
+            && TProtocol.isSkippableValue(map.valueType)) {
+          prot.skipMapEntries(map.keyType, map.valueType, map.size);
+        } else {
+          for (int i = 0; i < map.size; i++) {
+            skip(prot, map.keyType, maxDepth - 1);
+            skip(prot, map.valueType, maxDepth - 1);
+          }
         }
         prot.readMapEnd();
         break;
 
       case TType.SET:
         TSet set = prot.readSetBegin();
-        for (int i = 0; i < set.size; i++) {
-          skip(prot, set.elemType, maxDepth - 1);
+        if (maxDepth > 1 && TProtocol.isSkippableValue(set.elemType)) {
+          prot.skipValues(set.elemType, set.size);
+        } else {
+          for (int i = 0; i < set.size; i++) {
+            skip(prot, set.elemType, maxDepth - 1);
+          }
         }
         prot.readSetEnd();
         break;
 
       case TType.LIST:
         TList list = prot.readListBegin();
-        for (int i = 0; i < list.size; i++) {
-          skip(prot, list.elemType, maxDepth - 1);
+        if (maxDepth > 1 && TProtocol.isSkippableValue(list.elemType)) {
+          prot.skipValues(list.elemType, list.size);
+        } else {
+          for (int i = 0; i < list.size; i++) {
+            skip(prot, list.elemType, maxDepth - 1);
+          }
         }
         prot.readListEnd();
         break;
@@ -141,6 +157,167 @@ public class TProtocolUtil {
     }
   }
 
+  private static final TStruct ANONYMOUS_STRUCT = new TStruct();
+
+  /**
+   * Copies the next value from one protocol to another, writing each part of it as it is read, so
+   * that data can be converted between protocols without the classes generated for it. Strings and
+   * binaries are copied as they are, without being decoded, except when read or written by {@link
+   * TJSONProtocol} or {@link TSimpleJSONProtocol}: without the schema those can't tell a binary
+   * from a string, so both are copied as strings.
+   *
+   * @param in the protocol to read from.
+   * @param out the protocol to write to.
+   * @param type the type of the value.
+   * @throws TException when any sub-operation fails
+   */
+  public static void transcode(TProtocol in, TProtocol out, byte type) throws TException {
+    transcode(in, out, type, null, maxSkipDepth);
+  }
+
+  /**
+   * Copies the next struct from one protocol to another, as {@link #transcode(TProtocol, TProtocol,
+   * byte)} does, using the metadata to name the fields it writes and to tell its binaries from its
+   * strings. Fields that the metadata doesn't cover, or has another type for, are copied without
+   * it.
+   *
+   * @param in the protocol to read from.
+   * @param out the protocol to write to.
+   * @param metadata the struct to be copied.
+   * @throws TException when any sub-operation fails
+   */
+  public static void transcode(TProtocol in, TProtocol out, ThriftMetadata.ThriftStruct metadata)
+      throws TException {
+    Validate.checkNotNull(metadata, "metadata");
+    transcode(in, out, TType.STRUCT, metadata, maxSkipDepth);
+  }
+
+  private static void transcode(
+      TProtocol in, TProtocol out, byte type, ThriftMetadata.ThriftObject metadata, int maxDepth)
+      throws TException {
+    if (maxDepth <= 0) {
+      throw new TException("Maximum skip depth exceeded");
+    }
+    if (metadata != null && !isType(metadata, type)) {
+      metadata = null;
+    }
+    switch (type) {
+      case TType.BOOL:
+        out.writeBool(in.readBool());
+        break;
+
+      case TType.BYTE:
+        out.writeByte(in.readByte());
+        break;
+
+      case TType.I16:
+        out.writeI16(in.readI16());
+        break;
+
+      case TType.I32:
+        out.writeI32(in.readI32());
+        break;
+
+      case TType.I64:
+        out.writeI64(in.readI64());
+        break;
+
+      case TType.UUID:
+        out.writeUuid(in.readUuid());
+        break;
+
+      case TType.DOUBLE:
+        out.writeDouble(in.readDouble());
+        break;
+
+      case TType.STRING:
+        boolean text = isText(in) || isText(out);
+        if (!text || (metadata != null && ((ThriftMetadata.ThriftPrimitive) metadata).isBinary())) {
+          out.writeBinary(in.readBinary());
+        } else {
+          out.writeString(in.readString());
+        }
+        break;
+
+      case TType.STRUCT:
+        ThriftMetadata.ThriftStruct<?> struct =
+            metadata instanceof ThriftMetadata.ThriftStruct
+                ? (ThriftMetadata.ThriftStruct<?>) metadata
+                : null;
+        in.readStructBegin();
+        out.writeStructBegin(ANONYMOUS_STRUCT);
+        while (true) {
+          TField field = in.readFieldBegin();
+          if (field.type == TType.STOP) {
+            break;
+          }
+          ThriftMetadata.ThriftObject fieldData =
+              struct != null ? struct.fields.get((int) field.id) : null;
+          if (fieldData != null && isType(fieldData, field.type)) {
+            field = new TField(fieldData.fieldId.getFieldName(), field.type, field.id);
+          }
+          out.writeFieldBegin(field);
+          transcode(in, out, field.type, fieldData, maxDepth - 1);
+          in.readFieldEnd();
+          out.writeFieldEnd();
+        }
+        out.writeFieldStop();
+        in.readStructEnd();
+        out.writeStructEnd();
+        break;
+
+      case TType.MAP:
+        ThriftMetadata.ThriftMap mapData = (ThriftMetadata.ThriftMap) metadata;
+        TMap map = in.readMapBegin();
+        out.writeMapBegin(map);
+        for (int i = 0; i < map.size; i++) {
+          transcode(in, out, map.keyType, mapData != null ? mapData.keyData : null, maxDepth - 1);
+          transcode(
+              in, out, map.valueType, mapData != null ? mapData.valueData : null, maxDepth - 1);
+        }
+        in.readMapEnd();
+        out.writeMapEnd();
+        break;
+
+      case TType.SET:
+        ThriftMetadata.ThriftSet setData = (ThriftMetadata.ThriftSet) metadata;
+        TSet set = in.readSetBegin();
+        out.writeSetBegin(set);
+        for (int i = 0; i < set.size; i++) {
+          transcode(
+              in, out, set.elemType, setData != null ? setData.elementData : null, maxDepth - 1);
+        }
+        in.readSetEnd();
+        out.writeSetEnd();
+        break;
+
+      case TType.LIST:
+        ThriftMetadata.ThriftList listData = (ThriftMetadata.ThriftList) metadata;
+        TList list = in.readListBegin();
+        out.writeListBegin(list);
+        for (int i = 0; i < list.size; i++) {
+          transcode(
+              in, out, list.elemType, listData != null ? listData.elementData : null, maxDepth - 1);
+        }
+        in.readListEnd();
+        out.writeListEnd();
+        break;
+
+      default:
+        throw new TProtocolException(TProtocolException.INVALID_DATA, "Unrecognized type " + type);
+    }
+  }
+
+  /** Whether the metadata describes values of a type, as it is found in the input. */
+  private static boolean isType(ThriftMetadata.ThriftObject metadata, byte type) {
+    byte metadataType = metadata.data.valueMetaData.type;
+    return metadataType == type || (metadataType == TType.ENUM && type == TType.I32);
+  }
+
+  private static boolean isText(TProtocol protocol) {
+    return protocol instanceof TJSONProtocol || protocol instanceof TSimpleJSONProtocol;
+  }
+
   /**
    * Attempt to determine the protocol used to serialize some data.
    *
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.thrift.TBaseHelper;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+/**
+ * A struct, list, set or map kept as the bytes a protocol encoded it in, so that it can be passed
+ * on without being decoded. It is read by {@link TProtocol#readRawValue(byte)} and written by
+ * {@link TProtocol#writeRawValue(TRawValue)}, which copies the bytes as they are when it writes
+ * with the protocol they are encoded in, and decodes them otherwise.
+ *
+ * <p>Instances are immutable.
+ */
+public final class TRawValue implements Comparable<TRawValue>, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final byte type;
+  private final byte[] bytes;
+  private final TProtocolFactory protocolFactory;
+
+  /**
+   * @param type the type of the value: {@link TType#STRUCT}, {@link TType#LIST}, {@link TType#SET}
+   *     or {@link TType#MAP}.
+   * @param bytes the encoded value, which is copied.
+   * @param protocolFactory makes protocols of the kind that encoded the value.
+   */
+  public TRawValue(byte type, ByteBuffer bytes, TProtocolFactory protocolFactory) {
+    this(type, copy(bytes), protocolFactory);
+  }
+
+  /** Takes ownership of bytes. */
+  TRawValue(byte type, byte[] bytes, TProtocolFactory protocolFactory) {
+    checkType(type);
+    if (protocolFactory == null) {
+      throw new NullPointerException("protocolFactory");
+    }
+    this.type = type;
+    this.bytes = bytes;
+    this.protocolFactory = protocolFactory;
+  }
+
+  private static byte[] copy(ByteBuffer bytes) {
+    byte[] copy = new byte[bytes.remaining()];
+    bytes.duplicate().get(copy);
+    return copy;
+  }
+
+  static void checkType(byte type) {
+    switch (type) {
+      case TType.STRUCT:
+      case TType.LIST:
+      case TType.SET:
+      case TType.MAP:
+        return;
+      default:
+        throw new IllegalArgumentException("Not a struct, list, set or map type: " + type);
+    }
+  }
+
+  public byte getType() {
+    return type;
+  }
+
+  /** The encoded value, as a read-only buffer. */
+  public ByteBuffer getBytes() {
+    return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+  }
+
+  public int getLength() {
+    return bytes.length;
+  }
+
+  public TProtocolFactory getProtocolFactory() {
+    return protocolFactory;
+  }
+
+  /** The encoded bytes themselves, for the protocols to write. */
+  byte[] array() {
+    return bytes;
+  }
+
+  /**
+   * Make a protocol that reads the value.
+   *
+   * @return a protocol positioned at the start of the value.
+   * @throws TException if a transport can't be made for the bytes.
+   */
+  public TProtocol reader() throws TException {
+    return protocolFactory.getProtocol(new TMemoryInputTransport(bytes));
+  }
+
+  @Override
+  public boolean equals(Object that) {
+    if (this == that) {
+      return true;
+    }
+    if (!(that instanceof TRawValue)) {
+      return false;
+    }
+    TRawValue other = (TRawValue) that;
+    return type == other.type
+        && protocolFactory.getClass() == other.protocolFactory.getClass()
+        && Arrays.equals(bytes, other.bytes);
+  }
+
+  @Override
+  public int hashCode() {
+    return (type * 31 + protocolFactory.getClass().getName().hashCode()) * 31
+        + Arrays.hashCode(bytes);
+  }
+
+  @Override
+  public int compareTo(TRawValue other) {
+    int lastComparison = TBaseHelper.compareTo(type, other.type);
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    lastComparison =
+        TBaseHelper.compareTo(
+            protocolFactory.getClass().getName(), other.protocolFactory.getClass().getName());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    return TBaseHelper.compareTo(bytes, other.bytes);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("TRawValue(type:");
+    sb.append(type).append(", ").append(bytes.length).append(" bytes:");
+    TBaseHelper.toString(ByteBuffer.wrap(bytes), sb);
+    return sb.append(')').toString();
+  }
+}
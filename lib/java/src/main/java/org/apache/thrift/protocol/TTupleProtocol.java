@@ -43,6 +43,22 @@ public final class TTupleProtocol extends TCompactProtocol {
     return TupleScheme.class;
   }
 
+  /**
+   * Values written by the tuple scheme can't be told apart without their schema, so they can't be
+   * read raw.
+   */
+  @Override
+  public TRawValue readRawValue(byte type) throws TException {
+    throw new TProtocolException(
+        TProtocolException.NOT_IMPLEMENTED, "TTupleProtocol can't read raw values");
+  }
+
+  @Override
+  public void writeRawValue(TRawValue value) throws TException {
+    throw new TProtocolException(
+        TProtocolException.NOT_IMPLEMENTED, "TTupleProtocol can't write raw values");
+  }
+
   public void writeBitSet(BitSet bs, int vectorWidth) throws TException {
     byte[] bytes = toByteArray(bs, vectorWidth);
     for (byte b : bytes) {
@@ -20,23 +20,31 @@
 package org.apache.thrift.server;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.spi.SelectorProvider;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.thrift.TAsyncProcessor;
 import org.apache.thrift.TByteArrayOutputStream;
 import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
 import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.BufferPool;
+import org.apache.thrift.transport.TFramedBufferWriteTransport;
 import org.apache.thrift.transport.TIOStreamTransport;
 import org.apache.thrift.transport.TMemoryInputTransport;
 import org.apache.thrift.transport.TNonblockingServerTransport;
+import org.apache.thrift.transport.TNonblockingSocket;
 import org.apache.thrift.transport.TNonblockingTransport;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.UnpooledBufferPool;
 import org.apache.thrift.transport.layered.TFramedTransport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,10 +58,56 @@ public abstract class AbstractNonblockingServer extends TServer {
       extends AbstractServerArgs<T> {
     public long maxReadBufferBytes = 256 * 1024 * 1024;
 
+    /**
+     * The most memory the frames read from a single connection may take up at once, which only
+     * makes a difference to connections that have several requests in flight.
+     */
+    public long maxReadBufferBytesPerConnection = Long.MAX_VALUE;
+
+    /** The most memory the frames read from all connections of one client address may take up. */
+    public long maxReadBufferBytesPerAddress = Long.MAX_VALUE;
+
+    /**
+     * The maximum number of requests a single connection may have outstanding at once. The default
+     * of 1 reads, invokes and answers one frame at a time. Any larger value turns on pipelined
+     * mode: the selector keeps reading frames while earlier ones are still being invoked, and
+     * responses are written back in the order they complete, so clients must match them up by
+     * seqid.
+     */
+    public int maxInFlightRequests = 1;
+
+    /**
+     * Where the buffers for the frames read from clients come from. The default allocates a new
+     * buffer for every frame; a {@link org.apache.thrift.transport.SizeClassedBufferPool} reuses
+     * them instead. Frames are parsed straight out of heap buffers, whereas frames read into direct
+     * buffers have to be copied out first.
+     */
+    public BufferPool bufferPool = new UnpooledBufferPool();
+
     public AbstractNonblockingServerArgs(TNonblockingServerTransport transport) {
       super(transport);
       transportFactory(new TFramedTransport.Factory());
     }
+
+    public T maxInFlightRequests(int maxInFlightRequests) {
+      this.maxInFlightRequests = maxInFlightRequests;
+      return (T) this;
+    }
+
+    public T bufferPool(BufferPool bufferPool) {
+      this.bufferPool = bufferPool;
+      return (T) this;
+    }
+
+    public T maxReadBufferBytesPerConnection(long maxReadBufferBytesPerConnection) {
+      this.maxReadBufferBytesPerConnection = maxReadBufferBytesPerConnection;
+      return (T) this;
+    }
+
+    public T maxReadBufferBytesPerAddress(long maxReadBufferBytesPerAddress) {
+      this.maxReadBufferBytesPerAddress = maxReadBufferBytesPerAddress;
+      return (T) this;
+    }
   }
 
   /**
@@ -63,12 +117,57 @@ public abstract class AbstractNonblockingServer extends TServer {
    */
   final long MAX_READ_BUFFER_BYTES;
 
-  /** How many bytes are currently allocated to read buffers. */
-  final AtomicLong readBufferBytesAllocated = new AtomicLong(0);
+  /**
+   * How many bytes are currently allocated to read buffers, and the connections that are waiting
+   * for more to be released. Connections stop reading while they wait.
+   */
+  final ReadBufferBudget readBufferBudget;
+
+  /**
+   * The maximum number of requests a single connection may have outstanding. Connections are served
+   * by a {@link PipelinedFrameBuffer} when this is greater than one.
+   */
+  final int MAX_IN_FLIGHT_REQUESTS;
+
+  /** Where read frames are acquired from, and released to once they have been processed. */
+  final BufferPool bufferPool;
+
+  /**
+   * Whether responses are framed straight into buffers from the {@link #bufferPool}, which is the
+   * case when the output transport factory is the default {@link TFramedTransport.Factory}. Any
+   * other factory gets to wrap a stream, as it may expect. So does an {@link UnpooledBufferPool},
+   * which would allocate a new buffer for every response, where a stream is reused.
+   */
+  final boolean FRAME_RESPONSES_IN_BUFFERS;
+
+  /** The size of the buffer a response is framed into to begin with. */
+  private static final int RESPONSE_BUFFER_SIZE = 1024;
 
   public AbstractNonblockingServer(AbstractNonblockingServerArgs<?> args) {
     super(args);
+    if (args.maxInFlightRequests < 1) {
+      throw new IllegalArgumentException("maxInFlightRequests must be positive.");
+    }
     MAX_READ_BUFFER_BYTES = args.maxReadBufferBytes;
+    readBufferBudget =
+        new ReadBufferBudget(
+            args.maxReadBufferBytes,
+            args.maxReadBufferBytesPerConnection,
+            args.maxReadBufferBytesPerAddress);
+    MAX_IN_FLIGHT_REQUESTS = args.maxInFlightRequests;
+    bufferPool = args.bufferPool;
+    FRAME_RESPONSES_IN_BUFFERS =
+        outputTransportFactory_.getClass() == TFramedTransport.Factory.class
+            && !(bufferPool instanceof UnpooledBufferPool);
+  }
+
+  /**
+   * Get the pool read frames come from, for instance to look at its statistics.
+   *
+   * @return the buffer pool of this server.
+   */
+  public BufferPool getBufferPool() {
+    return bufferPool;
   }
 
   /** Begin accepting connections and processing invocations. */
@@ -140,8 +239,14 @@ public abstract class AbstractNonblockingServer extends TServer {
   protected abstract class AbstractSelectThread extends Thread {
     protected Selector selector;
 
-    // List of FrameBuffers that want to change their selection interests.
-    protected final Set<FrameBuffer> selectInterestChanges = new HashSet<FrameBuffer>();
+    // FrameBuffers that want to change their selection interests. Any thread may add to it, but
+    // only this one takes from it. A FrameBuffer is only queued once until it has been processed.
+    protected final Queue<AbstractFrameBuffer> selectInterestChanges =
+        new ConcurrentLinkedQueue<AbstractFrameBuffer>();
+
+    // set once the selector has been woken up for the changes that have been queued, until they
+    // are processed, so that a burst of them only costs a single wakeup.
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
 
     public AbstractSelectThread() throws IOException {
       this.selector = SelectorProvider.provider().openSelector();
@@ -157,24 +262,38 @@ public abstract class AbstractNonblockingServer extends TServer {
      * blocked. When the select() call exits, it'll give the FrameBuffer a chance to change its
      * interests.
      */
-    public void requestSelectInterestChange(FrameBuffer frameBuffer) {
-      synchronized (selectInterestChanges) {
-        selectInterestChanges.add(frameBuffer);
+    public void requestSelectInterestChange(AbstractFrameBuffer frameBuffer) {
+      if (!frameBuffer.interestChangeQueued_.compareAndSet(false, true)) {
+        // already queued, and whoever queued it has seen to the wakeup
+        return;
+      }
+      selectInterestChanges.add(frameBuffer);
+      // wakeup the selector, if it's currently blocked and nobody else has yet.
+      if (wakeupPending.compareAndSet(false, true)) {
+        selector.wakeup();
       }
-      // wakeup the selector, if it's currently blocked.
-      selector.wakeup();
     }
 
     /**
      * Check to see if there are any FrameBuffers that have switched their interest type from read
-     * to write or vice versa.
+     * to write or vice versa. At most {@link #INTEREST_CHANGE_BATCH_SIZE} of them are processed at
+     * a time, so that IO is not held up by a flood of them; the selector is woken up again for any
+     * left over.
      */
     protected void processInterestChanges() {
-      synchronized (selectInterestChanges) {
-        for (FrameBuffer fb : selectInterestChanges) {
-          fb.changeSelectInterests();
+      // any change queued from here on may not be seen below, so needs a wakeup of its own
+      wakeupPending.set(false);
+      for (int i = 0; i < INTEREST_CHANGE_BATCH_SIZE; i++) {
+        AbstractFrameBuffer fb = selectInterestChanges.poll();
+        if (fb == null) {
+          return;
         }
-        selectInterestChanges.clear();
+        fb.interestChangeQueued_.set(false);
+        fb.changeSelectInterests();
+      }
+      if (!selectInterestChanges.isEmpty()) {
+        wakeupPending.set(true);
+        selector.wakeup();
       }
     }
 
@@ -183,21 +302,21 @@ public abstract class AbstractNonblockingServer extends TServer {
      * the method call.
      */
     protected void handleRead(SelectionKey key) {
-      FrameBuffer buffer = (FrameBuffer) key.attachment();
+      AbstractFrameBuffer buffer = (AbstractFrameBuffer) key.attachment();
       if (!buffer.read()) {
         cleanupSelectionKey(key);
         return;
       }
 
       // if the buffer's frame read is complete, invoke the method.
-      if (buffer.isFrameFullyRead() && !requestInvoke(buffer)) {
+      if (buffer.isFrameFullyRead() && !buffer.dispatchFrame()) {
         cleanupSelectionKey(key);
       }
     }
 
     /** Let a writable client get written, if there's data to be written. */
     protected void handleWrite(SelectionKey key) {
-      FrameBuffer buffer = (FrameBuffer) key.attachment();
+      AbstractFrameBuffer buffer = (AbstractFrameBuffer) key.attachment();
       if (!buffer.write()) {
         cleanupSelectionKey(key);
       }
@@ -206,7 +325,7 @@ public abstract class AbstractNonblockingServer extends TServer {
     /** Do connection-close cleanup on a given SelectionKey. */
     protected void cleanupSelectionKey(SelectionKey key) {
       // remove the records from the two maps
-      FrameBuffer buffer = (FrameBuffer) key.attachment();
+      AbstractFrameBuffer buffer = (AbstractFrameBuffer) key.attachment();
       if (buffer != null) {
         // close the buffer
         buffer.close();
@@ -216,12 +335,25 @@ public abstract class AbstractNonblockingServer extends TServer {
     }
   } // SelectThread
 
+  /** The address of a client, for the read buffer memory quota of its address. */
+  private static InetAddress clientAddress(TNonblockingTransport trans) {
+    if (trans instanceof TNonblockingSocket) {
+      return ((TNonblockingSocket) trans).getSocketChannel().socket().getInetAddress();
+    }
+    return null;
+  }
+
+  /** The most select interest changes a select thread processes before it selects again. */
+  private static final int INTEREST_CHANGE_BATCH_SIZE = 1024;
+
   /** Possible states for the FrameBuffer state machine. */
   private enum FrameBufferState {
     // in the midst of reading the frame size off the wire
     READING_FRAME_SIZE,
     // reading the actual frame data now, but not all the way done yet
     READING_FRAME,
+    // read the frame size, but waiting for memory to be released before reading the frame
+    AWAITING_READ_MEMORY,
     // completely read the frame, so an invocation can now happen
     READ_FRAME_COMPLETE,
     // waiting to get switched to listening for write events
@@ -236,12 +368,12 @@ public abstract class AbstractNonblockingServer extends TServer {
   }
 
   /**
-   * Class that implements a sort of state machine around the interaction with a client and an
-   * invoker. It manages reading the frame size and frame data, getting it handed off as wrapped
-   * transports, and then the writing of response data back to the client. In the process it manages
-   * flipping the read and write bits on the selection key for its client.
+   * The part of a FrameBuffer that looks after its client's connection: reading frames off it
+   * within the read buffer memory limits, and having its select interests changed by its select
+   * thread. What is done with each frame once it has been read, and how responses are written back,
+   * is up to the subclass.
    */
-  public class FrameBuffer {
+  public abstract class AbstractFrameBuffer {
     private final Logger LOGGER = LoggerFactory.getLogger(getClass().getName());
 
     // the actual transport hooked up to the client.
@@ -259,47 +391,47 @@ public abstract class AbstractNonblockingServer extends TServer {
     // the ByteBuffer we'll be using to write and read, depending on the state
     protected ByteBuffer buffer_;
 
-    protected final TByteArrayOutputStream response_;
+    // reused to read the size of every frame
+    private final ByteBuffer frameSizeBuffer_;
 
-    // the frame that the TTransport should wrap.
-    protected final TMemoryInputTransport frameTrans_;
-
-    // the transport that should be used to connect to clients
-    protected final TTransport inTrans_;
-
-    protected final TTransport outTrans_;
+    // the frame acquired from the buffer pool, until it is released back to it
+    private final AtomicReference<ByteBuffer> readFrame_;
 
-    // the input protocol to use on frames
-    protected final TProtocol inProt_;
+    // the read memory held by this connection
+    private final ReadBufferBudget.Account readAccount_;
 
-    // the output protocol to use on frames
-    protected final TProtocol outProt_;
+    // the memory we're waiting for while in AWAITING_READ_MEMORY, only touched by the select thread
+    private ReadBufferBudget.Reservation readReservation_;
 
-    // context associated with this connection
-    protected final ServerContext context_;
+    // whether we're waiting in our select thread's queue of interest changes
+    private final AtomicBoolean interestChangeQueued_ = new AtomicBoolean(false);
 
-    public FrameBuffer(
+    protected AbstractFrameBuffer(
         final TNonblockingTransport trans,
         final SelectionKey selectionKey,
-        final AbstractSelectThread selectThread)
-        throws TTransportException {
+        final AbstractSelectThread selectThread) {
       trans_ = trans;
       selectionKey_ = selectionKey;
       selectThread_ = selectThread;
-      buffer_ = ByteBuffer.allocate(4);
-
-      frameTrans_ = new TMemoryInputTransport();
-      response_ = new TByteArrayOutputStream();
-      inTrans_ = inputTransportFactory_.getTransport(frameTrans_);
-      outTrans_ = outputTransportFactory_.getTransport(new TIOStreamTransport(response_));
-      inProt_ = inputProtocolFactory_.getProtocol(inTrans_);
-      outProt_ = outputProtocolFactory_.getProtocol(outTrans_);
+      frameSizeBuffer_ = ByteBuffer.allocate(4);
+      readFrame_ = new AtomicReference<>();
+      readAccount_ = readBufferBudget.newAccount(clientAddress(trans));
+      buffer_ = frameSizeBuffer_;
+    }
 
-      if (eventHandler_ != null) {
-        context_ = eventHandler_.createContext(inProt_, outProt_);
-      } else {
-        context_ = null;
-      }
+    /**
+     * Create a FrameBuffer for a frame another one has just read. It shares the transport and
+     * selection key of that one, and takes over the frame, which it releases once done with it.
+     */
+    protected AbstractFrameBuffer(final AbstractFrameBuffer connection, final ByteBuffer frame) {
+      trans_ = connection.trans_;
+      selectionKey_ = connection.selectionKey_;
+      selectThread_ = connection.selectThread_;
+      state_ = FrameBufferState.READ_FRAME_COMPLETE;
+      buffer_ = frame;
+      frameSizeBuffer_ = null;
+      readFrame_ = new AtomicReference<>(connection.readFrame_.getAndSet(null));
+      readAccount_ = connection.readAccount_;
     }
 
     /**
@@ -340,20 +472,30 @@ public abstract class AbstractNonblockingServer extends TServer {
             return false;
           }
 
-          // if this frame will push us over the memory limit, then return.
-          // with luck, more memory will free up the next time around.
-          if (readBufferBytesAllocated.get() + frameSize > MAX_READ_BUFFER_BYTES) {
-            return true;
+          // likewise if this frame could never fit into the memory we may use.
+          if (!readBufferBudget.admits(frameSize + 4)) {
+            LOGGER.error(
+                "Read a frame size of "
+                    + frameSize
+                    + ", which is bigger than the read buffer memory this connection may use.");
+            return false;
           }
 
-          // increment the amount of memory allocated to read buffers
-          readBufferBytesAllocated.addAndGet(frameSize + 4);
-
-          // reallocate the readbuffer as a frame-sized buffer
-          buffer_ = ByteBuffer.allocate(frameSize + 4);
-          buffer_.putInt(frameSize);
+          // if this frame will push us over the memory limit, then stop reading
+          // until enough memory has been released, rather than spinning on a
+          // readable socket. connections get their memory in the order they
+          // started waiting for it.
+          if (!readBufferBudget.tryReserve(readAccount_, frameSize + 4)) {
+            selectionKey_.interestOps(selectionKey_.interestOps() & ~SelectionKey.OP_READ);
+            state_ = FrameBufferState.AWAITING_READ_MEMORY;
+            readReservation_ =
+                new ReadBufferBudget.Reservation(
+                    readAccount_, frameSize + 4, this::requestSelectInterestChange);
+            readBufferBudget.park(readReservation_);
+            return true;
+          }
 
-          state_ = FrameBufferState.READING_FRAME;
+          startReadingFrame(frameSize);
         } else {
           // this skips the check of READING_FRAME state below, since we can't
           // possibly go on to that state if there's data left to be read at
@@ -387,6 +529,222 @@ public abstract class AbstractNonblockingServer extends TServer {
       return false;
     }
 
+    /**
+     * Hand the frame that has just been read completely on to be processed. Called by the select
+     * thread once {@link #isFrameFullyRead()} is true.
+     *
+     * @return true if the connection should live on, false if it should be closed
+     */
+    protected abstract boolean dispatchFrame();
+
+    /** Give this FrameBuffer a chance to write its output to the final client. */
+    public abstract boolean write();
+
+    /** Give this FrameBuffer a chance to change its select interests, from its select thread. */
+    public abstract void changeSelectInterests();
+
+    /** Shut the connection down. */
+    public void close() {
+      // if we're being closed due to an error, we might still hold a frame
+      // whose memory needs to go back to our accounting.
+      dropReadBuffer();
+      if (readReservation_ != null) {
+        readBufferBudget.cancel(readReservation_);
+        readReservation_ = null;
+      }
+      trans_.close();
+    }
+
+    /** Check if this FrameBuffer has a full frame read. */
+    public boolean isFrameFullyRead() {
+      return state_ == FrameBufferState.READ_FRAME_COMPLETE;
+    }
+
+    /**
+     * Give the frame that was read back to the buffer pool and our memory accounting. Only the
+     * first call of this or {@link #dropReadBuffer()} has any effect, so it is safe to call from
+     * both responseReady() and close().
+     */
+    protected void releaseReadBuffer() {
+      ByteBuffer frame = readFrame_.getAndSet(null);
+      if (frame != null) {
+        bufferPool.release(frame);
+        readBufferBudget.release(readAccount_, frame.capacity());
+      }
+    }
+
+    /**
+     * Give the memory of the frame that was read back to our accounting, but leave the frame to the
+     * garbage collector. A connection closed by its select thread, for instance at shutdown, may
+     * have its frame still being read by an invocation, which must not get it from the pool again.
+     */
+    private void dropReadBuffer() {
+      ByteBuffer frame = readFrame_.getAndSet(null);
+      if (frame != null) {
+        readBufferBudget.release(readAccount_, frame.capacity());
+      }
+    }
+
+    /**
+     * Get a buffer for the frame whose size has just been read, once the memory for it has been
+     * reserved, and account for whatever the pool rounded its size up by.
+     */
+    private void startReadingFrame(int frameSize) {
+      buffer_ = bufferPool.acquire(frameSize + 4);
+      readFrame_.set(buffer_);
+      readBufferBudget.charge(readAccount_, buffer_.capacity() - (frameSize + 4L));
+      buffer_.putInt(frameSize);
+      state_ = FrameBufferState.READING_FRAME;
+    }
+
+    /**
+     * Go on to read the frame we've been waiting for memory for, if it has been granted. Must only
+     * be called from the select thread, which then has to restore the read interest.
+     *
+     * @return true if reading has resumed.
+     */
+    protected boolean claimReadMemory() {
+      if (state_ != FrameBufferState.AWAITING_READ_MEMORY
+          || !readBufferBudget.claim(readReservation_)) {
+        return false;
+      }
+      readReservation_ = null;
+      startReadingFrame(frameSizeBuffer_.getInt(0));
+      return true;
+    }
+
+    /**
+     * Perform a read into buffer.
+     *
+     * @return true if the read succeeded, false if there was an error or the connection closed.
+     */
+    private boolean internalRead() {
+      try {
+        return trans_.read(buffer_) >= 0;
+      } catch (TTransportException e) {
+        LOGGER.warn("Got an Exception in internalRead", e);
+        return false;
+      }
+    }
+
+    /** Get ready to read the size of the next frame. */
+    protected void startReadingFrameSize() {
+      frameSizeBuffer_.clear();
+      buffer_ = frameSizeBuffer_;
+      state_ = FrameBufferState.READING_FRAME_SIZE;
+    }
+
+    /**
+     * When this FrameBuffer needs to change its select interests and execution might not be in its
+     * select thread, then this method will make sure the interest change gets done when the select
+     * thread wakes back up. When the current thread is this FrameBuffer's select thread, then it
+     * just does the interest change immediately.
+     */
+    protected void requestSelectInterestChange() {
+      if (Thread.currentThread() == this.selectThread_) {
+        changeSelectInterests();
+      } else {
+        this.selectThread_.requestSelectInterestChange(this);
+      }
+    }
+  } // AbstractFrameBuffer
+
+  /**
+   * Class that implements a sort of state machine around the interaction with a client and an
+   * invoker. It manages reading the frame size and frame data, getting it handed off as wrapped
+   * transports, and then the writing of response data back to the client. In the process it manages
+   * flipping the read and write bits on the selection key for its client.
+   */
+  public class FrameBuffer extends AbstractFrameBuffer {
+    private final Logger LOGGER = LoggerFactory.getLogger(getClass().getName());
+
+    // where responses are written when they aren't framed into pooled buffers, or null otherwise
+    protected final TByteArrayOutputStream response_;
+
+    // frames responses into pooled buffers, or null if they are written to response_ instead
+    private final TFramedBufferWriteTransport responseWriter_;
+
+    // the response taken from responseWriter_, until it has been written and released
+    private final AtomicReference<ByteBuffer> responseFrame_;
+
+    // the frame that the TTransport should wrap.
+    protected final TMemoryInputTransport frameTrans_;
+
+    // the transport that should be used to connect to clients
+    protected final TTransport inTrans_;
+
+    protected final TTransport outTrans_;
+
+    // the input protocol to use on frames
+    protected final TProtocol inProt_;
+
+    // the output protocol to use on frames
+    protected final TProtocol outProt_;
+
+    // context associated with this connection
+    protected final ServerContext context_;
+
+    public FrameBuffer(
+        final TNonblockingTransport trans,
+        final SelectionKey selectionKey,
+        final AbstractSelectThread selectThread)
+        throws TTransportException {
+      super(trans, selectionKey, selectThread);
+
+      frameTrans_ = new TMemoryInputTransport();
+      inTrans_ = inputTransportFactory_.getTransport(frameTrans_);
+      responseFrame_ = new AtomicReference<>();
+      if (FRAME_RESPONSES_IN_BUFFERS) {
+        response_ = null;
+        responseWriter_ = new TFramedBufferWriteTransport(null, bufferPool, RESPONSE_BUFFER_SIZE);
+        outTrans_ = responseWriter_;
+      } else {
+        response_ = new TByteArrayOutputStream();
+        responseWriter_ = null;
+        outTrans_ = outputTransportFactory_.getTransport(new TIOStreamTransport(response_));
+      }
+      inProt_ = inputProtocolFactory_.getProtocol(inTrans_);
+      outProt_ = outputProtocolFactory_.getProtocol(outTrans_);
+
+      if (eventHandler_ != null) {
+        context_ = eventHandler_.createContext(inProt_, outProt_);
+      } else {
+        context_ = null;
+      }
+    }
+
+    /**
+     * Create a FrameBuffer for a single request read by a {@link PipelinedFrameBuffer}. It shares
+     * the transport, selection key and server context of its connection, but has its own frame and
+     * protocols so that it can be invoked concurrently with the connection's other requests. It
+     * takes over the frame the connection has just read, and releases it once processed.
+     */
+    protected FrameBuffer(final PipelinedFrameBuffer connection, final ByteBuffer frame)
+        throws TTransportException {
+      super(connection, frame);
+
+      frameTrans_ = new TMemoryInputTransport();
+      inTrans_ = inputTransportFactory_.getTransport(frameTrans_);
+      responseFrame_ = new AtomicReference<>();
+      if (FRAME_RESPONSES_IN_BUFFERS) {
+        response_ = null;
+        responseWriter_ = new TFramedBufferWriteTransport(null, bufferPool, RESPONSE_BUFFER_SIZE);
+        outTrans_ = responseWriter_;
+      } else {
+        response_ = new TByteArrayOutputStream();
+        responseWriter_ = null;
+        outTrans_ = outputTransportFactory_.getTransport(new TIOStreamTransport(response_));
+      }
+      inProt_ = inputProtocolFactory_.getProtocol(inTrans_);
+      outProt_ = outputProtocolFactory_.getProtocol(outTrans_);
+      context_ = connection.context_;
+    }
+
+    @Override
+    protected boolean dispatchFrame() {
+      return requestInvoke(this);
+    }
+
     /** Give this FrameBuffer a chance to write its output to the final client. */
     public boolean write() {
       if (state_ == FrameBufferState.WRITING) {
@@ -401,6 +759,7 @@ public abstract class AbstractNonblockingServer extends TServer {
 
         // we're done writing. now we need to switch back to reading.
         if (buffer_.remaining() == 0) {
+          releaseResponseBuffer();
           prepareRead();
         }
         return true;
@@ -425,6 +784,11 @@ public abstract class AbstractNonblockingServer extends TServer {
           close();
           selectionKey_.cancel();
           break;
+        case AWAITING_READ_MEMORY:
+          if (claimReadMemory()) {
+            selectionKey_.interestOps(SelectionKey.OP_READ);
+          }
+          break;
         default:
           LOGGER.error("changeSelectInterest was called, but state is invalid ({})", state_);
       }
@@ -432,24 +796,13 @@ public abstract class AbstractNonblockingServer extends TServer {
 
     /** Shut the connection down. */
     public void close() {
-      // if we're being closed due to an error, we might have allocated a
-      // buffer that we need to subtract for our memory accounting.
-      if (state_ == FrameBufferState.READING_FRAME
-          || state_ == FrameBufferState.READ_FRAME_COMPLETE
-          || state_ == FrameBufferState.AWAITING_CLOSE) {
-        readBufferBytesAllocated.addAndGet(-buffer_.array().length);
-      }
-      trans_.close();
+      super.close();
+      releaseResponseBuffer();
       if (eventHandler_ != null) {
         eventHandler_.deleteContext(context_, inProt_, outProt_);
       }
     }
 
-    /** Check if this FrameBuffer has a full frame read. */
-    public boolean isFrameFullyRead() {
-      return state_ == FrameBufferState.READ_FRAME_COMPLETE;
-    }
-
     /**
      * After the processor has processed the invocation, whatever thread is managing invocations
      * should call this method on this FrameBuffer so we know it's time to start trying to write
@@ -457,18 +810,21 @@ public abstract class AbstractNonblockingServer extends TServer {
      * skip trying to write and instead go back to reading.
      */
     public void responseReady() {
-      // the read buffer is definitely no longer in use, so we will decrement
-      // our read buffer count. we do this here as well as in close because
-      // we'd like to free this read memory up as quickly as possible for other
-      // clients.
-      readBufferBytesAllocated.addAndGet(-buffer_.array().length);
+      // the read buffer is definitely no longer in use, so we will give it
+      // back. we do this here as well as in close because we'd like to free
+      // this read memory up as quickly as possible for other clients.
+      releaseReadBuffer();
 
-      if (response_.len() == 0) {
+      ByteBuffer response = takeResponse();
+      if (response == null) {
         // go straight to reading again. this was probably an oneway method
         state_ = FrameBufferState.AWAITING_REGISTER_READ;
         buffer_ = null;
       } else {
-        buffer_ = ByteBuffer.wrap(response_.get(), 0, response_.len());
+        buffer_ = response;
+        if (FRAME_RESPONSES_IN_BUFFERS) {
+          responseFrame_.set(response);
+        }
 
         // set state that we're waiting to be switched to write. we do this
         // asynchronously through requestSelectInterestChange() because there is
@@ -482,8 +838,7 @@ public abstract class AbstractNonblockingServer extends TServer {
 
     /** Actually invoke the method signified by this FrameBuffer. */
     public void invoke() {
-      frameTrans_.reset(buffer_.array());
-      response_.reset();
+      prepareInvoke();
 
       try {
         if (eventHandler_ != null) {
@@ -502,17 +857,53 @@ public abstract class AbstractNonblockingServer extends TServer {
       requestSelectInterestChange();
     }
 
+    /** Point the input transport at the frame that has been read, and clear the last response. */
+    protected void prepareInvoke() {
+      if (buffer_.hasArray()) {
+        frameTrans_.reset(buffer_.array(), buffer_.arrayOffset(), buffer_.limit());
+      } else {
+        // a direct buffer has no array to read from, so copy the frame out of it
+        byte[] frame = new byte[buffer_.limit()];
+        ByteBuffer source = buffer_.duplicate();
+        source.clear();
+        source.get(frame);
+        frameTrans_.reset(frame);
+      }
+      if (response_ != null) {
+        response_.reset();
+      }
+      discardResponse();
+    }
+
     /**
-     * Perform a read into buffer.
+     * Take the response the processor has written, ready to be handed to the socket as it is. When
+     * responses are framed into pooled buffers, the buffer returned belongs to the caller from then
+     * on, and should be released to the pool once it has been written.
      *
-     * @return true if the read succeeded, false if there was an error or the connection closed.
+     * @return the framed response, or null if nothing was written.
      */
-    private boolean internalRead() {
-      try {
-        return trans_.read(buffer_) >= 0;
-      } catch (TTransportException e) {
-        LOGGER.warn("Got an Exception in internalRead", e);
-        return false;
+    protected ByteBuffer takeResponse() {
+      if (responseWriter_ == null) {
+        return response_.len() == 0 ? null : ByteBuffer.wrap(response_.get(), 0, response_.len());
+      }
+      return responseWriter_.takeFrames();
+    }
+
+    /** Drop a response that has been partly written, for instance because processing failed. */
+    protected void discardResponse() {
+      if (responseWriter_ != null) {
+        responseWriter_.discard();
+      }
+    }
+
+    /**
+     * Give the buffer of a response that has been written, or will never be, back to the buffer
+     * pool. Only the first call has any effect.
+     */
+    protected void releaseResponseBuffer() {
+      ByteBuffer response = responseFrame_.getAndSet(null);
+      if (response != null) {
+        bufferPool.release(response);
       }
     }
 
@@ -522,22 +913,7 @@ public abstract class AbstractNonblockingServer extends TServer {
       // we're in the select thread.
       selectionKey_.interestOps(SelectionKey.OP_READ);
       // get ready for another go-around
-      buffer_ = ByteBuffer.allocate(4);
-      state_ = FrameBufferState.READING_FRAME_SIZE;
-    }
-
-    /**
-     * When this FrameBuffer needs to change its select interests and execution might not be in its
-     * select thread, then this method will make sure the interest change gets done when the select
-     * thread wakes back up. When the current thread is this FrameBuffer's select thread, then it
-     * just does the interest change immediately.
-     */
-    protected void requestSelectInterestChange() {
-      if (Thread.currentThread() == this.selectThread_) {
-        changeSelectInterests();
-      } else {
-        this.selectThread_.requestSelectInterestChange(this);
-      }
+      startReadingFrameSize();
     }
   } // FrameBuffer
 
@@ -548,6 +924,11 @@ public abstract class AbstractNonblockingServer extends TServer {
       super(trans, selectionKey, selectThread);
     }
 
+    protected AsyncFrameBuffer(PipelinedFrameBuffer connection, ByteBuffer frame)
+        throws TTransportException {
+      super(connection, frame);
+    }
+
     public TProtocol getInputProtocol() {
       return inProt_;
     }
@@ -557,8 +938,7 @@ public abstract class AbstractNonblockingServer extends TServer {
     }
 
     public void invoke() {
-      frameTrans_.reset(buffer_.array());
-      response_.reset();
+      prepareInvoke();
 
       try {
         if (eventHandler_ != null) {
@@ -576,4 +956,258 @@ public abstract class AbstractNonblockingServer extends TServer {
       requestSelectInterestChange();
     }
   }
+
+  /**
+   * A FrameBuffer for connections that may have several requests outstanding at once. Instead of
+   * waiting for each invocation to finish, every complete frame is handed off as its own {@link
+   * PipelinedRequest} and the connection goes straight back to reading, as long as fewer than the
+   * configured maximum number of requests are outstanding. Responses are queued as they complete
+   * and written back in that order, so a slow call no longer holds up the calls behind it.
+   */
+  public class PipelinedFrameBuffer extends AbstractFrameBuffer {
+
+    // responses that are ready to go out, in completion order
+    private final Queue<ByteBuffer> pendingResponses = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    // requests that have been read but whose response has not been written yet
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+
+    // the response currently being written, only touched by the select thread
+    private ByteBuffer writeBuffer_;
+
+    // set by any thread that wants the connection shut down by the select thread
+    private volatile boolean closeRequested_ = false;
+
+    // set by the select thread once the connection is closed, read by the threads requests finish
+    // on
+    private volatile boolean closed_ = false;
+
+    // the protocols the server context was created with, on the client's transport
+    private final TProtocol contextInProt_;
+
+    private final TProtocol contextOutProt_;
+
+    // context associated with this connection, shared by all of its requests
+    private final ServerContext context_;
+
+    public PipelinedFrameBuffer(
+        TNonblockingTransport trans, SelectionKey selectionKey, AbstractSelectThread selectThread) {
+      super(trans, selectionKey, selectThread);
+      if (eventHandler_ != null) {
+        contextInProt_ = inputProtocolFactory_.getProtocol(trans);
+        contextOutProt_ = outputProtocolFactory_.getProtocol(trans);
+        context_ = eventHandler_.createContext(contextInProt_, contextOutProt_);
+      } else {
+        contextInProt_ = null;
+        contextOutProt_ = null;
+        context_ = null;
+      }
+    }
+
+    /**
+     * Hand the frame that has just been read to a request of its own, and go straight back to
+     * reading.
+     *
+     * @return true if the connection should live on, false if it should be closed
+     */
+    @Override
+    protected boolean dispatchFrame() {
+      PipelinedRequest request;
+      try {
+        request = new PipelinedRequest(this, buffer_);
+      } catch (TTransportException e) {
+        LOGGER.warn("Failed to set up a pipelined request", e);
+        return false;
+      }
+
+      // get ready for the next frame before the request can possibly complete
+      startReadingFrameSize();
+      inFlight.incrementAndGet();
+      updateSelectInterests();
+
+      if (!requestInvoke(request)) {
+        // the request has taken the frame from us, so closing the connection won't release it
+        request.releaseReadBuffer();
+        inFlight.decrementAndGet();
+        return false;
+      }
+      return true;
+    }
+
+    /** Write as many of the queued responses as the client will take. */
+    @Override
+    public boolean write() {
+      while (true) {
+        if (writeBuffer_ == null) {
+          writeBuffer_ = pendingResponses.poll();
+          if (writeBuffer_ == null) {
+            break;
+          }
+        }
+        try {
+          if (trans_.write(writeBuffer_) < 0) {
+            return false;
+          }
+        } catch (TTransportException e) {
+          LOGGER.warn("Got an Exception during write", e);
+          return false;
+        }
+        if (writeBuffer_.remaining() > 0) {
+          // the socket is full, wait for the next write event
+          return true;
+        }
+        releaseWritten(writeBuffer_);
+        writeBuffer_ = null;
+      }
+      updateSelectInterests();
+      return true;
+    }
+
+    @Override
+    public void changeSelectInterests() {
+      if (closeRequested_) {
+        close();
+        selectionKey_.cancel();
+      } else if (selectionKey_.isValid()) {
+        claimReadMemory();
+        updateSelectInterests();
+      }
+    }
+
+    @Override
+    public void close() {
+      if (closed_) {
+        return;
+      }
+      closed_ = true;
+      super.close();
+      if (eventHandler_ != null) {
+        eventHandler_.deleteContext(context_, contextInProt_, contextOutProt_);
+      }
+      // responses that will never be written can go back to the pool too
+      if (writeBuffer_ != null) {
+        releaseWritten(writeBuffer_);
+        writeBuffer_ = null;
+      }
+      releasePendingResponses();
+    }
+
+    /**
+     * Called by a request once its response is ready, from whichever thread processed it.
+     *
+     * @param response the framed response, or null if there is nothing to send back
+     */
+    private void requestComplete(ByteBuffer response) {
+      if (response == null) {
+        inFlight.decrementAndGet();
+      } else {
+        pendingResponses.add(response);
+      }
+      if (closed_) {
+        // close() may have emptied the queue before the response was added to it, and nothing
+        // is going to write it now
+        releasePendingResponses();
+        return;
+      }
+      requestSelectInterestChange();
+    }
+
+    /** Release the responses that are waiting to be written. Safe to call from any thread. */
+    private void releasePendingResponses() {
+      for (ByteBuffer response; (response = pendingResponses.poll()) != null; ) {
+        releaseWritten(response);
+      }
+    }
+
+    /**
+     * Give a response that has been written, or never will be, back to the pool if it came from
+     * there, and count its request as done.
+     */
+    private void releaseWritten(ByteBuffer response) {
+      if (FRAME_RESPONSES_IN_BUFFERS) {
+        bufferPool.release(response);
+      }
+      inFlight.decrementAndGet();
+    }
+
+    /** Have the select thread close this connection. */
+    private void requestClose() {
+      closeRequested_ = true;
+      requestSelectInterestChange();
+    }
+
+    /**
+     * Read while there is room for more requests, and write while there are responses waiting. Must
+     * only be called from the select thread.
+     */
+    private void updateSelectInterests() {
+      int ops = 0;
+      if (inFlight.get() < MAX_IN_FLIGHT_REQUESTS
+          && state_ != FrameBufferState.AWAITING_READ_MEMORY) {
+        ops |= SelectionKey.OP_READ;
+      }
+      if (writeBuffer_ != null || !pendingResponses.isEmpty()) {
+        ops |= SelectionKey.OP_WRITE;
+      }
+      selectionKey_.interestOps(ops);
+    }
+  } // PipelinedFrameBuffer
+
+  /**
+   * A single request read by a {@link PipelinedFrameBuffer}. It is what gets passed to {@link
+   * #requestInvoke(FrameBuffer)}, and it hands its response back to the connection instead of
+   * writing it itself.
+   */
+  public class PipelinedRequest extends AsyncFrameBuffer {
+
+    private final PipelinedFrameBuffer connection_;
+
+    protected PipelinedRequest(PipelinedFrameBuffer connection, ByteBuffer frame)
+        throws TTransportException {
+      super(connection, frame);
+      connection_ = connection;
+    }
+
+    @Override
+    public void invoke() {
+      prepareInvoke();
+
+      try {
+        if (eventHandler_ != null) {
+          eventHandler_.processContext(context_, inTrans_, outTrans_);
+        }
+        TProcessor processor = processorFactory_.getProcessor(inTrans_);
+        if (processorFactory_.isAsyncProcessor()) {
+          ((TAsyncProcessor) processor).process(this);
+        } else {
+          processor.process(inProt_, outProt_);
+          responseReady();
+        }
+        return;
+      } catch (TException te) {
+        LOGGER.warn("Exception while invoking!", te);
+      } catch (Throwable t) {
+        LOGGER.error("Unexpected throwable while invoking!", t);
+      }
+      // This will only be reached when there is a throwable.
+      close();
+    }
+
+    @Override
+    public void responseReady() {
+      releaseReadBuffer();
+      buffer_ = null;
+      // the connection writes the response and gives its buffer back to the pool. a null
+      // response was probably a oneway method
+      connection_.requestComplete(takeResponse());
+    }
+
+    /** Closing a request takes its whole connection down. */
+    @Override
+    public void close() {
+      releaseReadBuffer();
+      discardResponse();
+      connection_.requestClose();
+    }
+  } // PipelinedRequest
 }
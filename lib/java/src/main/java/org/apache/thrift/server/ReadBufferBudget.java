@@ -0,0 +1,279 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps track of the memory a nonblocking server has handed out for read frames, and makes
+ * connections that would go over it wait their turn. The total is kept in a striped counter so that
+ * connections on different select and worker threads don't contend on it, and may be limited per
+ * connection and per client address on top of that.
+ *
+ * <p>A connection that cannot have the memory for its next frame right away parks a {@link
+ * Reservation} and stops reading. Reservations are granted in the order they were parked as memory
+ * is released, except that a reservation held back by its own connection or address quota lets the
+ * ones behind it go ahead. Like the accounting it replaces, the limits are soft: concurrent
+ * reservations may overshoot them by a frame or so.
+ */
+final class ReadBufferBudget {
+
+  private enum Verdict {
+    GRANTED,
+    // the shared budget is used up, so nobody behind this reservation may go ahead of it
+    OVER_BUDGET,
+    // the connection or its client address is using up its own quota
+    OVER_QUOTA
+  }
+
+  private enum ReservationState {
+    PARKED,
+    GRANTED,
+    CLAIMED,
+    CANCELLED
+  }
+
+  /** The memory held by one connection and the requests read from it. */
+  static final class Account {
+    private final AtomicLong bytes = new AtomicLong();
+    // null when memory is not tracked per address
+    private final InetAddress address;
+
+    private Account(InetAddress address) {
+      this.address = address;
+    }
+  }
+
+  /** A frame's worth of memory a connection is waiting for. */
+  static final class Reservation {
+    private final Account account;
+    private final long bytes;
+    private final Runnable onGranted;
+    // guarded by the budget
+    private ReservationState state = ReservationState.PARKED;
+
+    /**
+     * @param account the connection that wants the memory.
+     * @param bytes how much memory it wants.
+     * @param onGranted called once the memory has been reserved, from whichever thread released it,
+     *     to have the connection {@link ReadBufferBudget#claim(Reservation) claim} it.
+     */
+    Reservation(Account account, long bytes, Runnable onGranted) {
+      this.account = account;
+      this.bytes = bytes;
+      this.onGranted = onGranted;
+    }
+  }
+
+  private final long maxBytes;
+  private final long maxBytesPerConnection;
+  private final long maxBytesPerAddress;
+
+  private final LongAdder allocated = new LongAdder();
+  private final ConcurrentHashMap<InetAddress, Long> addressBytes = new ConcurrentHashMap<>();
+
+  // only changed while holding the lock on this budget, but may be peeked at without it
+  private final Queue<Reservation> parked = new ConcurrentLinkedQueue<>();
+
+  ReadBufferBudget(long maxBytes, long maxBytesPerConnection, long maxBytesPerAddress) {
+    if (maxBytes <= 0 || maxBytesPerConnection <= 0 || maxBytesPerAddress <= 0) {
+      throw new IllegalArgumentException("Read buffer limits must be positive.");
+    }
+    this.maxBytes = maxBytes;
+    this.maxBytesPerConnection = maxBytesPerConnection;
+    this.maxBytesPerAddress = maxBytesPerAddress;
+  }
+
+  /**
+   * @param address the address of the client, or null if it is not known.
+   * @return an account for a new connection.
+   */
+  Account newAccount(InetAddress address) {
+    return new Account(maxBytesPerAddress == Long.MAX_VALUE ? null : address);
+  }
+
+  /**
+   * @return whether a frame of this size could ever be read at all.
+   */
+  boolean admits(long bytes) {
+    return bytes <= maxBytes && bytes <= maxBytesPerConnection && bytes <= maxBytesPerAddress;
+  }
+
+  /**
+   * Reserve memory straight away if it can be had without going ahead of a parked connection.
+   *
+   * @return true if the memory has been reserved, false if the connection should park instead.
+   */
+  boolean tryReserve(Account account, long bytes) {
+    return parked.isEmpty() && reserve(account, bytes) == Verdict.GRANTED;
+  }
+
+  /** Wait for the memory of a reservation, which may be granted before this even returns. */
+  void park(Reservation reservation) {
+    synchronized (this) {
+      parked.add(reservation);
+    }
+    // memory may have been released since tryReserve() failed
+    resumeParked();
+  }
+
+  /**
+   * Take the memory that has been granted to a reservation.
+   *
+   * @return true if it is now the caller's to use, false if it has not been granted (yet).
+   */
+  synchronized boolean claim(Reservation reservation) {
+    if (reservation.state != ReservationState.GRANTED) {
+      return false;
+    }
+    reservation.state = ReservationState.CLAIMED;
+    return true;
+  }
+
+  /**
+   * Stop waiting on a reservation, for instance because the connection is closed. If it has been
+   * granted but not claimed yet, its memory is released.
+   */
+  void cancel(Reservation reservation) {
+    ReservationState state;
+    synchronized (this) {
+      state = reservation.state;
+      if (state == ReservationState.PARKED) {
+        parked.remove(reservation);
+      }
+      if (state == ReservationState.PARKED || state == ReservationState.GRANTED) {
+        reservation.state = ReservationState.CANCELLED;
+      }
+    }
+    if (state == ReservationState.GRANTED) {
+      release(reservation.account, reservation.bytes);
+    } else if (state == ReservationState.PARKED) {
+      // whoever was waiting behind it may be able to go now
+      resumeParked();
+    }
+  }
+
+  /** Account for memory that is already in use, such as a buffer rounded up by its pool. */
+  void charge(Account account, long bytes) {
+    if (bytes != 0) {
+      add(account, bytes);
+    }
+  }
+
+  /** Give back memory, and grant it to whoever has been waiting for it. */
+  void release(Account account, long bytes) {
+    add(account, -bytes);
+    resumeParked();
+  }
+
+  /**
+   * @return the number of bytes currently reserved for read frames.
+   */
+  long getAllocatedBytes() {
+    return allocated.sum();
+  }
+
+  /**
+   * @return the number of connections waiting for memory.
+   */
+  int getParkedCount() {
+    return parked.size();
+  }
+
+  private void resumeParked() {
+    if (parked.isEmpty()) {
+      return;
+    }
+    List<Reservation> granted = null;
+    synchronized (this) {
+      for (Iterator<Reservation> it = parked.iterator(); it.hasNext(); ) {
+        Reservation reservation = it.next();
+        Verdict verdict = reserve(reservation.account, reservation.bytes);
+        if (verdict == Verdict.OVER_BUDGET) {
+          break;
+        }
+        if (verdict == Verdict.GRANTED) {
+          it.remove();
+          reservation.state = ReservationState.GRANTED;
+          if (granted == null) {
+            granted = new ArrayList<>();
+          }
+          granted.add(reservation);
+        }
+      }
+    }
+    // outside the lock, since this may go straight on to claim() on the same thread
+    if (granted != null) {
+      for (Reservation reservation : granted) {
+        reservation.onGranted.run();
+      }
+    }
+  }
+
+  private Verdict reserve(Account account, long bytes) {
+    if (allocated.sum() + bytes > maxBytes) {
+      return Verdict.OVER_BUDGET;
+    }
+    if (account.bytes.get() + bytes > maxBytesPerConnection) {
+      return Verdict.OVER_QUOTA;
+    }
+    if (account.address != null) {
+      boolean[] reserved = new boolean[1];
+      addressBytes.compute(
+          account.address,
+          (address, held) -> {
+            long current = held == null ? 0 : held;
+            if (current + bytes > maxBytesPerAddress) {
+              return held;
+            }
+            reserved[0] = true;
+            return current + bytes;
+          });
+      if (!reserved[0]) {
+        return Verdict.OVER_QUOTA;
+      }
+    }
+    allocated.add(bytes);
+    account.bytes.addAndGet(bytes);
+    return Verdict.GRANTED;
+  }
+
+  private void add(Account account, long bytes) {
+    allocated.add(bytes);
+    account.bytes.addAndGet(bytes);
+    if (account.address != null) {
+      // drop addresses nothing is held for, so that the map doesn't grow with every client
+      addressBytes.compute(
+          account.address,
+          (address, held) -> {
+            long current = (held == null ? 0 : held) + bytes;
+            return current == 0 ? null : current;
+          });
+    }
+  }
+}
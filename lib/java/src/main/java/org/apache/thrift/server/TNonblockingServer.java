@@ -134,6 +134,7 @@ public class TNonblockingServer extends AbstractNonblockingServer {
      */
     @Override
     public void run() {
+      bufferPool.registerThread();
       try {
         if (eventHandler_ != null) {
           eventHandler_.preServe();
@@ -154,6 +155,7 @@ public class TNonblockingServer extends AbstractNonblockingServer {
         } catch (IOException e) {
           LOGGER.error("Got an IOException while closing selector!", e);
         }
+        bufferPool.deregisterThread();
         stopped_ = true;
       }
     }
@@ -185,12 +187,16 @@ public class TNonblockingServer extends AbstractNonblockingServer {
           // transport.
           if (key.isAcceptable()) {
             handleAccept();
-          } else if (key.isReadable()) {
-            // deal with reads
-            handleRead(key);
-          } else if (key.isWritable()) {
-            // deal with writes
-            handleWrite(key);
+          } else if (key.isReadable() || key.isWritable()) {
+            // a pipelined connection may be readable and writable at the same time
+            if (key.isReadable()) {
+              // deal with reads
+              handleRead(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+              // deal with writes
+              handleWrite(key);
+            }
           } else {
             LOGGER.warn("Unexpected state in select! " + key.interestOps());
           }
@@ -200,11 +206,14 @@ public class TNonblockingServer extends AbstractNonblockingServer {
       }
     }
 
-    protected FrameBuffer createFrameBuffer(
+    protected AbstractFrameBuffer createFrameBuffer(
         final TNonblockingTransport trans,
         final SelectionKey selectionKey,
         final AbstractSelectThread selectThread)
         throws TTransportException {
+      if (MAX_IN_FLIGHT_REQUESTS > 1) {
+        return new PipelinedFrameBuffer(trans, selectionKey, selectThread);
+      }
       return processorFactory_.isAsyncProcessor()
           ? new AsyncFrameBuffer(trans, selectionKey, selectThread)
           : new FrameBuffer(trans, selectionKey, selectThread);
@@ -220,7 +229,8 @@ public class TNonblockingServer extends AbstractNonblockingServer {
         clientKey = client.registerSelector(selector, SelectionKey.OP_READ);
 
         // add this key to the map
-        FrameBuffer frameBuffer = createFrameBuffer(client, clientKey, SelectAcceptThread.this);
+        AbstractFrameBuffer frameBuffer =
+            createFrameBuffer(client, clientKey, SelectAcceptThread.this);
 
         clientKey.attach(frameBuffer);
       } catch (TTransportException tte) {
@@ -21,6 +21,7 @@ package org.apache.thrift.server;
 
 import java.net.SocketException;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
@@ -28,10 +29,16 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
 import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TType;
 import org.apache.thrift.transport.TServerTransport;
+import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
@@ -44,6 +51,13 @@ import org.slf4j.LoggerFactory;
 public class TThreadPoolServer extends TServer {
   private static final Logger LOGGER = LoggerFactory.getLogger(TThreadPoolServer.class);
 
+  /** The message of the error a connection is answered with when it is turned away. */
+  public static final String OVERLOADED_MESSAGE = "Server is overloaded, try again later";
+
+  private static final int MAX_QUEUED_OVERLOAD_REPLIES = 64;
+
+  private static final int OVERLOAD_REPLY_TIMEOUT_MS = 1000;
+
   public static class Args extends AbstractServerArgs<Args> {
     public int minWorkerThreads = 5;
     public int maxWorkerThreads = Integer.MAX_VALUE;
@@ -51,6 +65,21 @@ public class TThreadPoolServer extends TServer {
     public int stopTimeoutVal = 60;
     public TimeUnit stopTimeoutUnit = TimeUnit.SECONDS;
 
+    /**
+     * How many accepted connections may wait for a worker thread once maxWorkerThreads are busy.
+     * The default of 0 hands every connection straight to a thread, which is only bounded by
+     * maxWorkerThreads. Anything larger needs maxWorkerThreads to be set as well, and starts that
+     * many threads before any connection is queued, regardless of minWorkerThreads. Only applies to
+     * the default executor service.
+     */
+    public int maxQueuedConnections = 0;
+
+    /**
+     * Whether a connection the executor service has no room for is answered with a {@link
+     * TApplicationException} for its first request before it is closed, rather than just closed.
+     */
+    public boolean replyWhenOverloaded = true;
+
     public Args(TServerTransport transport) {
       super(transport);
     }
@@ -79,6 +108,16 @@ public class TThreadPoolServer extends TServer {
       this.executorService = executorService;
       return this;
     }
+
+    public Args maxQueuedConnections(int n) {
+      maxQueuedConnections = n;
+      return this;
+    }
+
+    public Args replyWhenOverloaded(boolean replyWhenOverloaded) {
+      this.replyWhenOverloaded = replyWhenOverloaded;
+      return this;
+    }
   }
 
   // Executor service for handling client connections
@@ -88,6 +127,12 @@ public class TThreadPoolServer extends TServer {
 
   private final long stopTimeoutVal;
 
+  // Answers rejected connections, or null if they are just closed
+  private final ExecutorService overloadExecutor_;
+
+  // Connections turned away because the executor service had no room for them
+  private final AtomicLong rejectedConnections = new AtomicLong();
+
   public TThreadPoolServer(Args args) {
     super(args);
 
@@ -96,33 +141,92 @@ public class TThreadPoolServer extends TServer {
 
     executorService_ =
         args.executorService != null ? args.executorService : createDefaultExecutorService(args);
+    overloadExecutor_ = args.replyWhenOverloaded ? createOverloadExecutorService() : null;
   }
 
   private static ExecutorService createDefaultExecutorService(Args args) {
+    if (args.maxQueuedConnections < 0) {
+      throw new IllegalArgumentException("maxQueuedConnections must not be negative.");
+    }
+    if (args.maxQueuedConnections == 0) {
+      return new ThreadPoolExecutor(
+          args.minWorkerThreads,
+          args.maxWorkerThreads,
+          60L,
+          TimeUnit.SECONDS,
+          new SynchronousQueue<>(),
+          new WorkerThreadFactory());
+    }
+    if (args.maxWorkerThreads == Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("maxQueuedConnections needs maxWorkerThreads to be set.");
+    }
+    // a queue only fills up once the core threads are busy, so start all of them before
+    // connections are queued, and let them time out again like the ones above the minimum would
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            args.maxWorkerThreads,
+            args.maxWorkerThreads,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(args.maxQueuedConnections),
+            new WorkerThreadFactory());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static ExecutorService createOverloadExecutorService() {
+    // a single thread is plenty to answer the connections that are turned away, and if it can't
+    // keep up, the rest are just closed
     return new ThreadPoolExecutor(
-        args.minWorkerThreads,
-        args.maxWorkerThreads,
+        0,
+        1,
         60L,
         TimeUnit.SECONDS,
-        new SynchronousQueue<>(),
-        new ThreadFactory() {
-          final AtomicLong count = new AtomicLong();
-
-          @Override
-          public Thread newThread(Runnable r) {
-            Thread thread = new Thread(r);
-            thread.setDaemon(true);
-            thread.setName(
-                String.format("TThreadPoolServer WorkerProcess-%d", count.getAndIncrement()));
-            return thread;
-          }
+        new ArrayBlockingQueue<>(MAX_QUEUED_OVERLOAD_REPLIES),
+        runnable -> {
+          Thread thread = new Thread(runnable, "TThreadPoolServer OverloadReply");
+          thread.setDaemon(true);
+          return thread;
         });
   }
 
+  private static class WorkerThreadFactory implements ThreadFactory {
+    private final AtomicLong count = new AtomicLong();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r);
+      thread.setDaemon(true);
+      thread.setName(String.format("TThreadPoolServer WorkerProcess-%d", count.getAndIncrement()));
+      return thread;
+    }
+  }
+
   protected ExecutorService getExecutorService() {
     return executorService_;
   }
 
+  /**
+   * Get the number of accepted connections that are waiting for a worker thread.
+   *
+   * @return the depth of the executor service's queue, or 0 if it doesn't have one.
+   */
+  public int getQueuedConnections() {
+    if (executorService_ instanceof ThreadPoolExecutor) {
+      return ((ThreadPoolExecutor) executorService_).getQueue().size();
+    }
+    return 0;
+  }
+
+  /**
+   * Get the number of connections turned away since the server was created.
+   *
+   * @return the number of connections the executor service has rejected.
+   */
+  public long getRejectedConnections() {
+    return rejectedConnections.get();
+  }
+
   protected boolean preServe() {
     try {
       serverTransport_.listen();
@@ -149,6 +253,9 @@ public class TThreadPoolServer extends TServer {
     execute();
 
     executorService_.shutdownNow();
+    if (overloadExecutor_ != null) {
+      overloadExecutor_.shutdownNow();
+    }
 
     if (!waitForShutdown()) {
       LOGGER.error("Shutdown is not done after " + stopTimeoutVal + stopTimeoutUnit);
@@ -164,11 +271,14 @@ public class TThreadPoolServer extends TServer {
         try {
           executorService_.execute(new WorkerProcess(client));
         } catch (RejectedExecutionException ree) {
-          if (!stopped_) {
+          if (stopped_) {
+            client.close();
+          } else {
+            rejectedConnections.incrementAndGet();
             LOGGER.warn(
-                "ThreadPool is saturated with incoming requests. Closing latest connection.");
+                "ThreadPool is saturated with incoming requests. Turning away latest connection.");
+            turnAway(client);
           }
-          client.close();
         }
       } catch (TTransportException ttx) {
         if (!stopped_) {
@@ -178,6 +288,49 @@ public class TThreadPoolServer extends TServer {
     }
   }
 
+  /**
+   * Close a connection there is no worker thread for, after answering its first request with an
+   * overload error if so configured, so that the client can tell why it has been cut off.
+   */
+  private void turnAway(TTransport client) {
+    if (overloadExecutor_ == null) {
+      client.close();
+      return;
+    }
+    try {
+      overloadExecutor_.execute(() -> replyOverloaded(client));
+    } catch (RejectedExecutionException ree) {
+      client.close();
+    }
+  }
+
+  private void replyOverloaded(TTransport client) {
+    try {
+      if (client instanceof TSocket) {
+        // don't let a client that sends nothing hold up the others
+        ((TSocket) client).setTimeout(OVERLOAD_REPLY_TIMEOUT_MS);
+      }
+      TProtocol inputProtocol =
+          inputProtocolFactory_.getProtocol(inputTransportFactory_.getTransport(client));
+      TProtocol outputProtocol =
+          outputProtocolFactory_.getProtocol(outputTransportFactory_.getTransport(client));
+      TMessage msg = inputProtocol.readMessageBegin();
+      TProtocolUtil.skip(inputProtocol, TType.STRUCT);
+      inputProtocol.readMessageEnd();
+      if (msg.type != TMessageType.ONEWAY) {
+        outputProtocol.writeMessageBegin(new TMessage(msg.name, TMessageType.EXCEPTION, msg.seqid));
+        new TApplicationException(TApplicationException.INTERNAL_ERROR, OVERLOADED_MESSAGE)
+            .write(outputProtocol);
+        outputProtocol.writeMessageEnd();
+        outputProtocol.getTransport().flush();
+      }
+    } catch (TException x) {
+      LOGGER.debug("Could not tell a client that the server is overloaded", x);
+    } finally {
+      client.close();
+    }
+  }
+
   protected boolean waitForShutdown() {
     // Loop until awaitTermination finally does return without a interrupted
     // exception. If we don't do this, then we'll shut down prematurely. We want
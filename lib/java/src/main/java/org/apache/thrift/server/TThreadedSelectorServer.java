@@ -522,6 +522,7 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
      * preferences of all existing connections.
      */
     public void run() {
+      bufferPool.registerThread();
       try {
         while (!stopped_) {
           select();
@@ -539,6 +540,7 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
         } catch (IOException e) {
           LOGGER.error("Got an IOException while closing selector!", e);
         }
+        bufferPool.deregisterThread();
         // This will wake up the accept thread and the other selector threads
         TThreadedSelectorServer.this.stop();
       }
@@ -567,12 +569,16 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
             continue;
           }
 
-          if (key.isReadable()) {
-            // deal with reads
-            handleRead(key);
-          } else if (key.isWritable()) {
-            // deal with writes
-            handleWrite(key);
+          if (key.isReadable() || key.isWritable()) {
+            // a pipelined connection may be readable and writable at the same time
+            if (key.isReadable()) {
+              // deal with reads
+              handleRead(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+              // deal with writes
+              handleWrite(key);
+            }
           } else {
             LOGGER.warn("Unexpected state in select! " + key.interestOps());
           }
@@ -662,11 +668,14 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
       }
     }
 
-    protected FrameBuffer createFrameBuffer(
+    protected AbstractFrameBuffer createFrameBuffer(
         final TNonblockingTransport trans,
         final SelectionKey selectionKey,
         final AbstractSelectThread selectThread)
         throws TTransportException {
+      if (MAX_IN_FLIGHT_REQUESTS > 1) {
+        return new PipelinedFrameBuffer(trans, selectionKey, selectThread);
+      }
       return processorFactory_.isAsyncProcessor()
           ? new AsyncFrameBuffer(trans, selectionKey, selectThread)
           : new FrameBuffer(trans, selectionKey, selectThread);
@@ -677,7 +686,8 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
       try {
         clientKey = accepted.registerSelector(selector, SelectionKey.OP_READ);
 
-        FrameBuffer frameBuffer = createFrameBuffer(accepted, clientKey, SelectorThread.this);
+        AbstractFrameBuffer frameBuffer =
+            createFrameBuffer(accepted, clientKey, SelectorThread.this);
 
         clientKey.attach(frameBuffer);
       } catch (IOException | TTransportException e) {
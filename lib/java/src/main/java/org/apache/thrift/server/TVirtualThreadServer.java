@@ -0,0 +1,379 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.thrift.TByteArrayOutputStream;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TServerTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.layered.TFramedTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server that serves every client connection on a virtual thread of its own, so it keeps the
+ * blocking {@link TProcessor} programming model of {@link TThreadPoolServer} without tying up an OS
+ * thread for every idle connection. Virtual threads need Java 21 or later; the server is created
+ * through reflection so that the library can still target older releases, and its constructor
+ * throws an {@link UnsupportedOperationException} on a JVM that lacks them.
+ *
+ * <p>By default the requests of a connection are processed one after another, just like {@link
+ * TThreadPoolServer} does. With {@link Args#maxInFlightRequests(int)} set above one, each request
+ * is processed on a virtual thread of its own instead, and responses are written back in the order
+ * they complete, so clients must match them up by seqid. That requires framed transport: frames are
+ * split off the connection and each is given to the input transport factory, header and all, as the
+ * nonblocking servers do.
+ */
+public class TVirtualThreadServer extends TServer {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TVirtualThreadServer.class);
+
+  public static class Args extends AbstractServerArgs<Args> {
+    public int maxInFlightRequests = 1;
+    public int stopTimeoutVal = 60;
+    public TimeUnit stopTimeoutUnit = TimeUnit.SECONDS;
+
+    public Args(TServerTransport transport) {
+      super(transport);
+    }
+
+    public Args maxInFlightRequests(int n) {
+      maxInFlightRequests = n;
+      return this;
+    }
+
+    public Args stopTimeoutVal(int n) {
+      stopTimeoutVal = n;
+      return this;
+    }
+
+    public Args stopTimeoutUnit(TimeUnit tu) {
+      stopTimeoutUnit = tu;
+      return this;
+    }
+  }
+
+  // Runs connections and requests, each on a new virtual thread
+  private final ExecutorService executorService_;
+
+  // The clients being served, so that they can be hung up on at shutdown
+  private final Set<TTransport> clients_ = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+  private final int maxInFlightRequests;
+
+  private final TimeUnit stopTimeoutUnit;
+
+  private final long stopTimeoutVal;
+
+  public TVirtualThreadServer(Args args) {
+    super(args);
+    if (args.maxInFlightRequests < 1) {
+      throw new IllegalArgumentException("maxInFlightRequests must be positive.");
+    }
+
+    maxInFlightRequests = args.maxInFlightRequests;
+    stopTimeoutUnit = args.stopTimeoutUnit;
+    stopTimeoutVal = args.stopTimeoutVal;
+
+    // virtual threads are cheap enough not to be pooled, so every task gets a thread of its own
+    executorService_ =
+        new ThreadPoolExecutor(
+            0,
+            Integer.MAX_VALUE,
+            0L,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            virtualThreadFactory("TVirtualThreadServer-"));
+  }
+
+  /**
+   * Check whether virtual threads are available on this JVM.
+   *
+   * @return true if a TVirtualThreadServer can be created.
+   */
+  public static boolean isSupported() {
+    try {
+      virtualThreadFactory("probe-");
+      return true;
+    } catch (UnsupportedOperationException e) {
+      return false;
+    }
+  }
+
+  /** Thread.ofVirtual().name(prefix, 0).factory(), which can't be linked against directly. */
+  private static ThreadFactory virtualThreadFactory(String prefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+      builder =
+          builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | LinkageError e) {
+      throw new UnsupportedOperationException("Virtual threads need Java 21 or later", e);
+    }
+  }
+
+  protected ExecutorService getExecutorService() {
+    return executorService_;
+  }
+
+  @Override
+  public void serve() {
+    try {
+      serverTransport_.listen();
+    } catch (TTransportException ttx) {
+      LOGGER.error("Error occurred during listening.", ttx);
+      return;
+    }
+
+    // Run the preServe event
+    if (eventHandler_ != null) {
+      eventHandler_.preServe();
+    }
+    stopped_ = false;
+    setServing(true);
+
+    while (!stopped_) {
+      try {
+        TTransport client = serverTransport_.accept();
+        try {
+          executorService_.execute(new Connection(client));
+        } catch (RejectedExecutionException ree) {
+          client.close();
+        }
+      } catch (TTransportException ttx) {
+        if (!stopped_) {
+          LOGGER.warn("Transport error occurred during acceptance of message", ttx);
+        }
+      }
+    }
+
+    executorService_.shutdownNow();
+    // blocked socket reads don't necessarily notice the interrupt, so close the sockets too
+    for (TTransport client : clients_) {
+      client.close();
+    }
+
+    if (!waitForShutdown()) {
+      LOGGER.error("Shutdown is not done after " + stopTimeoutVal + stopTimeoutUnit);
+    }
+
+    setServing(false);
+  }
+
+  protected boolean waitForShutdown() {
+    try {
+      return executorService_.awaitTermination(stopTimeoutVal, stopTimeoutUnit);
+    } catch (InterruptedException ix) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  @Override
+  public void stop() {
+    stopped_ = true;
+    serverTransport_.interrupt();
+  }
+
+  /** Serves a client until it goes away, on a virtual thread of its own. */
+  private class Connection implements Runnable {
+
+    private final TTransport client_;
+
+    // lets at most maxInFlightRequests requests of this connection be processed at once
+    private final Semaphore inFlight_ = new Semaphore(maxInFlightRequests);
+
+    // serializes the writes of responses that complete at the same time
+    private final Object writeLock_ = new Object();
+
+    private TServerEventHandler eventHandler;
+
+    private ServerContext connectionContext;
+
+    private Connection(TTransport client) {
+      client_ = client;
+    }
+
+    @Override
+    public void run() {
+      clients_.add(client_);
+      if (stopped_) {
+        // accepted just as the server was stopped, and possibly missed by serve()
+        client_.close();
+      }
+      TTransport inputTransport = null;
+      TTransport outputTransport = null;
+      TProtocol inputProtocol = null;
+      TProtocol outputProtocol = null;
+
+      try {
+        TProcessor processor = processorFactory_.getProcessor(client_);
+        if (maxInFlightRequests == 1) {
+          inputTransport = inputTransportFactory_.getTransport(client_);
+          outputTransport = outputTransportFactory_.getTransport(client_);
+        } else {
+          // frames are taken off the connection as they are, and each gets transports of its own
+          inputTransport = client_;
+          outputTransport = client_;
+        }
+        inputProtocol = inputProtocolFactory_.getProtocol(inputTransport);
+        outputProtocol = outputProtocolFactory_.getProtocol(outputTransport);
+
+        eventHandler = getEventHandler();
+        if (eventHandler != null) {
+          connectionContext = eventHandler.createContext(inputProtocol, outputProtocol);
+        }
+
+        if (maxInFlightRequests == 1) {
+          while (!Thread.currentThread().isInterrupted()) {
+            if (eventHandler != null) {
+              eventHandler.processContext(connectionContext, inputTransport, outputTransport);
+            }
+            processor.process(inputProtocol, outputProtocol);
+          }
+        } else {
+          readRequests(processor);
+        }
+      } catch (Exception x) {
+        logException(x);
+      } finally {
+        if (eventHandler != null) {
+          eventHandler.deleteContext(connectionContext, inputProtocol, outputProtocol);
+        }
+        if (inputTransport != null) {
+          inputTransport.close();
+        }
+        if (outputTransport != null) {
+          outputTransport.close();
+        }
+        if (client_.isOpen()) {
+          client_.close();
+        }
+        clients_.remove(client_);
+      }
+    }
+
+    /** Read frames and hand each one to a virtual thread, until the client goes away. */
+    private void readRequests(TProcessor processor) throws Exception {
+      byte[] header = new byte[4];
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          client_.readAll(header, 0, 4);
+          int size = TFramedTransport.decodeFrameSize(header);
+          if (size < 0 || size > client_.getConfiguration().getMaxFrameSize()) {
+            throw new TTransportException(
+                TTransportException.CORRUPTED_DATA, "Read an invalid frame size of " + size);
+          }
+          byte[] frame = new byte[size + 4];
+          System.arraycopy(header, 0, frame, 0, 4);
+          client_.readAll(frame, 4, size);
+
+          inFlight_.acquire();
+          try {
+            executorService_.execute(() -> processRequest(processor, frame));
+          } catch (RejectedExecutionException ree) {
+            // the server is shutting down
+            inFlight_.release();
+            return;
+          }
+        }
+      } finally {
+        // let the requests that are still running finish before the connection is closed
+        inFlight_.acquireUninterruptibly(maxInFlightRequests);
+      }
+    }
+
+    private void processRequest(TProcessor processor, byte[] frame) {
+      try {
+        TByteArrayOutputStream response = new TByteArrayOutputStream();
+        TTransport inputTransport =
+            inputTransportFactory_.getTransport(new TMemoryInputTransport(frame));
+        TTransport outputTransport =
+            outputTransportFactory_.getTransport(new TIOStreamTransport(response));
+        if (eventHandler != null) {
+          eventHandler.processContext(connectionContext, inputTransport, outputTransport);
+        }
+        processor.process(
+            inputProtocolFactory_.getProtocol(inputTransport),
+            outputProtocolFactory_.getProtocol(outputTransport));
+        if (response.len() > 0) {
+          synchronized (writeLock_) {
+            client_.write(response.get(), 0, response.len());
+            client_.flush();
+          }
+        }
+      } catch (Exception x) {
+        logException(x);
+        // the client can't tell a lost response from a slow one, so hang up on it
+        client_.close();
+      } finally {
+        inFlight_.release();
+      }
+    }
+
+    private void logException(Exception x) {
+      // Ignoring err-logging all transport-level/type exceptions and SocketExceptions
+      TTransportException tTransportException = null;
+
+      if (x instanceof TTransportException) {
+        tTransportException = (TTransportException) x;
+      } else if (x.getCause() instanceof TTransportException) {
+        tTransportException = (TTransportException) x.getCause();
+      }
+
+      if (tTransportException != null) {
+        switch (tTransportException.getType()) {
+          case TTransportException.END_OF_FILE:
+          case TTransportException.TIMED_OUT:
+            return; // don't log these
+        }
+        if (tTransportException.getCause() instanceof SocketException) {
+          LOGGER.warn(
+              "SocketException occurred during processing of message.",
+              tTransportException.getCause());
+          return;
+        }
+      }
+      if (x instanceof InterruptedException) {
+        return; // the server is shutting down
+      }
+      LOGGER.error(
+          (x instanceof TException ? "Thrift " : "")
+              + "Error occurred during processing of message.",
+          x);
+    }
+  }
+}
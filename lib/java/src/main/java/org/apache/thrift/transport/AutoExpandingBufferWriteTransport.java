@@ -76,6 +76,22 @@ public final class AutoExpandingBufferWriteTransport extends TEndpointTransport
     pos += len;
   }
 
+  @Override
+  public byte[] reserveWriteBuffer(int len) {
+    buf.resizeIfNecessary(pos + len);
+    return buf.array();
+  }
+
+  @Override
+  public int getWriteBufferPosition() {
+    return pos;
+  }
+
+  @Override
+  public void commitWriteBuffer(int len) {
+    pos += len;
+  }
+
   public AutoExpandingBuffer getBuf() {
     return buf;
   }
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A source of ByteBuffers that can take them back once they are no longer used, so that servers
+ * need not allocate a new buffer for every frame they read or write.
+ */
+public interface BufferPool {
+
+  /**
+   * Get a buffer of at least the given size. Its position is 0 and its limit is {@code size}, but
+   * its capacity may be larger and its contents are undefined.
+   *
+   * @param size the number of bytes needed.
+   * @return a buffer, which should be handed back to {@link #release(ByteBuffer)} once it is no
+   *     longer used.
+   */
+  ByteBuffer acquire(int size);
+
+  /**
+   * Give back a buffer obtained from {@link #acquire(int)}. The caller must not touch it
+   * afterwards, and must release it only once.
+   *
+   * @param buffer the buffer to give back.
+   */
+  void release(ByteBuffer buffer);
+
+  /** Does this pool hand out direct buffers? Direct buffers have no backing array. */
+  boolean isDirect();
+
+  /** The number of acquires that were served with a buffer from the pool. */
+  long getHits();
+
+  /** The number of acquires that needed a new buffer to be allocated. */
+  long getMisses();
+
+  /** The number of bytes the pool is holding on to for future acquires. */
+  long getPooledBytes();
+
+  /**
+   * Let the calling thread keep released buffers for itself, for pools that have per-thread caches.
+   * Servers call this from their select threads, which acquire and release most buffers; it does
+   * nothing by default.
+   */
+  default void registerThread() {}
+
+  /**
+   * Hand the buffers the calling thread kept back to the pool, and stop keeping any for it. A
+   * thread that registered should call this before it exits.
+   */
+  default void deregisterThread() {}
+}
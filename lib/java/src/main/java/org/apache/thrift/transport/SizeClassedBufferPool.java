@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link BufferPool} that rounds sizes up to a power of two and keeps the released buffers of
+ * each of those size classes for reuse. A thread that calls {@link #registerThread()} gets a small
+ * cache of its own per size class, so that a select thread that both acquires and releases buffers
+ * rarely touches the shared pool; other threads, such as workers, only use the shared pool, so they
+ * don't each hold on to buffers. Buffers bigger than the largest size class are allocated on demand
+ * and never kept.
+ */
+public class SizeClassedBufferPool implements BufferPool {
+
+  private static final int MIN_SIZE_SHIFT = 6; // 64 bytes
+
+  private final boolean direct;
+  private final int maxSizeShift;
+  private final long maxPooledBytes;
+  private final int threadCacheSize;
+
+  // released buffers shared by all threads, by size class
+  private final ConcurrentLinkedQueue<ByteBuffer>[] shared;
+  // the caches of the registered threads, null for the others
+  private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches = new ThreadLocal<>();
+
+  private final AtomicLong pooledBytes = new AtomicLong();
+  private final LongAdder cachedBytes = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Create a heap pool with size classes up to 1MB, which keeps up to 64MB in its shared pool and
+   * up to 8 buffers of each size class per registered thread.
+   */
+  public SizeClassedBufferPool() {
+    this(false, 1024 * 1024, 64L * 1024 * 1024, 8);
+  }
+
+  /**
+   * @param direct whether to hand out direct buffers rather than heap ones.
+   * @param maxPooledSize the largest buffer size that is pooled, rounded up to a power of two.
+   * @param maxPooledBytes the most bytes the shared pool holds on to; buffers released beyond that
+   *     are left to the garbage collector.
+   * @param threadCacheSize the number of buffers of each size class every registered thread may
+   *     keep for itself, 0 for none.
+   */
+  @SuppressWarnings("unchecked")
+  public SizeClassedBufferPool(
+      boolean direct, int maxPooledSize, long maxPooledBytes, int threadCacheSize) {
+    if (maxPooledSize < 1 << MIN_SIZE_SHIFT || maxPooledSize > 1 << 30) {
+      throw new IllegalArgumentException(
+          "maxPooledSize must be between " + (1 << MIN_SIZE_SHIFT) + " and " + (1 << 30));
+    }
+    if (threadCacheSize < 0) {
+      throw new IllegalArgumentException("threadCacheSize must not be negative");
+    }
+    this.direct = direct;
+    this.maxSizeShift = sizeShift(maxPooledSize);
+    this.maxPooledBytes = maxPooledBytes;
+    this.threadCacheSize = threadCacheSize;
+
+    int numClasses = maxSizeShift - MIN_SIZE_SHIFT + 1;
+    this.shared = new ConcurrentLinkedQueue[numClasses];
+    for (int i = 0; i < numClasses; i++) {
+      shared[i] = new ConcurrentLinkedQueue<>();
+    }
+  }
+
+  @Override
+  public ByteBuffer acquire(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Negative buffer size " + size);
+    }
+    int shift = sizeShift(size);
+    if (shift > maxSizeShift) {
+      misses.increment();
+      return allocate(size);
+    }
+    int sizeClass = shift - MIN_SIZE_SHIFT;
+    ByteBuffer buffer = null;
+    ArrayDeque<ByteBuffer>[] caches = threadCaches.get();
+    if (caches != null) {
+      buffer = caches[sizeClass].pollLast();
+      if (buffer != null) {
+        cachedBytes.add(-buffer.capacity());
+      }
+    }
+    if (buffer == null) {
+      buffer = shared[sizeClass].poll();
+      if (buffer != null) {
+        pooledBytes.addAndGet(-buffer.capacity());
+      }
+    }
+    if (buffer == null) {
+      misses.increment();
+      buffer = allocate(1 << shift);
+    } else {
+      hits.increment();
+    }
+    buffer.clear();
+    buffer.limit(size);
+    return buffer;
+  }
+
+  @Override
+  public void release(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    if (buffer.isDirect() != direct
+        || Integer.bitCount(capacity) != 1
+        || capacity < 1 << MIN_SIZE_SHIFT
+        || capacity > 1 << maxSizeShift) {
+      // not one of ours, or too big to pool
+      return;
+    }
+    int sizeClass = Integer.numberOfTrailingZeros(capacity) - MIN_SIZE_SHIFT;
+    ArrayDeque<ByteBuffer>[] caches = threadCaches.get();
+    if (caches != null && caches[sizeClass].size() < threadCacheSize) {
+      caches[sizeClass].addLast(buffer);
+      cachedBytes.add(capacity);
+      return;
+    }
+    releaseShared(sizeClass, buffer);
+  }
+
+  /** Give the calling thread a cache of its own, unless the pool was made without thread caches. */
+  @Override
+  public void registerThread() {
+    if (threadCacheSize > 0 && threadCaches.get() == null) {
+      @SuppressWarnings("unchecked")
+      ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[shared.length];
+      for (int i = 0; i < caches.length; i++) {
+        caches[i] = new ArrayDeque<>(threadCacheSize);
+      }
+      threadCaches.set(caches);
+    }
+  }
+
+  /** Move the calling thread's cached buffers to the shared pool and drop its cache. */
+  @Override
+  public void deregisterThread() {
+    ArrayDeque<ByteBuffer>[] caches = threadCaches.get();
+    if (caches == null) {
+      return;
+    }
+    threadCaches.remove();
+    for (int sizeClass = 0; sizeClass < caches.length; sizeClass++) {
+      ByteBuffer buffer;
+      while ((buffer = caches[sizeClass].pollLast()) != null) {
+        cachedBytes.add(-buffer.capacity());
+        releaseShared(sizeClass, buffer);
+      }
+    }
+  }
+
+  private void releaseShared(int sizeClass, ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    if (pooledBytes.addAndGet(capacity) <= maxPooledBytes) {
+      shared[sizeClass].add(buffer);
+    } else {
+      pooledBytes.addAndGet(-capacity);
+    }
+  }
+
+  @Override
+  public boolean isDirect() {
+    return direct;
+  }
+
+  @Override
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /** The number of bytes in the shared pool and the caches of the registered threads. */
+  @Override
+  public long getPooledBytes() {
+    return pooledBytes.get() + cachedBytes.sum();
+  }
+
+  private ByteBuffer allocate(int capacity) {
+    return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  // the power of two of the size class that holds the given size
+  private static int sizeShift(int size) {
+    if (size <= 1 << MIN_SIZE_SHIFT) {
+      return MIN_SIZE_SHIFT;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+}
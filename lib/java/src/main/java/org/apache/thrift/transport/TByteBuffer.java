@@ -5,9 +5,19 @@ import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import org.apache.thrift.TConfiguration;
 
-/** ByteBuffer-backed implementation of TTransport. */
+/**
+ * ByteBuffer-backed implementation of TTransport. Reads and writes go to the buffer's position and
+ * move it along. The protocols read and write a heap buffer's array directly; direct and read-only
+ * buffers are read and written through their get and put methods.
+ *
+ * <p>As with {@link TMemoryInputTransport}, the binaries a protocol reads from a heap buffer with
+ * the default {@link org.apache.thrift.protocol.BinaryPolicy#ALIAS} policy are views into that
+ * buffer's array rather than copies, so they change if the buffer is written to afterwards. Use
+ * {@link org.apache.thrift.protocol.BinaryPolicy#COPY} if the buffer is going to be reused while
+ * they are still needed.
+ */
 public final class TByteBuffer extends TEndpointTransport {
-  private final ByteBuffer byteBuffer;
+  private ByteBuffer byteBuffer;
 
   /**
    * Creates a new TByteBuffer wrapping a given NIO ByteBuffer and custom TConfiguration.
@@ -33,6 +43,20 @@ public final class TByteBuffer extends TEndpointTransport {
     this(new TConfiguration(), byteBuffer);
   }
 
+  /**
+   * Wrap another NIO ByteBuffer, so that the transport and the protocols on it can be used again.
+   *
+   * @param byteBuffer the NIO ByteBuffer to wrap.
+   * @return this instance.
+   * @throws TTransportException if more of the buffer remains than the maximum message size.
+   */
+  public TByteBuffer reset(ByteBuffer byteBuffer) throws TTransportException {
+    this.byteBuffer = byteBuffer;
+    resetConsumedMessageSize(-1);
+    updateKnownMessageSize(byteBuffer.remaining());
+    return this;
+  }
+
   @Override
   public boolean isOpen() {
     return true;
@@ -69,6 +93,56 @@ public final class TByteBuffer extends TEndpointTransport {
     }
   }
 
+  @Override
+  public int write(ByteBuffer src) throws TTransportException {
+    int len = src.remaining();
+    try {
+      byteBuffer.put(src);
+    } catch (BufferOverflowException e) {
+      throw new TTransportException("Not enough room in output buffer", e);
+    }
+    return len;
+  }
+
+  @Override
+  public byte[] getBuffer() {
+    return byteBuffer.hasArray() ? byteBuffer.array() : null;
+  }
+
+  @Override
+  public int getBufferPosition() {
+    return byteBuffer.hasArray() ? byteBuffer.arrayOffset() + byteBuffer.position() : 0;
+  }
+
+  @Override
+  public int getBytesRemainingInBuffer() {
+    return byteBuffer.hasArray() ? byteBuffer.remaining() : -1;
+  }
+
+  @Override
+  public void consumeBuffer(int len) {
+    byteBuffer.position(byteBuffer.position() + len);
+  }
+
+  /** Heap buffers are written into directly, as long as they have room for len more bytes. */
+  @Override
+  public byte[] reserveWriteBuffer(int len) {
+    if (!byteBuffer.hasArray() || byteBuffer.remaining() < len) {
+      return null;
+    }
+    return byteBuffer.array();
+  }
+
+  @Override
+  public int getWriteBufferPosition() {
+    return byteBuffer.arrayOffset() + byteBuffer.position();
+  }
+
+  @Override
+  public void commitWriteBuffer(int len) {
+    byteBuffer.position(byteBuffer.position() + len);
+  }
+
   /**
    * Gets the underlying NIO ByteBuffer.
    *
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import java.nio.ByteBuffer;
+import org.apache.thrift.TConfiguration;
+
+/**
+ * TTransport that frames what is written to it straight into a ByteBuffer from a {@link
+ * BufferPool}, with the same wire format as {@link
+ * org.apache.thrift.transport.layered.TFramedTransport}. Room for the 4-byte frame size is reserved
+ * in front of every frame and filled in when it is flushed, so the finished frames can be handed to
+ * a socket as they are, without going through a stream or being copied.
+ */
+public final class TFramedBufferWriteTransport extends TEndpointTransport {
+
+  private static final int FRAME_SIZE_BYTES = 4;
+
+  private final BufferPool pool;
+  private final int initialCapacity;
+
+  // acquired on the first write, and handed over by takeFrames()
+  private ByteBuffer buffer;
+  // where the size of the frame being written goes
+  private int frameStart;
+
+  /**
+   * @param config the configuration to use.
+   * @param pool where buffers are acquired from, and released to as they are outgrown.
+   * @param initialCapacity the size of the buffer acquired for a response, which grows as needed.
+   * @throws TTransportException on error.
+   */
+  public TFramedBufferWriteTransport(TConfiguration config, BufferPool pool, int initialCapacity)
+      throws TTransportException {
+    super(config);
+    if (initialCapacity <= FRAME_SIZE_BYTES) {
+      throw new IllegalArgumentException("initialCapacity");
+    }
+    this.pool = pool;
+    this.initialCapacity = initialCapacity;
+  }
+
+  @Override
+  public void close() {
+    discard();
+  }
+
+  @Override
+  public boolean isOpen() {
+    return true;
+  }
+
+  @Override
+  public void open() throws TTransportException {}
+
+  @Override
+  public int read(byte[] buf, int off, int len) throws TTransportException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void write(byte[] buf, int off, int len) throws TTransportException {
+    ensureRemaining(len);
+    buffer.put(buf, off, len);
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws TTransportException {
+    int len = src.remaining();
+    ensureRemaining(len);
+    buffer.put(src);
+    return len;
+  }
+
+  /** Heap buffers are written into directly; direct ones only through write(). */
+  @Override
+  public byte[] reserveWriteBuffer(int len) {
+    if (pool.isDirect()) {
+      return null;
+    }
+    ensureRemaining(len);
+    return buffer.array();
+  }
+
+  @Override
+  public int getWriteBufferPosition() {
+    return buffer.arrayOffset() + buffer.position();
+  }
+
+  @Override
+  public void commitWriteBuffer(int len) {
+    buffer.position(buffer.position() + len);
+  }
+
+  /** Finish the frame being written by filling in its size. */
+  @Override
+  public void flush() throws TTransportException {
+    if (buffer == null) {
+      ensureRemaining(0);
+    }
+    buffer.putInt(frameStart, buffer.position() - frameStart - FRAME_SIZE_BYTES);
+    frameStart = buffer.position();
+    ensureRemaining(FRAME_SIZE_BYTES);
+    buffer.position(frameStart + FRAME_SIZE_BYTES);
+  }
+
+  /**
+   * Hand over the frames flushed so far, leaving out anything written since the last flush.
+   *
+   * @return a buffer positioned at the start of the first frame and limited to the end of the last,
+   *     to be released to the pool once it has been written; or null if no frame has been flushed.
+   */
+  public ByteBuffer takeFrames() {
+    if (buffer == null || frameStart == 0) {
+      discard();
+      return null;
+    }
+    ByteBuffer frames = buffer;
+    frames.limit(frameStart);
+    frames.position(0);
+    buffer = null;
+    frameStart = 0;
+    return frames;
+  }
+
+  /** Drop whatever has been written, and give the buffer back to the pool. */
+  public void discard() {
+    if (buffer != null) {
+      pool.release(buffer);
+      buffer = null;
+    }
+    frameStart = 0;
+  }
+
+  private void ensureRemaining(int len) {
+    if (buffer == null) {
+      buffer = pool.acquire(Math.max(initialCapacity, len + FRAME_SIZE_BYTES));
+      buffer.limit(buffer.capacity());
+      buffer.position(FRAME_SIZE_BYTES);
+      return;
+    }
+    if (buffer.remaining() >= len) {
+      return;
+    }
+    int needed = buffer.position() + len;
+    if (needed < 0) {
+      throw new IllegalStateException("Frame too large for a ByteBuffer");
+    }
+    int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, 2L * buffer.capacity()));
+    ByteBuffer grown = pool.acquire(capacity);
+    grown.limit(grown.capacity());
+    buffer.flip();
+    grown.put(buffer);
+    pool.release(buffer);
+    buffer = grown;
+  }
+}
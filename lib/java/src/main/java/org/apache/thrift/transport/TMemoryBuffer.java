@@ -85,6 +85,21 @@ public class TMemoryBuffer extends TEndpointTransport {
     arr_.write(buf, off, len);
   }
 
+  @Override
+  public byte[] reserveWriteBuffer(int len) {
+    return arr_.reserve(len);
+  }
+
+  @Override
+  public int getWriteBufferPosition() {
+    return arr_.len();
+  }
+
+  @Override
+  public void commitWriteBuffer(int len) {
+    arr_.commit(len);
+  }
+
   /**
    * Output the contents of the memory buffer as a String, using the supplied encoding
    *
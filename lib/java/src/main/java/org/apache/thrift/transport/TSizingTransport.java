@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import java.nio.ByteBuffer;
+import org.apache.thrift.TConfiguration;
+
+/**
+ * TTransport that only counts the bytes written to it, so that a protocol writing to it measures
+ * how long its encoding of something is. Measuring is a full encoding pass that costs about as much
+ * as serializing, so it is meant for when only the length is needed, such as to check it against a
+ * limit, rather than as a step before serializing. Values the protocol encodes itself go into a
+ * small scratch buffer that each of them overwrites, and bytes handed to {@link #write(byte[], int,
+ * int)} are not copied at all.
+ */
+public final class TSizingTransport extends TEndpointTransport {
+
+  private static final int INITIAL_SCRATCH_SIZE = 64;
+  // longer values are written through write(), a piece at a time
+  private static final int MAX_SCRATCH_SIZE = 8192;
+
+  private byte[] scratch = new byte[INITIAL_SCRATCH_SIZE];
+  private long size;
+
+  public TSizingTransport() throws TTransportException {
+    this(new TConfiguration());
+  }
+
+  public TSizingTransport(TConfiguration config) throws TTransportException {
+    super(config);
+  }
+
+  @Override
+  public void close() {}
+
+  @Override
+  public boolean isOpen() {
+    return true;
+  }
+
+  @Override
+  public void open() {}
+
+  @Override
+  public int read(byte[] buf, int off, int len) throws TTransportException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void write(byte[] buf, int off, int len) {
+    size += len;
+  }
+
+  @Override
+  public int write(ByteBuffer src) {
+    int len = src.remaining();
+    src.position(src.limit());
+    size += len;
+    return len;
+  }
+
+  @Override
+  public byte[] reserveWriteBuffer(int len) {
+    if (len > MAX_SCRATCH_SIZE) {
+      return null;
+    }
+    if (len > scratch.length) {
+      scratch = new byte[Math.min(MAX_SCRATCH_SIZE, Math.max(len, scratch.length << 1))];
+    }
+    return scratch;
+  }
+
+  @Override
+  public int getWriteBufferPosition() {
+    return 0;
+  }
+
+  @Override
+  public void commitWriteBuffer(int len) {
+    size += len;
+  }
+
+  /**
+   * @return the number of bytes written since this was made or last reset.
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /** Start counting again from zero. */
+  public void reset() {
+    size = 0;
+  }
+}
@@ -194,6 +194,36 @@ public abstract class TTransport implements Closeable {
    */
   public void consumeBuffer(int len) {}
 
+  /**
+   * Access the transport's write buffer directly, so that small values can be encoded into it
+   * without a call to write() for each. If this is not a buffered transport, return null. Otherwise
+   * make room for len bytes at {@link #getWriteBufferPosition()}; they count as written once {@link
+   * #commitWriteBuffer(int)} has been called.
+   *
+   * @param len the number of bytes to make room for.
+   * @return the underlying write buffer, or null.
+   */
+  public byte[] reserveWriteBuffer(int len) {
+    return null;
+  }
+
+  /**
+   * Return the index within the underlying write buffer that the next byte written will go to.
+   *
+   * @return index within the underlying write buffer of the next byte to be written.
+   */
+  public int getWriteBufferPosition() {
+    return 0;
+  }
+
+  /**
+   * Mark len bytes put into the write buffer at {@link #getWriteBufferPosition()} as written. No
+   * more than were reserved by the last call to {@link #reserveWriteBuffer(int)} may be committed.
+   *
+   * @param len the number of bytes to commit.
+   */
+  public void commitWriteBuffer(int len) {}
+
   public abstract TConfiguration getConfiguration();
 
   public abstract void updateKnownMessageSize(long size) throws TTransportException;
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A {@link BufferPool} that allocates a new buffer for every acquire and never keeps any. */
+public class UnpooledBufferPool implements BufferPool {
+  private final boolean direct;
+  private final LongAdder misses = new LongAdder();
+
+  public UnpooledBufferPool() {
+    this(false);
+  }
+
+  public UnpooledBufferPool(boolean direct) {
+    this.direct = direct;
+  }
+
+  @Override
+  public ByteBuffer acquire(int size) {
+    misses.increment();
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+
+  @Override
+  public void release(ByteBuffer buffer) {}
+
+  @Override
+  public boolean isDirect() {
+    return direct;
+  }
+
+  @Override
+  public long getHits() {
+    return 0;
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @Override
+  public long getPooledBytes() {
+    return 0;
+  }
+}
@@ -169,6 +169,21 @@ public class TFastFramedTransport extends TLayeredTransport {
     readBuffer.consumeBuffer(len);
   }
 
+  @Override
+  public byte[] reserveWriteBuffer(int len) {
+    return writeBuffer.reserveWriteBuffer(len);
+  }
+
+  @Override
+  public int getWriteBufferPosition() {
+    return writeBuffer.getWriteBufferPosition();
+  }
+
+  @Override
+  public void commitWriteBuffer(int len) {
+    writeBuffer.commitWriteBuffer(len);
+  }
+
   /** Only clears the read buffer! */
   public void clear() throws TTransportException {
     readBuffer = new AutoExpandingBufferReadTransport(getConfiguration(), initialBufferCapacity);
@@ -158,6 +158,21 @@ public class TFramedTransport extends TLayeredTransport {
     writeBuffer_.write(buf, off, len);
   }
 
+  @Override
+  public byte[] reserveWriteBuffer(int len) {
+    return writeBuffer_.reserve(len);
+  }
+
+  @Override
+  public int getWriteBufferPosition() {
+    return writeBuffer_.len();
+  }
+
+  @Override
+  public void commitWriteBuffer(int len) {
+    writeBuffer_.commit(len);
+  }
+
   @Override
   public void flush() throws TTransportException {
     byte[] buf = writeBuffer_.get();
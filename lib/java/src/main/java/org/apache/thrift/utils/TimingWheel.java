@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.utils;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel, for keeping track of a large number of deadlines of which most are
+ * cancelled before they expire, such as call timeouts and idle connection deadlines. Scheduling and
+ * cancelling are O(1); expiry is accurate to one tick, and a deadline never expires early.
+ *
+ * <p>The wheel has a number of levels, each with {@code wheelSize} buckets. A bucket of level 0
+ * spans one tick, and a bucket of each further level spans all of the level below it. Deadlines are
+ * kept at the lowest level that can hold them and move down a level each time the wheel turns past
+ * the bucket they are in, so each one is touched at most once per level.
+ *
+ * <p>Not thread safe: a wheel is meant to be owned by a single thread, such as a selector thread,
+ * which both schedules deadlines and calls {@link #expire(long, Consumer)}. Expiry walks the wheel
+ * tick by tick, except while it is empty, so it should be expired regularly, and in particular just
+ * before scheduling into a wheel that has been empty for a while.
+ *
+ * @param <T> the type of the items deadlines are kept for.
+ */
+public final class TimingWheel<T> {
+
+  private static final int LEVELS = 4;
+
+  private final long tickMillis;
+  private final int wheelBits;
+  private final int wheelMask;
+  // buckets[level][index] is the head of a doubly linked list of timeouts, or null
+  private final Timeout<?>[][] buckets;
+
+  // the last tick that has been expired
+  private long currentTick;
+  private int size = 0;
+
+  /**
+   * Create a wheel with 256 buckets per level, which covers about 50 days with 1ms ticks.
+   *
+   * @param tickMillis the length of a tick, which is how accurate expiry is.
+   * @param nowMillis the current time.
+   */
+  public TimingWheel(long tickMillis, long nowMillis) {
+    this(tickMillis, 256, nowMillis);
+  }
+
+  /**
+   * @param tickMillis the length of a tick, which is how accurate expiry is.
+   * @param wheelSize the number of buckets per level, a power of 2.
+   * @param nowMillis the current time.
+   */
+  public TimingWheel(long tickMillis, int wheelSize, long nowMillis) {
+    if (tickMillis < 1) {
+      throw new IllegalArgumentException("tickMillis must be at least 1");
+    }
+    if (wheelSize < 2 || Integer.bitCount(wheelSize) != 1) {
+      throw new IllegalArgumentException("wheelSize must be a power of 2, got " + wheelSize);
+    }
+    this.tickMillis = tickMillis;
+    this.wheelBits = Integer.numberOfTrailingZeros(wheelSize);
+    this.wheelMask = wheelSize - 1;
+    this.buckets = new Timeout<?>[LEVELS][wheelSize];
+    this.currentTick = nowMillis / tickMillis;
+  }
+
+  public long getTickMillis() {
+    return tickMillis;
+  }
+
+  /** The number of deadlines that have neither expired nor been cancelled. */
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Schedule a deadline for an item. A deadline that has already passed expires on the next tick.
+   *
+   * @param item the item passed to the expiry callback.
+   * @param deadlineMillis the time at which the deadline expires.
+   * @return a handle that can cancel the deadline.
+   */
+  public Timeout<T> schedule(T item, long deadlineMillis) {
+    // round up, so that the deadline never expires early
+    long deadlineTick = deadlineMillis / tickMillis + (deadlineMillis % tickMillis == 0 ? 0 : 1);
+    Timeout<T> timeout = new Timeout<>(this, item, Math.max(deadlineTick, currentTick + 1));
+    place(timeout);
+    size++;
+    return timeout;
+  }
+
+  /**
+   * Expire all deadlines up to now.
+   *
+   * @param nowMillis the current time.
+   * @param onExpired called with the item of each expired deadline.
+   * @return the number of deadlines that expired.
+   */
+  @SuppressWarnings("unchecked")
+  public int expire(long nowMillis, Consumer<? super T> onExpired) {
+    long targetTick = nowMillis / tickMillis;
+    int expired = 0;
+    while (currentTick < targetTick) {
+      if (size == 0) {
+        currentTick = targetTick;
+        break;
+      }
+      currentTick++;
+      cascade();
+      int index = (int) (currentTick & wheelMask);
+      Timeout<?> timeout;
+      while ((timeout = buckets[0][index]) != null) {
+        unlink(timeout);
+        size--;
+        expired++;
+        onExpired.accept((T) timeout.item);
+      }
+    }
+    return expired;
+  }
+
+  /**
+   * The longest a thread expiring this wheel may wait before calling {@link #expire(long,
+   * Consumer)} again, if it is not empty: the time until the next deadline of the lowest level, or
+   * until the wheel next moves deadlines down from the higher levels.
+   *
+   * @param nowMillis the current time.
+   * @return the time to wait, at least 1ms.
+   */
+  public long millisUntilNextExpiry(long nowMillis) {
+    long tick = currentTick + 1;
+    long cascadeTick = (currentTick | wheelMask) + 1;
+    while (tick < cascadeTick && buckets[0][(int) (tick & wheelMask)] == null) {
+      tick++;
+    }
+    return Math.max(1, tick * tickMillis - nowMillis);
+  }
+
+  // Move the deadlines in the buckets of the higher levels that the wheel has just turned past
+  // down to the levels below them.
+  private void cascade() {
+    for (int level = 1; level < LEVELS; level++) {
+      int shift = level * wheelBits;
+      if ((currentTick & ((1L << shift) - 1)) != 0) {
+        break;
+      }
+      int index = (int) ((currentTick >>> shift) & wheelMask);
+      Timeout<?> timeout;
+      while ((timeout = buckets[level][index]) != null) {
+        unlink(timeout);
+        place(timeout);
+      }
+    }
+  }
+
+  private void place(Timeout<?> timeout) {
+    long delta = timeout.deadlineTick - currentTick;
+    int level = 0;
+    long tick = timeout.deadlineTick;
+    if (delta <= 0) {
+      // due now, only while cascading onto the tick being expired
+      tick = currentTick;
+    } else {
+      while (level < LEVELS - 1 && delta >= 1L << ((level + 1) * wheelBits)) {
+        level++;
+      }
+      if (level == LEVELS - 1 && delta >= 1L << (LEVELS * wheelBits)) {
+        // beyond the range of the wheel, park it in the furthest bucket and place it again then
+        tick = currentTick + ((long) wheelMask << (level * wheelBits));
+      }
+    }
+    int index = (int) ((tick >>> (level * wheelBits)) & wheelMask);
+    Timeout<?> head = buckets[level][index];
+    timeout.level = level;
+    timeout.index = index;
+    timeout.prev = null;
+    timeout.next = head;
+    if (head != null) {
+      head.prev = timeout;
+    }
+    buckets[level][index] = timeout;
+  }
+
+  private void unlink(Timeout<?> timeout) {
+    if (timeout.prev != null) {
+      timeout.prev.next = timeout.next;
+    } else {
+      buckets[timeout.level][timeout.index] = timeout.next;
+    }
+    if (timeout.next != null) {
+      timeout.next.prev = timeout.prev;
+    }
+    timeout.prev = null;
+    timeout.next = null;
+    timeout.level = -1;
+  }
+
+  /** A scheduled deadline. */
+  public static final class Timeout<T> {
+    private final TimingWheel<?> wheel;
+    private final T item;
+    private final long deadlineTick;
+
+    // position in the wheel, level is -1 once the deadline has expired or been cancelled
+    private int level;
+    private int index;
+    private Timeout<?> prev;
+    private Timeout<?> next;
+
+    private Timeout(TimingWheel<?> wheel, T item, long deadlineTick) {
+      this.wheel = wheel;
+      this.item = item;
+      this.deadlineTick = deadlineTick;
+    }
+
+    public T getItem() {
+      return item;
+    }
+
+    /** Is the deadline still scheduled, i.e. neither expired nor cancelled? */
+    public boolean isPending() {
+      return level >= 0;
+    }
+
+    /**
+     * Cancel the deadline, if it is still pending.
+     *
+     * @return true if the deadline was pending.
+     */
+    public boolean cancel() {
+      if (level < 0) {
+        return false;
+      }
+      wheel.unlink(this);
+      wheel.size--;
+      return true;
+    }
+  }
+}
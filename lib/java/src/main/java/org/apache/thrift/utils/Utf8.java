@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.utils;
+
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * UTF-8 encoding of strings straight into byte arrays, without the intermediate array that {@link
+ * String#getBytes(java.nio.charset.Charset)} allocates. The output is byte for byte what {@code
+ * getBytes(StandardCharsets.UTF_8)} produces, including a '?' for every unpaired surrogate.
+ */
+public final class Utf8 {
+
+  private Utf8() {
+    // Utility class.
+  }
+
+  /**
+   * Count the bytes a string takes up in UTF-8.
+   *
+   * @param str the string to measure.
+   * @return the length of the string's UTF-8 encoding.
+   * @throws IllegalArgumentException if the encoding would be longer than an array can be.
+   */
+  public static int encodedLength(String str) {
+    int length = str.length();
+    int i = 0;
+    while (i < length && str.charAt(i) < 0x80) {
+      i++;
+    }
+    long encodedLength = length;
+    for (; i < length; i++) {
+      char c = str.charAt(i);
+      if (c < 0x80) {
+        continue;
+      }
+      if (c < 0x800) {
+        encodedLength += 1;
+      } else if (!Character.isSurrogate(c)) {
+        encodedLength += 2;
+      } else if (isSurrogatePair(str, i, length)) {
+        // four bytes for the two chars
+        encodedLength += 2;
+        i++;
+      }
+    }
+    if (encodedLength > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("UTF-8 encoding too long: " + encodedLength);
+    }
+    return (int) encodedLength;
+  }
+
+  /**
+   * Encode the whole of a string into buf, which must have room for {@link #encodedLength(String)}
+   * bytes from off on.
+   *
+   * @param str the string to encode.
+   * @param buf where to put the encoding.
+   * @param off index in buf of the first byte of the encoding.
+   * @return index in buf just past the last byte of the encoding.
+   */
+  public static int encode(String str, byte[] buf, int off) {
+    return encode(str, 0, str.length(), buf, off);
+  }
+
+  /**
+   * Encode the chars of a string from start up to end into buf, which must have room for 3 bytes
+   * for each of them from off on. A surrogate pair is only encoded if both its chars are in the
+   * range.
+   *
+   * @param str the string to encode.
+   * @param start index of the first char to encode.
+   * @param end index just past the last char to encode.
+   * @param buf where to put the encoding.
+   * @param off index in buf of the first byte of the encoding.
+   * @return index in buf just past the last byte of the encoding.
+   */
+  public static int encode(String str, int start, int end, byte[] buf, int off) {
+    int i = start;
+    // ASCII, which most strings are all of, needs none of the checks below
+    for (char c; i < end && (c = str.charAt(i)) < 0x80; i++) {
+      buf[off++] = (byte) c;
+    }
+    for (; i < end; i++) {
+      char c = str.charAt(i);
+      if (c < 0x80) {
+        buf[off++] = (byte) c;
+      } else if (c < 0x800) {
+        buf[off++] = (byte) (0xc0 | (c >> 6));
+        buf[off++] = (byte) (0x80 | (c & 0x3f));
+      } else if (!Character.isSurrogate(c)) {
+        buf[off++] = (byte) (0xe0 | (c >> 12));
+        buf[off++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buf[off++] = (byte) (0x80 | (c & 0x3f));
+      } else if (isSurrogatePair(str, i, end)) {
+        int codePoint = Character.toCodePoint(c, str.charAt(++i));
+        buf[off++] = (byte) (0xf0 | (codePoint >> 18));
+        buf[off++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buf[off++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buf[off++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else {
+        buf[off++] = (byte) '?';
+      }
+    }
+    return off;
+  }
+
+  /**
+   * Write the UTF-8 encoding of a string to a transport, a piece at a time, through a scratch
+   * buffer of at least 6 bytes.
+   *
+   * @param str the string to write.
+   * @param scratch where the string is encoded before it is written.
+   * @param trans the transport to write to.
+   * @throws TTransportException if the transport fails to write.
+   */
+  public static void write(String str, byte[] scratch, TTransport trans)
+      throws TTransportException {
+    int length = str.length();
+    int charsPerPiece = scratch.length / 3;
+    for (int start = 0; start < length; ) {
+      int end = Math.min(length, start + charsPerPiece);
+      if (end < length && Character.isHighSurrogate(str.charAt(end - 1)) && end - start > 1) {
+        // keep the pair together in the next piece
+        end--;
+      }
+      trans.write(scratch, 0, encode(str, start, end, scratch, 0));
+      start = end;
+    }
+  }
+
+  private static boolean isSurrogatePair(String str, int i, int end) {
+    return Character.isHighSurrogate(str.charAt(i))
+        && i + 1 < end
+        && Character.isLowSurrogate(str.charAt(i + 1));
+  }
+}
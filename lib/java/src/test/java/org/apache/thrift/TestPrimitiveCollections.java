@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.jupiter.api.Test;
+
+public class TestPrimitiveCollections {
+
+  private static final TProtocolFactory[] FACTORIES = {
+    new TBinaryProtocol.Factory(), new TCompactProtocol.Factory()
+  };
+
+  private final Random random = new Random(5);
+
+  @Test
+  public void testIntListBehavesLikeArrayList() {
+    TIntList list = new TIntList();
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      int value = random.nextInt(100);
+      switch (random.nextInt(5)) {
+        case 0:
+          if (!expected.isEmpty()) {
+            int index = random.nextInt(expected.size());
+            assertEquals(expected.remove(index), list.remove(index));
+          }
+          break;
+        case 1:
+          int index = random.nextInt(expected.size() + 1);
+          expected.add(index, value);
+          list.add(index, value);
+          break;
+        default:
+          expected.add(value);
+          list.addInt(value);
+      }
+      assertEquals(expected, list);
+      assertEquals(list, expected);
+      assertEquals(expected.hashCode(), list.hashCode());
+    }
+    assertEquals(expected.indexOf(42), list.indexOf(42));
+    assertEquals(expected, new TIntList(list));
+    assertEquals(expected, new TIntList(expected));
+  }
+
+  @Test
+  public void testDoubleListEquality() {
+    TDoubleList list = new TDoubleList(Arrays.asList(1.5, Double.NaN, -0.0));
+    assertEquals(Arrays.asList(1.5, Double.NaN, -0.0), list);
+    assertTrue(list.contains(Double.NaN));
+    assertFalse(list.contains(0.0));
+    assertEquals(1.5, list.getDouble(0), 0.0);
+  }
+
+  @Test
+  public void testIntSetBehavesLikeHashSet() {
+    TIntSet set = new TIntSet();
+    Set<Integer> expected = new HashSet<>();
+    for (int i = 0; i < 20000; i++) {
+      int value = random.nextInt(500) - 250;
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(value), set.remove(value));
+      } else {
+        assertEquals(expected.add(value), set.add(value));
+      }
+      assertEquals(expected.size(), set.size());
+    }
+    assertEquals(expected, set);
+    assertEquals(set, expected);
+    assertEquals(expected.hashCode(), set.hashCode());
+
+    for (Iterator<Integer> it = set.iterator(); it.hasNext(); ) {
+      int value = it.next();
+      if (value % 2 == 0) {
+        it.remove();
+        expected.remove(value);
+      }
+    }
+    assertEquals(expected, set);
+    assertEquals(expected, new TIntSet(set));
+    set.clear();
+    assertTrue(set.isEmpty());
+    assertFalse(set.containsInt(1));
+  }
+
+  @Test
+  public void testLongSetGrows() {
+    TLongSet set = new TLongSet();
+    for (long i = 0; i < 100000; i++) {
+      assertTrue(set.addLong(i << 32));
+    }
+    assertEquals(100000, set.size());
+    for (long i = 0; i < 100000; i++) {
+      assertTrue(set.containsLong(i << 32));
+    }
+    assertFalse(set.containsLong(1));
+  }
+
+  @Test
+  public void testReadWriteMatchesBoxedCollections() throws Exception {
+    int[] values = new int[5000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random.nextInt() >> random.nextInt(32);
+    }
+    List<Integer> boxed = new ArrayList<>();
+    for (int value : values) {
+      boxed.add(value);
+    }
+    TIntList list = new TIntList(boxed);
+    assertArrayEquals(values, list.toIntArray());
+    TIntSet set = new TIntSet(boxed);
+
+    for (TProtocolFactory factory : FACTORIES) {
+      assertArrayEquals(writeList(factory, boxed), writeList(factory, list));
+
+      TProtocol in = protocol(factory, writeList(factory, boxed));
+      TIntList readList = new TIntList();
+      TIntList.read(in, values.length, readList);
+      assertEquals(boxed, readList);
+
+      in = protocol(factory, writeSet(factory, set));
+      List<Integer> readBoxed = new ArrayList<>();
+      TIntList.read(in, set.size(), readBoxed);
+      assertEquals(set, new HashSet<>(readBoxed));
+
+      in = protocol(factory, writeSet(factory, set));
+      TIntSet readSet = new TIntSet();
+      TIntSet.read(in, set.size(), readSet);
+      assertEquals(set, readSet);
+    }
+  }
+
+  private static TProtocol protocol(TProtocolFactory factory, byte[] bytes) throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(bytes.length);
+    buffer.write(bytes);
+    return factory.getProtocol(buffer);
+  }
+
+  private static byte[] writeList(TProtocolFactory factory, List<Integer> list) throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TIntList.write(factory.getProtocol(buffer), list);
+    return Arrays.copyOf(buffer.getArray(), buffer.length());
+  }
+
+  private static byte[] writeSet(TProtocolFactory factory, Set<Integer> set) throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TIntSet.write(factory.getProtocol(buffer), set);
+    return Arrays.copyOf(buffer.getArray(), buffer.length());
+  }
+}
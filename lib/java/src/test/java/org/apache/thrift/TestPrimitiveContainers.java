@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TTupleProtocol;
+import org.junit.jupiter.api.Test;
+import thrift.test.PrimitiveContainers;
+
+// Tests the containers generated with the primitive_collections option.
+//
+public class TestPrimitiveContainers {
+
+  private static final TProtocolFactory[] FACTORIES = {
+    new TBinaryProtocol.Factory(),
+    new TCompactProtocol.Factory(),
+    new TJSONProtocol.Factory(),
+    new TTupleProtocol.Factory()
+  };
+
+  private static PrimitiveContainers boxed() {
+    PrimitiveContainers struct = new PrimitiveContainers();
+    struct.setInts(new ArrayList<>(Arrays.asList(1, -2, 300000, Integer.MIN_VALUE)));
+    struct.setLongs(new ArrayList<>(Arrays.asList(1L, Long.MAX_VALUE)));
+    struct.setDoubles(new ArrayList<>(Arrays.asList(1.5, -0.0, Double.NaN)));
+    struct.setIntSet(new HashSet<>(Arrays.asList(5, 7, 9)));
+    struct.setLongSet(new HashSet<>(Arrays.asList(5L << 40, 7L)));
+    struct.setDoubleSet(new HashSet<>(Arrays.asList(2.5)));
+    struct.setNested(Collections.singletonMap("k", Arrays.asList(3, 4)));
+    return struct;
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    PrimitiveContainers struct = boxed();
+    for (TProtocolFactory factory : FACTORIES) {
+      byte[] bytes = new TSerializer(factory).serialize(struct);
+      PrimitiveContainers read = new PrimitiveContainers();
+      new TDeserializer(factory).deserialize(read, bytes);
+      assertEquals(struct, read);
+
+      assertTrue(read.getInts() instanceof TIntList);
+      assertTrue(read.getLongs() instanceof TLongList);
+      assertTrue(read.getDoubles() instanceof TDoubleList);
+      assertTrue(read.getIntSet() instanceof TIntSet);
+      assertTrue(read.getLongSet() instanceof TLongSet);
+      assertTrue(read.getDoubleSet() instanceof HashSet);
+      assertTrue(read.getNested().get("k") instanceof TIntList);
+
+      // written in bulk this time
+      PrimitiveContainers reread = new PrimitiveContainers();
+      new TDeserializer(factory).deserialize(reread, new TSerializer(factory).serialize(read));
+      assertEquals(struct, reread);
+    }
+  }
+
+  @Test
+  public void testDeepCopyAndAdd() {
+    PrimitiveContainers copy = boxed().deepCopy();
+    assertEquals(boxed(), copy);
+    assertTrue(copy.getInts() instanceof TIntList);
+    assertTrue(copy.getLongSet() instanceof TLongSet);
+
+    PrimitiveContainers struct = new PrimitiveContainers();
+    struct.addToInts(42);
+    struct.addToIntSet(42);
+    assertTrue(struct.getInts() instanceof TIntList);
+    assertTrue(struct.getIntSet() instanceof TIntSet);
+    assertEquals(Collections.singletonList(42), struct.getInts());
+  }
+}
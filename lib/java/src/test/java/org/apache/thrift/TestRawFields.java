@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TType;
+import org.junit.jupiter.api.Test;
+import thrift.test.DecodedEnvelope;
+import thrift.test.RawEnvelope;
+import thrift.test.RawPayload;
+
+public class TestRawFields {
+
+  private static final TProtocolFactory[] FACTORIES = {
+    new TBinaryProtocol.Factory(), new TCompactProtocol.Factory(), new TJSONProtocol.Factory()
+  };
+
+  private static DecodedEnvelope envelope() {
+    Map<String, Integer> attrs = new HashMap<>();
+    attrs.put("priority", 3);
+    attrs.put("retries", 0);
+    return new DecodedEnvelope(
+            "orders",
+            new RawPayload(1, "first", Arrays.asList(10L, 20L, 30L)),
+            Arrays.asList(
+                new RawPayload(2, "second", Arrays.asList(-1L)),
+                new RawPayload(3, "third", Arrays.<Long>asList())),
+            attrs,
+            new HashSet<>(Arrays.asList(7L, 1L << 40)))
+        .setExtra(new RawPayload(4, "fourth", Arrays.asList(Long.MIN_VALUE)));
+  }
+
+  @Test
+  public void testPassedThroughUnchanged() throws Exception {
+    DecodedEnvelope envelope = envelope();
+    for (TProtocolFactory factory : FACTORIES) {
+      byte[] bytes = new TSerializer(factory).serialize(envelope);
+
+      RawEnvelope raw = new RawEnvelope();
+      new TDeserializer(factory).deserialize(raw, bytes);
+      assertEquals("orders", raw.getRoute());
+      assertEquals(TType.STRUCT, raw.getPayload().getType());
+      assertEquals(TType.LIST, raw.getItems().getType());
+      assertEquals(TType.MAP, raw.getAttrs().getType());
+      assertEquals(TType.STRUCT, raw.getExtra().getType());
+      assertEquals(TType.SET, raw.getIds().getType());
+
+      // a raw field can still be decoded on its own
+      RawPayload payload = new RawPayload();
+      payload.read(raw.getPayload().reader());
+      assertEquals(envelope.getPayload(), payload);
+
+      byte[] written = new TSerializer(factory).serialize(raw);
+      if (!(factory instanceof TJSONProtocol.Factory)) {
+        // the binary and compact protocols keep the bytes of the values they read
+        assertArrayEquals(bytes, written);
+      }
+      DecodedEnvelope decoded = new DecodedEnvelope();
+      new TDeserializer(factory).deserialize(decoded, written);
+      assertEquals(envelope, decoded);
+
+      assertEquals(raw, raw.deepCopy());
+    }
+  }
+
+  @Test
+  public void testTranscoded() throws Exception {
+    DecodedEnvelope envelope = envelope();
+    for (TProtocolFactory from : FACTORIES) {
+      RawEnvelope raw = new RawEnvelope();
+      new TDeserializer(from).deserialize(raw, new TSerializer(from).serialize(envelope));
+      for (TProtocolFactory to : FACTORIES) {
+        DecodedEnvelope decoded = new DecodedEnvelope();
+        new TDeserializer(to).deserialize(decoded, new TSerializer(to).serialize(raw));
+        assertEquals(envelope, decoded, from + " to " + to);
+      }
+    }
+  }
+
+  @Test
+  public void testUnsetFields() throws Exception {
+    DecodedEnvelope envelope = envelope();
+    envelope.unsetExtra();
+    envelope.unsetItems();
+    for (TProtocolFactory factory : FACTORIES) {
+      RawEnvelope raw = new RawEnvelope();
+      new TDeserializer(factory).deserialize(raw, new TSerializer(factory).serialize(envelope));
+      assertFalse(raw.isSetExtra());
+      assertNull(raw.getItems());
+
+      DecodedEnvelope decoded = new DecodedEnvelope();
+      new TDeserializer(factory).deserialize(decoded, new TSerializer(factory).serialize(raw));
+      assertEquals(envelope, decoded);
+    }
+  }
+}
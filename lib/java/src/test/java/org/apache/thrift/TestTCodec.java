@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.thrift.partial.ThriftMetadata;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.junit.jupiter.api.Test;
+import thrift.test.HolyMoley;
+import thrift.test.OneOfEach;
+
+public class TestTCodec {
+
+  private static final TProtocolFactory[] PROTOCOLS =
+      new TProtocolFactory[] {
+        new TBinaryProtocol.Factory(), new TCompactProtocol.Factory(), new TJSONProtocol.Factory()
+      };
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    HolyMoley hm = Fixtures.getHolyMoley();
+    for (TProtocolFactory factory : PROTOCOLS) {
+      // a retained size of 0 drops every serializer after its call
+      for (TCodec codec : new TCodec[] {new TCodec(factory), new TCodec(factory, 1, 0)}) {
+        byte[] bytes = new TSerializer(factory).serialize(hm);
+        assertArrayEquals(bytes, codec.serialize(hm));
+        assertArrayEquals(bytes, codec.serialize(hm));
+        assertEquals(bytes.length, codec.getSerializedSize(hm));
+
+        HolyMoley hm2 = new HolyMoley();
+        codec.deserialize(hm2, bytes);
+        assertEquals(hm, hm2);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        assertEquals(bytes.length, codec.serializeTo(hm, buffer));
+        buffer.flip();
+        hm2 = new HolyMoley();
+        codec.deserialize(hm2, buffer);
+        assertEquals(hm, hm2);
+        assertEquals(bytes.length, buffer.position());
+      }
+    }
+  }
+
+  @Test
+  public void testPartialDeserialize() throws Exception {
+    OneOfEach ooe = Fixtures.getOneOfEach();
+    ThriftMetadata.ThriftStruct metadata =
+        ThriftMetadata.ThriftStruct.fromFieldNames(
+            OneOfEach.class, Arrays.asList("integer32", "some_characters"));
+    OneOfEach expected = new OneOfEach();
+    expected.setInteger32(ooe.getInteger32());
+    expected.setSome_characters(ooe.getSome_characters());
+
+    // partial deserialization reads strings as binaries, which TJSONProtocol base64-decodes
+    for (TProtocolFactory factory :
+        new TProtocolFactory[] {new TBinaryProtocol.Factory(), new TCompactProtocol.Factory()}) {
+      TCodec codec = new TCodec(factory);
+      byte[] bytes = codec.serialize(ooe);
+      for (int i = 0; i < 2; i++) {
+        OneOfEach partial = new OneOfEach();
+        codec.partialDeserialize(metadata, partial, bytes, 0, bytes.length);
+        assertEquals(expected, partial);
+
+        partial = new OneOfEach();
+        codec.partialDeserialize(metadata, partial, ByteBuffer.wrap(bytes));
+        assertEquals(expected, partial);
+
+        assertEquals(expected, codec.partialDeserializeObject(metadata, bytes, 0, bytes.length));
+      }
+
+      // the partial deserializers don't get in the way of whole ones
+      OneOfEach whole = new OneOfEach();
+      codec.deserialize(whole, bytes);
+      assertEquals(ooe, whole);
+    }
+  }
+
+  @Test
+  public void testUsableAfterFailure() throws Exception {
+    HolyMoley hm = Fixtures.getHolyMoley();
+    for (TProtocolFactory factory : PROTOCOLS) {
+      TCodec codec = new TCodec(factory, 1, 1024 * 1024);
+      byte[] bytes = codec.serialize(hm);
+      assertThrows(
+          TException.class, () -> codec.deserialize(new HolyMoley(), bytes, 0, bytes.length / 2));
+      assertThrows(
+          TException.class, () -> codec.serializeTo(hm, ByteBuffer.allocate(bytes.length / 2)));
+
+      HolyMoley hm2 = new HolyMoley();
+      codec.deserialize(hm2, bytes);
+      assertEquals(hm, hm2);
+      assertArrayEquals(bytes, codec.serialize(hm));
+    }
+  }
+
+  @Test
+  public void testConcurrentUse() throws Exception {
+    HolyMoley hm = Fixtures.getHolyMoley();
+    OneOfEach ooe = Fixtures.getOneOfEach();
+    TCodec codec = new TCodec(new TCompactProtocol.Factory(), 2, 64 * 1024);
+    byte[] hmBytes = codec.serialize(hm);
+    byte[] ooeBytes = codec.serialize(ooe);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        tasks.add(
+            () -> {
+              for (int i = 0; i < 500; i++) {
+                assertArrayEquals(hmBytes, codec.serialize(hm));
+                OneOfEach ooe2 = new OneOfEach();
+                codec.deserialize(ooe2, ooeBytes);
+                assertEquals(ooe, ooe2);
+                assertArrayEquals(ooeBytes, codec.serialize(ooe));
+                HolyMoley hm2 = new HolyMoley();
+                codec.deserialize(hm2, hmBytes);
+                assertEquals(hm, hm2);
+              }
+              return null;
+            });
+      }
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
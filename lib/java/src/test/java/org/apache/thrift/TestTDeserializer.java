@@ -18,15 +18,19 @@
  */
 package org.apache.thrift;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.protocol.TJSONProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
 import org.junit.jupiter.api.Test;
 import thrift.test.Backwards;
+import thrift.test.HolyMoley;
 import thrift.test.OneOfEach;
 import thrift.test.PrimitiveThenStruct;
 import thrift.test.StructWithAUnion;
@@ -168,6 +172,69 @@ public class TestTDeserializer {
     }
   }
 
+  @Test
+  public void testByteBuffers() throws Exception {
+    OneOfEach ooe = Fixtures.getOneOfEach();
+    HolyMoley hm = Fixtures.getHolyMoley();
+    for (TProtocolFactory factory : PROTOCOLS) {
+      TSerializer serializer = new TSerializer(factory);
+      TDeserializer deserializer = new TDeserializer(factory);
+      byte[] ooeBytes = serializer.serialize(ooe);
+      byte[] hmBytes = serializer.serialize(hm);
+
+      byte[] array = new byte[3 + ooeBytes.length + hmBytes.length];
+      assertEquals(ooeBytes.length, serializer.serializeTo(ooe, array, 3));
+      assertEquals(hmBytes.length, serializer.serializeTo(hm, array, 3 + ooeBytes.length));
+      assertArrayEquals(ooeBytes, Arrays.copyOfRange(array, 3, 3 + ooeBytes.length));
+
+      ByteBuffer heap = ByteBuffer.allocate(array.length + 5);
+      heap.position(5);
+      ByteBuffer slice = heap.slice();
+      ByteBuffer direct = ByteBuffer.allocateDirect(array.length);
+      for (ByteBuffer buffer : new ByteBuffer[] {slice, direct}) {
+        buffer.position(3);
+        assertEquals(ooeBytes.length, serializer.serializeTo(ooe, buffer));
+        assertEquals(hmBytes.length, serializer.serializeTo(hm, buffer));
+        assertEquals(array.length, buffer.position());
+        buffer.position(3);
+        for (ByteBuffer read : new ByteBuffer[] {buffer, buffer.asReadOnlyBuffer()}) {
+          int position = read.position();
+          OneOfEach ooe2 = new OneOfEach();
+          deserializer.deserialize(ooe2, read);
+          assertEquals(ooe, ooe2);
+          HolyMoley hm2 = new HolyMoley();
+          deserializer.deserialize(hm2, read);
+          assertEquals(hm, hm2);
+          assertEquals(array.length, read.position());
+          read.position(position);
+        }
+      }
+
+      ByteBuffer truncated = ByteBuffer.wrap(hmBytes, 0, hmBytes.length - 1);
+      assertThrows(TException.class, () -> deserializer.deserialize(new HolyMoley(), truncated));
+      assertEquals(0, truncated.position());
+    }
+  }
+
+  @Test
+  public void testSerializeToAfterOverflow() throws Exception {
+    HolyMoley hm = Fixtures.getHolyMoley();
+    for (TProtocolFactory factory : PROTOCOLS) {
+      TSerializer serializer = new TSerializer(factory);
+      byte[] bytes = serializer.serialize(hm);
+
+      for (int size : new int[] {1, bytes.length / 2, bytes.length - 1}) {
+        ByteBuffer small = ByteBuffer.allocate(size);
+        assertThrows(TException.class, () -> serializer.serializeTo(hm, small));
+        assertEquals(0, small.position());
+      }
+      // the failed writes leave nothing behind in the protocol
+      byte[] array = new byte[bytes.length];
+      assertEquals(bytes.length, serializer.serializeTo(hm, array, 0));
+      assertArrayEquals(bytes, array, factory.getClass().getName());
+    }
+  }
+
   private void testPartialDeserialize(
       TProtocolFactory protocolFactory,
       TBase input,
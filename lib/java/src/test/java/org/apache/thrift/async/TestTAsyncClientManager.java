@@ -241,6 +241,47 @@ public class TestTAsyncClientManager {
 
   @Test
   public void testParallelCalls() throws Exception {
+    parallelCalls();
+  }
+
+  @Test
+  public void testParallelCallsOnSeveralSelectThreads() throws Exception {
+    clientManager_.stop();
+    clientManager_ = new TAsyncClientManager(4, new SelectorAssignmentPolicy.LeastLoaded());
+
+    // with no calls in flight, each of the first clients goes to a select thread without any
+    List<SrvSrv.AsyncClient> clients = new ArrayList<SrvSrv.AsyncClient>();
+    for (int i = 0; i < 4; i++) {
+      SrvSrv.AsyncClient client = getClient();
+      basicCall(client);
+      clients.add(client);
+    }
+    for (TAsyncClientManager.SelectorLoad load : clientManager_.getSelectorLoads()) {
+      assertEquals(1, load.getClients(), load.toString());
+    }
+    for (SrvSrv.AsyncClient client : clients) {
+      client.close();
+    }
+    for (TAsyncClientManager.SelectorLoad load : clientManager_.getSelectorLoads()) {
+      assertEquals(0, load.getClients(), load.toString());
+    }
+
+    parallelCalls();
+
+    List<TAsyncClientManager.SelectorLoad> loads = clientManager_.getSelectorLoads();
+    assertEquals(4, loads.size());
+    long completedCalls = 0;
+    int numClients = 0;
+    for (TAsyncClientManager.SelectorLoad load : loads) {
+      assertEquals(0, load.getInFlightCalls());
+      completedCalls += load.getCompletedCalls();
+      numClients += load.getClients();
+    }
+    assertEquals(4 + 50 * 100, completedCalls);
+    assertEquals(50, numClients);
+  }
+
+  private void parallelCalls() throws Exception {
     // make multiple calls with deserialization in the selector thread (repro Eric's issue)
     int numThreads = 50;
     int numCallsPerThread = 100;
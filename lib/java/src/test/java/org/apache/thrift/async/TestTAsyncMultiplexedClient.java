@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.async;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.server.ServerTestBase;
+import org.apache.thrift.server.THsHaServer;
+import org.apache.thrift.server.THsHaServer.Args;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import thrift.test.ExceptionWithAMap;
+import thrift.test.SrvSrv;
+
+public class TestTAsyncMultiplexedClient {
+
+  private THsHaServer server_;
+  private Thread serverThread_;
+  private TAsyncClientManager clientManager_;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    server_ =
+        new THsHaServer(
+            new Args(
+                    new TNonblockingServerSocket(
+                        new TNonblockingServerSocket.NonblockingAbstractServerSocketArgs()
+                            .port(ServerTestBase.PORT)))
+                .processor(new SrvSrv.Processor<>(new TestTAsyncClientManager.SrvHandler()))
+                .maxInFlightRequests(64));
+    serverThread_ = new Thread(server_::serve);
+    serverThread_.start();
+    clientManager_ = new TAsyncClientManager();
+    Thread.sleep(500);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    server_.stop();
+    clientManager_.stop();
+    serverThread_.join();
+  }
+
+  @Test
+  public void testConcurrentCalls() throws Exception {
+    SrvSrv.AsyncClient client = getClient();
+    int numCalls = 500;
+    final CountDownLatch latch = new CountDownLatch(numCalls);
+    final AtomicInteger numSuccesses = new AtomicInteger();
+    for (int i = 0; i < numCalls; i++) {
+      client.Janky(
+          1,
+          new AsyncMethodCallback<Integer>() {
+            @Override
+            public void onComplete(Integer response) {
+              if (response == 3) {
+                numSuccesses.incrementAndGet();
+              }
+              latch.countDown();
+            }
+
+            @Override
+            public void onError(Exception exception) {
+              latch.countDown();
+            }
+          });
+    }
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertEquals(numCalls, numSuccesses.get());
+    assertFalse(client.hasError());
+  }
+
+  @Test
+  public void testTimeoutOnlyFailsSlowCall() throws Exception {
+    SrvSrv.AsyncClient client = getClient();
+    client.setTimeout(500);
+    final Map<String, Object> results = new ConcurrentHashMap<>();
+    final CountDownLatch latch = new CountDownLatch(3);
+    // sleeps for a second on the server
+    client.primitiveMethod(new RecordingCallback<>("primitiveMethod", results, latch));
+    client.Janky(1, new RecordingCallback<>("Janky", results, latch));
+    client.onewayMethod(new RecordingCallback<>("onewayMethod", results, latch));
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+    assertTrue(results.get("primitiveMethod") instanceof TimeoutException);
+    assertEquals(3, results.get("Janky"));
+    assertEquals(RecordingCallback.NULL, results.get("onewayMethod"));
+    assertFalse(client.hasError());
+    assertNull(client.getError());
+  }
+
+  @Test
+  public void testCloseFailsOutstandingCalls() throws Exception {
+    SrvSrv.AsyncClient client = getClient();
+    final Map<String, Object> results = new ConcurrentHashMap<>();
+    CountDownLatch latch = new CountDownLatch(1);
+    client.Janky(1, new RecordingCallback<>("Janky", results, latch));
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+    latch = new CountDownLatch(1);
+    // sleeps for a second on the server, so it is still outstanding when the client is closed
+    client.primitiveMethod(new RecordingCallback<>("primitiveMethod", results, latch));
+    client.close();
+    assertTrue(latch.await(500, TimeUnit.MILLISECONDS));
+    assertTrue(results.get("primitiveMethod") instanceof TTransportException);
+    assertFalse(client.hasError());
+  }
+
+  @Test
+  public void testDeclaredExceptionKeepsClientUsable() throws Exception {
+    SrvSrv.AsyncClient client = getClient();
+    final Map<String, Object> results = new ConcurrentHashMap<>();
+    CountDownLatch latch = new CountDownLatch(1);
+    client.declaredExceptionMethod(
+        true, new RecordingCallback<>("declaredExceptionMethod", results, latch));
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertEquals(
+        new ExceptionWithAMap("blah", new HashMap<>()), results.get("declaredExceptionMethod"));
+    assertFalse(client.hasError());
+
+    latch = new CountDownLatch(1);
+    client.Janky(1, new RecordingCallback<>("Janky", results, latch));
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertEquals(3, results.get("Janky"));
+  }
+
+  private SrvSrv.AsyncClient getClient() throws Exception {
+    TNonblockingSocket clientSocket =
+        new TNonblockingSocket(ServerTestBase.HOST, ServerTestBase.PORT);
+    SrvSrv.AsyncClient client =
+        new SrvSrv.AsyncClient(new TBinaryProtocol.Factory(), clientManager_, clientSocket);
+    client.setMultiplexed(true);
+    return client;
+  }
+
+  /** Records the result or the error of a call under the given name. */
+  private static class RecordingCallback<T> implements AsyncMethodCallback<T> {
+    static final Object NULL = new Object();
+
+    private final String name;
+    private final Map<String, Object> results;
+    private final CountDownLatch latch;
+
+    RecordingCallback(String name, Map<String, Object> results, CountDownLatch latch) {
+      this.name = name;
+      this.results = results;
+      this.latch = latch;
+    }
+
+    @Override
+    public void onComplete(T response) {
+      results.put(name, response == null ? NULL : response);
+      latch.countDown();
+    }
+
+    @Override
+    public void onError(Exception exception) {
+      results.put(name, exception);
+      latch.countDown();
+    }
+  }
+}
@@ -18,9 +18,11 @@
  */
 package org.apache.thrift.protocol;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -37,6 +39,7 @@ import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
 import org.apache.thrift.TSerializer;
 import org.apache.thrift.server.ServerTestBase;
+import org.apache.thrift.transport.TIOStreamTransport;
 import org.apache.thrift.transport.TMemoryBuffer;
 import org.apache.thrift.transport.TTransportException;
 import org.junit.jupiter.api.Test;
@@ -345,6 +348,70 @@ public abstract class ProtocolTestBase {
     assertEquals(expected, actual);
   }
 
+  @Test
+  public void testWriteIntoTransportBuffer() throws Exception {
+    // TMemoryBuffer lets the protocol encode into its buffer; TIOStreamTransport doesn't
+    TMemoryBuffer buffered = new TMemoryBuffer(0);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    writeEverything(getFactory().getProtocol(buffered));
+    writeEverything(getFactory().getProtocol(new TIOStreamTransport(baos)));
+    assertArrayEquals(baos.toByteArray(), Arrays.copyOf(buffered.getArray(), buffered.length()));
+  }
+
+  private void writeEverything(TProtocol proto) throws TException {
+    proto.writeMessageBegin(new TMessage("everything", TMessageType.CALL, 1 << 20));
+    proto.writeStructBegin(new TStruct("everything"));
+    proto.writeFieldBegin(new TField("a_byte", TType.BYTE, (short) 1));
+    proto.writeByte((byte) -7);
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("a_bool", TType.BOOL, (short) 2));
+    proto.writeBool(true);
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("an_i16", TType.I16, (short) 300));
+    proto.writeI16(Short.MIN_VALUE);
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("an_i32", TType.I32, (short) -2));
+    proto.writeI32(Integer.MIN_VALUE);
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("an_i64", TType.I64, (short) 3));
+    proto.writeI64(Long.MAX_VALUE);
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("a_double", TType.DOUBLE, (short) 4));
+    proto.writeDouble(-123.456);
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("a_uuid", TType.UUID, (short) 5));
+    proto.writeUuid(UUID.fromString("00112233-4455-6677-8899-aabbccddeeff"));
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("a_list", TType.LIST, (short) 6));
+    proto.writeListBegin(new TList(TType.I32, 20));
+    for (int i = 0; i < 20; i++) {
+      proto.writeI32(i * 1000);
+    }
+    proto.writeListEnd();
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("a_set", TType.SET, (short) 7));
+    proto.writeSetBegin(new TSet(TType.I64, 1));
+    proto.writeI64(-1);
+    proto.writeSetEnd();
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("a_map", TType.MAP, (short) 8));
+    proto.writeMapBegin(new TMap(TType.STRING, TType.I16, 1));
+    proto.writeString("key");
+    proto.writeI16((short) 1);
+    proto.writeMapEnd();
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("a_string", TType.STRING, (short) 10));
+    proto.writeString("caf\u00e9 \u2603 \ud83d\ude00 \ud800");
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("no_map", TType.MAP, (short) 9));
+    proto.writeMapBegin(new TMap(TType.STRING, TType.I16, 0));
+    proto.writeMapEnd();
+    proto.writeFieldEnd();
+    proto.writeFieldStop();
+    proto.writeStructEnd();
+    proto.writeMessageEnd();
+  }
+
   @Test
   public void testMessage() throws Exception {
     List<TMessage> msgs =
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.thrift.transport.SizeClassedBufferPool;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.jupiter.api.Test;
+
+public class TestBinaryPolicy {
+
+  private static final ByteBuffer BLOB = ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7});
+
+  private static TProtocolFactory[] factories(BinaryPolicy policy) {
+    return new TProtocolFactory[] {
+      new TBinaryProtocol.Factory(false, true, -1, -1, StringDecoder.DEFAULT, policy),
+      new TCompactProtocol.Factory(-1, -1, StringDecoder.DEFAULT, policy)
+    };
+  }
+
+  private static byte[] encode(TProtocolFactory factory) throws Exception {
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    factory.getProtocol(buf).writeBinary(BLOB.duplicate());
+    return Arrays.copyOf(buf.getArray(), buf.length());
+  }
+
+  private static TTransport unbuffered(byte[] bytes) throws TTransportException {
+    return new TIOStreamTransport(new ByteArrayInputStream(bytes));
+  }
+
+  @Test
+  public void testSerializable() throws Exception {
+    assertSame(BinaryPolicy.ALIAS, roundTrip(BinaryPolicy.ALIAS));
+    assertSame(BinaryPolicy.COPY, roundTrip(BinaryPolicy.COPY));
+
+    for (TProtocolFactory factory :
+        new TProtocolFactory[] {new TBinaryProtocol.Factory(), new TCompactProtocol.Factory()}) {
+      byte[] bytes = encode(factory);
+      TProtocolFactory copy = (TProtocolFactory) roundTrip(factory);
+      ByteBuffer bb = copy.getProtocol(new TMemoryInputTransport(bytes)).readBinary();
+      assertEquals(BLOB, bb);
+      assertSame(bytes, bb.array());
+    }
+    for (TProtocolFactory factory : factories(BinaryPolicy.COPY)) {
+      byte[] bytes = encode(factory);
+      TProtocolFactory copy = (TProtocolFactory) roundTrip(factory);
+      ByteBuffer bb = copy.getProtocol(new TMemoryInputTransport(bytes)).readBinary();
+      assertEquals(BLOB, bb);
+      assertNotSame(bytes, bb.array());
+    }
+
+    // raw values hold on to the factory of the protocol they were read with
+    TRawValue raw =
+        new TRawValue(TType.LIST, ByteBuffer.wrap(new byte[] {0}), new TCompactProtocol.Factory());
+    assertEquals(raw, roundTrip(raw));
+  }
+
+  @Test
+  public void testAlias() throws Exception {
+    for (TProtocolFactory factory : factories(BinaryPolicy.ALIAS)) {
+      byte[] bytes = encode(factory);
+      ByteBuffer bb = factory.getProtocol(new TMemoryInputTransport(bytes)).readBinary();
+      assertEquals(BLOB, bb);
+      assertSame(bytes, bb.array());
+
+      assertEquals(BLOB, factory.getProtocol(unbuffered(bytes)).readBinary());
+    }
+  }
+
+  @Test
+  public void testCopy() throws Exception {
+    for (TProtocolFactory factory : factories(BinaryPolicy.COPY)) {
+      byte[] bytes = encode(factory);
+      ByteBuffer bb = factory.getProtocol(new TMemoryInputTransport(bytes)).readBinary();
+      assertEquals(BLOB, bb);
+      assertNotSame(bytes, bb.array());
+      Arrays.fill(bytes, (byte) 0);
+      assertEquals(BLOB, bb);
+    }
+  }
+
+  @Test
+  public void testPooled() throws Exception {
+    for (boolean direct : new boolean[] {false, true}) {
+      SizeClassedBufferPool pool = new SizeClassedBufferPool(direct, 1024, 1024 * 1024, 0);
+      for (TProtocolFactory factory : factories(BinaryPolicy.pooled(pool))) {
+        byte[] bytes = encode(factory);
+        for (TTransport trans :
+            new TTransport[] {new TMemoryInputTransport(bytes), unbuffered(bytes)}) {
+          ByteBuffer bb = factory.getProtocol(trans).readBinary();
+          assertEquals(BLOB, bb);
+          assertEquals(direct, bb.isDirect());
+          pool.release(bb);
+        }
+      }
+      // every read after the first was served by the buffer released before it
+      assertEquals(1, pool.getMisses());
+      assertEquals(3, pool.getHits());
+    }
+  }
+
+  @Test
+  public void testPooledReleasesOnError() throws Exception {
+    SizeClassedBufferPool pool = new SizeClassedBufferPool(false, 1024, 1024 * 1024, 0);
+    TProtocolFactory factory = factories(BinaryPolicy.pooled(pool))[0];
+    byte[] bytes = encode(factory);
+    byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+
+    TProtocol proto = factory.getProtocol(unbuffered(truncated));
+    assertThrows(TTransportException.class, proto::readBinary);
+    assertTrue(pool.getPooledBytes() > 0);
+  }
+
+  private static Object roundTrip(Object o) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(o);
+    }
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      return in.readObject();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.junit.jupiter.api.Test;
+
+public class TestDedupStringDecoder {
+
+  @Test
+  public void testRepeatsAreShared() {
+    DedupStringDecoder decoder = new DedupStringDecoder();
+    byte[] first = "xxRUBxx".getBytes(StandardCharsets.UTF_8);
+    byte[] second = "RUB".getBytes(StandardCharsets.UTF_8);
+
+    String rub = decoder.decode(first, 2, 3);
+    assertEquals("RUB", rub);
+    assertSame(rub, decoder.decode(second, 0, 3));
+    assertSame(rub, decoder.decode(first, 2, 3));
+    assertEquals("", decoder.decode(first, 0, 0));
+  }
+
+  @Test
+  public void testSerializable() throws Exception {
+    assertSame(StringDecoder.DEFAULT, roundTrip(StringDecoder.DEFAULT));
+
+    DedupStringDecoder decoder = new DedupStringDecoder(16, 4);
+    byte[] bytes = "12345".getBytes(StandardCharsets.UTF_8);
+    String s = decoder.decode(bytes, 0, 4);
+    DedupStringDecoder copy = (DedupStringDecoder) roundTrip(decoder);
+    // the copy starts with an empty cache, and the same limits
+    assertNotSame(s, copy.decode(bytes, 0, 4));
+    assertSame(copy.decode(bytes, 0, 4), copy.decode(bytes, 0, 4));
+    assertNotSame(copy.decode(bytes, 0, 5), copy.decode(bytes, 0, 5));
+  }
+
+  @Test
+  public void testLongStringsAreNotCached() {
+    DedupStringDecoder decoder = new DedupStringDecoder(16, 4);
+    byte[] bytes = "12345".getBytes(StandardCharsets.UTF_8);
+    String s = decoder.decode(bytes, 0, 5);
+    assertEquals("12345", s);
+    assertNotSame(s, decoder.decode(bytes, 0, 5));
+    assertSame(decoder.decode(bytes, 0, 4), decoder.decode(bytes, 0, 4));
+  }
+
+  @Test
+  public void testSameAsNewString() {
+    // a single slot, so every string evicts the one before it
+    DedupStringDecoder decoder = new DedupStringDecoder(1, 64);
+    Random random = new Random(7);
+    for (int n = 0; n < 10000; n++) {
+      // few enough distinct values that some repeat, some of them not valid UTF-8
+      byte[] bytes = new byte[random.nextInt(4)];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = (byte) (random.nextInt(3) * 100);
+      }
+      assertEquals(
+          new String(bytes, StandardCharsets.UTF_8), decoder.decode(bytes, 0, bytes.length));
+    }
+  }
+
+  @Test
+  public void testBadArguments() {
+    assertThrows(IllegalArgumentException.class, () -> new DedupStringDecoder(0, 64));
+    assertThrows(IllegalArgumentException.class, () -> new DedupStringDecoder((1 << 30) + 1, 64));
+    assertThrows(IllegalArgumentException.class, () -> new DedupStringDecoder(16, -1));
+  }
+
+  @Test
+  public void testProtocolsUseDecoder() throws Exception {
+    DedupStringDecoder decoder = new DedupStringDecoder();
+    TProtocolFactory[] factories = {
+      new TBinaryProtocol.Factory(false, true, -1, -1, decoder),
+      new TCompactProtocol.Factory(-1, -1, decoder)
+    };
+    for (TProtocolFactory factory : factories) {
+      TMemoryBuffer buf = new TMemoryBuffer(0);
+      TProtocol out = factory.getProtocol(buf);
+      out.writeString("shop-42");
+      out.writeString("shop-42");
+
+      byte[] bytes = buf.getArray();
+      // once through the transport's buffer, and once through readAll
+      String first = factory.getProtocol(new TMemoryInputTransport(bytes)).readString();
+      String second =
+          factory.getProtocol(new TIOStreamTransport(new ByteArrayInputStream(bytes))).readString();
+      assertEquals("shop-42", first);
+      assertSame(first, second);
+    }
+  }
+
+  private static Object roundTrip(Object o) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(o);
+    }
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      return in.readObject();
+    }
+  }
+}
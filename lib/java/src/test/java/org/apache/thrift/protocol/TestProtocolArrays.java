@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+import org.junit.jupiter.api.Test;
+
+public class TestProtocolArrays {
+
+  private static final TProtocolFactory[] FACTORIES = {
+    new TBinaryProtocol.Factory(), new TCompactProtocol.Factory(), new TJSONProtocol.Factory()
+  };
+
+  // around the sizes that the protocols encode in one go
+  private static final int[] LENGTHS = {0, 1, 100, 1000, 20000};
+
+  private final Random random = new Random(3);
+
+  private int[] ints(int len) {
+    int[] values = new int[len];
+    for (int i = 0; i < len; i++) {
+      values[i] = random.nextInt() >> random.nextInt(32);
+    }
+    return values;
+  }
+
+  private long[] longs(int len) {
+    long[] values = new long[len];
+    for (int i = 0; i < len; i++) {
+      values[i] = random.nextLong() >> random.nextInt(64);
+    }
+    return values;
+  }
+
+  private double[] doubles(int len) {
+    double[] values = new double[len];
+    for (int i = 0; i < len; i++) {
+      values[i] = random.nextGaussian();
+    }
+    return values;
+  }
+
+  @Test
+  public void testI32Array() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      for (int len : LENGTHS) {
+        int[] values = ints(len);
+        byte[] expected =
+            encode(factory, TType.I32, len, p -> p.writeI32Array(values, 0, len), true);
+        assertArrayEquals(
+            expected,
+            encode(
+                factory,
+                TType.I32,
+                len,
+                p -> {
+                  for (int v : values) {
+                    p.writeI32(v);
+                  }
+                },
+                true));
+        assertArrayEquals(
+            expected, encode(factory, TType.I32, len, p -> p.writeI32Array(values, 0, len), false));
+
+        for (TTransport trans : transports(expected)) {
+          int[] read = new int[len + 2];
+          TProtocol proto = factory.getProtocol(trans);
+          proto.readListBegin();
+          proto.readI32Array(read, 1, len);
+          proto.readListEnd();
+          assertArrayEquals(values, Arrays.copyOfRange(read, 1, len + 1));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testI64Array() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      for (int len : LENGTHS) {
+        long[] values = longs(len);
+        byte[] expected =
+            encode(factory, TType.I64, len, p -> p.writeI64Array(values, 0, len), true);
+        assertArrayEquals(
+            expected,
+            encode(
+                factory,
+                TType.I64,
+                len,
+                p -> {
+                  for (long v : values) {
+                    p.writeI64(v);
+                  }
+                },
+                true));
+        assertArrayEquals(
+            expected, encode(factory, TType.I64, len, p -> p.writeI64Array(values, 0, len), false));
+
+        for (TTransport trans : transports(expected)) {
+          long[] read = new long[len + 2];
+          TProtocol proto = factory.getProtocol(trans);
+          proto.readListBegin();
+          proto.readI64Array(read, 1, len);
+          proto.readListEnd();
+          assertArrayEquals(values, Arrays.copyOfRange(read, 1, len + 1));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDoubleArray() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      for (int len : LENGTHS) {
+        double[] values = doubles(len);
+        byte[] expected =
+            encode(factory, TType.DOUBLE, len, p -> p.writeDoubleArray(values, 0, len), true);
+        assertArrayEquals(
+            expected,
+            encode(
+                factory,
+                TType.DOUBLE,
+                len,
+                p -> {
+                  for (double v : values) {
+                    p.writeDouble(v);
+                  }
+                },
+                true));
+        assertArrayEquals(
+            expected,
+            encode(factory, TType.DOUBLE, len, p -> p.writeDoubleArray(values, 0, len), false));
+
+        for (TTransport trans : transports(expected)) {
+          double[] read = new double[len + 2];
+          TProtocol proto = factory.getProtocol(trans);
+          proto.readListBegin();
+          proto.readDoubleArray(read, 1, len);
+          proto.readListEnd();
+          assertArrayEquals(values, Arrays.copyOfRange(read, 1, len + 1));
+        }
+      }
+    }
+  }
+
+  /** Write a list of values, into a transport that has a write buffer or one that doesn't. */
+  private static byte[] encode(
+      TProtocolFactory factory,
+      byte elemType,
+      int len,
+      TProtocol.WriteCallback<TProtocol> values,
+      boolean buffered)
+      throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    TProtocol proto = factory.getProtocol(buffered ? buf : new TIOStreamTransport(baos));
+    proto.writeListBegin(new TList(elemType, len));
+    values.call(proto);
+    proto.writeListEnd();
+    return buffered ? Arrays.copyOf(buf.getArray(), buf.length()) : baos.toByteArray();
+  }
+
+  /** Transports to read bytes from, with and without a read buffer. */
+  private static TTransport[] transports(byte[] bytes) throws Exception {
+    return new TTransport[] {
+      new TMemoryInputTransport(bytes), new TIOStreamTransport(new ByteArrayInputStream(bytes))
+    };
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.thrift.TConfiguration;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+import org.junit.jupiter.api.Test;
+
+public class TestProtocolSkip {
+
+  private static final TProtocolFactory[] FACTORIES = {
+    new TBinaryProtocol.Factory(), new TCompactProtocol.Factory(), new TJSONProtocol.Factory()
+  };
+
+  private static final int[] SIZES = {0, 1, 7, 100, 3000};
+
+  // a set or list and its element type, or a map and its key and value types
+  private static final byte[][] CONTAINERS = {
+    {TType.LIST, TType.BOOL},
+    {TType.LIST, TType.BYTE},
+    {TType.LIST, TType.I16},
+    {TType.LIST, TType.I32},
+    {TType.SET, TType.I64},
+    {TType.LIST, TType.DOUBLE},
+    {TType.LIST, TType.STRING},
+    {TType.MAP, TType.BYTE, TType.DOUBLE},
+    {TType.MAP, TType.I32, TType.I64},
+    {TType.MAP, TType.I64, TType.DOUBLE},
+    {TType.MAP, TType.STRING, TType.I16},
+    {TType.LIST, TType.LIST, TType.I32},
+  };
+
+  private static final String SENTINEL = "sentinel";
+
+  private final Random random = new Random(5);
+
+  @Test
+  public void testSkipContainers() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      for (byte[] container : CONTAINERS) {
+        for (int size : SIZES) {
+          byte[] bytes = encode(factory, container, size);
+          for (TTransport trans : transports(bytes)) {
+            TProtocol proto = factory.getProtocol(trans);
+            proto.skip(container[0]);
+            assertEquals(SENTINEL, proto.readString(), describe(factory, container, size));
+          }
+          for (TTransport trans : transports(bytes)) {
+            TProtocol proto = factory.getProtocol(trans);
+            TProtocolUtil.skip(proto, container[0]);
+            assertEquals(SENTINEL, proto.readString(), describe(factory, container, size));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSkipDepth() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      byte[] empty = encode(factory, new byte[] {TType.LIST, TType.I32}, 0);
+      factory.getProtocol(new TMemoryInputTransport(empty)).skip(TType.LIST, 1);
+      TProtocolUtil.skip(factory.getProtocol(new TMemoryInputTransport(empty)), TType.LIST, 1);
+
+      byte[] full = encode(factory, new byte[] {TType.MAP, TType.I32, TType.I64}, 10);
+      assertThrows(
+          TException.class,
+          () -> factory.getProtocol(new TMemoryInputTransport(full)).skip(TType.MAP, 1));
+      assertThrows(
+          TException.class,
+          () ->
+              TProtocolUtil.skip(
+                  factory.getProtocol(new TMemoryInputTransport(full)), TType.MAP, 1));
+      factory.getProtocol(new TMemoryInputTransport(full)).skip(TType.MAP, 2);
+    }
+  }
+
+  @Test
+  public void testSkipTruncated() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      byte[] bytes = encode(factory, new byte[] {TType.LIST, TType.I64}, 100);
+      byte[] truncated = Arrays.copyOf(bytes, bytes.length / 2);
+      for (TTransport trans : transports(truncated)) {
+        assertThrows(TException.class, () -> factory.getProtocol(trans).skip(TType.LIST));
+      }
+    }
+  }
+
+  private static String describe(TProtocolFactory factory, byte[] container, int size) {
+    return factory.getClass().getName() + " " + Arrays.toString(container) + " of " + size;
+  }
+
+  /** Write a container of random values, followed by the sentinel. */
+  private byte[] encode(TProtocolFactory factory, byte[] container, int size) throws Exception {
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    TProtocol proto = factory.getProtocol(buf);
+    switch (container[0]) {
+      case TType.MAP:
+        proto.writeMapBegin(new TMap(container[1], container[2], size));
+        for (int i = 0; i < size; i++) {
+          writeValue(proto, container[1], container[2]);
+          writeValue(proto, container[2], TType.STOP);
+        }
+        proto.writeMapEnd();
+        break;
+      case TType.SET:
+        proto.writeSetBegin(new TSet(container[1], size));
+        for (int i = 0; i < size; i++) {
+          writeValue(proto, container[1], TType.STOP);
+        }
+        proto.writeSetEnd();
+        break;
+      default:
+        proto.writeListBegin(new TList(container[1], size));
+        for (int i = 0; i < size; i++) {
+          writeValue(proto, container[1], container.length > 2 ? container[2] : TType.STOP);
+        }
+        proto.writeListEnd();
+    }
+    proto.writeString(SENTINEL);
+    return Arrays.copyOf(buf.getArray(), buf.length());
+  }
+
+  private void writeValue(TProtocol proto, byte type, byte elemType) throws TException {
+    switch (type) {
+      case TType.BOOL:
+        proto.writeBool(random.nextBoolean());
+        break;
+      case TType.BYTE:
+        proto.writeByte((byte) random.nextInt());
+        break;
+      case TType.I16:
+        proto.writeI16((short) (random.nextInt() >> random.nextInt(16)));
+        break;
+      case TType.I32:
+        proto.writeI32(random.nextInt() >> random.nextInt(32));
+        break;
+      case TType.I64:
+        proto.writeI64(random.nextLong() >> random.nextInt(64));
+        break;
+      case TType.DOUBLE:
+        proto.writeDouble(random.nextGaussian());
+        break;
+      case TType.STRING:
+        byte[] bytes = new byte[random.nextInt(20)];
+        random.nextBytes(bytes);
+        proto.writeBinary(ByteBuffer.wrap(bytes));
+        break;
+      case TType.LIST:
+        int size = random.nextInt(5);
+        proto.writeListBegin(new TList(elemType, size));
+        for (int i = 0; i < size; i++) {
+          writeValue(proto, elemType, TType.STOP);
+        }
+        proto.writeListEnd();
+        break;
+      default:
+        throw new IllegalArgumentException("type " + type);
+    }
+  }
+
+  /**
+   * Transports to read bytes from: one with all of them buffered, one with none, and one that
+   * buffers a few at a time.
+   */
+  private static TTransport[] transports(byte[] bytes) throws Exception {
+    return new TTransport[] {
+      new TMemoryInputTransport(bytes),
+      new TIOStreamTransport(new ByteArrayInputStream(bytes)),
+      new TrickleTransport(bytes)
+    };
+  }
+
+  /** Buffers a few bytes at a time, so that values are split across refills of its buffer. */
+  private static class TrickleTransport extends TTransport {
+    private static final int WINDOW = 7;
+
+    private final byte[] bytes;
+    private int pos;
+    private int limit;
+
+    TrickleTransport(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void open() {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public int read(byte[] buf, int off, int len) {
+      if (pos == limit) {
+        limit = Math.min(bytes.length, pos + WINDOW);
+      }
+      int n = Math.min(len, limit - pos);
+      System.arraycopy(bytes, pos, buf, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte[] getBuffer() {
+      return bytes;
+    }
+
+    @Override
+    public int getBufferPosition() {
+      return pos;
+    }
+
+    @Override
+    public int getBytesRemainingInBuffer() {
+      return limit - pos;
+    }
+
+    @Override
+    public void consumeBuffer(int len) {
+      pos += len;
+    }
+
+    @Override
+    public TConfiguration getConfiguration() {
+      return new TConfiguration();
+    }
+
+    @Override
+    public void updateKnownMessageSize(long size) {}
+
+    @Override
+    public void checkReadBytesAvailable(long numBytes) {}
+  }
+}
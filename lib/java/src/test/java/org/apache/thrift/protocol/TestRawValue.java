@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.junit.jupiter.api.Test;
+
+public class TestRawValue {
+
+  private static final TProtocolFactory[] FACTORIES = {
+    new TBinaryProtocol.Factory(), new TCompactProtocol.Factory(), new TJSONProtocol.Factory()
+  };
+
+  private static final String SENTINEL = "sentinel";
+
+  @Test
+  public void testPassThrough() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      byte[] value = encode(factory, false);
+      byte[] bytes = encode(factory, true);
+
+      TProtocol in = factory.getProtocol(new TMemoryInputTransport(bytes));
+      TRawValue raw = in.readRawValue(TType.STRUCT);
+      assertEquals(SENTINEL, in.readString());
+      assertEquals(TType.STRUCT, raw.getType());
+
+      TMemoryBuffer buf = new TMemoryBuffer(0);
+      factory.getProtocol(buf).writeRawValue(raw);
+      assertArrayEquals(value, Arrays.copyOf(buf.getArray(), buf.length()));
+    }
+  }
+
+  @Test
+  public void testSlicedFromBuffer() throws Exception {
+    for (TProtocolFactory factory :
+        new TProtocolFactory[] {new TBinaryProtocol.Factory(), new TCompactProtocol.Factory()}) {
+      byte[] value = encode(factory, false);
+      byte[] bytes = encode(factory, true);
+
+      TRawValue sliced =
+          factory.getProtocol(new TMemoryInputTransport(bytes)).readRawValue(TType.STRUCT);
+      assertEquals(ByteBuffer.wrap(value), sliced.getBytes());
+      assertEquals(factory.getClass(), sliced.getProtocolFactory().getClass());
+
+      TRawValue copied =
+          factory
+              .getProtocol(new TIOStreamTransport(new ByteArrayInputStream(bytes)))
+              .readRawValue(TType.STRUCT);
+      assertEquals(sliced, copied);
+      assertEquals(sliced.hashCode(), copied.hashCode());
+      assertEquals(0, sliced.compareTo(copied));
+    }
+  }
+
+  @Test
+  public void testTranscode() throws Exception {
+    for (TProtocolFactory from : FACTORIES) {
+      TRawValue raw =
+          from.getProtocol(new TMemoryInputTransport(encode(from, true)))
+              .readRawValue(TType.STRUCT);
+      for (TProtocolFactory to : FACTORIES) {
+        TMemoryBuffer buf = new TMemoryBuffer(0);
+        to.getProtocol(buf).writeRawValue(raw);
+        assertArrayEquals(
+            encode(to, false),
+            Arrays.copyOf(buf.getArray(), buf.length()),
+            from.getClass().getName() + " to " + to.getClass().getName());
+      }
+    }
+  }
+
+  @Test
+  public void testTruncated() throws Exception {
+    byte[] bytes = encode(new TCompactProtocol.Factory(), true);
+    TMemoryInputTransport trans = new TMemoryInputTransport(bytes, 0, 4);
+    assertThrows(TException.class, () -> new TCompactProtocol(trans).readRawValue(TType.STRUCT));
+  }
+
+  @Test
+  public void testTypes() throws Exception {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new TRawValue(TType.I32, ByteBuffer.allocate(4), new TBinaryProtocol.Factory()));
+    TRawValue list =
+        new TRawValue(TType.LIST, ByteBuffer.wrap(new byte[] {0}), new TCompactProtocol.Factory());
+    TRawValue set =
+        new TRawValue(TType.SET, ByteBuffer.wrap(new byte[] {0}), new TCompactProtocol.Factory());
+    assertNotEquals(list, set);
+    assertThrows(
+        TProtocolException.class,
+        () -> new TTupleProtocol(new TMemoryBuffer(0)).writeRawValue(list));
+  }
+
+  /**
+   * Write a struct with some of everything in it, then the sentinel if asked to.
+   *
+   * <p>The struct has no binaries in it, which the JSON protocol can't tell from strings without
+   * the schema.
+   */
+  private static byte[] encode(TProtocolFactory factory, boolean sentinel) throws TException {
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    TProtocol proto = factory.getProtocol(buf);
+    proto.writeStructBegin(new TStruct());
+    proto.writeFieldBegin(new TField("", TType.I32, (short) 1));
+    proto.writeI32(-7);
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("", TType.STRING, (short) 2));
+    proto.writeString("passed through");
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("", TType.BOOL, (short) 3));
+    proto.writeBool(true);
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("", TType.MAP, (short) 20));
+    proto.writeMapBegin(new TMap(TType.STRING, TType.LIST, 2));
+    for (String key : new String[] {"a", "b"}) {
+      proto.writeString(key);
+      proto.writeListBegin(new TList(TType.DOUBLE, 2));
+      proto.writeDouble(0.5);
+      proto.writeDouble(-3);
+      proto.writeListEnd();
+    }
+    proto.writeMapEnd();
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("", TType.STRUCT, (short) 21));
+    proto.writeStructBegin(new TStruct());
+    proto.writeFieldBegin(new TField("", TType.I64, (short) 1));
+    proto.writeI64(Long.MIN_VALUE);
+    proto.writeFieldEnd();
+    proto.writeFieldStop();
+    proto.writeStructEnd();
+    proto.writeFieldEnd();
+    proto.writeFieldStop();
+    proto.writeStructEnd();
+    if (sentinel) {
+      proto.writeString(SENTINEL);
+    }
+    return Arrays.copyOf(buf.getArray(), buf.length());
+  }
+}
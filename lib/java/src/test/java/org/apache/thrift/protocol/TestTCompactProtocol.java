@@ -19,8 +19,20 @@
 
 package org.apache.thrift.protocol;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.thrift.TConfiguration;
 import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
 import org.junit.jupiter.api.Test;
 import thrift.test.Bonk;
 
@@ -49,6 +61,164 @@ public class TestTCompactProtocol extends ProtocolTestBase {
     }
   }
 
+  @Test
+  public void testVarints() throws Exception {
+    Random random = new Random(17);
+    long[] longs = new long[2000];
+    for (int i = 0; i < longs.length; i++) {
+      switch (i % 4) {
+        case 0:
+          longs[i] = random.nextLong();
+          break;
+        case 1:
+          longs[i] = random.nextLong() >> random.nextInt(64);
+          break;
+        case 2:
+          // around each varint length
+          long bit = 1L << (i / 4 % 64);
+          longs[i] = (i / 256 % 2 == 0 ? bit : -bit) - 1 + random.nextInt(3);
+          break;
+        default:
+          longs[i] = random.nextInt(200) - 100;
+      }
+    }
+    int[] ints = new int[longs.length];
+    for (int i = 0; i < ints.length; i++) {
+      ints[i] = (int) longs[i];
+    }
+
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TProtocol out = new TCompactProtocol(buffer);
+    for (int i = 0; i < longs.length; i++) {
+      out.writeI32(ints[i]);
+      out.writeI64(longs[i]);
+    }
+    out.writeI32Array(ints, 0, ints.length);
+    out.writeI64Array(longs, 0, longs.length);
+    byte[] bytes = Arrays.copyOf(buffer.getArray(), buffer.length());
+
+    for (int chunk = 0; chunk <= 12; chunk++) {
+      TProtocol in = new TCompactProtocol(varintTransport(bytes, chunk));
+      for (int i = 0; i < longs.length; i++) {
+        assertEquals(ints[i], in.readI32());
+        assertEquals(longs[i], in.readI64());
+      }
+      int[] readInts = new int[ints.length];
+      in.readI32Array(readInts, 0, readInts.length);
+      assertArrayEquals(ints, readInts);
+      long[] readLongs = new long[longs.length];
+      in.readI64Array(readLongs, 0, readLongs.length);
+      assertArrayEquals(longs, readLongs);
+    }
+  }
+
+  @Test
+  public void testOverlongVarints() throws Exception {
+    // i32s of 6 and 7 bytes and an i64 of 11, each followed by a 1
+    byte[] bytes = {
+      -127, -128, -128, -128, -128, 1, 2, -127, -128, -128, -128, -128, -128, 3, 2, -127, -128,
+      -128, -128, -128, -128, -128, -128, -128, -128, 1, 2, 2, 2, 2, 2, 2, 2, 2
+    };
+    int[] expected = null;
+    for (int chunk = 0; chunk <= 12; chunk++) {
+      TProtocol in = new TCompactProtocol(varintTransport(bytes, chunk));
+      int[] read = {
+        in.readI32(), in.readI32(), in.readI32(), in.readI32(), (int) in.readI64(), in.readI32()
+      };
+      assertEquals(1, read[1]);
+      assertEquals(1, read[3]);
+      assertEquals(1, read[5]);
+      // whatever they decode to, it is the same wherever the buffer ends
+      if (expected == null) {
+        expected = read;
+      }
+      assertArrayEquals(expected, read);
+
+      in = new TCompactProtocol(varintTransport(bytes, chunk));
+      int[] array = new int[4];
+      in.readI32Array(array, 0, 4);
+      assertArrayEquals(Arrays.copyOf(expected, 4), array);
+    }
+  }
+
+  /**
+   * A transport over bytes: without a buffer if chunk is 0, otherwise with one that only shows
+   * chunk bytes at a time.
+   */
+  private static TTransport varintTransport(byte[] bytes, int chunk) throws Exception {
+    if (chunk == 0) {
+      return new TIOStreamTransport(new ByteArrayInputStream(bytes));
+    }
+    return new ChunkedTransport(new TMemoryInputTransport(bytes), chunk);
+  }
+
+  /** Shows the buffer of a TMemoryInputTransport only a few bytes at a time. */
+  private static final class ChunkedTransport extends TTransport {
+    private final TMemoryInputTransport in;
+    private final int chunk;
+
+    ChunkedTransport(TMemoryInputTransport in, int chunk) {
+      this.in = in;
+      this.chunk = chunk;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void open() {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws TTransportException {
+      return in.read(buf, off, len);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte[] getBuffer() {
+      return in.getBuffer();
+    }
+
+    @Override
+    public int getBufferPosition() {
+      return in.getBufferPosition();
+    }
+
+    @Override
+    public int getBytesRemainingInBuffer() {
+      return Math.min(in.getBytesRemainingInBuffer(), chunk - in.getBufferPosition() % chunk);
+    }
+
+    @Override
+    public void consumeBuffer(int len) {
+      in.consumeBuffer(len);
+    }
+
+    @Override
+    public TConfiguration getConfiguration() {
+      return in.getConfiguration();
+    }
+
+    @Override
+    public void updateKnownMessageSize(long size) throws TTransportException {
+      in.updateKnownMessageSize(size);
+    }
+
+    @Override
+    public void checkReadBytesAvailable(long numBytes) throws TTransportException {
+      in.checkReadBytesAvailable(numBytes);
+    }
+  }
+
   public static void main(String args[]) throws Exception {
     new TestTCompactProtocol().benchmark();
   }
@@ -20,9 +20,18 @@ package org.apache.thrift.protocol;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
 import org.apache.thrift.TException;
+import org.apache.thrift.transport.TIOStreamTransport;
 import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
 import org.junit.jupiter.api.Test;
 
 public class TestTJSONProtocol extends ProtocolTestBase {
@@ -62,4 +71,212 @@ public class TestTJSONProtocol extends ProtocolTestBase {
 
     assertEquals(inputString, outputString);
   }
+
+  @Test
+  public void testEscapedUnicodeAboveU8000() throws TException {
+    TJSONProtocol protocol =
+        new TJSONProtocol(
+            new TMemoryInputTransport("\"\\u8000\\uffff\"".getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals("\u8000\uffff", protocol.readString());
+  }
+
+  private static final long[] LONGS = {
+    0,
+    1,
+    -1,
+    9,
+    10,
+    99,
+    100,
+    123456789,
+    Integer.MAX_VALUE,
+    Integer.MIN_VALUE,
+    Integer.MAX_VALUE + 1L,
+    999999999999999999L,
+    1000000000000000000L,
+    -999999999999999999L,
+    Long.MAX_VALUE,
+    Long.MIN_VALUE,
+    Long.MIN_VALUE + 1
+  };
+
+  private static final double[] DOUBLES = {
+    0.0,
+    -0.0,
+    1.0,
+    -1.0,
+    3.0,
+    9999999.0,
+    1e7,
+    -1e7,
+    0.1,
+    0.5,
+    3.14159,
+    1e22,
+    1e23,
+    1e-22,
+    123456789012345.6,
+    1234567890123456.7,
+    Double.MIN_VALUE,
+    Double.MAX_VALUE,
+    Double.MIN_NORMAL,
+    Double.NaN,
+    Double.POSITIVE_INFINITY,
+    Double.NEGATIVE_INFINITY
+  };
+
+  @Test
+  public void testNumberFormat() throws TException {
+    TMemoryBuffer buffer = new TMemoryBuffer(0);
+    TJSONProtocol protocol = new TJSONProtocol(buffer);
+    protocol.writeListBegin(new TList(TType.I64, LONGS.length));
+    StringBuilder expected = new StringBuilder("[\"i64\"," + LONGS.length);
+    for (long l : LONGS) {
+      protocol.writeI64(l);
+      expected.append(',').append(l);
+    }
+    protocol.writeListEnd();
+    protocol.writeListBegin(new TList(TType.DOUBLE, DOUBLES.length));
+    expected.append("][\"dbl\",").append(DOUBLES.length);
+    for (double d : DOUBLES) {
+      protocol.writeDouble(d);
+      boolean special = Double.isNaN(d) || Double.isInfinite(d);
+      expected.append(special ? ",\"" : ",").append(d).append(special ? "\"" : "");
+    }
+    protocol.writeListEnd();
+    expected.append(']');
+
+    assertEquals(expected.toString(), buffer.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testNumbers() throws TException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    TJSONProtocol protocol = new TJSONProtocol(new TIOStreamTransport(out));
+    protocol.writeMapBegin(new TMap(TType.I64, TType.DOUBLE, LONGS.length));
+    for (int i = 0; i < LONGS.length; i++) {
+      protocol.writeI64(LONGS[i]);
+      protocol.writeDouble(DOUBLES[i]);
+    }
+    protocol.writeMapEnd();
+    protocol.writeListBegin(new TList(TType.DOUBLE, DOUBLES.length));
+    for (double d : DOUBLES) {
+      protocol.writeDouble(d);
+    }
+    protocol.writeListEnd();
+    byte[] json = out.toByteArray();
+
+    // once with the transport's buffer to parse from, and once a byte at a time
+    for (TTransport trans :
+        new TTransport[] {
+          new TMemoryInputTransport(json), new TIOStreamTransport(new ByteArrayInputStream(json))
+        }) {
+      protocol = new TJSONProtocol(trans);
+      TMap map = protocol.readMapBegin();
+      assertEquals(LONGS.length, map.size);
+      for (int i = 0; i < LONGS.length; i++) {
+        assertEquals(LONGS[i], protocol.readI64());
+        assertEquals(DOUBLES[i], protocol.readDouble());
+      }
+      protocol.readMapEnd();
+      TList list = protocol.readListBegin();
+      assertEquals(DOUBLES.length, list.size);
+      for (double d : DOUBLES) {
+        assertEquals(Double.doubleToLongBits(d), Double.doubleToLongBits(protocol.readDouble()));
+      }
+      protocol.readListEnd();
+    }
+  }
+
+  @Test
+  public void testParsedNumbers() throws TException {
+    String json = "[\"dbl\",8,0.125,-2.5e3,1E+2,00012,1e-400,1.5e400,12345678901234567890,-0]";
+    double[] expected = {0.125, -2500, 100, 12, 0, Double.POSITIVE_INFINITY, 1.2345678901234567e19};
+    TJSONProtocol protocol =
+        new TJSONProtocol(new TMemoryInputTransport(json.getBytes(StandardCharsets.UTF_8)));
+    protocol.readListBegin();
+    for (double d : expected) {
+      assertEquals(d, protocol.readDouble());
+    }
+    assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(protocol.readDouble()));
+    protocol.readListEnd();
+  }
+
+  @Test
+  public void testDeepNesting() throws TException {
+    int depth = 100;
+    TMemoryBuffer buffer = new TMemoryBuffer(1 << 16);
+    TJSONProtocol protocol = new TJSONProtocol(buffer);
+    for (int i = 0; i < depth; i++) {
+      protocol.writeListBegin(new TList(TType.LIST, 2));
+      protocol.writeStructBegin(new TStruct());
+      protocol.writeFieldBegin(new TField("f", TType.I32, (short) 1));
+      protocol.writeI32(i);
+      protocol.writeFieldEnd();
+      protocol.writeFieldStop();
+      protocol.writeStructEnd();
+    }
+    for (int i = 0; i < depth; i++) {
+      protocol.writeListEnd();
+    }
+
+    for (int i = 0; i < depth; i++) {
+      assertEquals(2, protocol.readListBegin().size);
+      protocol.readStructBegin();
+      assertEquals(1, protocol.readFieldBegin().id);
+      assertEquals(i, protocol.readI32());
+      protocol.readFieldEnd();
+      assertEquals(TType.STOP, protocol.readFieldBegin().type);
+      protocol.readStructEnd();
+    }
+    for (int i = 0; i < depth; i++) {
+      protocol.readListEnd();
+    }
+  }
+
+  @Test
+  public void testBinary() throws TException {
+    Random random = new Random(1);
+    for (int len : new int[] {0, 1, 2, 3, 4, 5, 100, 12287, 12288, 12289, 100000}) {
+      byte[] data = new byte[len + 7];
+      random.nextBytes(data);
+      ByteBuffer slice = ByteBuffer.wrap(data, 3, len).slice();
+      ByteBuffer direct = ByteBuffer.allocateDirect(len);
+      direct.put(slice.duplicate()).flip();
+
+      for (ByteBuffer bin : new ByteBuffer[] {slice, direct}) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new TJSONProtocol(new TIOStreamTransport(out)).writeBinary(bin);
+        byte[] json = out.toByteArray();
+        assertEquals(
+            "\""
+                + Base64.getEncoder()
+                    .withoutPadding()
+                    .encodeToString(Arrays.copyOfRange(data, 3, len + 3))
+                + "\"",
+            new String(json, StandardCharsets.US_ASCII));
+        assertEquals(len, bin.remaining());
+
+        for (TTransport trans :
+            new TTransport[] {
+              new TMemoryInputTransport(json),
+              new TIOStreamTransport(new ByteArrayInputStream(json))
+            }) {
+          assertEquals(slice, new TJSONProtocol(trans).readBinary());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testLenientBase64() throws TException {
+    String[] json = {"\"AQI=\"", "\"AQI\"", "\"AQ\\/A\"", "\"AQIDB\"", "\"A\"", "\"\""};
+    byte[][] expected = {{1, 2}, {1, 2}, {1, 15, -64}, {1, 2, 3}, {}, {}};
+    for (int i = 0; i < json.length; i++) {
+      TJSONProtocol protocol =
+          new TJSONProtocol(new TMemoryInputTransport(json[i].getBytes(StandardCharsets.UTF_8)));
+      assertEquals(ByteBuffer.wrap(expected[i]), protocol.readBinary());
+    }
+  }
 }
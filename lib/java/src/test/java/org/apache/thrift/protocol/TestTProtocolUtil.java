@@ -18,15 +18,29 @@
  */
 package org.apache.thrift.protocol;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
 import org.apache.thrift.TSerializer;
+import org.apache.thrift.partial.PartialThriftTestData;
+import org.apache.thrift.partial.TestStruct;
+import org.apache.thrift.partial.ThriftMetadata;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
 import org.junit.jupiter.api.Test;
 import thrift.test.GuessProtocolStruct;
 
 public class TestTProtocolUtil {
 
+  private static final TProtocolFactory[] FACTORIES = {
+    new TBinaryProtocol.Factory(), new TCompactProtocol.Factory(), new TJSONProtocol.Factory()
+  };
+
   @Test
   public void testGuessProtocolFactory_JSON() throws Exception {
 
@@ -90,4 +104,57 @@ public class TestTProtocolUtil {
         TProtocolUtil.guessProtocolFactory(buf, new TSimpleJSONProtocol.Factory());
     assertTrue(factory instanceof TSimpleJSONProtocol.Factory);
   }
+
+  @Test
+  public void testTranscode() throws Exception {
+    TestStruct struct = new PartialThriftTestData().createTestStruct(1, 3);
+    ThriftMetadata.ThriftStruct metadata = ThriftMetadata.ThriftStruct.of(TestStruct.class);
+    for (TProtocolFactory from : FACTORIES) {
+      byte[] bytes = new TSerializer(from).serialize(struct);
+      for (TProtocolFactory to : FACTORIES) {
+        TestStruct transcoded = new TestStruct();
+        new TDeserializer(to).deserialize(transcoded, transcode(bytes, from, to, metadata));
+        assertEquals(struct, transcoded);
+
+        // without the schema, binaries survive unless they go through JSON
+        if ((from instanceof TJSONProtocol.Factory) == (to instanceof TJSONProtocol.Factory)) {
+          transcoded = new TestStruct();
+          new TDeserializer(to).deserialize(transcoded, transcode(bytes, from, to, null));
+          assertEquals(struct, transcoded);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testTranscodeFieldNames() throws Exception {
+    TestStruct struct = new PartialThriftTestData().createTestStruct(2, 2);
+    byte[] bytes = new TSerializer(new TCompactProtocol.Factory()).serialize(struct);
+    byte[] json =
+        transcode(
+            bytes,
+            new TCompactProtocol.Factory(),
+            new TSimpleJSONProtocol.Factory(),
+            ThriftMetadata.ThriftStruct.of(TestStruct.class));
+    assertEquals(
+        new TSerializer(new TSimpleJSONProtocol.Factory()).toString(struct),
+        new String(json, StandardCharsets.UTF_8));
+  }
+
+  private static byte[] transcode(
+      byte[] bytes,
+      TProtocolFactory from,
+      TProtocolFactory to,
+      ThriftMetadata.ThriftStruct metadata)
+      throws TException {
+    TProtocol in = from.getProtocol(new TMemoryInputTransport(bytes));
+    TMemoryBuffer buf = new TMemoryBuffer(0);
+    TProtocol out = to.getProtocol(buf);
+    if (metadata == null) {
+      TProtocolUtil.transcode(in, out, TType.STRUCT);
+    } else {
+      TProtocolUtil.transcode(in, out, metadata);
+    }
+    return Arrays.copyOf(buf.getArray(), buf.length());
+  }
 }
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.server.TThreadedSelectorServer.Args;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportFactory;
+import org.junit.jupiter.api.Test;
+
+public class TestPipelinedServer extends TestNonblockingServer {
+
+  @Override
+  protected TServer getServer(
+      TProcessor processor,
+      TNonblockingServerSocket socket,
+      TProtocolFactory protoFactory,
+      TTransportFactory factory) {
+    final Args args =
+        new Args(socket).processor(processor).protocolFactory(protoFactory).maxInFlightRequests(8);
+    if (factory != null) {
+      args.transportFactory(factory);
+    }
+    return new TThreadedSelectorServer(args);
+  }
+
+  /** A slow request must not hold up the response to a fast one sent after it. */
+  @Test
+  public void testOutOfOrderResponses() throws Exception {
+    // sleeps for seqid * 100ms and then answers with an empty struct
+    TProcessor processor =
+        (in, out) -> {
+          TMessage msg = in.readMessageBegin();
+          TProtocolUtil.skip(in, TType.STRUCT);
+          in.readMessageEnd();
+          try {
+            Thread.sleep(msg.seqid * 100L);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          out.writeMessageBegin(new TMessage(msg.name, TMessageType.REPLY, msg.seqid));
+          out.writeStructBegin(new TStruct());
+          out.writeFieldStop();
+          out.writeStructEnd();
+          out.writeMessageEnd();
+          out.getTransport().flush();
+        };
+    startServer(processor, new TBinaryProtocol.Factory());
+    try {
+      TSocket socket = new TSocket(HOST, PORT);
+      socket.setTimeout(SOCKET_TIMEOUT);
+      TTransport transport = getClientTransport(socket);
+      TProtocol protocol = new TBinaryProtocol(transport);
+      open(transport);
+
+      for (int seqid : new int[] {5, 1}) {
+        protocol.writeMessageBegin(new TMessage("sleep", TMessageType.CALL, seqid));
+        protocol.writeStructBegin(new TStruct());
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+        protocol.writeMessageEnd();
+        transport.flush();
+      }
+
+      for (int expected : new int[] {1, 5}) {
+        TMessage reply = protocol.readMessageBegin();
+        assertEquals(expected, reply.seqid);
+        TProtocolUtil.skip(protocol, TType.STRUCT);
+        protocol.readMessageEnd();
+      }
+      transport.close();
+    } finally {
+      stopServer();
+    }
+  }
+}
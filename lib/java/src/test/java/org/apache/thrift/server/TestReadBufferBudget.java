@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class TestReadBufferBudget {
+
+  private static final InetAddress ADDRESS = InetAddress.getLoopbackAddress();
+
+  @Test
+  public void testReserveAndRelease() {
+    ReadBufferBudget budget = new ReadBufferBudget(100, Long.MAX_VALUE, Long.MAX_VALUE);
+    ReadBufferBudget.Account account = budget.newAccount(ADDRESS);
+    assertTrue(budget.admits(100));
+    assertFalse(budget.admits(101));
+
+    assertTrue(budget.tryReserve(account, 60));
+    assertFalse(budget.tryReserve(account, 60));
+    budget.charge(account, 4);
+    assertEquals(64, budget.getAllocatedBytes());
+
+    budget.release(account, 64);
+    assertEquals(0, budget.getAllocatedBytes());
+    assertTrue(budget.tryReserve(account, 100));
+  }
+
+  @Test
+  public void testParkedConnectionsResumeInOrder() {
+    ReadBufferBudget budget = new ReadBufferBudget(100, Long.MAX_VALUE, Long.MAX_VALUE);
+    ReadBufferBudget.Account holder = budget.newAccount(null);
+    assertTrue(budget.tryReserve(holder, 100));
+
+    List<String> resumed = new ArrayList<>();
+    ReadBufferBudget.Reservation first =
+        new ReadBufferBudget.Reservation(budget.newAccount(null), 80, () -> resumed.add("first"));
+    ReadBufferBudget.Reservation second =
+        new ReadBufferBudget.Reservation(budget.newAccount(null), 10, () -> resumed.add("second"));
+    budget.park(first);
+    budget.park(second);
+    assertEquals(2, budget.getParkedCount());
+
+    // a newcomer may not jump the queue, even though its frame would fit
+    assertFalse(budget.tryReserve(budget.newAccount(null), 1));
+
+    // the second one fits, but has to wait for the first
+    budget.release(holder, 50);
+    assertTrue(resumed.isEmpty());
+    assertFalse(budget.claim(first));
+
+    budget.release(holder, 50);
+    assertEquals(2, resumed.size());
+    assertEquals("first", resumed.get(0));
+    assertEquals("second", resumed.get(1));
+    assertTrue(budget.claim(first));
+    assertTrue(budget.claim(second));
+    assertFalse(budget.claim(second));
+    assertEquals(90, budget.getAllocatedBytes());
+    assertEquals(0, budget.getParkedCount());
+  }
+
+  @Test
+  public void testQuotaDoesNotHoldUpOthers() {
+    ReadBufferBudget budget = new ReadBufferBudget(1000, 100, Long.MAX_VALUE);
+    ReadBufferBudget.Account busy = budget.newAccount(null);
+    assertTrue(budget.tryReserve(busy, 80));
+    assertFalse(budget.tryReserve(busy, 80));
+
+    List<String> resumed = new ArrayList<>();
+    budget.park(new ReadBufferBudget.Reservation(busy, 80, () -> resumed.add("busy")));
+    assertTrue(resumed.isEmpty());
+    budget.park(
+        new ReadBufferBudget.Reservation(budget.newAccount(null), 80, () -> resumed.add("other")));
+    assertEquals(1, resumed.size());
+    assertEquals("other", resumed.get(0));
+
+    budget.release(busy, 80);
+    assertEquals(2, resumed.size());
+    assertEquals("busy", resumed.get(1));
+  }
+
+  @Test
+  public void testAddressQuota() {
+    ReadBufferBudget budget = new ReadBufferBudget(1000, Long.MAX_VALUE, 100);
+    ReadBufferBudget.Account one = budget.newAccount(ADDRESS);
+    ReadBufferBudget.Account two = budget.newAccount(ADDRESS);
+    ReadBufferBudget.Account elsewhere = budget.newAccount(null);
+
+    assertTrue(budget.tryReserve(one, 60));
+    assertFalse(budget.tryReserve(two, 60));
+    assertTrue(budget.tryReserve(elsewhere, 60));
+
+    budget.release(one, 60);
+    assertTrue(budget.tryReserve(two, 60));
+  }
+
+  @Test
+  public void testCancel() {
+    ReadBufferBudget budget = new ReadBufferBudget(100, Long.MAX_VALUE, Long.MAX_VALUE);
+    ReadBufferBudget.Account holder = budget.newAccount(null);
+    assertTrue(budget.tryReserve(holder, 100));
+
+    List<String> resumed = new ArrayList<>();
+    ReadBufferBudget.Reservation first =
+        new ReadBufferBudget.Reservation(budget.newAccount(null), 100, () -> resumed.add("first"));
+    ReadBufferBudget.Reservation second =
+        new ReadBufferBudget.Reservation(budget.newAccount(null), 10, () -> resumed.add("second"));
+    budget.park(first);
+    budget.park(second);
+
+    // granted but never claimed, so its memory goes back
+    budget.release(holder, 100);
+    assertEquals(1, resumed.size());
+    budget.cancel(first);
+    assertFalse(budget.claim(first));
+    assertEquals(2, resumed.size());
+    assertTrue(budget.claim(second));
+    assertEquals(10, budget.getAllocatedBytes());
+  }
+}
@@ -20,9 +20,11 @@
 package org.apache.thrift.server;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.concurrent.ThreadPoolExecutor;
+import org.apache.thrift.TApplicationException;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.transport.TServerSocket;
 import org.apache.thrift.transport.TServerTransport;
@@ -59,6 +61,60 @@ public class TestThreadPoolServer {
     }
   }
 
+  /** Connections beyond the worker threads and the queue are told that the server is busy. */
+  @Test
+  public void testOverloadedServerRepliesWithError() throws Exception {
+    TServerSocket serverSocket = new TServerSocket(0, 3000);
+    TThreadPoolServer.Args args =
+        new TThreadPoolServer.Args(serverSocket)
+            .protocolFactory(new TBinaryProtocol.Factory())
+            .processor(new ThriftTestSrv.Processor<>(new ServerTestBase.TestHandler()))
+            .maxWorkerThreads(1)
+            .maxQueuedConnections(1);
+    TThreadPoolServer server = new TThreadPoolServer(args);
+    Thread serverThread = new Thread(server::serve);
+    serverThread.start();
+    int port = serverSocket.getServerSocket().getLocalPort();
+    try (TSocket busy = new TSocket("localhost", port);
+        TSocket queued = new TSocket("localhost", port);
+        TSocket rejected = new TSocket("localhost", port)) {
+      busy.open();
+      new ThriftTestSrv.Client(new TBinaryProtocol(busy)).testVoid();
+      queued.open();
+      // the connection is queued once the server has accepted it
+      long deadline = System.currentTimeMillis() + 5000;
+      while (server.getQueuedConnections() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, server.getQueuedConnections());
+
+      rejected.open();
+      TApplicationException e =
+          assertThrows(
+              TApplicationException.class,
+              () -> new ThriftTestSrv.Client(new TBinaryProtocol(rejected)).testVoid());
+      assertEquals(TApplicationException.INTERNAL_ERROR, e.getType());
+      assertEquals(TThreadPoolServer.OVERLOADED_MESSAGE, e.getMessage());
+      assertEquals(1, server.getRejectedConnections());
+
+      // the queued connection gets its turn once the busy one goes away
+      busy.close();
+      new ThriftTestSrv.Client(new TBinaryProtocol(queued)).testVoid();
+    } finally {
+      server.stop();
+      serverThread.join();
+    }
+  }
+
+  @Test
+  public void testQueueNeedsBoundedWorkers() throws Exception {
+    TThreadPoolServer.Args args =
+        new TThreadPoolServer.Args(new TServerSocket(0))
+            .processor(new ThriftTestSrv.Processor<>(new ServerTestBase.TestHandler()))
+            .maxQueuedConnections(10);
+    assertThrows(IllegalArgumentException.class, () -> new TThreadPoolServer(args));
+  }
+
   private TThreadPoolServer buildServer(TServerTransport serverSocket) {
     TThreadPoolServer.Args args =
         new TThreadPoolServer.Args(serverSocket)
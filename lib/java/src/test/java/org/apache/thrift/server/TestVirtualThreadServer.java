@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.server.TVirtualThreadServer.Args;
+import org.apache.thrift.transport.TServerSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportFactory;
+import org.apache.thrift.transport.layered.TFramedTransport;
+import org.junit.jupiter.api.BeforeAll;
+
+public class TestVirtualThreadServer extends ServerTestBase {
+
+  private Thread serverThread;
+  private TServer server;
+
+  @BeforeAll
+  public static void requireVirtualThreads() {
+    assumeTrue(TVirtualThreadServer.isSupported(), "virtual threads need Java 21 or later");
+  }
+
+  protected TServer getServer(
+      TProcessor processor,
+      TServerSocket socket,
+      TProtocolFactory protoFactory,
+      TTransportFactory factory) {
+    final Args args =
+        new Args(socket)
+            .processor(processor)
+            .protocolFactory(protoFactory)
+            .transportFactory(factory != null ? factory : new TFramedTransport.Factory());
+    return new TVirtualThreadServer(args);
+  }
+
+  @Override
+  public void startServer(
+      final TProcessor processor,
+      final TProtocolFactory protoFactory,
+      final TTransportFactory factory)
+      throws Exception {
+    serverThread =
+        new Thread(
+            () -> {
+              try {
+                TServerSocket serverSocket =
+                    new TServerSocket(new TServerSocket.ServerSocketTransportArgs().port(PORT));
+                server = getServer(processor, serverSocket, protoFactory, factory);
+                server.serve();
+              } catch (Exception e) {
+                e.printStackTrace();
+                fail();
+              }
+            });
+    serverThread.start();
+    Thread.sleep(SLEEP_DELAY);
+  }
+
+  @Override
+  public void stopServer() throws Exception {
+    server.stop();
+    serverThread.join();
+  }
+
+  @Override
+  public TTransport getClientTransport(TTransport underlyingTransport) throws Exception {
+    return new TFramedTransport(underlyingTransport);
+  }
+}
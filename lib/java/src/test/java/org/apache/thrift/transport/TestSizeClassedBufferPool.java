@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+public class TestSizeClassedBufferPool {
+
+  @Test
+  public void testSizeClasses() {
+    SizeClassedBufferPool pool = new SizeClassedBufferPool(false, 1024, 1 << 20, 0);
+    ByteBuffer small = pool.acquire(4);
+    assertEquals(64, small.capacity());
+    assertEquals(4, small.limit());
+    assertEquals(0, small.position());
+
+    ByteBuffer medium = pool.acquire(513);
+    assertEquals(1024, medium.capacity());
+    assertEquals(513, medium.limit());
+
+    // too big to be pooled, so it is allocated to size
+    ByteBuffer large = pool.acquire(1025);
+    assertEquals(1025, large.capacity());
+    assertEquals(3, pool.getMisses());
+    assertEquals(0, pool.getHits());
+  }
+
+  @Test
+  public void testReuse() {
+    SizeClassedBufferPool pool = new SizeClassedBufferPool(false, 1024, 1 << 20, 0);
+    ByteBuffer buffer = pool.acquire(100);
+    buffer.put((byte) 1);
+    pool.release(buffer);
+    assertEquals(128, pool.getPooledBytes());
+
+    ByteBuffer again = pool.acquire(120);
+    assertSame(buffer, again);
+    assertEquals(0, again.position());
+    assertEquals(120, again.limit());
+    assertEquals(0, pool.getPooledBytes());
+    assertEquals(1, pool.getHits());
+    assertEquals(1, pool.getMisses());
+
+    // a different size class is not reused
+    pool.release(again);
+    assertNotSame(again, pool.acquire(200));
+  }
+
+  @Test
+  public void testForeignBuffersAreNotPooled() {
+    SizeClassedBufferPool pool = new SizeClassedBufferPool(false, 1024, 1 << 20, 0);
+    pool.release(ByteBuffer.allocate(100));
+    pool.release(ByteBuffer.allocate(2048));
+    pool.release(ByteBuffer.allocateDirect(128));
+    assertEquals(0, pool.getPooledBytes());
+  }
+
+  @Test
+  public void testMaxPooledBytes() {
+    SizeClassedBufferPool pool = new SizeClassedBufferPool(false, 1024, 1024, 0);
+    pool.release(pool.acquire(1000));
+    pool.release(pool.acquire(1000));
+    pool.release(ByteBuffer.allocate(1024));
+    assertEquals(1024, pool.getPooledBytes());
+  }
+
+  @Test
+  public void testThreadCache() throws Exception {
+    SizeClassedBufferPool pool = new SizeClassedBufferPool(false, 1024, 1 << 20, 1);
+    pool.registerThread();
+    try {
+      ByteBuffer first = pool.acquire(64);
+      ByteBuffer second = pool.acquire(64);
+      pool.release(first);
+      pool.release(second);
+      // the first stays in this thread's cache, the second goes to the shared pool
+      assertEquals(128, pool.getPooledBytes());
+
+      ByteBuffer[] acquired = new ByteBuffer[1];
+      Thread other = new Thread(() -> acquired[0] = pool.acquire(64));
+      other.start();
+      other.join();
+      assertSame(second, acquired[0]);
+      assertEquals(64, pool.getPooledBytes());
+      assertSame(first, pool.acquire(64));
+      assertEquals(2, pool.getHits());
+    } finally {
+      pool.deregisterThread();
+    }
+  }
+
+  @Test
+  public void testUnregisteredThreadsShareThePool() throws Exception {
+    SizeClassedBufferPool pool = new SizeClassedBufferPool(false, 1024, 1 << 20, 1);
+    ByteBuffer buffer = pool.acquire(64);
+    pool.release(buffer);
+
+    ByteBuffer[] acquired = new ByteBuffer[1];
+    Thread other = new Thread(() -> acquired[0] = pool.acquire(64));
+    other.start();
+    other.join();
+    assertSame(buffer, acquired[0]);
+  }
+
+  @Test
+  public void testDeregisterThread() throws Exception {
+    SizeClassedBufferPool pool = new SizeClassedBufferPool(false, 1024, 1 << 20, 4);
+    ByteBuffer[] released = new ByteBuffer[1];
+    Thread other =
+        new Thread(
+            () -> {
+              pool.registerThread();
+              released[0] = pool.acquire(64);
+              pool.release(released[0]);
+              pool.deregisterThread();
+            });
+    other.start();
+    other.join();
+    // the exited thread's buffer went back to the shared pool
+    assertEquals(64, pool.getPooledBytes());
+    assertSame(released[0], pool.acquire(64));
+    assertEquals(0, pool.getPooledBytes());
+  }
+
+  @Test
+  public void testDirect() {
+    SizeClassedBufferPool pool = new SizeClassedBufferPool(true, 1024, 1 << 20, 0);
+    ByteBuffer buffer = pool.acquire(10);
+    assertTrue(buffer.isDirect());
+    pool.release(buffer);
+    assertSame(buffer, pool.acquire(10));
+  }
+}
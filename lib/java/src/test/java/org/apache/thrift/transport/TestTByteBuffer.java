@@ -7,6 +7,10 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import org.apache.thrift.TConfiguration;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
 import org.junit.jupiter.api.Test;
 
 public class TestTByteBuffer {
@@ -42,6 +46,36 @@ public class TestTByteBuffer {
     assertEquals("Not enough room in output buffer", e.getMessage());
   }
 
+  @Test
+  public void testProtocols() throws Exception {
+    ByteBuffer heap = ByteBuffer.allocate(64);
+    heap.position(8);
+    for (TProtocolFactory factory :
+        new TProtocolFactory[] {new TBinaryProtocol.Factory(), new TCompactProtocol.Factory()}) {
+      // a slice has a non-zero array offset, and a direct buffer no array at all
+      for (ByteBuffer buffer : new ByteBuffer[] {heap.slice(), ByteBuffer.allocateDirect(56)}) {
+        TByteBuffer trans = new TByteBuffer(ByteBuffer.allocate(0));
+        TProtocol proto = factory.getProtocol(trans);
+        buffer.position(4);
+        trans.reset(buffer);
+        proto.writeString("Hello World");
+        proto.writeI64(-1L);
+        int end = buffer.position();
+        assertThrows(TTransportException.class, () -> proto.writeString(new String(new char[60])));
+
+        for (ByteBuffer read : new ByteBuffer[] {buffer, buffer.asReadOnlyBuffer()}) {
+          read.position(4);
+          read.limit(end);
+          trans.reset(read);
+          assertEquals("Hello World", proto.readString());
+          assertEquals(-1L, proto.readI64());
+          assertEquals(end, read.position());
+          assertThrows(TTransportException.class, proto::readByte);
+        }
+      }
+    }
+  }
+
   @Test
   public void testSmallTConfiguration() throws Exception {
     // Test that TByteBuffer init fail with small max message size.
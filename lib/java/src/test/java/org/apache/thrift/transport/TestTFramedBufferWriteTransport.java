@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.thrift.transport.layered.TFramedTransport;
+import org.junit.jupiter.api.Test;
+
+public class TestTFramedBufferWriteTransport {
+
+  private static byte[] bytes(int len) {
+    byte[] bytes = new byte[len];
+    for (int i = 0; i < len; i++) {
+      bytes[i] = (byte) i;
+    }
+    return bytes;
+  }
+
+  private static byte[] remaining(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  /** The frames must be exactly what TFramedTransport would have written. */
+  private static byte[] framed(byte[]... frames) throws TTransportException {
+    TMemoryBuffer out = new TMemoryBuffer(64);
+    TFramedTransport framed = new TFramedTransport(out);
+    for (byte[] frame : frames) {
+      framed.write(frame);
+      framed.flush();
+    }
+    return Arrays.copyOf(out.getArray(), out.length());
+  }
+
+  @Test
+  public void testFrames() throws TTransportException {
+    TFramedBufferWriteTransport trans =
+        new TFramedBufferWriteTransport(null, new UnpooledBufferPool(), 16);
+    trans.write(bytes(5));
+    trans.flush();
+    trans.write(ByteBuffer.wrap(bytes(3)));
+    trans.flush();
+    // not flushed, so left out
+    trans.write(bytes(7));
+
+    ByteBuffer frames = trans.takeFrames();
+    assertEquals(0, frames.position());
+    assertArrayEquals(framed(bytes(5), bytes(3)), remaining(frames));
+    assertNull(trans.takeFrames());
+  }
+
+  @Test
+  public void testGrowsIntoPooledBuffers() throws TTransportException {
+    SizeClassedBufferPool pool = new SizeClassedBufferPool(true, 1 << 16, 1 << 20, 0);
+    TFramedBufferWriteTransport trans = new TFramedBufferWriteTransport(null, pool, 64);
+    for (int i = 0; i < 10; i++) {
+      trans.write(bytes(100));
+    }
+    trans.flush();
+
+    ByteBuffer frames = trans.takeFrames();
+    assertFalse(frames.hasArray());
+    assertEquals(1004, frames.remaining());
+    assertEquals(1000, frames.getInt(0));
+    // the buffers it has outgrown went back to the pool
+    long outgrown = pool.getPooledBytes();
+    assertTrue(outgrown > 0);
+
+    pool.release(frames);
+    assertEquals(outgrown + frames.capacity(), pool.getPooledBytes());
+  }
+
+  @Test
+  public void testNothingFlushed() throws TTransportException {
+    SizeClassedBufferPool pool = new SizeClassedBufferPool(false, 1 << 16, 1 << 20, 0);
+    TFramedBufferWriteTransport trans = new TFramedBufferWriteTransport(null, pool, 64);
+    assertNull(trans.takeFrames());
+
+    trans.write(bytes(10));
+    assertNull(trans.takeFrames());
+    assertEquals(64, pool.getPooledBytes());
+
+    trans.write(bytes(10));
+    trans.discard();
+    trans.write(bytes(2));
+    trans.flush();
+    assertArrayEquals(framed(bytes(2)), remaining(trans.takeFrames()));
+  }
+}
@@ -31,6 +31,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import org.apache.thrift.transport.layered.TFastFramedTransport;
 import org.apache.thrift.transport.layered.TFramedTransport;
 import org.junit.jupiter.api.Test;
@@ -151,6 +152,34 @@ public class TestTFramedTransport {
     assertArrayEquals(byteSequence(0, 245), buf);
   }
 
+  @Test
+  public void testReserveWrite() throws TTransportException, IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    TTransport trans = getTransport(new TIOStreamTransport(baos));
+
+    trans.write(byteSequence(0, 9));
+    byte[] buf = trans.reserveWriteBuffer(300);
+    int off = trans.getWriteBufferPosition();
+    System.arraycopy(byteSequence(10, 255), 0, buf, off, 246);
+    trans.commitWriteBuffer(246);
+
+    buf = trans.reserveWriteBuffer(4);
+    off = trans.getWriteBufferPosition();
+    buf[off] = 1;
+    buf[off + 1] = 2;
+    trans.commitWriteBuffer(2);
+    trans.write(byteSequence(3, 4));
+    trans.flush();
+
+    DataInputStream din = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+    assertEquals(260, din.readInt());
+    byte[] frame = new byte[260];
+    din.readFully(frame);
+    assertArrayEquals(byteSequence(0, 255), Arrays.copyOfRange(frame, 0, 256));
+    assertArrayEquals(byteSequence(1, 4), Arrays.copyOfRange(frame, 256, 260));
+    assertEquals(-1, din.read());
+  }
+
   @Test
   public void testDirectRead() throws IOException, TTransportException {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.junit.jupiter.api.Test;
+
+public class TestTSizingTransport {
+
+  @Test
+  public void testCountsWrites() throws Exception {
+    TSizingTransport trans = new TSizingTransport();
+    trans.write(new byte[10], 2, 5);
+    trans.write(ByteBuffer.allocateDirect(7));
+    byte[] buf = trans.reserveWriteBuffer(100);
+    assertEquals(0, trans.getWriteBufferPosition());
+    buf[99] = 1;
+    trans.commitWriteBuffer(100);
+    assertEquals(112, trans.getSize());
+
+    trans.reset();
+    assertEquals(0, trans.getSize());
+  }
+
+  @Test
+  public void testMeasuresProtocols() throws Exception {
+    char[] chars = new char[20000];
+    Arrays.fill(chars, 'é');
+    String[] strings = {"", "short", "ascii, and then €😀", new String(chars)};
+    for (TProtocolFactory factory :
+        new TProtocolFactory[] {
+          new TBinaryProtocol.Factory(), new TCompactProtocol.Factory(), new TJSONProtocol.Factory()
+        }) {
+      for (String string : strings) {
+        TMemoryBuffer buf = new TMemoryBuffer(0);
+        write(factory.getProtocol(buf), string);
+        TSizingTransport trans = new TSizingTransport();
+        write(factory.getProtocol(trans), string);
+        assertEquals(buf.length(), trans.getSize());
+      }
+    }
+  }
+
+  private static void write(TProtocol proto, String string) throws TException {
+    proto.writeStructBegin(new TStruct());
+    proto.writeFieldBegin(new TField("", TType.I64, (short) 1));
+    proto.writeI64(-1234567890123L);
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("", TType.STRING, (short) 2));
+    proto.writeString(string);
+    proto.writeFieldEnd();
+    proto.writeFieldBegin(new TField("", TType.LIST, (short) 30));
+    proto.writeListBegin(new TList(TType.STRING, 2));
+    proto.writeBinary(ByteBuffer.wrap(new byte[300]));
+    proto.writeBinary(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+    proto.writeListEnd();
+    proto.writeFieldEnd();
+    proto.writeFieldStop();
+    proto.writeStructEnd();
+  }
+}
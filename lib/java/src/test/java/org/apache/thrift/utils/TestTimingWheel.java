@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class TestTimingWheel {
+
+  @Test
+  public void testExpiresOnDeadline() {
+    TimingWheel<String> wheel = new TimingWheel<>(10, 1000);
+    wheel.schedule("b", 1100);
+    wheel.schedule("a", 1055);
+    List<String> expired = new ArrayList<>();
+
+    assertEquals(0, wheel.expire(1059, expired::add));
+    assertEquals(1, wheel.expire(1060, expired::add));
+    assertEquals(1, wheel.size());
+    assertEquals(1, wheel.expire(1100, expired::add));
+    assertEquals(Arrays.asList("a", "b"), expired);
+    assertTrue(wheel.isEmpty());
+  }
+
+  @Test
+  public void testPastDeadlineExpiresOnNextTick() {
+    TimingWheel<String> wheel = new TimingWheel<>(10, 1000);
+    wheel.schedule("late", 500);
+    List<String> expired = new ArrayList<>();
+    assertEquals(0, wheel.expire(1009, expired::add));
+    assertEquals(1, wheel.expire(1010, expired::add));
+    assertEquals(Arrays.asList("late"), expired);
+  }
+
+  @Test
+  public void testCancel() {
+    TimingWheel<String> wheel = new TimingWheel<>(1, 0);
+    TimingWheel.Timeout<String> timeout = wheel.schedule("x", 5);
+    wheel.schedule("y", 5);
+    assertTrue(timeout.isPending());
+    assertTrue(timeout.cancel());
+    assertFalse(timeout.isPending());
+    assertFalse(timeout.cancel());
+    assertEquals(1, wheel.size());
+
+    List<String> expired = new ArrayList<>();
+    wheel.expire(10, expired::add);
+    assertEquals(Arrays.asList("y"), expired);
+  }
+
+  @Test
+  public void testRandomDeadlinesAcrossLevels() {
+    // a small wheel, so that deadlines cascade through every level and beyond its range
+    TimingWheel<Long> wheel = new TimingWheel<>(1, 4, 0);
+    Random random = new Random(42);
+    int expected = 0;
+    for (int i = 0; i < 2000; i++) {
+      long deadline = random.nextInt(2000);
+      TimingWheel.Timeout<Long> timeout = wheel.schedule(deadline, deadline);
+      if (i % 3 == 0) {
+        timeout.cancel();
+      } else {
+        expected++;
+      }
+    }
+
+    List<Long> expired = new ArrayList<>();
+    long now = 0;
+    while (!wheel.isEmpty()) {
+      now += random.nextInt(7);
+      expired.clear();
+      wheel.expire(now, expired::add);
+      for (long deadline : expired) {
+        assertTrue(deadline <= now, deadline + " expired early at " + now);
+        assertTrue(deadline > now - 7, deadline + " expired late at " + now);
+      }
+      expected -= expired.size();
+    }
+    assertEquals(0, expected);
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.jupiter.api.Test;
+
+public class TestUtf8 {
+
+  private static final String[] STRINGS = {
+    "",
+    "plain ascii",
+    "café naïve",
+    "☃ snowman",
+    "😀 emoji 🎉",
+    "unpaired \ud800 high",
+    "unpaired \udc00 low",
+    "reversed \udc00\ud800 pair",
+    "trailing high \ud83d",
+    "\u007f\u0080\u07ff\u0800\uffff",
+  };
+
+  @Test
+  public void testSameAsGetBytes() {
+    for (String str : STRINGS) {
+      assertEncodesLikeGetBytes(str);
+    }
+  }
+
+  @Test
+  public void testRandomStrings() {
+    Random random = new Random(42);
+    for (int n = 0; n < 1000; n++) {
+      char[] chars = new char[random.nextInt(64)];
+      for (int i = 0; i < chars.length; i++) {
+        // favour the boundaries between encodings and the surrogates
+        switch (random.nextInt(4)) {
+          case 0:
+            chars[i] = (char) random.nextInt(0x100);
+            break;
+          case 1:
+            chars[i] = (char) (0xd800 + random.nextInt(0x800));
+            break;
+          default:
+            chars[i] = (char) random.nextInt(0x10000);
+        }
+      }
+      assertEncodesLikeGetBytes(new String(chars));
+    }
+  }
+
+  @Test
+  public void testWriteInPieces() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      sb.append("xé☃😀");
+    }
+    String str = sb.toString();
+    byte[] expected = str.getBytes(StandardCharsets.UTF_8);
+    for (int scratchSize : new int[] {6, 7, 8, 100, 1024}) {
+      TMemoryBuffer trans = new TMemoryBuffer(0);
+      Utf8.write(str, new byte[scratchSize], trans);
+      assertArrayEquals(expected, Arrays.copyOf(trans.getArray(), trans.length()));
+    }
+  }
+
+  private static void assertEncodesLikeGetBytes(String str) {
+    byte[] expected = str.getBytes(StandardCharsets.UTF_8);
+    assertEquals(expected.length, Utf8.encodedLength(str), str);
+    byte[] buf = new byte[expected.length + 2];
+    assertEquals(expected.length + 1, Utf8.encode(str, buf, 1));
+    assertArrayEquals(expected, Arrays.copyOfRange(buf, 1, expected.length + 1), str);
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+// Generated with the raw_fields option, see TestRawFields
+
+namespace java thrift.test
+
+struct RawPayload {
+  1: i32 id
+  2: string name
+  3: list<i64> values
+}
+
+// The same fields as RawEnvelope, decoded
+struct DecodedEnvelope {
+  1: string route
+  2: required RawPayload payload
+  3: list<RawPayload> items
+  4: map<string, i32> attrs
+  5: optional RawPayload extra
+  6: set<i64> ids
+}
+
+struct RawEnvelope {
+  1: string route
+  2: required RawPayload payload (java.raw)
+  3: list<RawPayload> items (java.raw)
+  4: map<string, i32> attrs (java.raw)
+  5: optional RawPayload extra (java.raw)
+  6: set<i64> ids (java.raw)
+}
+
+service RawRouter {
+  i32 forward(1: string route, 2: RawPayload payload (java.raw))
+}